@@ -49,6 +49,8 @@ public class Aardvarc {
     private boolean doMERIS;
     private double[] pSpec;
     private boolean failed;
+    private boolean pruned;
+    private double pruneThreshold = Double.POSITIVE_INFINITY;
     private Powell powell;
 
     //for debugging
@@ -382,6 +384,23 @@ public class Aardvarc {
     private float invInterpol(float[][] lutRefl, float tau, float toaRefl) {
         float[] toaAtTau = new float[albDim.length]; // contains toaRefl(albedo) interpolated to tau
 
+        final int iAot = findAotIndex(aotDim, tau);
+        for (int j = 0; j < albDim.length; j++) {
+            toaAtTau[j] = interpolateAot(aotDim, iAot, lutRefl[j][iAot], lutRefl[j][iAot + 1], tau);
+        }
+
+        return invertToaAtAot(albDim, toaAtTau, toaRefl);
+    }
+
+    /**
+     * This method finds the lower index of the AOT interval used to interpolate to tau.
+     * Values outside the range of aotDim will be extrapolated from the first or last interval.
+     *
+     * @param aotDim - AOT nodes of the LUT
+     * @param tau - AOT
+     * @return int
+     */
+    static int findAotIndex(float[] aotDim, float tau) {
         // find closest index iAot in aotDim corresponding to tau
         // values outside the range will be extrapolated linearly (which should not happen in general case)
         int iAot = aotDim.length - 1;
@@ -395,11 +414,33 @@ public class Aardvarc {
             while ((iAot >= 0) && (aotDim[iAot] >= tau)) iAot--;
             if (iAot == -1) iAot++; //happens only if tau == aotDim[0]
         }
-        for (int j = 0; j < albDim.length; j++) {
-            toaAtTau[j] = lutRefl[j][iAot] + (lutRefl[j][iAot + 1] - lutRefl[j][iAot]) / (aotDim[iAot + 1] - aotDim[iAot]) * (tau - aotDim[iAot]);
-        }
-        
-        
+        return iAot;
+    }
+
+    /**
+     * This method interpolates a LUT value linearly to tau.
+     *
+     * @param aotDim - AOT nodes of the LUT
+     * @param iAot - lower index of the AOT interval, see {@link #findAotIndex(float[], float)}
+     * @param value0 - LUT value at aotDim[iAot]
+     * @param value1 - LUT value at aotDim[iAot+1]
+     * @param tau - AOT
+     * @return float
+     */
+    static float interpolateAot(float[] aotDim, int iAot, float value0, float value1, float tau) {
+        return value0 + (value1 - value0) / (aotDim[iAot + 1] - aotDim[iAot]) * (tau - aotDim[iAot]);
+    }
+
+    /**
+     * This method provides the surface reflectance (in terms of an albedo value)
+     * for a given TOA reflectance from the LUT reflectances at the retrieved AOT.
+     *
+     * @param albDim - albedo nodes of the LUT
+     * @param toaAtTau - TOA reflectance per albedo node, interpolated to the AOT
+     * @param toaRefl - TOA reflectance
+     * @return float
+     */
+    static float invertToaAtAot(float[] albDim, float[] toaAtTau, float toaRefl) {
         // find the albedo value corresponding to the given TOA reflectance
         int j = albDim.length - 1;
         if (toaAtTau[albDim.length-1] < toaRefl) {
@@ -468,6 +509,9 @@ public class Aardvarc {
     /**
      * This method computes the optimal AOT at 550nm between 0.0 and 2.0
      * by using Brent's method.
+     * If a prune threshold is set and the error metric stays above it, the search is
+     * stopped early and {@link #isPruned()} returns true; the retrieval error is not
+     * computed in that case.
      *
      */
     public void runAarvarc() {
@@ -476,11 +520,19 @@ public class Aardvarc {
         // and angular only when ndiv < 0.5
         setAngularWeight();
         failed = false;
-        
-        final Brent b = new Brent(0.0, 0.1, 2.0, new emodSyn(), 5e-4);
+        pruned = false;
+
+        final Brent b = new Brent();
+        b.setAbortThreshold(pruneThreshold);
+        b.brent(0.0, 0.1, 2.0, new emodSyn(), 5e-4);
         optAOT = (float) b.getXmin();
         optErr = (float) b.getFx();
-        retrievalErr = calcRetrievalErr();
+        if (b.isAborted()) {
+            pruned = true;
+            retrievalErr = Float.NaN;
+        } else {
+            retrievalErr = calcRetrievalErr();
+        }
     }
 
     private void setAngularWeight() {
@@ -579,6 +631,20 @@ public class Aardvarc {
         return failed;
     }
 
+    public boolean isPruned() {
+        return pruned;
+    }
+
+    /**
+     * Sets the error metric above which the AOT search may be abandoned,
+     * e.g. the best error metric of another aerosol model for the same pixel.
+     *
+     * @param pruneThreshold - the threshold, {@link Double#POSITIVE_INFINITY} disables pruning
+     */
+    public void setPruneThreshold(double pruneThreshold) {
+        this.pruneThreshold = pruneThreshold;
+    }
+
     public void setDoAATSR(boolean doAATSR) {
         this.doAATSR = doAATSR;
     }
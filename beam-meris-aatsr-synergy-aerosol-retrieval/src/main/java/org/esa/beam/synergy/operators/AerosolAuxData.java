@@ -19,6 +19,12 @@ import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Class providing aerosol retrieval auxdata.
@@ -148,84 +154,127 @@ public class AerosolAuxData {
      * @throws IOException
      */
     public SynergyLookupTable[][] createAerosolOceanLookupTables(String inputPath, List<Integer> modelIndices, float[] wvl, int[] wvlIndex) throws IOException {
+        return createAerosolOceanLookupTables(inputPath, modelIndices, wvl, wvlIndex, null,
+                                              SynergyLookupTable.Encoding.FULL);
+    }
+
+    /**
+     *
+     * This method reads all LUT files for ocean aerosol retrieval and creates
+     * corresponding {@link SynergyLookupTable} objects, restricted to the ranges needed for a scene.
+     * The files are read concurrently.
+     *
+     * @param inputPath - file input path
+     * @param modelIndices - aerosol model indices
+     * @param wvl - array with wavelengths
+     * @param wvlIndex - wavelengths index
+     * @param sceneRanges - scene ranges per wavelength index, or null for the complete LUTs
+     * @param encoding - storage encoding of the LUT values
+     * @return  LookupTable[][]
+     * @throws IOException
+     */
+    public SynergyLookupTable[][] createAerosolOceanLookupTables(String inputPath, List<Integer> modelIndices, float[] wvl, int[] wvlIndex,
+                                                                 LutSceneRange[] sceneRanges,
+                                                                 SynergyLookupTable.Encoding encoding) throws IOException {
+        return new OceanLookupTables(inputPath, modelIndices, wvl, wvlIndex, sceneRanges, encoding).loadAll();
+    }
 
+    /**
+     * This method reads one LUT file for ocean aerosol retrieval and creates the
+     * corresponding {@link SynergyLookupTable}.
+     *
+     * @param inputPath - file input path
+     * @param modelIndex - aerosol model index
+     * @param wvl - wavelength
+     * @param sceneRange - scene ranges, or null for the complete LUT
+     * @param encoding - storage encoding of the LUT values
+     * @return LookupTable
+     * @throws IOException
+     */
+    public SynergyLookupTable createAerosolOceanLookupTable(String inputPath, int modelIndex, float wvl,
+                                                            LutSceneRange sceneRange,
+                                                            SynergyLookupTable.Encoding encoding) throws IOException {
         final DecimalFormat df2 = new DecimalFormat("00");
         final DecimalFormat df5 = new DecimalFormat("00000");
+        final String sb2=(df2.format((long)modelIndex));
+        final String sb5=(df5.format((long)wvl));
+        final String inputFileString = "aer" + sb2 + "_wvl" + sb5 + ".nc";
 
-        final int nModels = modelIndices.size();
-        final int nWvl = wvlIndex.length;
-        SynergyLookupTable[][] aerosolLookupTables = new SynergyLookupTable[nModels][nWvl];
-        for (int i=0; i<nModels; i++) {
-            for (int j=0; j<nWvl; j++) {
-                final String sb2=(df2.format((long)modelIndices.get(i)));
-                final String sb5=(df5.format((long)wvl[wvlIndex[j]]));
-                final String inputFileString = "aer" + sb2 + "_wvl" + sb5 + ".nc";
-
-                try {
-                    final NetcdfFile netcdfFile = NetcdfFile.open(inputPath + File.separator + inputFileString);
-
-                    // the variables in the netcdf file are defined like this (as obtained from an ncdump):
-                    //       float PRS(ANG_dimension_1=3);
-                    //       float TAU(ANG_dimension_1=9);
-                    //       float WSP(ANG_dimension_1=8);
-                    //       float SUN(ANG_dimension_1=14);
-                    //       float VIE(ANG_dimension_1=11);
-                    //       float AZI(ANG_dimension_1=19);
-                    //       float DATA(ANG_dimension_1=3, ANG_dimension_2=9, ANG_dimension_3=8,
-                    //                  ANG_dimension_4=14, ANG_dimension_5=11, ANG_dimension_6=19);
-
-                    final Variable prs = netcdfFile.findVariable("PRS");
-                    final Variable tau = netcdfFile.findVariable("TAU");
-                    final Variable wsp = netcdfFile.findVariable("WSP");
-                    final Variable sun = netcdfFile.findVariable("SUN");
-                    final Variable vie = netcdfFile.findVariable("VIE");
-                    final Variable azi = netcdfFile.findVariable("AZI");
-                    final Variable data = netcdfFile.findVariable("DATA");
-
-                    final float[] prsArray = getJavaFloat1DFromNetcdfVariable(prs);
-                    for (int k=0; k<prsArray.length; k++) {
-                        // take negative value to get increasing sequence for LUT creation
-                        prsArray[k] = -prsArray[k];
-                    }
-                    final float[] tauArray = getJavaFloat1DFromNetcdfVariable(tau);
-                    final float[] wspArray = getJavaFloat1DFromNetcdfVariable(wsp);
-                    final float[] sunArray = getJavaFloat1DFromNetcdfVariable(sun);
-                    final float[] vieArray = getJavaFloat1DFromNetcdfVariable(vie);
-                    final float[] aziArray = getJavaFloat1DFromNetcdfVariable(azi);
-
-                    final Array dataArrayNc = data.read();
-                    int dataSize = 1;
-                    for (int k=0; k<6; k++) {
-                        dataSize *= data.getDimension(k).getLength();
-                    }
-                    final Object storage = dataArrayNc.getStorage();
-                    float[] dataArray = new float[dataSize];
-                    System.arraycopy(storage, 0, dataArray, 0, dataSize);
+        SynergyLookupTable lookupTable;
+        final NetcdfFile netcdfFile = NetcdfFile.open(inputPath + File.separator + inputFileString);
+        try {
+            // the variables in the netcdf file are defined like this (as obtained from an ncdump):
+            //       float PRS(ANG_dimension_1=3);
+            //       float TAU(ANG_dimension_1=9);
+            //       float WSP(ANG_dimension_1=8);
+            //       float SUN(ANG_dimension_1=14);
+            //       float VIE(ANG_dimension_1=11);
+            //       float AZI(ANG_dimension_1=19);
+            //       float DATA(ANG_dimension_1=3, ANG_dimension_2=9, ANG_dimension_3=8,
+            //                  ANG_dimension_4=14, ANG_dimension_5=11, ANG_dimension_6=19);
+
+            final Variable prs = netcdfFile.findVariable("PRS");
+            final Variable tau = netcdfFile.findVariable("TAU");
+            final Variable wsp = netcdfFile.findVariable("WSP");
+            final Variable sun = netcdfFile.findVariable("SUN");
+            final Variable vie = netcdfFile.findVariable("VIE");
+            final Variable azi = netcdfFile.findVariable("AZI");
+            final Variable data = netcdfFile.findVariable("DATA");
+
+            final float[] prsArray = getJavaFloat1DFromNetcdfVariable(prs);
+            for (int k=0; k<prsArray.length; k++) {
+                // take negative value to get increasing sequence for LUT creation
+                prsArray[k] = -prsArray[k];
+            }
+            final float[] tauArray = getJavaFloat1DFromNetcdfVariable(tau);
+            final float[] wspArray = getJavaFloat1DFromNetcdfVariable(wsp);
+            final float[] sunArray = getJavaFloat1DFromNetcdfVariable(sun);
+            final float[] vieArray = getJavaFloat1DFromNetcdfVariable(vie);
+            final float[] aziArray = getJavaFloat1DFromNetcdfVariable(azi);
+
+            final Array dataArrayNc = data.read();
+            int dataSize = 1;
+            for (int k=0; k<6; k++) {
+                dataSize *= data.getDimension(k).getLength();
+            }
+            final float[] dataArray = getJavaFloatStorage(dataArrayNc, dataSize);
 
-                    // set up LUT
-                    final IntervalPartition[] dimensions = IntervalPartition.createArray(
-                            aziArray, vieArray, sunArray, wspArray, tauArray, prsArray);
+            // set up LUT
+            final IntervalPartition[] dimensions = IntervalPartition.createArray(
+                    aziArray, vieArray, sunArray, wspArray, tauArray, prsArray);
 
-                    aerosolLookupTables[i][j] = new SynergyLookupTable(dataArray, dimensions);
-                } catch (UnsupportedEncodingException e) {
-                    throw new OperatorException("Failed to read aerosol properties from netcdf file.\n");
-                }
+            lookupTable = new SynergyLookupTable(dataArray, dimensions);
+            if (sceneRange != null) {
+                final int[][] ranges = lookupTable.getIndexRanges(sceneRange.getMin(), sceneRange.getMax(),
+                                                                  LutSceneRange.MARGIN);
+                lookupTable = lookupTable.getSubTable(ranges[0], ranges[1]);
             }
+            lookupTable = lookupTable.getEncodedTable(encoding);
+        } catch (UnsupportedEncodingException e) {
+            throw new OperatorException("Failed to read aerosol properties from netcdf file.\n");
+        } finally {
+            netcdfFile.close();
         }
 
-        return aerosolLookupTables;
+        return lookupTable;
     }
 
-    private float[] getJavaFloat1DFromNetcdfVariable(Variable f) throws IOException {
-        final Array fArrayNc = f.read();
-        final int fSize = (int) fArrayNc.getSize();
+    private float[] getJavaFloatStorage(Array fArrayNc, int fSize) {
         final Object storage = fArrayNc.getStorage();
+        if (storage instanceof float[] && ((float[]) storage).length == fSize) {
+            // the array was just read, so its storage can be used directly
+            return (float[]) storage;
+        }
         final float[] fArray = new float[fSize];
         System.arraycopy(storage, 0, fArray, 0, fSize);
-
         return fArray;
     }
 
+    private float[] getJavaFloat1DFromNetcdfVariable(Variable f) throws IOException {
+        final Array fArrayNc = f.read();
+        return getJavaFloatStorage(fArrayNc, (int) fArrayNc.getSize());
+    }
+
     private float[][] getJavaFloat2DFromNetcdfVariable(Variable f) throws IOException {
         float[][] result;
 
@@ -248,6 +297,129 @@ public class AerosolAuxData {
         return result;
     }
 
+    /**
+     * The ocean aerosol LUTs of a set of aerosol models and wavelengths. The LUT files are either
+     * read all at once and concurrently ({@link #loadAll()}), or each on first use ({@link #get(int, int)}).
+     */
+    public class OceanLookupTables {
+        private final String inputPath;
+        private final List<Integer> modelIndices;
+        private final float[] wvl;
+        private final int[] wvlIndex;
+        private final LutSceneRange[] sceneRanges;
+        private final SynergyLookupTable.Encoding encoding;
+        // read without locking on the per-pixel lookups, the locks only guard the reading of a LUT file
+        private final AtomicReferenceArray<SynergyLookupTable> tables;
+        private final Object[] locks;
+
+        /**
+         * @param inputPath - file input path
+         * @param modelIndices - aerosol model indices
+         * @param wvl - array with wavelengths
+         * @param wvlIndex - wavelengths index
+         * @param sceneRanges - scene ranges per wavelength index, or null for the complete LUTs
+         * @param encoding - storage encoding of the LUT values
+         */
+        public OceanLookupTables(String inputPath, List<Integer> modelIndices, float[] wvl, int[] wvlIndex,
+                                 LutSceneRange[] sceneRanges, SynergyLookupTable.Encoding encoding) {
+            this.inputPath = inputPath;
+            this.modelIndices = modelIndices;
+            this.wvl = wvl;
+            this.wvlIndex = wvlIndex;
+            this.sceneRanges = sceneRanges;
+            this.encoding = encoding;
+            tables = new AtomicReferenceArray<SynergyLookupTable>(modelIndices.size() * wvlIndex.length);
+            locks = new Object[tables.length()];
+            for (int k=0; k<locks.length; k++) {
+                locks[k] = new Object();
+            }
+        }
+
+        /**
+         * Returns the LUT of a model and wavelength, the LUT file is read on first use.
+         *
+         * @param i - index in the model indices
+         * @param j - index in the wavelengths index
+         * @return LookupTable
+         * @throws OperatorException if the LUT file cannot be read
+         */
+        public SynergyLookupTable get(int i, int j) throws OperatorException {
+            try {
+                return getTable(i, j);
+            } catch (IOException e) {
+                throw new OperatorException("Failed to create aerosol lookup tables:\n" + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Reads all LUT files not yet read, concurrently.
+         *
+         * @return LookupTable[][]
+         * @throws IOException
+         */
+        public SynergyLookupTable[][] loadAll() throws IOException {
+            final int nThreads = Math.min(tables.length(), Runtime.getRuntime().availableProcessors());
+            final ExecutorService executor = Executors.newFixedThreadPool(Math.max(nThreads, 1));
+            try {
+                final List<Future<SynergyLookupTable>> futures = new ArrayList<Future<SynergyLookupTable>>();
+                for (int i=0; i<modelIndices.size(); i++) {
+                    for (int j=0; j<wvlIndex.length; j++) {
+                        final int iModel = i;
+                        final int iWvl = j;
+                        futures.add(executor.submit(new Callable<SynergyLookupTable>() {
+                            @Override
+                            public SynergyLookupTable call() throws IOException {
+                                return getTable(iModel, iWvl);
+                            }
+                        }));
+                    }
+                }
+                for (Future<SynergyLookupTable> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new OperatorException("Interrupted while reading aerosol lookup tables.", e);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new OperatorException(cause.getMessage(), cause);
+            } finally {
+                executor.shutdownNow();
+            }
+            final SynergyLookupTable[][] allTables = new SynergyLookupTable[modelIndices.size()][wvlIndex.length];
+            for (int i=0; i<allTables.length; i++) {
+                for (int j=0; j<wvlIndex.length; j++) {
+                    allTables[i][j] = tables.get(i * wvlIndex.length + j);
+                }
+            }
+            return allTables;
+        }
+
+        private SynergyLookupTable getTable(int i, int j) throws IOException {
+            final int k = i * wvlIndex.length + j;
+            SynergyLookupTable table = tables.get(k);
+            if (table == null) {
+                synchronized (locks[k]) {
+                    table = tables.get(k);
+                    if (table == null) {
+                        final LutSceneRange sceneRange = (sceneRanges != null) ? sceneRanges[j] : null;
+                        table = createAerosolOceanLookupTable(inputPath, modelIndices.get(i), wvl[wvlIndex[j]],
+                                                              sceneRange, encoding);
+                        tables.set(k, table);
+                    }
+                }
+            }
+            return table;
+        }
+    }
+
     public class AerosolClassTable {
         private String[] className = new String[AEROSOL_CLASS_TABLE_MAXLENGTH];
 
@@ -32,6 +32,9 @@ import java.util.Map;
                   description = "AOT extrapolation of missing data.", internal = true)
 public class AotExtrapOp extends Operator {
 
+    // box averages applied in turn, after a first 3 x 3 average
+    private static final int[] AVE_BLOCKS = {3, 3, 3, 3, 3, 5, 7, 9, 11, 13, 15, 17, 19, 21};
+
     @SourceProduct(alias = "synergy",
                    label = "Name (Synergy cloud srceening product)",
                    description = "Select a Synergy aerosol product.")
@@ -60,8 +63,7 @@ public class AotExtrapOp extends Operator {
         aveParam.put("aveBlock", 3);
         aveAotProd = GPF.createProduct(OperatorSpi.getOperatorAlias(BoxAveOp.class), aveParam, aveInputProd);
 
-        final int[] aveBlocks = {3, 3, 3, 3, 3, 5, 7, 9, 11, 13, 15, 17, 19, 21};
-        for (int block : aveBlocks) {
+        for (int block : AVE_BLOCKS) {
             aveInputProd.put("source", aveAotProd);
             aveParam.put("aveBlock", block);
             aveAotProd = GPF.createProduct(OperatorSpi.getOperatorAlias(BoxAveOp.class), aveParam, aveInputProd);
@@ -93,6 +95,21 @@ public class AotExtrapOp extends Operator {
 
     }
 
+    /**
+     * This method provides the distance (pixels of the downscaled aerosol grid) up to which source pixels
+     * contribute to a target pixel, through the box averages and the 3 x 3 median of {@link MedianOp}.
+     *
+     * @return the halo size
+     */
+    public static int getHaloSize() {
+        // first 3 x 3 average and median
+        int halo = 1 + 1;
+        for (int block : AVE_BLOCKS) {
+            halo += block / 2;
+        }
+        return halo;
+    }
+
     public static class Spi extends OperatorSpi {
 
         public Spi() {
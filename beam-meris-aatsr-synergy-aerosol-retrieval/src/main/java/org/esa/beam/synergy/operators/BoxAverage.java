@@ -0,0 +1,247 @@
+package org.esa.beam.synergy.operators;
+
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.RasterDataNode;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.Tile;
+
+import java.awt.Rectangle;
+
+/**
+ * Access to a source raster averaged over the pixel boxes of a downscaled (aerosol) grid.
+ * The box of target pixel (iX, iY) is centred at source pixel
+ * (stride * iX + halfWidth, stride * iY + halfWidth) and clipped to the scene; no-data
+ * samples are not counted.
+ * <p/>
+ * The average is either computed from a full resolution source tile, or read from the
+ * means and valid pixel counts of the shared {@link DownscaleOp} product. Both give identical values.
+ */
+public abstract class BoxAverage {
+
+    /**
+     * This method provides the box average.
+     *
+     * @param iX       - target x
+     * @param iY       - target y
+     * @param minCount - minimum number of valid pixels in the box
+     * @return the average, or the no-data value of the raster if there are less valid pixels
+     */
+    public abstract double getMean(int iX, int iY, int minCount);
+
+    /**
+     * This method provides the sample at the box centre.
+     *
+     * @param iX - target x
+     * @param iY - target y
+     * @return float
+     */
+    public abstract float getCenterSampleFloat(int iX, int iY);
+
+    /**
+     * This method provides a bit of the sample at the box centre.
+     *
+     * @param iX  - target x
+     * @param iY  - target y
+     * @param bit - the bit index
+     * @return boolean
+     */
+    public abstract boolean getCenterSampleBit(int iX, int iY, int bit);
+
+    /**
+     * Box average computed from a full resolution source tile.
+     */
+    public static class FullResolution extends BoxAverage {
+        private final Tile sourceTile;
+        private final int stride;
+        private final int halfWidth;
+        private final int sceneWidth;
+        private final int sceneHeight;
+
+        /**
+         * @param sourceTile  - source tile covering the boxes of the target pixels
+         * @param stride      - distance of neighbouring box centres (source pixels)
+         * @param halfWidth   - half box width (source pixels)
+         * @param sceneWidth  - source scene width
+         * @param sceneHeight - source scene height
+         */
+        public FullResolution(Tile sourceTile, int stride, int halfWidth, int sceneWidth, int sceneHeight) {
+            this.sourceTile = sourceTile;
+            this.stride = stride;
+            this.halfWidth = halfWidth;
+            this.sceneWidth = sceneWidth;
+            this.sceneHeight = sceneHeight;
+        }
+
+        @Override
+        public double getMean(int iX, int iY, int minCount) {
+            final int centerX = stride * iX + halfWidth;
+            final int centerY = stride * iY + halfWidth;
+            final int minX = Math.max(0, centerX - halfWidth);
+            final int minY = Math.max(0, centerY - halfWidth);
+            final int maxX = Math.min(sceneWidth - 1, centerX + halfWidth);
+            final int maxY = Math.min(sceneHeight - 1, centerY + halfWidth);
+            final double noDataValue = sourceTile.getRasterDataNode().getNoDataValue();
+
+            double value = 0;
+            int n = 0;
+            for (int y = minY; y <= maxY; y++) {
+                for (int x = minX; x <= maxX; x++) {
+                    final double val = sourceTile.getSampleDouble(x, y);
+                    if (Double.compare(val, noDataValue) != 0) {
+                        n++;
+                        value += val;
+                    }
+                }
+            }
+            return (n < minCount) ? noDataValue : value / n;
+        }
+
+        @Override
+        public float getCenterSampleFloat(int iX, int iY) {
+            return sourceTile.getSampleFloat(getCenterX(iX), getCenterY(iY));
+        }
+
+        @Override
+        public boolean getCenterSampleBit(int iX, int iY, int bit) {
+            return sourceTile.getSampleBit(getCenterX(iX), getCenterY(iY), bit);
+        }
+
+        private int getCenterX(int iX) {
+            return Math.min(stride * iX + halfWidth, sceneWidth - 1);
+        }
+
+        private int getCenterY(int iY) {
+            return Math.min(stride * iY + halfWidth, sceneHeight - 1);
+        }
+    }
+
+    /**
+     * Box average read from the {@link DownscaleOp} product.
+     */
+    public static class Downscaled extends BoxAverage {
+        private final Tile meanTile;
+        private final Tile countTile;
+        private final Tile centerTile;
+
+        /**
+         * @param meanTile   - tile of the mean band, may be null if only centre samples are needed
+         * @param countTile  - tile of the valid pixel count band, may be null if only centre samples are needed
+         * @param centerTile - tile of the centre sample band, may be null if only means are needed
+         */
+        public Downscaled(Tile meanTile, Tile countTile, Tile centerTile) {
+            this.meanTile = meanTile;
+            this.countTile = countTile;
+            this.centerTile = centerTile;
+        }
+
+        @Override
+        public double getMean(int iX, int iY, int minCount) {
+            if (countTile.getSampleInt(iX, iY) < minCount) {
+                return meanTile.getRasterDataNode().getNoDataValue();
+            }
+            return meanTile.getSampleDouble(iX, iY);
+        }
+
+        @Override
+        public float getCenterSampleFloat(int iX, int iY) {
+            return centerTile.getSampleFloat(iX, iY);
+        }
+
+        @Override
+        public boolean getCenterSampleBit(int iX, int iY, int bit) {
+            return centerTile.getSampleBit(iX, iY, bit);
+        }
+    }
+
+    /**
+     * Provides the box averages of the source rasters for one target tile, from the {@link DownscaleOp}
+     * product if there is one, else from the full resolution source tiles.
+     */
+    public static class TileFactory {
+        private final Operator operator;
+        private final Product downscaledProduct;
+        private final Rectangle targetRectangle;
+        private final Rectangle sourceRectangle;
+        private final int stride;
+        private final int halfWidth;
+        private final int sceneWidth;
+        private final int sceneHeight;
+
+        /**
+         * @param operator          - the operator requesting the source tiles
+         * @param sourceProduct     - the full resolution source product
+         * @param downscaledProduct - the {@link DownscaleOp} product, or null
+         * @param targetRectangle   - the target tile rectangle
+         * @param stride            - distance of neighbouring box centres (source pixels)
+         * @param halfWidth         - half box width (source pixels)
+         */
+        public TileFactory(Operator operator, Product sourceProduct, Product downscaledProduct,
+                           Rectangle targetRectangle, int stride, int halfWidth) {
+            this.operator = operator;
+            this.downscaledProduct = downscaledProduct;
+            this.targetRectangle = targetRectangle;
+            this.stride = stride;
+            this.halfWidth = halfWidth;
+            sceneWidth = sourceProduct.getSceneRasterWidth();
+            sceneHeight = sourceProduct.getSceneRasterHeight();
+            sourceRectangle = new Rectangle(stride * targetRectangle.x, stride * targetRectangle.y,
+                                            stride * targetRectangle.width, stride * targetRectangle.height);
+        }
+
+        public boolean isDownscaled() {
+            return downscaledProduct != null;
+        }
+
+        /**
+         * This method provides the box averages and centre samples of a source raster.
+         *
+         * @param raster - the source raster
+         * @return BoxAverage
+         */
+        public BoxAverage getBoxAverage(RasterDataNode raster) {
+            if (downscaledProduct == null) {
+                return createFullResolution(operator.getSourceTile(raster, sourceRectangle));
+            }
+            // flag rasters only have centre samples, and some rasters only means
+            final String name = raster.getName();
+            return new Downscaled(getOptionalDownscaledTile(name),
+                                  getOptionalDownscaledTile(DownscaleOp.getCountBandName(name)),
+                                  getOptionalDownscaledTile(DownscaleOp.getCenterBandName(name)));
+        }
+
+        /**
+         * This method provides the box averages of a view azimuth raster corrected for the azimuth
+         * discontinuity (see {@link GlintPreparation#correctViewAzimuthLinear}).
+         *
+         * @param raster        - the source raster
+         * @param correctedTile - the corrected full scene tile, only used without downscaled product
+         * @return BoxAverage
+         */
+        public BoxAverage getCorrectedAzimuthBoxAverage(RasterDataNode raster, Tile correctedTile) {
+            if (downscaledProduct == null) {
+                return createFullResolution(correctedTile);
+            }
+            final String name = DownscaleOp.getCorrectedBandName(raster.getName());
+            return new Downscaled(getDownscaledTile(name), getDownscaledTile(DownscaleOp.getCountBandName(name)), null);
+        }
+
+        /**
+         * This method provides a tile of a band of the {@link DownscaleOp} product.
+         *
+         * @param bandName - the band name
+         * @return Tile
+         */
+        public Tile getDownscaledTile(String bandName) {
+            return operator.getSourceTile(DownscaleOp.getBand(downscaledProduct, bandName), targetRectangle);
+        }
+
+        private Tile getOptionalDownscaledTile(String bandName) {
+            final RasterDataNode band = downscaledProduct.getBand(bandName);
+            return (band != null) ? operator.getSourceTile(band, targetRectangle) : null;
+        }
+
+        private BoxAverage createFullResolution(Tile sourceTile) {
+            return new FullResolution(sourceTile, stride, halfWidth, sceneWidth, sceneHeight);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package org.esa.beam.synergy.operators;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.datamodel.RasterDataNode;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.framework.gpf.OperatorSpi;
+import org.esa.beam.framework.gpf.Tile;
+import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
+import org.esa.beam.framework.gpf.annotations.Parameter;
+import org.esa.beam.framework.gpf.annotations.SourceProduct;
+import org.esa.beam.framework.gpf.annotations.TargetProduct;
+import org.esa.beam.synergy.util.AerosolHelpers;
+import org.esa.beam.synergy.util.MaskKernel;
+import org.esa.beam.synergy.util.SynergyConstants;
+import org.esa.beam.synergy.util.TileMask;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Operator downscaling the source rasters of the land and ocean aerosol retrievals
+ * ({@link RetrieveAerosolLandOp}, {@link RetrieveAerosolOceanOp}, {@link GlintAveOp}) to the aerosol grid.
+ * Each full resolution pixel is read and averaged once, and the retrievals read the (small) downscaled
+ * product instead of the full resolution source tiles, see {@link BoxAverage}.
+ * <p/>
+ * For each source raster the product contains the box mean (band named as the raster) and the
+ * number of valid pixels in the box ('_count'), so that each retrieval can apply its own minimum
+ * number of valid pixels. Rasters which are also sampled at the box centre have a '_center' band.
+ * The MERIS and AATSR nadir view azimuths are also averaged after the correction of the azimuth
+ * discontinuity ('_corrected'). The land and cloud fractions of the boxes follow the flag
+ * masks of the land retrieval.
+ */
+@OperatorMetadata(alias = "synergy.Downscale",
+                  version = "1.2",
+                  copyright = "(c) 2009 by Brockmann Consult",
+                  description = "Downscales the aerosol retrieval source rasters to the aerosol grid.", internal = true)
+public class DownscaleOp extends Operator {
+
+    @SourceProduct(alias = "source",
+                   label = "Name (Collocated MERIS AATSR product)",
+                   description = "Select a collocated MERIS AATSR product.")
+    private Product synergyProduct;
+
+    @TargetProduct(description = "The target product.")
+    private Product targetProduct;
+
+    @Parameter(defaultValue = "7", label = "Pixels to average (n x n) for AOD retrieval", interval = "[1, 100]")
+    private int aveBlock;
+
+    public static final String COUNT_BAND_SUFFIX = "_count";
+    public static final String CENTER_BAND_SUFFIX = "_center";
+    public static final String CORRECTED_BAND_SUFFIX = "_corrected";
+    public static final String LAND_FRACTION_BAND_NAME = "land_fraction";
+    public static final String CLOUD_FRACTION_BAND_NAME = "cloud_fraction";
+
+    private static final String MERIS_VIEW_AZIMUTH_NAME = "view_azimuth";
+    private static final String AATSR_VIEW_AZIMUTH_NADIR_NAME =
+            "view_azimuth_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR;
+
+    // the rasters of the ocean and glint retrievals which are not used over land
+    private static final String[] OCEAN_RASTER_NAMES = {
+            "zonal_wind", "merid_wind",
+            "radiance_13" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS,
+            "radiance_14" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS,
+            "radiance_15" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS,
+            "reflec_nadir_1600" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR,
+            "reflec_nadir_0870" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR,
+            "reflec_fward_1600" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR,
+            "reflec_fward_0870" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR,
+            "btemp_nadir_0370" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR,
+            "btemp_nadir_1100" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR,
+            "btemp_nadir_1200" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR
+    };
+
+    private int stride;
+    private int halfWidth;
+    private int rasterWidth;
+    private int rasterHeight;
+
+    private RasterDataNode[] meanRasters;
+    private RasterDataNode[] centerRasters;
+    private Tile[] correctedTiles;
+    private MaskKernel landKernel;
+    private MaskKernel cloudyKernel;
+
+    @Override
+    public void initialize() throws OperatorException {
+        stride = aveBlock;
+        halfWidth = aveBlock / 2;
+        rasterWidth = synergyProduct.getSceneRasterWidth();
+        rasterHeight = synergyProduct.getSceneRasterHeight();
+
+        // the rasters of the land retrieval...
+        final ArrayList<Band> merisBandList = new ArrayList<Band>();
+        final ArrayList<Band> aatsrBandList = new ArrayList<Band>();
+        AerosolHelpers.getSpectralBandList(synergyProduct, SynergyConstants.INPUT_BANDS_PREFIX_MERIS,
+                                           SynergyConstants.INPUT_BANDS_SUFFIX_MERIS,
+                                           SynergyConstants.EXCLUDE_INPUT_BANDS_MERIS, merisBandList);
+        AerosolHelpers.getSpectralBandList(synergyProduct, SynergyConstants.INPUT_BANDS_PREFIX_AATSR_NAD,
+                                           SynergyConstants.INPUT_BANDS_SUFFIX_AATSR,
+                                           SynergyConstants.EXCLUDE_INPUT_BANDS_AATSR, aatsrBandList);
+        AerosolHelpers.getSpectralBandList(synergyProduct, SynergyConstants.INPUT_BANDS_PREFIX_AATSR_FWD,
+                                           SynergyConstants.INPUT_BANDS_SUFFIX_AATSR,
+                                           SynergyConstants.EXCLUDE_INPUT_BANDS_AATSR, aatsrBandList);
+        final ArrayList<RasterDataNode> geometryList = new ArrayList<RasterDataNode>();
+        AerosolHelpers.getGeometryBandList(synergyProduct, "MERIS", geometryList);
+        AerosolHelpers.getGeometryBandList(synergyProduct, "AATSR", geometryList);
+        RetrieveAerosolLandOp.addNdviBand(synergyProduct, merisBandList);
+
+        final Set<RasterDataNode> centerSet = new LinkedHashSet<RasterDataNode>(geometryList);
+        centerSet.add(synergyProduct.getRasterDataNode(SynergyConstants.INPUT_PRESSURE_BAND_NAME));
+        centerSet.add(synergyProduct.getRasterDataNode(SynergyConstants.INPUT_OZONE_BAND_NAME));
+        centerSet.add(synergyProduct.getRasterDataNode(GlintAveOp.CLOUD_NADIR_FLAGS));
+        centerSet.remove(null);
+
+        final Set<RasterDataNode> meanSet = new LinkedHashSet<RasterDataNode>();
+        meanSet.addAll(merisBandList);
+        meanSet.addAll(aatsrBandList);
+        meanSet.addAll(geometryList);
+        meanSet.add(synergyProduct.getRasterDataNode(SynergyConstants.INPUT_PRESSURE_BAND_NAME));
+        meanSet.add(synergyProduct.getRasterDataNode(SynergyConstants.INPUT_OZONE_BAND_NAME));
+        meanSet.add(synergyProduct.getRasterDataNode(RetrieveAerosolLandOp.NDVI_BAND_NAME));
+        // ... and the ones only needed over ocean
+        for (String name : OCEAN_RASTER_NAMES) {
+            meanSet.add(synergyProduct.getRasterDataNode(name));
+        }
+        meanSet.remove(null);
+        meanSet.remove(synergyProduct.getRasterDataNode(GlintAveOp.CLOUD_NADIR_FLAGS));
+
+        meanRasters = meanSet.toArray(new RasterDataNode[meanSet.size()]);
+        centerRasters = centerSet.toArray(new RasterDataNode[centerSet.size()]);
+
+        // correction of azimuth discontinuity, as in the ocean and glint retrievals
+        final Rectangle sceneRectangle = new Rectangle(0, 0, rasterWidth, rasterHeight);
+        correctedTiles = new Tile[]{
+                getSourceTile(synergyProduct.getRasterDataNode(MERIS_VIEW_AZIMUTH_NAME), sceneRectangle),
+                getSourceTile(synergyProduct.getRasterDataNode(AATSR_VIEW_AZIMUTH_NADIR_NAME), sceneRectangle)
+        };
+        for (Tile correctedTile : correctedTiles) {
+            GlintPreparation.correctViewAzimuthLinear(correctedTile, sceneRectangle);
+        }
+
+        landKernel = RetrieveAerosolLandOp.createLandKernel(synergyProduct);
+        cloudyKernel = RetrieveAerosolLandOp.createCloudyKernel(synergyProduct);
+
+        createTargetProduct();
+    }
+
+    private void createTargetProduct() {
+        final int downscaledRasterWidth = (int) (Math.ceil((float) (rasterWidth / (float) stride) - 0.5));
+        final int downscaledRasterHeight = (int) (Math.ceil((float) (rasterHeight / (float) stride) - 0.5));
+
+        targetProduct = new Product(synergyProduct.getName(), "SYNERGY DOWNSCALED",
+                                    downscaledRasterWidth, downscaledRasterHeight);
+        for (RasterDataNode raster : meanRasters) {
+            addMeanBands(raster.getName(), raster.getNoDataValue());
+        }
+        for (Tile correctedTile : correctedTiles) {
+            final RasterDataNode raster = correctedTile.getRasterDataNode();
+            addMeanBands(getCorrectedBandName(raster.getName()), raster.getNoDataValue());
+        }
+        for (RasterDataNode raster : centerRasters) {
+            targetProduct.addBand(getCenterBandName(raster.getName()), raster.getDataType());
+        }
+        targetProduct.addBand(LAND_FRACTION_BAND_NAME, ProductData.TYPE_FLOAT32);
+        targetProduct.addBand(CLOUD_FRACTION_BAND_NAME, ProductData.TYPE_FLOAT32);
+
+        setTargetProduct(targetProduct);
+    }
+
+    private void addMeanBands(String name, double noDataValue) {
+        // double precision, so that the retrievals get the same averages as from the full resolution pixels
+        final Band meanBand = targetProduct.addBand(name, ProductData.TYPE_FLOAT64);
+        meanBand.setNoDataValue(noDataValue);
+        meanBand.setNoDataValueUsed(true);
+        targetProduct.addBand(getCountBandName(name), ProductData.TYPE_INT16);
+    }
+
+    @Override
+    public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm) throws
+                                                                                                         OperatorException {
+        final int nRasters = meanRasters.length + correctedTiles.length + centerRasters.length + 2;
+        pm.beginTask("Downscaling...", nRasters);
+        try {
+            final int minX = stride * targetRectangle.x;
+            final int minY = stride * targetRectangle.y;
+            final int maxX = Math.min(rasterWidth - 1,
+                                      stride * (targetRectangle.x + targetRectangle.width - 1) + 2 * halfWidth);
+            final int maxY = Math.min(rasterHeight - 1,
+                                      stride * (targetRectangle.y + targetRectangle.height - 1) + 2 * halfWidth);
+            final Rectangle sourceRectangle = new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+
+            for (RasterDataNode raster : meanRasters) {
+                checkForCancellation();
+                final String name = raster.getName();
+                computeMeans(getSourceTile(raster, sourceRectangle), targetRectangle, stride, halfWidth,
+                             targetTiles.get(targetProduct.getBand(name)),
+                             targetTiles.get(targetProduct.getBand(getCountBandName(name))));
+                pm.worked(1);
+            }
+            for (Tile correctedTile : correctedTiles) {
+                checkForCancellation();
+                final String name = getCorrectedBandName(correctedTile.getRasterDataNode().getName());
+                computeMeans(correctedTile, targetRectangle, stride, halfWidth,
+                             targetTiles.get(targetProduct.getBand(name)),
+                             targetTiles.get(targetProduct.getBand(getCountBandName(name))));
+                pm.worked(1);
+            }
+            for (RasterDataNode raster : centerRasters) {
+                final Tile sourceTile = getSourceTile(raster, sourceRectangle);
+                final Tile centerTile = targetTiles.get(targetProduct.getBand(getCenterBandName(raster.getName())));
+                for (int iY = targetRectangle.y; iY < targetRectangle.y + targetRectangle.height; iY++) {
+                    final int centerY = Math.min(stride * iY + halfWidth, rasterHeight - 1);
+                    for (int iX = targetRectangle.x; iX < targetRectangle.x + targetRectangle.width; iX++) {
+                        final int centerX = Math.min(stride * iX + halfWidth, rasterWidth - 1);
+                        centerTile.setSample(iX, iY, sourceTile.getSampleDouble(centerX, centerY));
+                    }
+                }
+                pm.worked(1);
+            }
+            computeFraction(landKernel.compute(this, sourceRectangle), targetRectangle,
+                            targetTiles.get(targetProduct.getBand(LAND_FRACTION_BAND_NAME)));
+            pm.worked(1);
+            computeFraction(cloudyKernel.compute(this, sourceRectangle), targetRectangle,
+                            targetTiles.get(targetProduct.getBand(CLOUD_FRACTION_BAND_NAME)));
+            pm.worked(1);
+        } finally {
+            pm.done();
+        }
+    }
+
+    /**
+     * This method computes the box means and valid pixel counts of a source tile, the same as
+     * {@link BoxAverage.FullResolution#getMean}.
+     *
+     * @param sourceTile      - the full resolution source tile
+     * @param targetRectangle - the target rectangle
+     * @param stride          - distance of neighbouring box centres (source pixels)
+     * @param halfWidth       - half box width (source pixels)
+     * @param meanTile        - the tile receiving the means, NaN for boxes without valid pixels
+     * @param countTile       - the tile receiving the valid pixel counts
+     */
+    static void computeMeans(Tile sourceTile, Rectangle targetRectangle, int stride, int halfWidth,
+                             Tile meanTile, Tile countTile) {
+        final RasterDataNode raster = sourceTile.getRasterDataNode();
+        final double noDataValue = raster.getNoDataValue();
+        final int rasterWidth = raster.getSceneRasterWidth();
+        final int rasterHeight = raster.getSceneRasterHeight();
+        for (int iY = targetRectangle.y; iY < targetRectangle.y + targetRectangle.height; iY++) {
+            final int minY = stride * iY;
+            final int maxY = Math.min(rasterHeight - 1, minY + 2 * halfWidth);
+            for (int iX = targetRectangle.x; iX < targetRectangle.x + targetRectangle.width; iX++) {
+                final int minX = stride * iX;
+                final int maxX = Math.min(rasterWidth - 1, minX + 2 * halfWidth);
+                double value = 0;
+                int n = 0;
+                for (int y = minY; y <= maxY; y++) {
+                    for (int x = minX; x <= maxX; x++) {
+                        final double val = sourceTile.getSampleDouble(x, y);
+                        if (Double.compare(val, noDataValue) != 0) {
+                            n++;
+                            value += val;
+                        }
+                    }
+                }
+                // NaN for boxes without valid pixels, the count tells the retrievals
+                meanTile.setSample(iX, iY, value / n);
+                countTile.setSample(iX, iY, n);
+            }
+        }
+    }
+
+    private void computeFraction(TileMask flagMask, Rectangle targetRectangle, Tile fractionTile) {
+        for (int iY = targetRectangle.y; iY < targetRectangle.y + targetRectangle.height; iY++) {
+            checkForCancellation();
+            final int minY = stride * iY;
+            final int maxY = Math.min(rasterHeight - 1, minY + 2 * halfWidth);
+            for (int iX = targetRectangle.x; iX < targetRectangle.x + targetRectangle.width; iX++) {
+                final int minX = stride * iX;
+                final int maxX = Math.min(rasterWidth - 1, minX + 2 * halfWidth);
+                int nFlagged = 0;
+                for (int y = minY; y <= maxY; y++) {
+                    for (int x = minX; x <= maxX; x++) {
+                        if (flagMask.get(x, y)) {
+                            nFlagged++;
+                        }
+                    }
+                }
+                fractionTile.setSample(iX, iY, (float) nFlagged / ((maxX - minX + 1) * (maxY - minY + 1)));
+            }
+        }
+    }
+
+    public static String getCountBandName(String name) {
+        return name + COUNT_BAND_SUFFIX;
+    }
+
+    public static String getCenterBandName(String name) {
+        return name + CENTER_BAND_SUFFIX;
+    }
+
+    public static String getCorrectedBandName(String name) {
+        return name + CORRECTED_BAND_SUFFIX;
+    }
+
+    /**
+     * This method provides a band of a downscaled product.
+     *
+     * @param downscaledProduct - the product created by this operator
+     * @param bandName          - the band name
+     * @return Band
+     */
+    public static Band getBand(Product downscaledProduct, String bandName) {
+        final Band band = downscaledProduct.getBand(bandName);
+        if (band == null) {
+            throw new OperatorException("Downscaled product does not contain band '" + bandName + "'.");
+        }
+        return band;
+    }
+
+    /**
+     * The Service Provider Interface (SPI) for the operator.
+     * It provides operator meta-data and is a factory for new operator instances.
+     */
+    public static class Spi extends OperatorSpi {
+
+        public Spi() {
+            super(DownscaleOp.class);
+        }
+    }
+}
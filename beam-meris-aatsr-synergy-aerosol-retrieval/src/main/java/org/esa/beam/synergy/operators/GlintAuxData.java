@@ -41,7 +41,12 @@ public class GlintAuxData {
     private static final String H_COEFF_1600_FILE_NAME = "ck_flex_cd_AATSR_sfp1000_01600.00.h2o.4.ck.koeff.d";
     private static final String H_WEIGHT_1600_FILE_NAME = "ck_flex_cd_AATSR_sfp1000_01600.00.h2o.4.ck.weight.d";
 
-    public static GlintAuxData getInstance() {
+    // tables shared by all users, loaded on first request
+    private GlintAuxTable aatsrSpectralResponse37Table;
+    private GlintAuxTable cahalanTable;
+    private GlintAuxTable temp2RadianceTable;
+
+    public static synchronized GlintAuxData getInstance() {
         if (instance == null) {
             instance = new GlintAuxData();
         }
@@ -308,6 +313,50 @@ public class GlintAuxData {
         return temp2radTable;
     }
 
+    /**
+     * This method provides the shared AATSR 3.7um spectral response table
+     * (x: wavelength, y: response), which is read once.
+     *
+     * @return GlintAuxTable
+     * @throws IOException
+     */
+    public synchronized GlintAuxTable getAatsrSpectralResponse37Table() throws IOException {
+        if (aatsrSpectralResponse37Table == null) {
+            final AatsrSpectralResponse37Table table = createAatsrSpectralResponse37Table();
+            aatsrSpectralResponse37Table = new GlintAuxTable(table.getWavelength(), table.getResponse());
+        }
+        return aatsrSpectralResponse37Table;
+    }
+
+    /**
+     * This method provides the shared Cahalan table, which is read once.
+     *
+     * @return GlintAuxTable
+     * @throws IOException
+     */
+    public synchronized GlintAuxTable getCahalanTable() throws IOException {
+        if (cahalanTable == null) {
+            final CahalanTable table = createCahalanTable();
+            cahalanTable = new GlintAuxTable(table.getX(), table.getY());
+        }
+        return cahalanTable;
+    }
+
+    /**
+     * This method provides the shared temperature-radiance conversion table
+     * (x: temperature, y: radiance), which is read once.
+     *
+     * @return GlintAuxTable
+     * @throws IOException
+     */
+    public synchronized GlintAuxTable getTemp2RadianceTable() throws IOException {
+        if (temp2RadianceTable == null) {
+            final Temp2RadianceTable table = createTemp2RadianceTable();
+            temp2RadianceTable = new GlintAuxTable(table.getTemp(), table.getRad());
+        }
+        return temp2RadianceTable;
+    }
+
     /**
      * This method provides the nearest index in {@link CahalanTable} for given
      * input wavelength
@@ -315,6 +364,7 @@ public class GlintAuxData {
      * @param wavelength - input wavelength
      * @param tableWavelengths - table wavelengths
      * @return int
+     * @deprecated linear search, use {@link GlintAuxTable#getNearestIndex(double)} of {@link #getCahalanTable()}
      */
     public int getNearestCahalanTableIndex(double wavelength, double[] tableWavelengths) {
        return GlintHelpers.getNearestValueIndexInDescendingDoubleArray(wavelength, tableWavelengths);
@@ -327,6 +377,7 @@ public class GlintAuxData {
      * @param temp - input temp
      * @param tableTemps - table temps
      * @return int
+     * @deprecated linear search, use {@link GlintAuxTable#getNearestIndex(double)} of {@link #getTemp2RadianceTable()}
      */
     public int getNearestTemp2RadianceTableIndex(double temp, double[] tableTemps) {
        return GlintHelpers.getNearestValueIndexInAscendingDoubleArray(temp, tableTemps);
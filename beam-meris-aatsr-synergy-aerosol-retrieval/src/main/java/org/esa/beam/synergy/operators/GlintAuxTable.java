@@ -0,0 +1,102 @@
+package org.esa.beam.synergy.operators;
+
+/**
+ * Glint auxiliary data table y(x) with strictly monotone (ascending or descending) x nodes,
+ * indexed for nearest node lookup. For (nearly) uniform grids the node is found directly
+ * from the grid step, otherwise by binary search.
+ * The tables are loaded once per JVM by {@link GlintAuxData} and must not be modified.
+ */
+public class GlintAuxTable {
+
+    // maximum relative deviation of a step from the mean step for a grid to be treated as uniform
+    private static final double UNIFORM_STEP_TOLERANCE = 0.01;
+
+    private final double[] x;
+    private final double[] y;
+    private final boolean ascending;
+    private final boolean uniform;
+    private final double step;
+
+    /**
+     * @param x - the nodes, strictly ascending or descending
+     * @param y - the values at the nodes
+     */
+    GlintAuxTable(double[] x, double[] y) {
+        if (x.length < 2 || y.length != x.length) {
+            throw new IllegalArgumentException("Auxiliary table needs at least two nodes and one value per node.");
+        }
+        this.x = x;
+        this.y = y;
+        ascending = x[x.length - 1] > x[0];
+        step = (x[x.length - 1] - x[0]) / (x.length - 1);
+        boolean isUniform = true;
+        for (int i = 1; i < x.length && isUniform; i++) {
+            isUniform = Math.abs(x[i] - x[i - 1] - step) <= UNIFORM_STEP_TOLERANCE * Math.abs(step);
+        }
+        uniform = isUniform;
+    }
+
+    public double[] getX() {
+        return x;
+    }
+
+    public double[] getY() {
+        return y;
+    }
+
+    public boolean isUniform() {
+        return uniform;
+    }
+
+    /**
+     * This method provides the index of the node closest to a value. The result is the same
+     * as the one of the linear search in {@link org.esa.beam.synergy.util.GlintHelpers}:
+     * values before the first node give 0, values at or beyond the last node give -1.
+     *
+     * @param value - the value
+     * @return int
+     */
+    public int getNearestIndex(double value) {
+        final int upperIndex = uniform ? findUpperIndexUniform(value) : findUpperIndex(value);
+        if (upperIndex == x.length) {
+            return -1;
+        }
+        if (ascending) {
+            return (x[upperIndex] - value > value - x[upperIndex - 1]) ? upperIndex - 1 : upperIndex;
+        } else {
+            return (x[upperIndex] - value < value - x[upperIndex - 1]) ? upperIndex - 1 : upperIndex;
+        }
+    }
+
+    // first index i >= 1 whose node lies beyond the value, x.length if there is none
+    private int findUpperIndex(double value) {
+        int lo = 1;
+        int hi = x.length;
+        while (lo < hi) {
+            final int m = (lo + hi) >>> 1;
+            if (isBeyond(m, value)) {
+                hi = m;
+            } else {
+                lo = m + 1;
+            }
+        }
+        return lo;
+    }
+
+    private int findUpperIndexUniform(double value) {
+        int i = (int) Math.floor((value - x[0]) / step) + 1;
+        i = Math.max(1, Math.min(i, x.length));
+        // the grid is only nearly uniform, so correct the estimate by the neighbouring nodes
+        while (i < x.length && !isBeyond(i, value)) {
+            i++;
+        }
+        while (i > 1 && isBeyond(i - 1, value)) {
+            i--;
+        }
+        return i;
+    }
+
+    private boolean isBeyond(int index, double value) {
+        return ascending ? value < x[index] : value > x[index];
+    }
+}
@@ -12,8 +12,9 @@ import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
 import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.SourceProduct;
 import org.esa.beam.framework.gpf.annotations.TargetProduct;
-import org.esa.beam.gpf.operators.standard.BandMathsOp;
+import org.esa.beam.synergy.util.MaskKernel;
 import org.esa.beam.synergy.util.SynergyConstants;
+import org.esa.beam.synergy.util.TileMask;
 import org.esa.beam.util.ProductUtils;
 
 import java.awt.Rectangle;
@@ -38,17 +39,34 @@ public class GlintAveOp extends Operator {
                    description = "MERIS/AATSR synergy product.")
     private Product synergyProduct;
 
+    @SourceProduct(alias = "downscaled", optional = true,
+                   description = "The source rasters downscaled to the aerosol grid (see DownscaleOp).")
+    private Product downscaledProduct;
+
     @TargetProduct(description = "The target product.")
     private Product targetProduct;
 
     @Parameter(defaultValue = "10", label = "Pixels to average (n x n) for AOD retrieval", interval = "[1, 100]")
     private int aveBlock;
 
+    @Parameter(defaultValue = "false",
+               label = "Use precomputed glint wind speed LUT",
+               description = "Interpolate the 3.7um glint wind speed LUT from a table precomputed over geometry " +
+                             "instead of computing it for each pixel.")
+    private boolean useGlintWindspeedLut;
+
+    @Parameter(defaultValue = "false",
+               label = "Skip tiles without retrievable pixels",
+               description = "Summarize the flags of a tile first and set tiles without valid daylight ocean pixels " +
+                             "to no-data without reading the spectral source tiles.")
+    private boolean skipUnretrievableTiles;
+
     private float scalingFactor;
     private int minNAve;
 
-    private static final String INVALID_EXPRESSION = "l1_flags" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS + ".INVALID";
-    private Band invalidBand;
+    // l1_flags_MERIS.INVALID
+    private static final String INVALID_FLAG_NAME = "INVALID";
+    private MaskKernel invalidKernel;
 
     /* AATSR L1 Cloud Flags (just the ones needed) */
     final int AATSR_L1_CF_LAND = 0;
@@ -86,7 +104,7 @@ public class GlintAveOp extends Operator {
     public void initialize() throws OperatorException {
 
         solarPart37 = new GlintSolarPart37();
-        glintRetrieval = new GlintRetrieval();
+        glintRetrieval = new GlintRetrieval(useGlintWindspeedLut ? GlintWindspeedLut.createForScene(synergyProduct) : null);
 
         scalingFactor = aveBlock;
         aveBlock /= 2;
@@ -103,19 +121,22 @@ public class GlintAveOp extends Operator {
 
         solarIrradiance37 = GlintPreparation.computeSolarIrradiance37(dayOfYear);
 
-        // correction of azimuth discontinuity:
-        // set up tiles for MERIS and AATSR which cover the whole scene...
         int sceneWidth = synergyProduct.getSceneRasterWidth();
         int sceneHeight = synergyProduct.getSceneRasterHeight();
-        Rectangle rect = new Rectangle(0, 0, sceneWidth, sceneHeight);
-        vaMerisTileComplete = getSourceTile(synergyProduct.getTiePointGrid("view_azimuth"), rect);
-        vaAatsrNadirTileComplete = getSourceTile(
-                synergyProduct.getBand("view_azimuth_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                rect);
-
-        // correct azimuths in these tiles for later usage...
-        GlintPreparation.correctViewAzimuthLinear(vaMerisTileComplete, rect);
-        GlintPreparation.correctViewAzimuthLinear(vaAatsrNadirTileComplete, rect);
+        if (downscaledProduct == null) {
+            // correction of azimuth discontinuity:
+            // set up tiles for MERIS and AATSR which cover the whole scene...
+            Rectangle rect = new Rectangle(0, 0, sceneWidth, sceneHeight);
+            vaMerisTileComplete = getSourceTile(synergyProduct.getTiePointGrid("view_azimuth"), rect);
+            vaAatsrNadirTileComplete = getSourceTile(
+                    synergyProduct.getBand("view_azimuth_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
+                    rect);
+
+            // correct azimuths in these tiles for later usage...
+            GlintPreparation.correctViewAzimuthLinear(vaMerisTileComplete, rect);
+            GlintPreparation.correctViewAzimuthLinear(vaAatsrNadirTileComplete, rect);
+        }
+        // (else the corrected azimuths are averaged by the DownscaleOp)
 
         synergyWindspeed = new double[sceneWidth][sceneHeight];
 
@@ -151,9 +172,8 @@ public class GlintAveOp extends Operator {
         ProductUtils.copyGeoCoding(synergyProduct, targetProduct);
         ProductUtils.copyMetadata(synergyProduct, targetProduct);
 
-        final BandMathsOp bandArithmeticOp =
-                BandMathsOp.createBooleanExpressionBand(INVALID_EXPRESSION, synergyProduct);
-        invalidBand = bandArithmeticOp.getTargetProduct().getBandAt(0);
+        invalidKernel = MaskKernel.flag(
+                synergyProduct.getBand("l1_flags" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS), INVALID_FLAG_NAME);
 
         setTargetBands();
     }
@@ -179,11 +199,6 @@ public class GlintAveOp extends Operator {
     @Override
     public void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
         final Rectangle rectangle = targetTile.getRectangle();
-        final int bigWidth = (int) (scalingFactor * rectangle.getWidth());
-        final int bigHeight = (int) (scalingFactor * rectangle.getHeight());
-        final int bigX = (int) (scalingFactor * rectangle.getX());
-        final int bigY = (int) (scalingFactor * rectangle.getY());
-        final Rectangle big = new Rectangle(bigX, bigY, bigWidth, bigHeight);
 
         if (targetBand.isFlagBand()) {
             // no computations
@@ -193,64 +208,71 @@ public class GlintAveOp extends Operator {
         pm.beginTask("Processing frame...", rectangle.height);
 
         try {
-            final Tile szMerisTile = getSourceTile(synergyProduct.getTiePointGrid("sun_zenith"), big);
-            final Tile vzMerisTile = getSourceTile(synergyProduct.getTiePointGrid("view_zenith"), big);
-            final Tile saMerisTile = getSourceTile(synergyProduct.getTiePointGrid("sun_azimuth"), big);
-            final Tile zonalWindTile = getSourceTile(synergyProduct.getTiePointGrid("zonal_wind"), big);
-            final Tile meridWindTile = getSourceTile(synergyProduct.getTiePointGrid("merid_wind"), big);
-
-            final Tile seAatsrNadirTile = getSourceTile(
-                    synergyProduct.getBand("sun_elev_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                    big);
-            final Tile veAatsrNadirTile = getSourceTile(
-                    synergyProduct.getBand("view_elev_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                    big);
-            final Tile saAatsrNadirTile = getSourceTile(
-                    synergyProduct.getBand("sun_azimuth_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                    big);
-
-            final Tile cfAatsrNadirTile = getSourceTile(
-                    synergyProduct.getBand("cloud_flags_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                    big);
-
-            final Tile merisRad14Tile = getSourceTile(
-                    synergyProduct.getBand("radiance_14" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS + ""), big);
-            final Tile merisRad15Tile = getSourceTile(
-                    synergyProduct.getBand("radiance_15" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS + ""), big);
-            final Tile aatsrBTNadir0370Tile = getSourceTile(
-                    synergyProduct.getBand("btemp_nadir_0370" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                    big);
-            final Tile aatsrBTNadir1100Tile = getSourceTile(
-                    synergyProduct.getBand("btemp_nadir_1100" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                    big);
-            final Tile aatsrBTNadir1200Tile = getSourceTile(
-                    synergyProduct.getBand("btemp_nadir_1200" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                    big);
-
-            final Tile isInvalid = getSourceTile(invalidBand, rectangle);
+            final BoxAverage.TileFactory boxAverages = new BoxAverage.TileFactory(this, synergyProduct,
+                                                                                 downscaledProduct, rectangle,
+                                                                                 (int) scalingFactor, aveBlock);
+            final BoxAverage szMeris = boxAverages.getBoxAverage(synergyProduct.getTiePointGrid("sun_zenith"));
+            final BoxAverage cfAatsrNadir = boxAverages.getBoxAverage(synergyProduct.getBand(CLOUD_NADIR_FLAGS));
+            final TileMask isInvalid = invalidKernel.compute(this, rectangle);
+
+            if (skipUnretrievableTiles && !hasRetrievablePixels(rectangle, isInvalid, cfAatsrNadir, szMeris)) {
+                // nothing to retrieve, skip the spectral source tiles
+                for (int iY = rectangle.y; iY < rectangle.y + rectangle.height; iY++) {
+                    for (int iX = rectangle.x; iX < rectangle.x + rectangle.width; iX++) {
+                        targetTile.setSample(iX, iY, SynergyConstants.OUTPUT_GLINT_BAND_NODATAVALUE);
+                    }
+                }
+                return;
+            }
+
+            final BoxAverage vzMeris = boxAverages.getBoxAverage(synergyProduct.getTiePointGrid("view_zenith"));
+            final BoxAverage saMeris = boxAverages.getBoxAverage(synergyProduct.getTiePointGrid("sun_azimuth"));
+            final BoxAverage zonalWind = boxAverages.getBoxAverage(synergyProduct.getTiePointGrid("zonal_wind"));
+            final BoxAverage meridWind = boxAverages.getBoxAverage(synergyProduct.getTiePointGrid("merid_wind"));
+            final BoxAverage vaMeris = boxAverages.getCorrectedAzimuthBoxAverage(
+                    synergyProduct.getTiePointGrid("view_azimuth"), vaMerisTileComplete);
+
+            final BoxAverage seAatsrNadir = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("sun_elev_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""));
+            final BoxAverage veAatsrNadir = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("view_elev_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""));
+            final BoxAverage saAatsrNadir = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("sun_azimuth_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""));
+            final BoxAverage vaAatsrNadir = boxAverages.getCorrectedAzimuthBoxAverage(
+                    synergyProduct.getBand("view_azimuth_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
+                    vaAatsrNadirTileComplete);
+
+            final BoxAverage merisRad14 = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("radiance_14" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS + ""));
+            final BoxAverage merisRad15 = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("radiance_15" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS + ""));
+            final BoxAverage aatsrBTNadir0370 = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("btemp_nadir_0370" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""));
+            final BoxAverage aatsrBTNadir1100 = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("btemp_nadir_1100" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""));
+            final BoxAverage aatsrBTNadir1200 = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("btemp_nadir_1200" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""));
 
             final int targetBandIndex = getTargetBandIndex(targetBand);
 
             for (int iY = rectangle.y; iY < rectangle.y + rectangle.height; iY++) {
                 for (int iX = rectangle.x; iX < rectangle.x + rectangle.width; iX++) {
 
-                    final int iTarX = (int) (scalingFactor * iX + aveBlock);
-                    final int iTarY = (int) (scalingFactor * iY + aveBlock);
                     checkForCancellation();
 
                     if ((targetBandIndex != -1 && synergyGlint[targetBandIndex][iX][iY] == -1.0) ||
                         synergyWindspeed[iX][iY] == -1.0) {
 
-                        final boolean cloudFlagNadirLand = cfAatsrNadirTile.getSampleBit(iTarX, iTarY,
-                                                                                         AATSR_L1_CF_LAND);
-                        final boolean cloudFlagNadirCloudy = cfAatsrNadirTile.getSampleBit(iTarX, iTarY,
-                                                                                           AATSR_L1_CF_CLOUDY);
-                        final boolean cloudFlagNadirSunglint = cfAatsrNadirTile.getSampleBit(iTarX, iTarY,
-                                                                                             AATSR_L1_CF_SUNGLINT);
-                        final float aatsrViewElevationNadir = getAvePixel(veAatsrNadirTile, iTarX, iTarY);
-                        final float aatsrSunElevationNadir = getAvePixel(seAatsrNadirTile, iTarX, iTarY);
-                        final float aatsrBt37 = getAvePixel(aatsrBTNadir0370Tile, iTarX, iTarY);
-                        if (isInvalid.getSampleBoolean(iX, iY)
+                        final boolean cloudFlagNadirLand = cfAatsrNadir.getCenterSampleBit(iX, iY,
+                                                                                           AATSR_L1_CF_LAND);
+                        final boolean cloudFlagNadirCloudy = cfAatsrNadir.getCenterSampleBit(iX, iY,
+                                                                                             AATSR_L1_CF_CLOUDY);
+                        final boolean cloudFlagNadirSunglint = cfAatsrNadir.getCenterSampleBit(iX, iY,
+                                                                                               AATSR_L1_CF_SUNGLINT);
+                        final float aatsrViewElevationNadir = getAvePixel(veAatsrNadir, iX, iY);
+                        final float aatsrSunElevationNadir = getAvePixel(seAatsrNadir, iX, iY);
+                        final float aatsrBt37 = getAvePixel(aatsrBTNadir0370, iX, iY);
+                        if (isInvalid.get(iX, iY)
                             || !GlintPreparation.isUsefulPixel(cloudFlagNadirLand, cloudFlagNadirCloudy,
                                                                cloudFlagNadirSunglint, aatsrViewElevationNadir,
                                                                aatsrBt37)) {
@@ -260,25 +282,25 @@ public class GlintAveOp extends Operator {
                             // 1. The solar part of 3.7
                             // 1.a. Thermal extrapolation of 11/12 to 3.7
                             final float aatsrBTThermalPart37 =
-                                    solarPart37.extrapolateTo37(getAvePixel(aatsrBTNadir1100Tile, iTarX, iTarY),
-                                                                getAvePixel(aatsrBTNadir1200Tile, iTarX, iTarY));
+                                    solarPart37.extrapolateTo37(getAvePixel(aatsrBTNadir1100, iX, iY),
+                                                                getAvePixel(aatsrBTNadir1200, iX, iY));
 
                             // 1.b.1 Calculation of water vapour
-                            final float zonalWind = getAvePixel(zonalWindTile, iTarX, iTarY);
-                            final float meridWind = getAvePixel(meridWindTile, iTarX, iTarY);
-                            float merisViewAzimuth = getAvePixel(vaMerisTileComplete, iTarX, iTarY);
-                            float merisSunAzimuth = getAvePixel(saMerisTile, iTarX, iTarY);
+                            final float zonalWindAve = getAvePixel(zonalWind, iX, iY);
+                            final float meridWindAve = getAvePixel(meridWind, iX, iY);
+                            float merisViewAzimuth = getAvePixel(vaMeris, iX, iY);
+                            float merisSunAzimuth = getAvePixel(saMeris, iX, iY);
                             float merisAzimuthDifference = GlintPreparation.removeAzimuthDifferenceAmbiguity(
                                     merisViewAzimuth,
                                     merisSunAzimuth);
-                            final float merisViewZenith = getAvePixel(vzMerisTile, iTarX, iTarY);
-                            final float merisSunZenith = getAvePixel(szMerisTile, iTarX, iTarY);
-                            final float merisRad14 = getAvePixel(merisRad14Tile, iTarX, iTarY);
-                            final float merisRad15 = getAvePixel(merisRad15Tile, iTarX, iTarY);
+                            final float merisViewZenith = getAvePixel(vzMeris, iX, iY);
+                            final float merisSunZenith = getAvePixel(szMeris, iX, iY);
+                            final float merisRad14Ave = getAvePixel(merisRad14, iX, iY);
+                            final float merisRad15Ave = getAvePixel(merisRad15, iX, iY);
 
                             // 1.b.2 Calculation of transmission
 //                                                                                       90.0f - aatsrSunElevationNadir, 90.0f - aatsrViewElevationNadir);
-                            final float[] aatsrTrans37Info = solarPart37.computeTransmission(merisRad14, merisRad15);
+                            final float[] aatsrTrans37Info = solarPart37.computeTransmission(merisRad14Ave, merisRad15Ave);
 
                             // 1.c Conversion of BT to normalized radiance
                             final float aatsrRad37 = solarPart37.convertBT2Radiance(aatsrBt37) / solarIrradiance37;
@@ -292,8 +314,8 @@ public class GlintAveOp extends Operator {
 
                             // 2. The geometrical conversion
                             // 2.a AATSR - MERIS conversion
-                            final float aatsrViewAzimuthNadir = getAvePixel(vaAatsrNadirTileComplete, iTarX, iTarY);
-                            final float aatsrSunAzimuthNadir = getAvePixel(saAatsrNadirTile, iTarX, iTarY);
+                            final float aatsrViewAzimuthNadir = getAvePixel(vaAatsrNadir, iX, iY);
+                            final float aatsrSunAzimuthNadir = getAvePixel(saAatsrNadir, iX, iY);
 
                             final float aatsrAzimuthDifferenceNadir = GlintPreparation.removeAzimuthDifferenceAmbiguity(
                                     aatsrViewAzimuthNadir,
@@ -308,17 +330,19 @@ public class GlintAveOp extends Operator {
                             // 2.b Ambiuguity reduction and final output
                             if (glintRetrieval.windspeedFound(merisNormalizedRadianceResultMatrix) > 0) {
                                 final float[] finalResultWindspeedRadiance = glintRetrieval.getAmbiguityReducedRadiance
-                                        (merisNormalizedRadianceResultMatrix, zonalWind, meridWind);
+                                        (merisNormalizedRadianceResultMatrix, zonalWindAve, meridWindAve);
 
                                 // these are the final results:
 
                                 // windspeed:
                                 synergyWindspeed[iX][iY] = finalResultWindspeedRadiance[0];
                                 // glme13
-                                setGlintResult(1, iX, iY, merisAzimuthDifference, merisViewZenith, merisSunZenith);
+                                setGlintResult(1, iX, iY, new GlintGeometry(merisSunZenith, merisViewZenith,
+                                                                            180.0f - merisAzimuthDifference));
                                 // glaatsr87_nadir
-                                setGlintResult(4, iX, iY, aatsrAzimuthDifferenceNadir, 90.0f - aatsrViewElevationNadir,
-                                               90.0f - aatsrSunElevationNadir);
+                                setGlintResult(4, iX, iY, new GlintGeometry(90.0f - aatsrSunElevationNadir,
+                                                                            90.0f - aatsrViewElevationNadir,
+                                                                            180.0f - aatsrAzimuthDifferenceNadir));
                             } else {
                                 synergyWindspeed[iX][iY] = SynergyConstants.OUTPUT_GLINT_BAND_NODATAVALUE;
                                 if (targetBandIndex != -1) {
@@ -379,43 +403,28 @@ public class GlintAveOp extends Operator {
         return index;
     }
 
-    private float getAvePixel(Tile inputTile, int iTarX, int iTarY) {
-
-        double value = 0;
-        double noDataValue = 0;
-        int n = 0;
-
-        final int minX = Math.max(0, iTarX - aveBlock);
-        final int minY = Math.max(0, iTarY - aveBlock);
-        final int maxX = Math.min(synergyProduct.getSceneRasterWidth() - 1, iTarX + aveBlock);
-        final int maxY = Math.min(synergyProduct.getSceneRasterHeight() - 1, iTarY + aveBlock);
-
-        for (int iy = minY; iy <= maxY; iy++) {
-            for (int ix = minX; ix <= maxX; ix++) {
-                double val = inputTile.getSampleDouble(ix, iy);
-                noDataValue = inputTile.getRasterDataNode().getNoDataValue();
-                boolean valid = (Double.compare(val, noDataValue) != 0);
-                if (valid) {
-                    n++;
-                    value += val;
-                }
+    private boolean hasRetrievablePixels(Rectangle rectangle, TileMask isInvalid, BoxAverage cfAatsrNadir,
+                                         BoxAverage szMeris) {
+        final TileFlagSummary flagSummary = new TileFlagSummary();
+        for (int iY = rectangle.y; iY < rectangle.y + rectangle.height; iY++) {
+            for (int iX = rectangle.x; iX < rectangle.x + rectangle.width; iX++) {
+                // as in GlintPreparation.isUsefulPixel, clouds are not considered
+                flagSummary.add(cfAatsrNadir.getCenterSampleBit(iX, iY, AATSR_L1_CF_LAND), false,
+                                isInvalid.get(iX, iY),
+                                TileFlagSummary.isDaylight(szMeris.getCenterSampleFloat(iX, iY)));
             }
         }
-        if (!(n < minNAve)) {
-            value /= n;
-        } else {
-            value = noDataValue;
-        }
+        return flagSummary.hasClearOceanPixels();
+    }
 
-        return (float) value;
+    private float getAvePixel(BoxAverage boxAverage, int iX, int iY) {
+        return (float) boxAverage.getMean(iX, iY, minNAve);
     }
 
-    private void setGlintResult(int index, int x, int y, float azimuthDifference, float viewZenith, float sunZenith) {
-        synergyGlint[index][x][y] = GlintRetrieval.calcGlintAnalytical(sunZenith, viewZenith,
-                                                                       180.0f - azimuthDifference,
-                                                                       SynergyConstants.refractiveIndex[index],
-                                                                       (float) synergyWindspeed[x][y],
-                                                                       SynergyConstants.rhoFoam[index]);
+    private void setGlintResult(int index, int x, int y, GlintGeometry geometry) {
+        synergyGlint[index][x][y] = geometry.calcGlint(SynergyConstants.refractiveIndex[index],
+                                                       (float) synergyWindspeed[x][y],
+                                                       SynergyConstants.rhoFoam[index]);
     }
 
     /**
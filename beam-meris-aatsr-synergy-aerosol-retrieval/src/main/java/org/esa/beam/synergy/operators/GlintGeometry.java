@@ -0,0 +1,107 @@
+package org.esa.beam.synergy.operators;
+
+import org.esa.beam.util.math.MathUtils;
+
+/**
+ * Geometry context of the analytical (Cox-Munk) glint computation, see
+ * {@link GlintRetrieval#calcGlintAnalytical}. The terms which only depend on the sun and view
+ * geometry are computed once, so that the glint can be evaluated for many wind speeds and
+ * refractive indices of the same pixel and view. The results are identical to those of the
+ * static methods in {@link GlintRetrieval}.
+ */
+public class GlintGeometry {
+
+    private final double cosSunZenith;
+    private final double reflAngleRad;
+    private final double sinReflAngle;
+    private final double cosNorm;
+    private final double atanNormAngle2;
+    private final double brdfDenominator;
+
+    /**
+     * @param sunZenith         - sun zenith (deg)
+     * @param viewZenith        - view zenith (deg)
+     * @param azimuthDifference - azimuth difference (deg), 180 deg in backscatter direction
+     */
+    public GlintGeometry(float sunZenith, float viewZenith, float azimuthDifference) {
+        final float azimuthDifferenceShifted = 180.0f - azimuthDifference;
+        final double sunZenithRad = MathUtils.DTOR * sunZenith;
+        final double viewZenithRad = MathUtils.DTOR * viewZenith;
+        final double azimuthDifferenceShiftedRad = MathUtils.DTOR * azimuthDifferenceShifted;
+
+        final double cosViewZenith = Math.cos(viewZenithRad);
+        cosSunZenith = Math.cos(sunZenithRad);
+        final double cos2refl = cosViewZenith * cosSunZenith +
+                Math.sin(viewZenithRad) * Math.sin(sunZenithRad) * Math.cos(azimuthDifferenceShiftedRad);
+        reflAngleRad = Math.acos(cos2refl) / 2.0;
+        sinReflAngle = Math.sin(reflAngleRad);
+        cosNorm = (cosViewZenith + cosSunZenith) / (2.0 * Math.cos(reflAngleRad));
+        final double atanNormAngle = Math.atan(Math.acos(cosNorm));
+        atanNormAngle2 = atanNormAngle * atanNormAngle;
+        brdfDenominator = 4.0 * cosViewZenith * cosSunZenith * Math.pow(cosNorm, 4.0);
+    }
+
+    /**
+     * Computes the Fresnel reflectance of the glint geometry.
+     *
+     * @param refractiveIndex - real part of the refractive index
+     * @return the Fresnel reflectance
+     */
+    public double calcFresnelReflectance(double refractiveIndex) {
+        final double transAngleRad = Math.asin(sinReflAngle / refractiveIndex);
+        return 0.5 * Math.pow(Math.sin(reflAngleRad - transAngleRad) / Math.sin(reflAngleRad + transAngleRad), 2.0) +
+                0.5 * Math.pow(Math.tan(reflAngleRad - transAngleRad) / Math.tan(reflAngleRad + transAngleRad), 2.0);
+    }
+
+    /**
+     * As {@link GlintRetrieval#calcGlintReflectionAnalytical}.
+     *
+     * @param refractiveIndex - real part of the refractive index
+     * @param windspeed       - wind speed (m/s)
+     * @return the glint BRDF
+     */
+    public float calcGlintReflection(double refractiveIndex, double windspeed) {
+        return (float) calcBrdf(calcFresnelReflectance(refractiveIndex), windspeed);
+    }
+
+    /**
+     * As {@link GlintRetrieval#calcGlintAnalytical}.
+     *
+     * @param refractiveIndex - real part of the refractive index
+     * @param windspeed       - wind speed (m/s)
+     * @param rhoFoam         - foam reflectance
+     * @return the normalized glint radiance
+     */
+    public float calcGlint(double refractiveIndex, double windspeed, double rhoFoam) {
+        return calcNormalizedRadiance(calcFresnelReflectance(refractiveIndex), rhoFoam, windspeed);
+    }
+
+    /**
+     * Computes the normalized glint radiance for a set of wind speeds.
+     *
+     * @param refractiveIndex - real part of the refractive index
+     * @param rhoFoam         - foam reflectance
+     * @param windspeeds      - wind speeds (m/s)
+     * @param glint           - the normalized glint radiance per wind speed
+     */
+    public void calcGlint(double refractiveIndex, double rhoFoam, double[] windspeeds, double[] glint) {
+        final double rho = calcFresnelReflectance(refractiveIndex);
+        for (int i = 0; i < windspeeds.length; i++) {
+            glint[i] = calcNormalizedRadiance(rho, rhoFoam, windspeeds[i]);
+        }
+    }
+
+    private float calcNormalizedRadiance(double rho, double rhoFoam, double windspeed) {
+        final double rhoGlint = (float) calcBrdf(rho, windspeed);
+        final double foamPortion = 2.95 * 1.E-6 * Math.pow(windspeed, 3.25); // Koepke 1985
+        final double rhoSurface = (1.0 - foamPortion) * rhoGlint + foamPortion * rhoFoam;
+        final double rhoSurfaceNormalized = rhoSurface / Math.PI * cosSunZenith;
+        return (float) rhoSurfaceNormalized;
+    }
+
+    private double calcBrdf(double rho, double windspeed) {
+        final double sig2 = 0.003 + 0.00512 * windspeed; // m/s
+        final double prob = Math.exp(-atanNormAngle2 / sig2) / (Math.PI * sig2);
+        return Math.PI * rho * prob / brdfDenominator;
+    }
+}
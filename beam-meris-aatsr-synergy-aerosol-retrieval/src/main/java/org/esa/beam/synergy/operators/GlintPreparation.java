@@ -55,19 +55,18 @@ public class GlintPreparation {
 
         double[] wlSpectralResponse;
         double[] spectralResponse;
-        double[] sox;
-        double[] soy;
+        GlintAuxTable cahalanTable;
 
         try {
-            wlSpectralResponse = GlintAuxData.getInstance().createAatsrSpectralResponse37Table().getWavelength();
-            spectralResponse = GlintAuxData.getInstance().createAatsrSpectralResponse37Table().getResponse();
+            final GlintAuxTable spectralResponseTable = GlintAuxData.getInstance().getAatsrSpectralResponse37Table();
+            wlSpectralResponse = spectralResponseTable.getX();
+            spectralResponse = spectralResponseTable.getY();
         } catch (IOException e) {
             throw new OperatorException("Failed to read spectral response table:\n" + e.getMessage(), e);
         }
 
         try {
-            sox = GlintAuxData.getInstance().createCahalanTable().getX();
-            soy = GlintAuxData.getInstance().createCahalanTable().getY();
+            cahalanTable = GlintAuxData.getInstance().getCahalanTable();
         } catch (IOException e) {
             throw new OperatorException("Failed to read Cahalan table:\n" + e.getMessage(), e);
         }
@@ -78,9 +77,11 @@ public class GlintPreparation {
             normFactor += GlintAuxData.getInstance().getSimpsonIntegral(spectralResponse[i], spectralResponse[i+1], spectralResponse[i+2], h);
         }
 
+        final double[] sox = cahalanTable.getX();
+        final double[] soy = cahalanTable.getY();
         double ra = 0.0d;
         for (int i=0; i< spectralResponse.length-1; i+=2) {
-            final int index = GlintAuxData.getInstance().getNearestCahalanTableIndex(wlSpectralResponse[i]*1000.0, sox);
+            final int index = cahalanTable.getNearestIndex(wlSpectralResponse[i]*1000.0);
             final double soi = GlintHelpers.linearInterpol(wlSpectralResponse[i], sox[index]/1000.0, sox[index+1]/1000.0, soy[index], soy[index+1]);
             final double h = wlSpectralResponse[i+2] - wlSpectralResponse[i];
             ra += GlintAuxData.getInstance().getSimpsonIntegral(spectralResponse[i]*soi, spectralResponse[i+1]*soi, spectralResponse[i+2]*soi, h);
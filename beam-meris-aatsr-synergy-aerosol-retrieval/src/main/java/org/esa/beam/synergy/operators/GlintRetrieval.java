@@ -1,7 +1,6 @@
 package org.esa.beam.synergy.operators;
 
 import org.esa.beam.synergy.util.GlintHelpers;
-import org.esa.beam.util.math.MathUtils;
 
 /**
  * Class providing methods for FUB Glint retrieval.
@@ -15,6 +14,20 @@ public class GlintRetrieval {
     public static final double rhoFoam037 = 0.01;
     public static final double rhoFoam088 = 0.2;
 
+    private final GlintWindspeedLut windspeedLut;
+
+    public GlintRetrieval() {
+        this(null);
+    }
+
+    /**
+     * @param windspeedLut - precomputed wind speed LUT used for covered geometries, or null
+     *                     to compute the wind speed LUT for each pixel
+     */
+    public GlintRetrieval(GlintWindspeedLut windspeedLut) {
+        this.windspeedLut = windspeedLut;
+    }
+
     //
     // This method provides the final result (datapair [windspeed, MERIS normalized radiance])
     // after ambiguity reduction (ECMWF wind method)
@@ -71,6 +84,11 @@ public class GlintRetrieval {
 
         float[][] merisNormalizedRadianceResult = new float[][]{{-1.0f, -1.0f}, {-1.0f, -1.0f}};
 
+        if (windspeedLut != null && windspeedLut.covers(merisSunZenith, merisViewZenith)) {
+            return convertAatsrRad37ToMerisRadFromLut(aatsrRadInfo, merisSunZenith, merisViewZenith,
+                                                      aatsrAzimuthDifference, merisAzimuthDifference);
+        }
+
         final double[][] normalizedRadianceLUT = createNormalizedRadianceLUT(merisSunZenith, merisViewZenith,
                 aatsrAzimuthDifference);
 
@@ -96,6 +114,61 @@ public class GlintRetrieval {
         return merisNormalizedRadianceResult;
     }
 
+    //
+    // As convertAatsrRad37ToMerisRad, but with the normalized radiances interpolated from the
+    // precomputed wind speed LUT and the wind speed found by binary search
+    //
+    private float[][] convertAatsrRad37ToMerisRadFromLut(float[] aatsrRadInfo, float merisSunZenith,
+                                                         float merisViewZenith, float aatsrAzimuthDifference,
+                                                         float merisAzimuthDifference) {
+        float[][] merisNormalizedRadianceResult = new float[][]{{-1.0f, -1.0f}, {-1.0f, -1.0f}};
+
+        final double[] normalizedRadiances = new double[GlintWindspeedLut.NUMBER_OF_WINDSPEEDS];
+        windspeedLut.getNormalizedRadiances(merisSunZenith, merisViewZenith, aatsrAzimuthDifference,
+                                            normalizedRadiances);
+
+        final double maximumAcceptableDiff = aatsrRadInfo[1];
+
+        final int maximumNormalizedRadianceIndex = GlintHelpers.getMaximumValueIndexInDoubleArray(normalizedRadiances);
+        final int lutLength = normalizedRadiances.length;
+
+        if (maximumNormalizedRadianceIndex > 0 && maximumNormalizedRadianceIndex < lutLength-1) {
+            // two LUT solutions possible
+            merisNormalizedRadianceResult[0] = getRadianceFromMonotoneLUT(normalizedRadiances, 0,
+                    maximumNormalizedRadianceIndex-1, aatsrRadInfo[0], merisSunZenith, maximumAcceptableDiff,
+                    merisViewZenith, merisAzimuthDifference);
+
+            merisNormalizedRadianceResult[1] = getRadianceFromMonotoneLUT(normalizedRadiances,
+                    maximumNormalizedRadianceIndex, lutLength-1, aatsrRadInfo[0], merisSunZenith,
+                    maximumAcceptableDiff, merisViewZenith, merisAzimuthDifference);
+        } else {
+            // monotone
+            merisNormalizedRadianceResult[0] = getRadianceFromMonotoneLUT(normalizedRadiances, 0, lutLength-1,
+                    aatsrRadInfo[0], merisSunZenith, maximumAcceptableDiff, merisViewZenith, aatsrAzimuthDifference);
+        }
+
+        return merisNormalizedRadianceResult;
+    }
+
+    private float[] getRadianceFromMonotoneLUT(double[] normalizedRadiances, int startIndex, int endIndex,
+                                               float aatsrRad, float merisSunZenith, double maximumAcceptableDiff,
+                                               float merisViewZenith, float merisAzimuthDifference) {
+
+        float[] radianceResult = new float[]{-1.0f, -1.0f};
+
+        final int nearestIndex = GlintWindspeedLut.findNearestIndex(normalizedRadiances, startIndex, endIndex, aatsrRad);
+        final double minRadianceDiffInLUT = Math.abs(normalizedRadiances[nearestIndex] - aatsrRad);
+        final double windspeed = GlintWindspeedLut.getWindspeed(nearestIndex);
+
+        if (minRadianceDiffInLUT <= maximumAcceptableDiff) {
+            radianceResult[0] = (float) windspeed;
+            radianceResult[1] = calcGlintAnalytical(merisSunZenith, merisViewZenith, merisAzimuthDifference, refractiveIndexReal088,
+                                                    windspeed,  rhoFoam088);
+        }
+
+        return radianceResult;
+    }
+
     private float[] getRadianceFromLUT(double[][] lut, int startIndex, int endIndex, float aatsrRad,
                                       float merisSunZenith, double maximumAcceptableDiff,
                                       float merisViewZenith, float merisAzimuthDifference) {
@@ -129,19 +202,15 @@ public class GlintRetrieval {
     private double[][] createNormalizedRadianceLUT(float merisSunZenith, float merisViewZenith,
                                                      float aatsrAzimuthDifference) {
 
-        final int numberOfWindspeeds = 151;
+        final int numberOfWindspeeds = GlintWindspeedLut.NUMBER_OF_WINDSPEEDS;
 
         double[][] lookupTable = new double[2][numberOfWindspeeds];
 
-        double[] windspeed = new double[numberOfWindspeeds];
-
         for (int i = 0; i < numberOfWindspeeds; i++) {
-            windspeed[i] = i * 13.0 / (numberOfWindspeeds - 1) + 1.0;
-
-            lookupTable[0][i] = windspeed[i];
-            lookupTable[1][i] = calcGlintAnalytical(merisSunZenith, merisViewZenith, aatsrAzimuthDifference,
-                                                     refractiveIndexReal037, windspeed[i], rhoFoam037);
+            lookupTable[0][i] = GlintWindspeedLut.getWindspeed(i);
         }
+        final GlintGeometry geometry = new GlintGeometry(merisSunZenith, merisViewZenith, aatsrAzimuthDifference);
+        geometry.calcGlint(refractiveIndexReal037, rhoFoam037, lookupTable[0], lookupTable[1]);
 
         return lookupTable;
     }
@@ -149,34 +218,13 @@ public class GlintRetrieval {
     public static float calcGlintAnalytical(float sunZenith, float viewZenith,
                                      float azimuthDifference, double refractiveIndex,
                                      double windspeed, double rhoFoam) {
-        final double rhoGlint = calcGlintReflectionAnalytical(sunZenith, viewZenith, azimuthDifference, refractiveIndex, windspeed);
-        final double foamPortion = 2.95 * 1.E-6 * Math.pow(windspeed, 3.25); // Koepke 1985
-        final double rhoSurface = (1.0 - foamPortion) * rhoGlint + foamPortion * rhoFoam;
-        final double sunZenithRad = MathUtils.DTOR * sunZenith;
-        final double rhoSurfaceNormalized = rhoSurface / Math.PI * Math.cos(sunZenithRad);
-        return (float) rhoSurfaceNormalized;
+        return new GlintGeometry(sunZenith, viewZenith, azimuthDifference).calcGlint(refractiveIndex, windspeed, rhoFoam);
     }
 
     public static float calcGlintReflectionAnalytical(float sunZenith, float viewZenith,
                                                float azimuthDifference, double refractiveIndex,
                                                double windspeed) {
-        final float azimuthDifferenceShifted = 180.0f - azimuthDifference;
-        final double sunZenithRad = MathUtils.DTOR * sunZenith;
-        final double viewZenithRad = MathUtils.DTOR * viewZenith;
-        final double azimuthDifferenceShiftedRad = MathUtils.DTOR * azimuthDifferenceShifted;
-
-        final double cos2refl = Math.cos(viewZenithRad) * Math.cos(sunZenithRad) +
-                Math.sin(viewZenithRad) * Math.sin(sunZenithRad) * Math.cos(azimuthDifferenceShiftedRad);
-        final double reflAngleRad = Math.acos(cos2refl) / 2.0;
-        final double cosNorm = (Math.cos(viewZenithRad) + Math.cos(sunZenithRad)) / (2.0 * Math.cos(reflAngleRad));
-        final double transAngleRad = Math.asin(Math.sin(reflAngleRad) / refractiveIndex);
-        final double rho = 0.5 * Math.pow(Math.sin(reflAngleRad - transAngleRad) / Math.sin(reflAngleRad + transAngleRad), 2.0) +
-                0.5 * Math.pow(Math.tan(reflAngleRad - transAngleRad) / Math.tan(reflAngleRad + transAngleRad), 2.0);
-        final double normAngleRad = Math.acos(cosNorm);
-        final double sig2 = 0.003 + 0.00512 * windspeed; // m/s
-        final double prob = Math.exp(-Math.atan(normAngleRad) * Math.atan(normAngleRad) / sig2) / (Math.PI * sig2);
-        final double brdf = Math.PI * rho * prob / (4.0 * Math.cos(viewZenithRad) * Math.cos(sunZenithRad) * Math.pow(cosNorm, 4.0));
-        return (float) brdf;
+        return new GlintGeometry(sunZenith, viewZenith, azimuthDifference).calcGlintReflection(refractiveIndex, windspeed);
     }
 
 }
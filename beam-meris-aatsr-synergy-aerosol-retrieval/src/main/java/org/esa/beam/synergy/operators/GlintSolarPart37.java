@@ -13,13 +13,15 @@ import java.io.IOException;
  */
 public class GlintSolarPart37 {
 
+    private final GlintAuxTable temp2RadianceTable;
     private final double[] tempFromTable;
     private final double[] radianceFromTable;
 
     public GlintSolarPart37() {
         try {
-            tempFromTable = GlintAuxData.getInstance().createTemp2RadianceTable().getTemp();
-            radianceFromTable = GlintAuxData.getInstance().createTemp2RadianceTable().getRad();
+            temp2RadianceTable = GlintAuxData.getInstance().getTemp2RadianceTable();
+            tempFromTable = temp2RadianceTable.getX();
+            radianceFromTable = temp2RadianceTable.getY();
         } catch (IOException e) {
              throw new OperatorException("Failed to read BT to radiance conversion table:\n" + e.getMessage(), e);
         }
@@ -69,7 +71,7 @@ public class GlintSolarPart37 {
     protected float convertBT2Radiance(float brightnessTemp) {
         float radiance = 0.0f;
 
-        final int index = GlintAuxData.getInstance().getNearestTemp2RadianceTableIndex(brightnessTemp, tempFromTable);
+        final int index = temp2RadianceTable.getNearestIndex(brightnessTemp);
         if (index >= 0 && index < radianceFromTable.length-1) {
             radiance = (float) GlintHelpers.linearInterpol(brightnessTemp, tempFromTable[index],
                 tempFromTable[index+1], radianceFromTable[index], radianceFromTable[index+1]);
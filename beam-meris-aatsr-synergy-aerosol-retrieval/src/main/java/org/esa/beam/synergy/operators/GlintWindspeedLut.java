@@ -0,0 +1,236 @@
+package org.esa.beam.synergy.operators;
+
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.RasterDataNode;
+import org.esa.beam.synergy.util.AerosolHelpers;
+
+import java.util.ArrayList;
+
+/**
+ * Precomputed table of the AATSR 3.7um normalized glint radiance over geometry
+ * (sun zenith x view zenith x azimuth difference) and wind speed, see
+ * {@link GlintRetrieval#calcGlintAnalytical}. The table replaces the per pixel computation of the
+ * wind speed LUT in the FUB glint retrieval (breadboard step 2.a.1) by an interpolation.
+ * <p/>
+ * The table of a scene ({@link #createForScene}) covers only the MERIS sun and view zenith range of
+ * the scene, at most sun zeniths up to 80 deg and view zeniths up to 60 deg, in steps of 2 deg, and
+ * azimuth differences in steps of 5 deg. Geometries outside the table are computed per pixel.
+ */
+public class GlintWindspeedLut {
+
+    public static final int NUMBER_OF_WINDSPEEDS = 151;
+
+    private static final double[] WINDSPEEDS = new double[NUMBER_OF_WINDSPEEDS];
+
+    static {
+        for (int i = 0; i < NUMBER_OF_WINDSPEEDS; i++) {
+            WINDSPEEDS[i] = i * 13.0 / (NUMBER_OF_WINDSPEEDS - 1) + 1.0;
+        }
+    }
+
+    // the glint is undefined (0/0) in exact specular geometry, such nodes are evaluated slightly off specular
+    private static final float SPECULAR_OFFSET = 0.01f;
+
+    private static final float MAX_SUN_ZENITH = 80.0f;
+    private static final float MAX_VIEW_ZENITH = 60.0f;
+    private static final float ZENITH_STEP = 2.0f;
+    private static final float AZIMUTH_STEP = 5.0f;
+
+    private final float minSunZenith;
+    private final float minViewZenith;
+    private final float zenithStep;
+    private final float azimuthStep;
+    private final int nSza;
+    private final int nVza;
+    private final int nAzi;
+    private final float[] values;
+
+    /**
+     * Creates a table for the given grid, the zenith and azimuth grids start at 0 deg.
+     *
+     * @param maxSunZenith  - maximum sun zenith (deg)
+     * @param maxViewZenith - maximum view zenith (deg)
+     * @param zenithStep    - sun and view zenith step (deg)
+     * @param azimuthStep   - azimuth difference step (deg), a divisor of 180
+     */
+    GlintWindspeedLut(float maxSunZenith, float maxViewZenith, float zenithStep, float azimuthStep) {
+        this(0.0f, maxSunZenith, 0.0f, maxViewZenith, zenithStep, azimuthStep);
+    }
+
+    /**
+     * Creates a table for the given zenith ranges, which are extended to multiples of the zenith step.
+     *
+     * @param minSunZenith  - minimum sun zenith (deg)
+     * @param maxSunZenith  - maximum sun zenith (deg)
+     * @param minViewZenith - minimum view zenith (deg)
+     * @param maxViewZenith - maximum view zenith (deg)
+     * @param zenithStep    - sun and view zenith step (deg)
+     * @param azimuthStep   - azimuth difference step (deg), a divisor of 180
+     */
+    GlintWindspeedLut(float minSunZenith, float maxSunZenith, float minViewZenith, float maxViewZenith,
+                      float zenithStep, float azimuthStep) {
+        this.zenithStep = zenithStep;
+        this.azimuthStep = azimuthStep;
+        this.minSunZenith = (float) Math.floor(minSunZenith / zenithStep) * zenithStep;
+        this.minViewZenith = (float) Math.floor(minViewZenith / zenithStep) * zenithStep;
+        // at least two nodes per dimension for the interpolation
+        nSza = Math.max((int) Math.ceil((maxSunZenith - this.minSunZenith) / zenithStep), 1) + 1;
+        nVza = Math.max((int) Math.ceil((maxViewZenith - this.minViewZenith) / zenithStep), 1) + 1;
+        nAzi = Math.round(180.0f / azimuthStep) + 1;
+        values = new float[nSza * nVza * nAzi * NUMBER_OF_WINDSPEEDS];
+
+        final double[] radiances = new double[NUMBER_OF_WINDSPEEDS];
+        int index = 0;
+        for (int iSza = 0; iSza < nSza; iSza++) {
+            final float sunZenith = this.minSunZenith + iSza * zenithStep;
+            for (int iVza = 0; iVza < nVza; iVza++) {
+                final float viewZenith = this.minViewZenith + iVza * zenithStep;
+                for (int iAzi = 0; iAzi < nAzi; iAzi++) {
+                    final float azimuthDifference = iAzi * azimuthStep;
+                    computeRadiances(new GlintGeometry(sunZenith, viewZenith, azimuthDifference), radiances);
+                    if (Double.isNaN(radiances[0])) {
+                        computeRadiances(new GlintGeometry(sunZenith, viewZenith + SPECULAR_OFFSET, azimuthDifference),
+                                         radiances);
+                    }
+                    for (int iWs = 0; iWs < NUMBER_OF_WINDSPEEDS; iWs++) {
+                        values[index++] = (float) radiances[iWs];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the table for the MERIS sun and view zenith range of a scene, from a pre-scan of the
+     * geometry (see {@link LutSceneRange#sampleRasters}).
+     *
+     * @param synergyProduct - the synergy product
+     * @return the table, or null if the scene has no geometry within the default limits
+     */
+    public static GlintWindspeedLut createForScene(Product synergyProduct) {
+        final ArrayList<RasterDataNode> geometryList = new ArrayList<RasterDataNode>();
+        AerosolHelpers.getGeometryBandList(synergyProduct, "MERIS", geometryList);
+        // sza, saa, vza, vaa, see AerosolHelpers.getGeometryBandList
+        final float[][] samples = LutSceneRange.sampleRasters(new RasterDataNode[]{geometryList.get(0),
+                                                                                   geometryList.get(2)});
+        final LutSceneRange range = new LutSceneRange(2);
+        for (int k = 0; k < samples[0].length; k++) {
+            if (samples[0][k] <= MAX_SUN_ZENITH && samples[1][k] <= MAX_VIEW_ZENITH) {
+                range.include(0, samples[0][k]);
+                range.include(1, samples[1][k]);
+            }
+        }
+        final double[] min = range.getMin();
+        final double[] max = range.getMax();
+        if (Double.isNaN(min[0]) || Double.isNaN(min[1])) {
+            return null;
+        }
+        // one more node on each side, for the pixels between the sampled ones (as LutSceneRange.MARGIN)
+        final float minSunZenith = (float) Math.max(min[0] - ZENITH_STEP, 0.0);
+        final float maxSunZenith = (float) Math.min(max[0] + ZENITH_STEP, MAX_SUN_ZENITH);
+        final float minViewZenith = (float) Math.max(min[1] - ZENITH_STEP, 0.0);
+        final float maxViewZenith = (float) Math.min(max[1] + ZENITH_STEP, MAX_VIEW_ZENITH);
+        return new GlintWindspeedLut(minSunZenith, maxSunZenith, minViewZenith, maxViewZenith,
+                                     ZENITH_STEP, AZIMUTH_STEP);
+    }
+
+    /**
+     * Returns the wind speed of a wind speed node.
+     *
+     * @param i - the wind speed index
+     * @return the wind speed (m/s)
+     */
+    public static double getWindspeed(int i) {
+        return WINDSPEEDS[i];
+    }
+
+    private static void computeRadiances(GlintGeometry geometry, double[] radiances) {
+        geometry.calcGlint(GlintRetrieval.refractiveIndexReal037, GlintRetrieval.rhoFoam037, WINDSPEEDS, radiances);
+    }
+
+    /**
+     * Checks if a geometry is within the table.
+     *
+     * @param sunZenith  - sun zenith (deg)
+     * @param viewZenith - view zenith (deg)
+     * @return true if the geometry is covered
+     */
+    public boolean covers(float sunZenith, float viewZenith) {
+        return sunZenith >= minSunZenith && sunZenith <= minSunZenith + (nSza - 1) * zenithStep &&
+               viewZenith >= minViewZenith && viewZenith <= minViewZenith + (nVza - 1) * zenithStep;
+    }
+
+    /**
+     * Interpolates the normalized radiances of all wind speed nodes to a geometry,
+     * which must be covered by the table (see {@link #covers(float, float)}).
+     *
+     * @param sunZenith         - sun zenith (deg)
+     * @param viewZenith        - view zenith (deg)
+     * @param azimuthDifference - azimuth difference (deg), as in {@link GlintRetrieval#calcGlintAnalytical}
+     * @param radiances         - the normalized radiances per wind speed node
+     */
+    public void getNormalizedRadiances(float sunZenith, float viewZenith, float azimuthDifference, double[] radiances) {
+        // the glint only depends on the cosine of the azimuth difference
+        float azimuth = azimuthDifference % 360.0f;
+        if (azimuth < 0.0f) {
+            azimuth += 360.0f;
+        }
+        if (azimuth > 180.0f) {
+            azimuth = 360.0f - azimuth;
+        }
+
+        final float xSza = (sunZenith - minSunZenith) / zenithStep;
+        final float xVza = (viewZenith - minViewZenith) / zenithStep;
+        final float xAzi = azimuth / azimuthStep;
+        final int iSza = Math.min((int) xSza, nSza - 2);
+        final int iVza = Math.min((int) xVza, nVza - 2);
+        final int iAzi = Math.min((int) xAzi, nAzi - 2);
+        final float fSza = xSza - iSza;
+        final float fVza = xVza - iVza;
+        final float fAzi = xAzi - iAzi;
+
+        for (int iWs = 0; iWs < NUMBER_OF_WINDSPEEDS; iWs++) {
+            radiances[iWs] = 0.0;
+        }
+        for (int corner = 0; corner < 8; corner++) {
+            final int dSza = corner >> 2;
+            final int dVza = (corner >> 1) & 1;
+            final int dAzi = corner & 1;
+            final double weight = (dSza == 0 ? 1.0f - fSza : fSza) *
+                                  (dVza == 0 ? 1.0f - fVza : fVza) *
+                                  (dAzi == 0 ? 1.0f - fAzi : fAzi);
+            if (weight == 0.0) {
+                continue;
+            }
+            final int offset = (((iSza + dSza) * nVza + iVza + dVza) * nAzi + iAzi + dAzi) * NUMBER_OF_WINDSPEEDS;
+            for (int iWs = 0; iWs < NUMBER_OF_WINDSPEEDS; iWs++) {
+                radiances[iWs] += weight * values[offset + iWs];
+            }
+        }
+    }
+
+    /**
+     * Finds the node closest to a value within a monotone (increasing or decreasing) range
+     * of an array by binary search.
+     *
+     * @param array      - the array
+     * @param startIndex - first index of the range
+     * @param endIndex   - last index of the range
+     * @param value      - the value
+     * @return the index of the node closest to the value
+     */
+    public static int findNearestIndex(double[] array, int startIndex, int endIndex, double value) {
+        final boolean increasing = array[endIndex] >= array[startIndex];
+        int lo = startIndex;
+        int hi = endIndex;
+        while (hi > lo + 1) {
+            final int m = (lo + hi) >> 1;
+            if ((array[m] <= value) == increasing) {
+                lo = m;
+            } else {
+                hi = m;
+            }
+        }
+        return (Math.abs(array[hi] - value) < Math.abs(array[lo] - value)) ? hi : lo;
+    }
+}
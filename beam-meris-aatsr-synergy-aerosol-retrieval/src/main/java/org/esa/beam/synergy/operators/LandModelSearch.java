@@ -0,0 +1,268 @@
+package org.esa.beam.synergy.operators;
+
+import com.bc.ceres.core.ProgressMonitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The search for the best aerosol model of the pixels of a tile in {@link RetrieveAerosolLandOp}: the
+ * retrieval of all models, serially, pruned against the best model of the pixel, or concurrently, and
+ * the reduction to the best model and the flags per pixel.
+ * <p/>
+ * The flags of a retrieved pixel are the pixel flags, success if any model succeeded, and all other
+ * retrieval flags from the last model.
+ */
+class LandModelSearch {
+
+    /**
+     * The retrieval of one aerosol model. A retriever is only used by one thread at a time.
+     */
+    interface Retriever {
+
+        /**
+         * This method retrieves the model for a pixel.
+         *
+         * @param pixel          - the pixel index in the tile
+         * @param pruneThreshold - the error metric above which the search may be abandoned
+         * @return the result
+         */
+        LandRetrievalResult retrieve(int pixel, double pruneThreshold);
+    }
+
+    /**
+     * Creates the retrievers, possibly from several threads at a time.
+     */
+    interface RetrieverFactory {
+
+        Retriever createRetriever(int modelIndex);
+    }
+
+    // smallest pixel range retrieved by one task of the concurrent search
+    static final int MIN_PIXELS_PER_TASK = 64;
+
+    private final int modelCount;
+    private final int successMask;
+    private final int[] pixelFlags;
+    private final boolean[] valid;
+
+    /**
+     * Creates the search for the pixels of a tile.
+     *
+     * @param modelCount  - the number of aerosol models
+     * @param successMask - the flag of a successful retrieval
+     * @param pixelFlags  - the flags of the pixels before the retrieval
+     * @param valid       - true for the pixels to retrieve
+     */
+    LandModelSearch(int modelCount, int successMask, int[] pixelFlags, boolean[] valid) {
+        this.modelCount = modelCount;
+        this.successMask = successMask;
+        this.pixelFlags = pixelFlags;
+        this.valid = valid;
+    }
+
+    /**
+     * This method retrieves all models for all pixels, model by model.
+     *
+     * @param factory     - the retriever factory
+     * @param bestResults - array receiving the best result per pixel
+     * @param pm          - the progress monitor
+     * @return the flags per pixel
+     */
+    int[] searchSerially(RetrieverFactory factory, LandRetrievalResult[] bestResults, ProgressMonitor pm) {
+        final int[] flags = pixelFlags.clone();
+        for (int iModel = 0; iModel < modelCount; iModel++) {
+            final Retriever retriever = factory.createRetriever(iModel);
+            for (int i = 0; i < flags.length; i++) {
+                if (valid[i]) {
+                    final LandRetrievalResult result = retriever.retrieve(i, Double.POSITIVE_INFINITY);
+                    // keep previous success
+                    flags[i] = pixelFlags[i] | (flags[i] & successMask) | result.flag;
+                    if (bestResults[i] == null || result.isBetterThan(bestResults[i])) {
+                        bestResults[i] = result;
+                    }
+                }
+                pm.worked(1);
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * This method retrieves all models pixel by pixel, starting with the winning model of the left (or
+     * upper) neighbour pixel. Since the best model changes slowly in space, the first model tried is
+     * usually the best one, and the AOT searches of the other models are aborted early (see
+     * {@link Aardvarc#isPruned()}). The flags are those of {@link #searchSerially}: the last model is never
+     * pruned, and an abandoned model is retrieved completely if no other model succeeded.
+     *
+     * @param factory        - the retriever factory
+     * @param width          - the width of the tile
+     * @param pruneTolerance - a model search is aborted if its error metric exceeds the best one by this fraction
+     * @param bestResults    - array receiving the best result per pixel
+     * @param pm             - the progress monitor
+     * @return the flags per pixel
+     */
+    int[] searchPruned(RetrieverFactory factory, int width, double pruneTolerance,
+                       LandRetrievalResult[] bestResults, ProgressMonitor pm) {
+        final Retriever[] retrievers = new Retriever[modelCount];
+        for (int iModel = 0; iModel < modelCount; iModel++) {
+            retrievers[iModel] = factory.createRetriever(iModel);
+        }
+
+        final int[] flags = pixelFlags.clone();
+        final boolean[] prunedModels = new boolean[modelCount];
+        for (int i = 0; i < flags.length; i++) {
+            if (valid[i]) {
+                int firstModel = 0;
+                if (i % width > 0 && bestResults[i - 1] != null) {
+                    firstModel = bestResults[i - 1].modelIndex;
+                } else if (i >= width && bestResults[i - width] != null) {
+                    firstModel = bestResults[i - width].modelIndex;
+                }
+                int success = 0;
+                int lastModelFlag = 0;
+                for (int k = 0; k < modelCount; k++) {
+                    final int iModel = (k == 0) ? firstModel : ((k <= firstModel) ? k - 1 : k);
+                    // the flags of the last model are kept, so it is never pruned
+                    final double pruneThreshold = (iModel == modelCount - 1) ?
+                                                  Double.POSITIVE_INFINITY :
+                                                  getPruneThreshold(bestResults[i], pruneTolerance);
+                    final LandRetrievalResult result = retrievers[iModel].retrieve(i, pruneThreshold);
+                    prunedModels[iModel] = result.pruned;
+                    if (result.pruned) {
+                        continue;
+                    }
+                    success |= result.flag & successMask;
+                    if (iModel == modelCount - 1) {
+                        lastModelFlag = result.flag;
+                    }
+                    if (bestResults[i] == null || result.isBetterThan(bestResults[i])) {
+                        bestResults[i] = result;
+                    }
+                }
+                // whether an abandoned model succeeds only matters if no other model did
+                for (int iModel = 0; iModel < modelCount && success == 0; iModel++) {
+                    if (prunedModels[iModel]) {
+                        final LandRetrievalResult result = retrievers[iModel].retrieve(i, Double.POSITIVE_INFINITY);
+                        success = result.flag & successMask;
+                        if (result.isBetterThan(bestResults[i])) {
+                            bestResults[i] = result;
+                        }
+                    }
+                }
+                flags[i] = pixelFlags[i] | success | lastModelFlag;
+            }
+            pm.worked(modelCount);
+        }
+        return flags;
+    }
+
+    /**
+     * This method retrieves all models for all pixels on a fork-join pool. Each model and pixel range
+     * has its own retriever; the best model per pixel is found by a compare-and-set reduction, so no
+     * locking is needed. The models are not pruned: which models are abandoned would depend on the order
+     * the threads finish in, so the results are those of {@link #searchSerially}.
+     *
+     * @param pool        - the fork-join pool
+     * @param factory     - the retriever factory
+     * @param bestResults - array receiving the best result per pixel
+     * @return the flags per pixel
+     */
+    int[] searchConcurrently(ForkJoinPool pool, RetrieverFactory factory, LandRetrievalResult[] bestResults) {
+        final int pixelCount = pixelFlags.length;
+        final int[][] modelFlags = new int[modelCount][pixelCount];
+        final AtomicReferenceArray<LandRetrievalResult> best =
+                new AtomicReferenceArray<LandRetrievalResult>(pixelCount);
+
+        // a few pixel ranges per thread and model: a range creates its own retriever
+        final int parallelism = pool.getParallelism();
+        final int rangeSize = Math.max(MIN_PIXELS_PER_TASK, (pixelCount + parallelism - 1) / parallelism);
+        final List<RetrievalTask> modelTasks = new ArrayList<RetrievalTask>(modelCount);
+        for (int iModel = 0; iModel < modelCount; iModel++) {
+            modelTasks.add(new RetrievalTask(factory, iModel, 0, pixelCount, rangeSize, modelFlags[iModel], best));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(modelTasks);
+            }
+        });
+
+        final int[] flags = new int[pixelCount];
+        for (int i = 0; i < pixelCount; i++) {
+            int success = 0;
+            for (int iModel = 0; iModel < modelCount; iModel++) {
+                success |= modelFlags[iModel][i] & successMask;
+            }
+            flags[i] = pixelFlags[i] | success | modelFlags[modelCount - 1][i];
+            bestResults[i] = best.get(i);
+        }
+        return flags;
+    }
+
+    private static double getPruneThreshold(LandRetrievalResult best, double pruneTolerance) {
+        if (best == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return best.errMetric + pruneTolerance * Math.abs(best.errMetric);
+    }
+
+    private static void offerResult(AtomicReferenceArray<LandRetrievalResult> best, int i,
+                                    LandRetrievalResult candidate) {
+        while (true) {
+            final LandRetrievalResult current = best.get(i);
+            if (current != null && !candidate.isBetterThan(current)) {
+                return;
+            }
+            if (best.compareAndSet(i, current, candidate)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fork-join task retrieving one aerosol model for a range of pixels. The task splits the range, so
+     * that the cores are used even if there are less models than cores.
+     */
+    private class RetrievalTask extends RecursiveAction {
+        private final RetrieverFactory factory;
+        private final int modelIndex;
+        private final int start;
+        private final int end;
+        private final int rangeSize;
+        private final int[] flags;
+        private final AtomicReferenceArray<LandRetrievalResult> best;
+
+        RetrievalTask(RetrieverFactory factory, int modelIndex, int start, int end, int rangeSize, int[] flags,
+                      AtomicReferenceArray<LandRetrievalResult> best) {
+            this.factory = factory;
+            this.modelIndex = modelIndex;
+            this.start = start;
+            this.end = end;
+            this.rangeSize = rangeSize;
+            this.flags = flags;
+            this.best = best;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > rangeSize) {
+                final int mid = (start + end) >>> 1;
+                invokeAll(new RetrievalTask(factory, modelIndex, start, mid, rangeSize, flags, best),
+                          new RetrievalTask(factory, modelIndex, mid, end, rangeSize, flags, best));
+                return;
+            }
+            final Retriever retriever = factory.createRetriever(modelIndex);
+            for (int i = start; i < end; i++) {
+                if (valid[i]) {
+                    final LandRetrievalResult result = retriever.retrieve(i, Double.POSITIVE_INFINITY);
+                    flags[i] = result.flag;
+                    offerResult(best, i, result);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.esa.beam.synergy.operators;
+
+/**
+ * The retrieval result of one aerosol model for one pixel of {@link RetrieveAerosolLandOp}.
+ */
+class LandRetrievalResult {
+    int modelIndex;
+    int aerosolModel;
+    float aot;
+    float errMetric;
+    float retrievalError;
+    int flag;
+    // true if the search was abandoned, the flags are not known then
+    boolean pruned;
+
+    /**
+     * This method compares the error metrics of two results, the lower model index wins a tie.
+     *
+     * @param other - the other result
+     * @return true if this result is the better one
+     */
+    boolean isBetterThan(LandRetrievalResult other) {
+        final int c = Float.compare(errMetric, other.errMetric);
+        return c < 0 || (c == 0 && modelIndex < other.modelIndex);
+    }
+}
@@ -0,0 +1,210 @@
+package org.esa.beam.synergy.operators;
+
+import org.esa.beam.synergy.util.SynergyConstants;
+import org.esa.beam.synergy.util.SynergyLookupTable;
+
+/**
+ * Accuracy report for the reduced precision storage of the land LUTs
+ * (see {@link SynergyLookupTable.Encoding}). For a set of reference pixels, the LUT subsections
+ * and the AOT retrieved by {@link Aardvarc} with the encoded LUT are compared to those obtained
+ * with the full precision LUT.
+ * <p/>
+ * The reference pixels are synthetic: their TOA reflectances are simulated with the full precision
+ * LUT for a set of geometries, pressures, AOTs and soil/vegetation mixtures. Only the difference
+ * between the two retrievals is reported, not the retrieval error itself.
+ * <p/>
+ * Usage: {@code LutEncodingReport <land LUT directory> <aerosol model> <soil spectrum>
+ * <vegetation spectrum> [encoding...]}
+ */
+public class LutEncodingReport {
+
+    private static final float[] SZA = {20.0f, 40.0f, 60.0f};
+    private static final float[] MERIS_VZA = {5.0f, 30.0f};
+    private static final float AATSR_NADIR_VZA = 10.0f;
+    private static final float AATSR_FWARD_VZA = 55.0f;
+    private static final float[] RAZI = {30.0f, 90.0f, 150.0f};
+    private static final float SAA = 150.0f;
+    private static final float[] PRESSURE = {1013.0f, 850.0f};
+    private static final float OZONE = 330.0f;
+    private static final float[] AOT = {0.05f, 0.1f, 0.2f, 0.5f};
+    private static final float[] NDVI = {0.2f, 0.6f};
+
+    private final float[] merisWvl;
+    private final float[] aatsrWvl;
+    private final float[][] soilSpec;
+    private final float[][] vegSpec;
+
+    private LutEncodingReport(float[] merisWvl, float[] aatsrWvl, String soilSpecName, String vegSpecName) {
+        this.merisWvl = merisWvl;
+        this.aatsrWvl = aatsrWvl;
+        soilSpec = new float[][]{new SurfaceSpec(soilSpecName, merisWvl).getSpec(),
+                new SurfaceSpec(soilSpecName, aatsrWvl).getSpec()};
+        vegSpec = new float[][]{new SurfaceSpec(vegSpecName, merisWvl).getSpec(),
+                new SurfaceSpec(vegSpecName, aatsrWvl).getSpec()};
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.out.println("Usage: LutEncodingReport <land LUT directory> <aerosol model> " +
+                               "<soil spectrum> <vegetation spectrum> [encoding...]");
+            System.exit(1);
+        }
+        final float[] merisWvl = parseWavelengths(SynergyConstants.LUT_LAND_MERIS_WAVELEN);
+        final float[] aatsrWvl = parseWavelengths(SynergyConstants.LUT_LAND_AATSR_WAVELEN);
+        final LutEncodingReport report = new LutEncodingReport(merisWvl, aatsrWvl, args[2], args[3]);
+        final ReflectanceBinLUT lut = new ReflectanceBinLUT(args[0], Integer.parseInt(args[1]), merisWvl, aatsrWvl);
+
+        if (args.length == 4) {
+            report.print(lut, SynergyLookupTable.Encoding.HALF_FLOAT);
+            report.print(lut, SynergyLookupTable.Encoding.LINEAR_16);
+        } else {
+            for (int i = 4; i < args.length; i++) {
+                report.print(lut, SynergyLookupTable.Encoding.valueOf(args[i]));
+            }
+        }
+    }
+
+    private void print(ReflectanceBinLUT lut, SynergyLookupTable.Encoding encoding) {
+        final ReflectanceBinLUT encodedLut = lut.getEncodedLut(encoding);
+        final float[] albDim = lut.getAlbDim();
+        final float[] aotDim = lut.getAotDim();
+        final float[][][][] subsec = new float[3][][][];
+        final float[][][][] encodedSubsec = new float[3][][][];
+        for (int iView = 0; iView < 3; iView++) {
+            final int nWvl = (iView == 0) ? merisWvl.length : aatsrWvl.length;
+            subsec[iView] = new float[nWvl][albDim.length][aotDim.length];
+            encodedSubsec[iView] = new float[nWvl][albDim.length][aotDim.length];
+        }
+        final float[] merisToa = new float[merisWvl.length];
+        final float[][] aatsrToa = new float[2][aatsrWvl.length];
+
+        int pixelCount = 0;
+        int failedCount = 0;
+        double maxLutDiff = 0.0;
+        double maxAotDiff = 0.0;
+        double sumAotDiff = 0.0;
+        for (float pres : PRESSURE) {
+            for (float sza : SZA) {
+                for (float merisVza : MERIS_VZA) {
+                    for (float razi : RAZI) {
+                        final float[] geometry = {sza, SAA, merisVza, SAA - razi,
+                                sza, SAA, AATSR_NADIR_VZA, SAA - razi,
+                                sza, SAA, AATSR_FWARD_VZA, SAA - razi};
+                        computeSubsections(lut, pres, geometry, subsec);
+                        computeSubsections(encodedLut, pres, geometry, encodedSubsec);
+                        maxLutDiff = Math.max(maxLutDiff, getMaxRelativeDifference(subsec, encodedSubsec));
+
+                        for (float aot : AOT) {
+                            for (float ndvi : NDVI) {
+                                simulateToa(albDim, aotDim, subsec, aot, ndvi, merisToa, aatsrToa);
+                                final Aardvarc full = retrieve(albDim, aotDim, subsec, pres, geometry, ndvi,
+                                                               merisToa, aatsrToa);
+                                final Aardvarc encoded = retrieve(albDim, aotDim, encodedSubsec, pres, geometry, ndvi,
+                                                                  merisToa, aatsrToa);
+                                pixelCount++;
+                                if (full.isFailed() || encoded.isFailed()) {
+                                    failedCount++;
+                                    continue;
+                                }
+                                final double aotDiff = Math.abs(full.getOptAOT() - encoded.getOptAOT());
+                                maxAotDiff = Math.max(maxAotDiff, aotDiff);
+                                sumAotDiff += aotDiff;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        final int comparedCount = pixelCount - failedCount;
+        System.out.println("LUT encoding " + encoding + ", aerosol model " + lut.getAerosolModel() + ":");
+        System.out.printf("  max. relative LUT subsection difference: %.3e%n", maxLutDiff);
+        System.out.printf("  reference pixels: %d (%d failed retrievals excluded)%n", pixelCount, failedCount);
+        System.out.printf("  max. AOT difference:  %.3e%n", maxAotDiff);
+        System.out.printf("  mean AOT difference: %.3e%n", (comparedCount > 0) ? sumAotDiff / comparedCount : 0.0);
+    }
+
+    private void computeSubsections(ReflectanceBinLUT lut, float pres, float[] geometry, float[][][][] subsec) {
+        for (int iView = 0; iView < 3; iView++) {
+            final boolean isMeris = (iView == 0);
+            final int offset = 4 * iView;
+            lut.subsecLUT(isMeris ? "meris" : "aatsr", pres, OZONE, geometry[2 + offset], geometry[3 + offset],
+                          geometry[offset], geometry[1 + offset], isMeris ? merisWvl : aatsrWvl, subsec[iView]);
+        }
+    }
+
+    private void simulateToa(float[] albDim, float[] aotDim, float[][][][] subsec, float aot, float ndvi,
+                             float[] merisToa, float[][] aatsrToa) {
+        final int iAot = Aardvarc.findAotIndex(aotDim, aot);
+        final float[] toaAtAot = new float[albDim.length];
+        for (int iView = 0; iView < 3; iView++) {
+            final int iSpec = (iView == 0) ? 0 : 1;
+            final float[] toa = (iView == 0) ? merisToa : aatsrToa[iView - 1];
+            for (int iWl = 0; iWl < toa.length; iWl++) {
+                for (int iAlb = 0; iAlb < albDim.length; iAlb++) {
+                    final float[] values = subsec[iView][iWl][iAlb];
+                    toaAtAot[iAlb] = Aardvarc.interpolateAot(aotDim, iAot, values[iAot], values[iAot + 1], aot);
+                }
+                final float surfRefl = ndvi * vegSpec[iSpec][iWl] + (1.0f - ndvi) * soilSpec[iSpec][iWl];
+                toa[iWl] = interpolate(albDim, toaAtAot, surfRefl);
+            }
+        }
+    }
+
+    private Aardvarc retrieve(float[] albDim, float[] aotDim, float[][][][] subsec, float pres, float[] geometry,
+                              float ndvi, float[] merisToa, float[][] aatsrToa) {
+        final Aardvarc aardvarc = new Aardvarc(aatsrWvl, merisWvl);
+        aardvarc.setDoAATSR(true);
+        aardvarc.setDoMERIS(true);
+        aardvarc.setSpecSoil(soilSpec[0]);
+        aardvarc.setSpecVeg(vegSpec[0]);
+        aardvarc.setLutReflMeris(subsec[0]);
+        aardvarc.setLutReflAatsr(new float[][][][]{subsec[1], subsec[2]});
+        aardvarc.setSza(geometry[0], geometry[4], geometry[8]);
+        aardvarc.setSaa(geometry[1], geometry[5], geometry[9]);
+        aardvarc.setVza(geometry[2], geometry[6], geometry[10]);
+        aardvarc.setVaa(geometry[3], geometry[7], geometry[11]);
+        aardvarc.setNdvi(ndvi);
+        aardvarc.setSurfPres(pres);
+        aardvarc.setToaReflMeris(merisToa);
+        aardvarc.setToaReflAatsr(aatsrToa);
+        aardvarc.setAlbDim(albDim);
+        aardvarc.setAotDim(aotDim);
+        aardvarc.runAarvarc();
+        return aardvarc;
+    }
+
+    private static double getMaxRelativeDifference(float[][][][] a, float[][][][] b) {
+        double maxDiff = 0.0;
+        for (int iView = 0; iView < a.length; iView++) {
+            for (int iWl = 0; iWl < a[iView].length; iWl++) {
+                for (int iAlb = 0; iAlb < a[iView][iWl].length; iAlb++) {
+                    for (int iAot = 0; iAot < a[iView][iWl][iAlb].length; iAot++) {
+                        final float value = a[iView][iWl][iAlb][iAot];
+                        if (value != 0.0f) {
+                            final double diff = Math.abs(b[iView][iWl][iAlb][iAot] - value) / Math.abs(value);
+                            maxDiff = Math.max(maxDiff, diff);
+                        }
+                    }
+                }
+            }
+        }
+        return maxDiff;
+    }
+
+    private static float interpolate(float[] x, float[] y, float x0) {
+        int i = 0;
+        while (i < x.length - 2 && x0 > x[i + 1]) {
+            i++;
+        }
+        return y[i] + (y[i + 1] - y[i]) * (x0 - x[i]) / (x[i + 1] - x[i]);
+    }
+
+    private static float[] parseWavelengths(String[] wavelengths) {
+        final float[] wvl = new float[wavelengths.length];
+        for (int i = 0; i < wavelengths.length; i++) {
+            wvl[i] = Float.valueOf(wavelengths[i]);
+        }
+        return wvl;
+    }
+}
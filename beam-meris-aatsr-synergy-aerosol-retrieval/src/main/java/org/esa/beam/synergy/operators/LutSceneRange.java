@@ -0,0 +1,170 @@
+package org.esa.beam.synergy.operators;
+
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.RasterDataNode;
+import org.esa.beam.synergy.util.AerosolHelpers;
+import org.esa.beam.synergy.util.SynergyConstants;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.util.ArrayList;
+
+/**
+ * Coordinate ranges of a LUT which are actually needed for a scene. The ranges are
+ * obtained from a pre-scan of the geometry and pressure of the synergy product, sampled
+ * every {@link #SCAN_STEP} pixels. Dimensions which are not scanned (e.g. AOT, albedo,
+ * wind speed) are left unrestricted ({@code NaN}).
+ */
+public class LutSceneRange {
+
+    /**
+     * Pixel step of the pre-scan.
+     */
+    public static final int SCAN_STEP = 16;
+    /**
+     * Number of additional LUT nodes kept on each side of the scanned ranges.
+     */
+    public static final int MARGIN = 1;
+
+    private final double[] min;
+    private final double[] max;
+
+    public LutSceneRange(int dimensionCount) {
+        min = new double[dimensionCount];
+        max = new double[dimensionCount];
+        for (int i = 0; i < dimensionCount; i++) {
+            min[i] = Double.NaN;
+            max[i] = Double.NaN;
+        }
+    }
+
+    public double[] getMin() {
+        return min;
+    }
+
+    public double[] getMax() {
+        return max;
+    }
+
+    /**
+     * Extends the range of a dimension to a coordinate value. NaN values are ignored.
+     *
+     * @param dim   - the dimension
+     * @param value - the coordinate value
+     */
+    public void include(int dim, double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (Double.isNaN(min[dim])) {
+            min[dim] = value;
+            max[dim] = value;
+        } else {
+            min[dim] = Math.min(min[dim], value);
+            max[dim] = Math.max(max[dim], value);
+        }
+    }
+
+    /**
+     * Scans the ranges of a land LUT ({@link ReflectanceBinLUT}), dimensions (log(pres), vza, razi, sza, aot, alb).
+     * The LUT is used for all views, so the angle ranges are those of MERIS, AATSR nadir and AATSR forward together.
+     *
+     * @param synergyProduct - the synergy product
+     * @return the ranges
+     */
+    public static LutSceneRange createLandRange(Product synergyProduct) {
+        final ArrayList<RasterDataNode> rasterList = new ArrayList<RasterDataNode>();
+        rasterList.add(synergyProduct.getTiePointGrid(SynergyConstants.INPUT_PRESSURE_BAND_NAME));
+        AerosolHelpers.getGeometryBandList(synergyProduct, "MERIS", rasterList);
+        AerosolHelpers.getGeometryBandList(synergyProduct, "AATSR", rasterList);
+        final float[][] samples = sampleRasters(rasterList.toArray(new RasterDataNode[rasterList.size()]));
+
+        final LutSceneRange range = new LutSceneRange(6);
+        for (int k = 0; k < samples[0].length; k++) {
+            range.include(0, Math.log(samples[0][k]));
+            for (int iView = 0; iView < 3; iView++) {
+                // sza, saa, vza, vaa per view, see AerosolHelpers.getGeometryBandList
+                final int offset = 1 + 4 * iView;
+                final float sza = samples[offset][k];
+                final float saa = samples[offset + 1][k];
+                final float vza = samples[offset + 2][k];
+                final float vaa = samples[offset + 3][k];
+                range.include(1, vza);
+                range.include(3, sza);
+                if (!Float.isNaN(saa) && !Float.isNaN(vaa)) {
+                    range.include(2, ReflectanceBinLUT.getRelativeAzimuth(vaa, saa));
+                }
+            }
+        }
+        return range;
+    }
+
+    /**
+     * Scans the ranges of an ocean LUT (see {@link AerosolAuxData#createAerosolOceanLookupTables}),
+     * dimensions (azi, vie, sun, wsp, tau, -pres), for one view. Only view and sun zenith and the pressure
+     * are restricted.
+     *
+     * @param synergyProduct - the synergy product
+     * @param iView          - 0: MERIS, 1: AATSR nadir, 2: AATSR forward
+     * @return the ranges
+     */
+    public static LutSceneRange createOceanRange(Product synergyProduct, int iView) {
+        final ArrayList<RasterDataNode> rasterList = new ArrayList<RasterDataNode>();
+        rasterList.add(synergyProduct.getTiePointGrid(SynergyConstants.INPUT_PRESSURE_BAND_NAME));
+        final ArrayList<RasterDataNode> geometryList = new ArrayList<RasterDataNode>();
+        if (iView == 0) {
+            AerosolHelpers.getGeometryBandList(synergyProduct, "MERIS", geometryList);
+            rasterList.addAll(geometryList);
+        } else {
+            AerosolHelpers.getGeometryBandList(synergyProduct, "AATSR", geometryList);
+            rasterList.addAll(geometryList.subList(4 * (iView - 1), 4 * iView));
+        }
+        final float[][] samples = sampleRasters(rasterList.toArray(new RasterDataNode[rasterList.size()]));
+
+        final LutSceneRange range = new LutSceneRange(6);
+        for (int k = 0; k < samples[0].length; k++) {
+            range.include(5, -samples[0][k]);
+            range.include(2, samples[1][k]);
+            range.include(1, samples[3][k]);
+        }
+        return range;
+    }
+
+    /**
+     * Samples rasters of a product every {@link #SCAN_STEP} pixels (including the last row and column).
+     * The samples are geophysical values, elevations are converted to zenith angles, and no-data
+     * values are set to NaN.
+     *
+     * @param rasters - the rasters
+     * @return the samples per raster
+     */
+    static float[][] sampleRasters(RasterDataNode[] rasters) {
+        final int width = rasters[0].getSceneRasterWidth();
+        final int height = rasters[0].getSceneRasterHeight();
+        final int nx = (width - 1 + SCAN_STEP - 1) / SCAN_STEP + 1;
+        final int ny = (height - 1 + SCAN_STEP - 1) / SCAN_STEP + 1;
+
+        final float[][] samples = new float[rasters.length][nx * ny];
+        final float[] row = new float[width];
+        for (int i = 0; i < rasters.length; i++) {
+            final RasterDataNode raster = rasters[i];
+            final boolean isElevation = raster.getName().matches(".*elev.*");
+            for (int ky = 0; ky < ny; ky++) {
+                final int y = Math.min(ky * SCAN_STEP, height - 1);
+                final Raster data = raster.getGeophysicalImage().getData(new Rectangle(0, y, width, 1));
+                data.getSamples(0, y, width, 1, 0, row);
+                for (int kx = 0; kx < nx; kx++) {
+                    final int x = Math.min(kx * SCAN_STEP, width - 1);
+                    float value = row[x];
+                    if (raster.isNoDataValueUsed() && value == (float) raster.getGeophysicalNoDataValue()) {
+                        value = Float.NaN;
+                    } else if (isElevation) {
+                        value = 90.0f - value;
+                    }
+                    samples[i][ky * nx + kx] = value;
+                }
+            }
+        }
+        return samples;
+    }
+}
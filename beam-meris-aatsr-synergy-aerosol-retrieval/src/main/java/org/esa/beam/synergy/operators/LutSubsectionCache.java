@@ -0,0 +1,179 @@
+package org.esa.beam.synergy.operators;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for the LUT subsections [wvl][alb][aot] of a {@link ReflectanceBinLUT}.
+ * Pressure, ozone and geometry are quantised to the given tolerances, and the subsection
+ * is computed once per bin at the bin centre. Since these quantities vary slowly within
+ * a scene, neighbouring pixels (also of neighbouring tiles) mostly share their subsections.
+ * The least recently used bins are evicted when the capacity is exceeded.
+ * <p/>
+ * The returned subsections are shared and must not be modified. The cache is thread-safe.
+ */
+public class LutSubsectionCache {
+
+    private final ReflectanceBinLUT lut;
+    private final float[] merisWvl;
+    private final float[] aatsrWvl;
+    private final float angleTolerance;
+    private final float pressureTolerance;
+    private final float ozoneTolerance;
+    private final Map<Key, float[][][]> subsections;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param lut               - the LUT
+     * @param merisWvl          - MERIS wavelengths
+     * @param aatsrWvl          - AATSR wavelengths
+     * @param angleTolerance    - bin width for the zenith and relative azimuth angles (deg)
+     * @param pressureTolerance - bin width for the surface pressure (hPa)
+     * @param ozoneTolerance    - bin width for the ozone (DU)
+     * @param capacity          - maximum number of cached subsections
+     */
+    public LutSubsectionCache(ReflectanceBinLUT lut, float[] merisWvl, float[] aatsrWvl,
+                              float angleTolerance, float pressureTolerance, float ozoneTolerance,
+                              final int capacity) {
+        if (angleTolerance <= 0 || pressureTolerance <= 0 || ozoneTolerance <= 0) {
+            throw new IllegalArgumentException("cache tolerances must be positive");
+        }
+        this.lut = lut;
+        this.merisWvl = merisWvl;
+        this.aatsrWvl = aatsrWvl;
+        this.angleTolerance = angleTolerance;
+        this.pressureTolerance = pressureTolerance;
+        this.ozoneTolerance = ozoneTolerance;
+        subsections = new LinkedHashMap<Key, float[][][]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, float[][][]> eldest) {
+                if (size() > capacity) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public ReflectanceBinLUT getLut() {
+        return lut;
+    }
+
+    /**
+     * Returns the LUT subsection for the bin containing the given pressure, ozone and geometry.
+     * The arguments are the same as for
+     * {@link ReflectanceBinLUT#subsecLUT(String, float, float, float, float, float, float, float[], float[][][])}.
+     *
+     * @param instr - "meris" or "aatsr"
+     * @param pres  - surface pressure
+     * @param o3    - ozone
+     * @param vza   - view zenith
+     * @param vaa   - view azimuth
+     * @param sza   - sun zenith
+     * @param saa   - sun azimuth
+     * @return the subsection (shared, must not be modified)
+     */
+    public float[][][] getSubsection(String instr, float pres, float o3, float vza, float vaa, float sza, float saa) {
+        final boolean isMeris = instr.equals("meris");
+        final Key key = new Key(isMeris,
+                                bin(pres, pressureTolerance), bin(o3, ozoneTolerance),
+                                bin(vza, angleTolerance),
+                                bin(ReflectanceBinLUT.getRelativeAzimuth(vaa, saa), angleTolerance),
+                                bin(sza, angleTolerance));
+        float[][][] subsection;
+        synchronized (subsections) {
+            subsection = subsections.get(key);
+        }
+        if (subsection != null) {
+            hitCount.incrementAndGet();
+            return subsection;
+        }
+        missCount.incrementAndGet();
+
+        // computed outside the lock, a concurrent miss on the same bin yields the same values
+        final float[] wvl = isMeris ? merisWvl : aatsrWvl;
+        subsection = new float[wvl.length][lut.getAlbDim().length][lut.getAotDim().length];
+        lut.subsecLUTRelAzi(instr, key.pres * pressureTolerance, key.o3 * ozoneTolerance,
+                            key.vza * angleTolerance, key.relAzi * angleTolerance, key.sza * angleTolerance,
+                            wvl, subsection);
+        synchronized (subsections) {
+            subsections.put(key, subsection);
+        }
+        return subsection;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public double getHitRate() {
+        final long hits = hitCount.get();
+        final long total = hits + missCount.get();
+        return (total > 0) ? (double) hits / total : 0.0;
+    }
+
+    public int size() {
+        synchronized (subsections) {
+            return subsections.size();
+        }
+    }
+
+    private static int bin(float value, float tolerance) {
+        return Math.round(value / tolerance);
+    }
+
+    private static class Key {
+        private final boolean meris;
+        private final int pres;
+        private final int o3;
+        private final int vza;
+        private final int relAzi;
+        private final int sza;
+
+        Key(boolean meris, int pres, int o3, int vza, int relAzi, int sza) {
+            this.meris = meris;
+            this.pres = pres;
+            this.o3 = o3;
+            this.vza = vza;
+            this.relAzi = relAzi;
+            this.sza = sza;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return meris == key.meris && pres == key.pres && o3 == key.o3 && vza == key.vza &&
+                   relAzi == key.relAzi && sza == key.sza;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = meris ? 1 : 0;
+            result = 31 * result + pres;
+            result = 31 * result + o3;
+            result = 31 * result + vza;
+            result = 31 * result + relAzi;
+            result = 31 * result + sza;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.esa.beam.synergy.operators;
+
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.TiePointGrid;
+import org.esa.beam.synergy.util.SynergyConstants;
+
+import java.awt.Rectangle;
+
+/**
+ * Coarse grid of LUT subsections over a rectangle, usually the scene. The subsections
+ * [view][wvl][alb][aot] are computed only at the grid nodes (e.g. at the tie-point positions, where
+ * the geometry is defined) and bilinearly interpolated to the pixels in between. The nodes are spaced
+ * by {@code step} pixels, the last node of each row/column lies on the last pixel of the rectangle.
+ * Nodes are computed on first use, so nodes which are only surrounded by invalid pixels are never
+ * computed, and a scene grid shared by the tiles computes the nodes on the tile borders only once.
+ * <p/>
+ * The grid is thread-safe, the node subsections are shared and never modified.
+ */
+public class LutSubsectionGrid {
+
+    /**
+     * Computes the LUT subsections of a grid node.
+     */
+    public interface NodeComputer {
+
+        /**
+         * @param nodeX - node index in x
+         * @param nodeY - node index in y
+         * @return the subsections [view][wvl][alb][aot] at the node, not modified by the grid
+         */
+        float[][][][] computeNode(int nodeX, int nodeY);
+    }
+
+    private final Rectangle rectangle;
+    private final int step;
+    private final int nodeCountX;
+    private final int nodeCountY;
+    private final NodeComputer nodeComputer;
+    private final float[][][][][] nodes;
+
+    public LutSubsectionGrid(Rectangle rectangle, int step, NodeComputer nodeComputer) {
+        if (step < 1) {
+            throw new IllegalArgumentException("step < 1");
+        }
+        this.rectangle = rectangle;
+        this.step = step;
+        this.nodeComputer = nodeComputer;
+        nodeCountX = getNodeCount(rectangle.width, step);
+        nodeCountY = getNodeCount(rectangle.height, step);
+        nodes = new float[nodeCountX * nodeCountY][][][][];
+    }
+
+    /**
+     * Returns the number of grid nodes along an edge of the rectangle.
+     *
+     * @param length - the width or height
+     * @param step   - the node spacing
+     * @return the number of nodes
+     */
+    public static int getNodeCount(int length, int step) {
+        return (length - 1 + step - 1) / step + 1;
+    }
+
+    /**
+     * Returns the pixel position of a grid node along an edge of the rectangle.
+     *
+     * @param origin - the x or y of the rectangle
+     * @param length - the width or height
+     * @param step   - the node spacing
+     * @param k      - the node index
+     * @return the pixel position
+     */
+    public static int getNodePosition(int origin, int length, int step, int k) {
+        return Math.min(origin + k * step, origin + length - 1);
+    }
+
+    /**
+     * Returns the tie-point spacing of the synergy product in target pixels, at least 1.
+     *
+     * @param synergyProduct - the synergy product
+     * @param scalingFactor  - the number of source pixels per target pixel
+     * @return the node spacing
+     */
+    public static int getTiePointStep(Product synergyProduct, float scalingFactor) {
+        final TiePointGrid grid = synergyProduct.getTiePointGrid(SynergyConstants.INPUT_PRESSURE_BAND_NAME);
+        return Math.max(1, Math.round(grid.getSubSamplingX() / scalingFactor));
+    }
+
+    /**
+     * Computes the MERIS, AATSR nadir and AATSR forward subsections of a {@link ReflectanceBinLUT}.
+     *
+     * @param lut      - the LUT
+     * @param pres     - surface pressure
+     * @param o3       - ozone
+     * @param geometry - sza, saa, vza, vaa of MERIS, AATSR nadir and AATSR forward
+     * @param merisWvl - MERIS wavelengths
+     * @param aatsrWvl - AATSR wavelengths
+     * @return the subsections [view][wvl][alb][aot]
+     */
+    public static float[][][][] computeSubsections(ReflectanceBinLUT lut, float pres, float o3, float[] geometry,
+                                                   float[] merisWvl, float[] aatsrWvl) {
+        final int nAlb = lut.getAlbDim().length;
+        final int nAot = lut.getAotDim().length;
+        final float[][][][] subsections = new float[3][][][];
+        for (int iView = 0; iView < 3; iView++) {
+            final boolean isMeris = (iView == 0);
+            final float[] wvl = isMeris ? merisWvl : aatsrWvl;
+            final int offset = 4 * iView;
+            subsections[iView] = new float[wvl.length][nAlb][nAot];
+            lut.subsecLUT(isMeris ? "meris" : "aatsr", pres, o3, geometry[2 + offset], geometry[3 + offset],
+                          geometry[offset], geometry[1 + offset], wvl, subsections[iView]);
+        }
+        return subsections;
+    }
+
+    public int getNodeCountX() {
+        return nodeCountX;
+    }
+
+    public int getNodeCountY() {
+        return nodeCountY;
+    }
+
+    public int getNodePositionX(int k) {
+        return getNodePosition(rectangle.x, rectangle.width, step, k);
+    }
+
+    public int getNodePositionY(int k) {
+        return getNodePosition(rectangle.y, rectangle.height, step, k);
+    }
+
+    /**
+     * Interpolates the subsections to a pixel of the rectangle.
+     *
+     * @param x      - pixel x
+     * @param y      - pixel y
+     * @param target - the interpolated subsections [view][wvl][alb][aot], same shape as the node subsections
+     */
+    public void interpolate(int x, int y, float[][][][] target) {
+        final int kx = Math.min((x - rectangle.x) / step, Math.max(nodeCountX - 2, 0));
+        final int ky = Math.min((y - rectangle.y) / step, Math.max(nodeCountY - 2, 0));
+        final int kx1 = Math.min(kx + 1, nodeCountX - 1);
+        final int ky1 = Math.min(ky + 1, nodeCountY - 1);
+
+        final float wx = getWeight(x, getNodePositionX(kx), getNodePositionX(kx1));
+        final float wy = getWeight(y, getNodePositionY(ky), getNodePositionY(ky1));
+        final float w00 = (1 - wx) * (1 - wy);
+        final float w10 = wx * (1 - wy);
+        final float w01 = (1 - wx) * wy;
+        final float w11 = wx * wy;
+
+        final float[][][][] n00 = getNode(kx, ky);
+        final float[][][][] n10 = getNode(kx1, ky);
+        final float[][][][] n01 = getNode(kx, ky1);
+        final float[][][][] n11 = getNode(kx1, ky1);
+
+        for (int iView = 0; iView < target.length; iView++) {
+            for (int iWl = 0; iWl < target[iView].length; iWl++) {
+                for (int iAlb = 0; iAlb < target[iView][iWl].length; iAlb++) {
+                    final float[] t = target[iView][iWl][iAlb];
+                    final float[] a00 = n00[iView][iWl][iAlb];
+                    final float[] a10 = n10[iView][iWl][iAlb];
+                    final float[] a01 = n01[iView][iWl][iAlb];
+                    final float[] a11 = n11[iView][iWl][iAlb];
+                    for (int iAot = 0; iAot < t.length; iAot++) {
+                        t[iAot] = w00 * a00[iAot] + w10 * a10[iAot] + w01 * a01[iAot] + w11 * a11[iAot];
+                    }
+                }
+            }
+        }
+    }
+
+    private float[][][][] getNode(int kx, int ky) {
+        final int i = ky * nodeCountX + kx;
+        float[][][][] node;
+        synchronized (nodes) {
+            node = nodes[i];
+        }
+        if (node == null) {
+            // computed outside the lock, a concurrent computation of the same node yields the same values
+            node = nodeComputer.computeNode(kx, ky);
+            synchronized (nodes) {
+                nodes[i] = node;
+            }
+        }
+        return node;
+    }
+
+    private static float getWeight(int pos, int pos0, int pos1) {
+        return (pos1 == pos0) ? 0.0f : (float) (pos - pos0) / (pos1 - pos0);
+    }
+}
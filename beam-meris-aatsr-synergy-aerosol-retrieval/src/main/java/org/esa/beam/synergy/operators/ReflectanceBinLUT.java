@@ -83,6 +83,105 @@ public class ReflectanceBinLUT {
 
     }
 
+    /**
+     * Creates a LUT from tables already in memory (e.g. for testing).
+     *
+     * @param aerosolModelID - the aerosol model
+     * @param toaMERIS       - the MERIS tables, dimensions (log(pres), vza, razi, sza, aot, alb)
+     * @param toaAATSR       - the AATSR tables, same dimensions
+     * @param presDim        - pressure dimension
+     * @param vzaDim         - view zenith dimension
+     * @param raziDim        - relative azimuth dimension
+     * @param szaDim         - sun zenith dimension
+     * @param aotDim         - AOT dimension
+     * @param albDim         - albedo dimension
+     */
+    ReflectanceBinLUT(int aerosolModelID, SynergyLookupTable[] toaMERIS, SynergyLookupTable[] toaAATSR,
+                      float[] presDim, float[] vzaDim, float[] raziDim, float[] szaDim, float[] aotDim, float[] albDim) {
+        this.aerosolModel = aerosolModelID;
+        this.toaMERIS = toaMERIS;
+        this.toaAATSR = toaAATSR;
+        this.presDim = presDim;
+        this.vzaDim = vzaDim;
+        this.raziDim = raziDim;
+        this.szaDim = szaDim;
+        this.aotDim = aotDim;
+        this.albDim = albDim;
+        logPresDim = new float[presDim.length];
+        for (int i = 0; i < presDim.length; i++) {
+            logPresDim[i] = (float) Math.log(presDim[i]);
+        }
+    }
+
+    /**
+     * Returns this LUT restricted to the nodes needed for the given scene ranges.
+     *
+     * @param sceneRange - the scene ranges, dimensions (log(pres), vza, razi, sza, aot, alb)
+     * @return the restricted LUT
+     */
+    public ReflectanceBinLUT getSubLut(LutSceneRange sceneRange) {
+        // all tables share the same dimensions
+        SynergyLookupTable template = null;
+        for (SynergyLookupTable table : toaMERIS) {
+            if (table != null) {
+                template = table;
+                break;
+            }
+        }
+        if (template == null) {
+            return this;
+        }
+        final int[][] ranges = template.getIndexRanges(sceneRange.getMin(), sceneRange.getMax(),
+                                                       LutSceneRange.MARGIN);
+        final int[] first = ranges[0];
+        final int[] last = ranges[1];
+        final SynergyLookupTable[] subToaMeris = getSubTables(toaMERIS, first, last);
+        final SynergyLookupTable[] subToaAatsr = getSubTables(toaAATSR, first, last);
+        return new ReflectanceBinLUT(aerosolModel, subToaMeris, subToaAatsr,
+                                     copyRange(presDim, first[0], last[0]), copyRange(vzaDim, first[1], last[1]),
+                                     copyRange(raziDim, first[2], last[2]), copyRange(szaDim, first[3], last[3]),
+                                     copyRange(aotDim, first[4], last[4]), copyRange(albDim, first[5], last[5]));
+    }
+
+    /**
+     * Returns this LUT with the tables stored in the given encoding.
+     *
+     * @param encoding - the storage encoding of the tables
+     * @return the encoded LUT
+     */
+    public ReflectanceBinLUT getEncodedLut(SynergyLookupTable.Encoding encoding) {
+        return new ReflectanceBinLUT(aerosolModel, getEncodedTables(toaMERIS, encoding),
+                                     getEncodedTables(toaAATSR, encoding),
+                                     presDim, vzaDim, raziDim, szaDim, aotDim, albDim);
+    }
+
+    private static SynergyLookupTable[] getEncodedTables(SynergyLookupTable[] tables,
+                                                         SynergyLookupTable.Encoding encoding) {
+        final SynergyLookupTable[] encodedTables = new SynergyLookupTable[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            if (tables[i] != null) {
+                encodedTables[i] = tables[i].getEncodedTable(encoding);
+            }
+        }
+        return encodedTables;
+    }
+
+    private static SynergyLookupTable[] getSubTables(SynergyLookupTable[] tables, int[] first, int[] last) {
+        final SynergyLookupTable[] subTables = new SynergyLookupTable[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            if (tables[i] != null) {
+                subTables[i] = tables[i].getSubTable(first, last);
+            }
+        }
+        return subTables;
+    }
+
+    private static float[] copyRange(float[] dim, int first, int last) {
+        final float[] range = new float[last - first + 1];
+        System.arraycopy(dim, first, range, 0, range.length);
+        return range;
+    }
+
     public int getAerosolModel() {
         return aerosolModel;
     }
@@ -123,16 +222,59 @@ public class ReflectanceBinLUT {
         return aotDim;
     }
 
+    /**
+     * Interpolates the LUT to the subsection a[wvl][alb][aot] for the given
+     * pressure, ozone and geometry.
+     *
+     * @param instr - "meris" or "aatsr"
+     * @param pres  - surface pressure
+     * @param o3    - ozone
+     * @param vza   - view zenith
+     * @param vaa   - view azimuth
+     * @param sza   - sun zenith
+     * @param saa   - sun azimuth
+     * @param wvl   - wavelengths
+     * @param a     - the subsection
+     */
     public void subsecLUT(String instr, float pres, float o3, float vza, float vaa, float sza, float saa, float[] wvl, float[][][] a) {
+        subsecLUTRelAzi(instr, pres, o3, vza, getRelativeAzimuth(vaa, saa), sza, wvl, a);
+    }
+
+    /**
+     * Computes the relative azimuth as used by the LUT from view and sun azimuth.
+     *
+     * @param vaa - view azimuth
+     * @param saa - sun azimuth
+     * @return the relative azimuth
+     */
+    public static float getRelativeAzimuth(float vaa, float saa) {
+        float relAzi = Math.abs(saa - vaa);
+        relAzi = (relAzi > 180.0f) ? 180 - (360 - relAzi) : 180 - relAzi;
+        return relAzi;
+    }
+
+    /**
+     * Interpolates the LUT to the subsection a[wvl][alb][aot] as
+     * {@link #subsecLUT(String, float, float, float, float, float, float, float[], float[][][])}, with the
+     * relative azimuth instead of the view and sun azimuths.
+     *
+     * @param instr  - "meris" or "aatsr"
+     * @param pres   - surface pressure
+     * @param o3     - ozone
+     * @param vza    - view zenith
+     * @param relAzi - relative azimuth, see {@link #getRelativeAzimuth(float, float)}
+     * @param sza    - sun zenith
+     * @param wvl    - wavelengths
+     * @param a      - the subsection
+     */
+    public void subsecLUTRelAzi(String instr, float pres, float o3, float vza, float relAzi, float sza, float[] wvl,
+                                float[][][] a) {
         final int nWl = wvl.length;
         final int nAot = aotDim.length;
         final int nAlb = albDim.length;
         final boolean isAatsr = instr.equals("aatsr");
         final boolean isMeris = instr.equals("meris");
         
-        float relAzi = Math.abs(saa - vaa);
-        relAzi = (relAzi > 180.0f) ? 180 - (360 - relAzi) : 180 - relAzi;
-        
         final double geomAMF = (1/Math.cos(Math.toRadians(sza))+1/Math.cos(Math.toRadians(vza)))/2;
         final double rad2rfl = Math.PI / Math.cos(Math.toRadians(sza));
         double o3Corr = 1.0;
@@ -163,6 +305,70 @@ public class ReflectanceBinLUT {
         }
     }
     
+    /**
+     * Interpolates the LUT to the TOA reflectances a[wvl][alb] at the given AOT. Only the two
+     * AOT nodes bracketing tau are evaluated, which gives the same values as interpolating the
+     * full subsection of {@link #subsecLUT(String, float, float, float, float, float, float, float[], float[][][])}
+     * to tau, at a fraction of the cost.
+     *
+     * @param instr - "meris" or "aatsr"
+     * @param pres  - surface pressure
+     * @param o3    - ozone
+     * @param vza   - view zenith
+     * @param vaa   - view azimuth
+     * @param sza   - sun zenith
+     * @param saa   - sun azimuth
+     * @param wvl   - wavelengths
+     * @param tau   - AOT
+     * @param a     - the TOA reflectances at tau
+     */
+    public void subsecLUTAtAot(String instr, float pres, float o3, float vza, float vaa, float sza, float saa,
+                               float[] wvl, float tau, float[][] a) {
+        final int nWl = wvl.length;
+        final int nAlb = albDim.length;
+        final boolean isAatsr = instr.equals("aatsr");
+        final boolean isMeris = instr.equals("meris");
+        final int iAot = Aardvarc.findAotIndex(aotDim, tau);
+
+        final double geomAMF = (1/Math.cos(Math.toRadians(sza))+1/Math.cos(Math.toRadians(vza)))/2;
+        final double rad2rfl = Math.PI / Math.cos(Math.toRadians(sza));
+        double o3Corr = 1.0;
+        double wvCorr = 1.0;
+        final double wvCol = 2.0; // constant water vapour column g/cm^2
+
+        final double[] x0 = {Math.log(pres), (double) vza, (double) getRelativeAzimuth(vaa, saa), (double) sza, 0, 0};
+        for (int iWl = 0; iWl < nWl; iWl++){
+            final SynergyLookupTable lut;
+            if (isAatsr) {
+                o3Corr = Math.exp(o3 / 1000 * SynergyConstants.o3CorrSlopeAatsr[iWl] * geomAMF);
+                wvCorr = Math.exp(wvCol* SynergyConstants.wvCorrSlopeAatsr[iWl]);
+                lut = toaAATSR[iWl];
+            } else if (isMeris) {
+                o3Corr = Math.exp(o3 / 1000 * SynergyConstants.o3CorrSlopeMeris[iWl] * geomAMF);
+                wvCorr = Math.exp(wvCol* SynergyConstants.wvCorrSlopeMeris[iWl]);
+                lut = toaMERIS[iWl];
+            } else {
+                lut = null;
+            }
+            for (int iAlb = 0; iAlb < nAlb; iAlb++) {
+                x0[5] = albDim[iAlb];
+                float value0 = 0.0f;
+                float value1 = 0.0f;
+                if (lut != null) {
+                    x0[4] = aotDim[iAot];
+                    value0 = (float) (rad2rfl * lut.getValue(x0));
+                    x0[4] = aotDim[iAot + 1];
+                    value1 = (float) (rad2rfl * lut.getValue(x0));
+                }
+                value0 *= o3Corr;
+                value0 *= wvCorr;
+                value1 *= o3Corr;
+                value1 *= wvCorr;
+                a[iWl][iAlb] = Aardvarc.interpolateAot(aotDim, iAot, value0, value1, tau);
+            }
+        }
+    }
+
     private int findWvlIndex(float lutWvl, float[] merisWvl) {
         int iWvl = 0;
         for (int i = 0; i < merisWvl.length; i++) {
@@ -15,10 +15,12 @@ import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
 import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.SourceProduct;
 import org.esa.beam.framework.gpf.annotations.TargetProduct;
-import org.esa.beam.gpf.operators.standard.BandMathsOp;
 import org.esa.beam.synergy.util.AerosolHelpers;
+import org.esa.beam.synergy.util.MaskKernel;
 import org.esa.beam.synergy.util.SynergyConstants;
+import org.esa.beam.synergy.util.SynergyLookupTable;
 import org.esa.beam.synergy.util.SynergyUtils;
+import org.esa.beam.synergy.util.TileMask;
 import org.esa.beam.util.ProductUtils;
 
 import java.awt.*;
@@ -26,6 +28,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Operator for Aerosol retrieval over land within MERIS/AATSR Synergy project.
@@ -45,6 +48,10 @@ public class RetrieveAerosolLandOp extends Operator {
                    description = "Select a collocated MERIS AATSR product.")
     private Product sourceProduct;
 
+    @SourceProduct(alias = "downscaled", optional = true,
+                   description = "The source rasters downscaled to the aerosol grid (see DownscaleOp).")
+    private Product downscaledProduct;
+
     @TargetProduct(description = "The target product.")
     private Product targetProduct;
 
@@ -80,6 +87,84 @@ public class RetrieveAerosolLandOp extends Operator {
                interval = "[1, 100]")
     private int aveBlock;
 
+    @Parameter(defaultValue = "false",
+               label = "Retrieve the aerosol models concurrently",
+               description = "Evaluate the candidate aerosol models of a tile concurrently on a bounded thread pool.")
+    private boolean parallelModelRetrieval;
+
+    @Parameter(defaultValue = "0",
+               label = "Number of threads for concurrent aerosol model retrieval",
+               description = "Maximum number of threads for concurrent aerosol model retrieval (0 = number of processors).",
+               interval = "[0, 256]")
+    private int modelRetrievalParallelism;
+
+    @Parameter(defaultValue = "false",
+               label = "Prune the aerosol model search",
+               description = "Abort the AOT search of an aerosol model once its error metric stays above the best " +
+                             "model of the pixel, and try the model of the neighbour pixel first. Not used with " +
+                             "the concurrent retrieval, whose results would depend on the thread timing.")
+    private boolean pruneModelSearch;
+
+    @Parameter(defaultValue = "0.1",
+               label = "Relative tolerance for aerosol model pruning",
+               description = "A model search is aborted if its error metric exceeds the best one by this fraction.",
+               interval = "[0, 100]")
+    private float pruneTolerance;
+
+    @Parameter(defaultValue = "false",
+               label = "Cache LUT subsections",
+               description = "Reuse the LUT subsections of pixels with similar geometry, pressure and ozone.")
+    private boolean useSubsectionCache;
+
+    @Parameter(defaultValue = "0.5",
+               label = "Angle bin width of the LUT subsection cache (deg)",
+               interval = "(0, 10]")
+    private float subsectionCacheAngleTolerance;
+
+    @Parameter(defaultValue = "5.0",
+               label = "Pressure bin width of the LUT subsection cache (hPa)",
+               interval = "(0, 100]")
+    private float subsectionCachePressureTolerance;
+
+    @Parameter(defaultValue = "5.0",
+               label = "Ozone bin width of the LUT subsection cache (DU)",
+               interval = "(0, 100]")
+    private float subsectionCacheOzoneTolerance;
+
+    @Parameter(defaultValue = "2048",
+               label = "Maximum number of cached LUT subsections per aerosol model",
+               interval = "[1, 1000000]")
+    private int subsectionCacheSize;
+
+    @Parameter(defaultValue = "false",
+               label = "Interpolate LUT subsections from a coarse grid",
+               description = "Compute the LUT subsections only on a coarse grid of nodes per tile and interpolate " +
+                             "them bilinearly to the pixels in between.")
+    private boolean useSubsectionGrid;
+
+    @Parameter(defaultValue = "0",
+               label = "Node spacing of the LUT subsection grid (pixels)",
+               description = "Node spacing of the LUT subsection grid in target pixels (0 = tie-point spacing).",
+               interval = "[0, 1000]")
+    private int subsectionGridStep;
+
+    @Parameter(defaultValue = "false",
+               label = "Restrict the LUTs to the scene",
+               description = "Keep only the LUT nodes needed for the geometry and pressure range of the scene.")
+    private boolean pruneLutToScene;
+
+    @Parameter(defaultValue = "FULL",
+               valueSet = {"FULL", "HALF_FLOAT", "LINEAR_16"},
+               label = "Storage encoding of the LUTs",
+               description = "Store the LUT values as given (FULL) or in 16 bit (HALF_FLOAT, LINEAR_16), " +
+                             "decoded on the fly during the interpolation.")
+    private String lutEncoding;
+
+    @Parameter(defaultValue = "false",
+               label = "Skip tiles without retrievable pixels",
+               description = "Summarize the flags of a tile first and set tiles without clear daylight land pixels " +
+                             "to no-data without reading the spectral source tiles.")
+    private boolean skipUnretrievableTiles;
 
     private int rasterWidth;
     private int rasterHeight;
@@ -94,25 +179,16 @@ public class RetrieveAerosolLandOp extends Operator {
     private float[] soilSurfSpec;
     private float[] vegSurfSpec;
 
-    private float[] lutAlbedo;
-    private float[] lutAot;
-    private float[][][] lutSubsecMeris;
-    private float[][][][] lutSubsecAatsr;
-
     //private int minNAve;
     //private float noDataVal;
     private Product synergyProduct;
 
-    private final String virtNdviName = "synergyNdvi";
-    private final String landFlagExpression = " (l1_flags_MERIS.LAND_OCEAN) ";
-    private Band isLandBand;
+    static final String NDVI_BAND_NAME = "synergyNdvi";
+    private MaskKernel landKernel;
     //    private final String cloudyFlagExpression = " ( false )";
-    private final String fwdCloudFilter = " (((btemp_fward_1200_AATSR-btemp_nadir_1200_AATSR)/btemp_nadir_1200_AATSR)<-0.05) ";
     //    private String cloudyFlagExpression = fwdCloudFilter + "|| (cloud_flags_synergy.CLOUD || cloud_flags_synergy.CLOUD_FILLED || cloud_flags_synergy.SHADOW)";
-    private String cloudyFlagExpression = fwdCloudFilter + "|| (cloud_flags_synergy.CLOUD || cloud_flags_synergy.CLOUD_FILLED)";
-    private Band isCloudyBand;
-    private final String validFlagExpression = landFlagExpression + " && " + cloudyFlagExpression;
-    private Band isValidBand;
+    private static final double FWD_CLOUD_THRESHOLD = -0.05;
+    private MaskKernel cloudyKernel;
     private int downscaledRasterWidth;
     private int downscaledRasterHeight;
 
@@ -127,6 +203,12 @@ public class RetrieveAerosolLandOp extends Operator {
     private final int aotLowMask = SynergyConstants.aotLowMask;
     private final int errHighMask = SynergyConstants.errHighMask;
 
+    private ForkJoinPool retrievalPool;
+    private LutSubsectionCache[] subsectionCaches;
+    private int gridStep;
+    private LandSubsectionGrids subsectionGrids;
+    private LutSceneRange lutSceneRange;
+
 
     @Override
     public void initialize() throws OperatorException {
@@ -172,20 +254,15 @@ public class RetrieveAerosolLandOp extends Operator {
         AerosolHelpers.getGeometryBandList(synergyProduct, "MERIS", merisGeometryBandList);
         AerosolHelpers.getGeometryBandList(synergyProduct, "AATSR", aatsrGeometryBandList);
 
-        //QUESTION: should I really add a band to the input product????
-        if (!synergyProduct.containsBand(virtNdviName)) {
-            String vNdviExpression = createNdviExpression(merisBandList);
-            VirtualBand virtNDVI = new VirtualBand(virtNdviName, ProductData.TYPE_FLOAT32, rasterWidth, rasterHeight,
-                                                   vNdviExpression);
-            synergyProduct.addBand(virtNDVI);
-        }
+        addNdviBand(synergyProduct, merisBandList);
 
-        BandMathsOp bandArithmOp = BandMathsOp.createBooleanExpressionBand(landFlagExpression, synergyProduct);
-        isLandBand = bandArithmOp.getTargetProduct().getBandAt(0);
-        bandArithmOp = BandMathsOp.createBooleanExpressionBand(cloudyFlagExpression, synergyProduct);
-        isCloudyBand = bandArithmOp.getTargetProduct().getBandAt(0);
-        bandArithmOp = BandMathsOp.createBooleanExpressionBand(validFlagExpression, sourceProduct);
-        isValidBand = bandArithmOp.getTargetProduct().getBandAt(0);
+        if (downscaledProduct == null) {
+            landKernel = createLandKernel(synergyProduct);
+            cloudyKernel = createCloudyKernel(synergyProduct);
+        } else if (scalingFactor != 2 * aveBlock + 1) {
+            // the downscaled product has boxes of aveBlock x aveBlock pixels
+            throw new OperatorException("The downscaled product requires an odd number of pixels to average.");
+        }
 
         merisWvl = new float[merisBandList.size()];
         aatsrWvl = new float[aatsrBandListNad.size()];
@@ -195,6 +272,24 @@ public class RetrieveAerosolLandOp extends Operator {
 
         soilSurfSpec = new SurfaceSpec(soilSpecName, merisWvl).getSpec();
         vegSurfSpec = new SurfaceSpec(vegSpecName, merisWvl).getSpec();
+
+        if (pruneLutToScene) {
+            lutSceneRange = LutSceneRange.createLandRange(synergyProduct);
+        }
+        if (parallelModelRetrieval) {
+            final int parallelism = (modelRetrievalParallelism > 0) ?
+                                    modelRetrievalParallelism : Runtime.getRuntime().availableProcessors();
+            retrievalPool = new ForkJoinPool(parallelism);
+        }
+        if (useSubsectionCache) {
+            subsectionCaches = new LutSubsectionCache[aerosolModels.size()];
+        }
+        if (useSubsectionGrid) {
+            gridStep = (subsectionGridStep > 0) ?
+                       subsectionGridStep : LutSubsectionGrid.getTiePointStep(synergyProduct, scalingFactor);
+            subsectionGrids = new LandSubsectionGrids(new Rectangle(targetProduct.getSceneRasterWidth(),
+                                                                    targetProduct.getSceneRasterHeight()));
+        }
     }
 
     @Override
@@ -204,193 +299,309 @@ public class RetrieveAerosolLandOp extends Operator {
         pm.beginTask("aerosol retrieval", aerosolModels.size() * targetRectangle.width * targetRectangle.height + 4);
         System.out.printf("   Aerosol Retrieval @ Tile %s\n", targetRectangle.toString());
 
-        // define bigger Rectangle for binning of source tiles
-        final int bigWidth = (int) ((2 * aveBlock + 1) * targetRectangle.getWidth());
-        final int bigHeight = (int) ((2 * aveBlock + 1) * targetRectangle.getHeight());
-        final int bigX = (int) ((2 * aveBlock + 1) * targetRectangle.getX());
-        final int bigY = (int) ((2 * aveBlock + 1) * targetRectangle.getY());
-        final Rectangle big = new Rectangle(bigX, bigY, bigWidth, bigHeight);
-
-        // read source tiles
-        final Tile[] merisTiles = getSpecTiles(merisBandList, big);
-
-        Tile[][] aatsrTiles = new Tile[2][0];
-        aatsrTiles[0] = getSpecTiles(aatsrBandListNad, big);
-        aatsrTiles[1] = getSpecTiles(aatsrBandListFwd, big);
-
-        final Tile[] geometryTiles = getGeometryTiles(merisGeometryBandList, aatsrGeometryBandList, big);
-
-        final Tile pressureTile = getSourceTile(
-                synergyProduct.getTiePointGrid(SynergyConstants.INPUT_PRESSURE_BAND_NAME), big);
-        final Tile ozoneTile = getSourceTile(
-                synergyProduct.getTiePointGrid(SynergyConstants.INPUT_OZONE_BAND_NAME), big);
-
-        final Tile isValidTile = getSourceTile(isValidBand, big);
-        final Tile isLandTile = getSourceTile(isLandBand, big);
-        final Tile isCloudyTile = getSourceTile(isCloudyBand, big);
+        // the source pixels are binned from the full resolution tiles or read from the downscaled product
+        final BoxAverage.TileFactory boxAverages = new BoxAverage.TileFactory(this, synergyProduct, downscaledProduct,
+                                                                             targetRectangle, 2 * aveBlock + 1,
+                                                                             aveBlock);
+        TileMask isLandMask = null;
+        TileMask isCloudyMask = null;
+        Tile landFractionTile = null;
+        Tile cloudFractionTile = null;
+        if (boxAverages.isDownscaled()) {
+            landFractionTile = boxAverages.getDownscaledTile(DownscaleOp.LAND_FRACTION_BAND_NAME);
+            cloudFractionTile = boxAverages.getDownscaledTile(DownscaleOp.CLOUD_FRACTION_BAND_NAME);
+        } else {
+            final Rectangle big = new Rectangle((2 * aveBlock + 1) * targetRectangle.x,
+                                                (2 * aveBlock + 1) * targetRectangle.y,
+                                                (2 * aveBlock + 1) * targetRectangle.width,
+                                                (2 * aveBlock + 1) * targetRectangle.height);
+            final Rectangle sourceRectangle = big.intersection(new Rectangle(0, 0, rasterWidth, rasterHeight));
+            isLandMask = landKernel.compute(this, sourceRectangle);
+            isCloudyMask = cloudyKernel.compute(this, sourceRectangle);
+        }
+        BoxAverage sunZenithAverage = null;
+        TileFlagSummary flagSummary = null;
+        if (skipUnretrievableTiles) {
+            sunZenithAverage = boxAverages.getBoxAverage(synergyProduct.getTiePointGrid("sun_zenith"));
+            flagSummary = new TileFlagSummary();
+        }
 
         // define target tiles
-        Tile vNdviTile = getSourceTile(synergyProduct.getBand(virtNdviName), big);
 
         Tile aerosolTile = targetTiles.get(targetProduct.getBand(SynergyConstants.OUTPUT_AOT_BAND_NAME));
         Tile aerosolModelTile = targetTiles.get(targetProduct.getBand(SynergyConstants.OUTPUT_AOTMODEL_BAND_NAME));
         Tile aerosolErrTile = targetTiles.get(targetProduct.getBand(SynergyConstants.OUTPUT_AOTERR_BAND_NAME));
         Tile aerosolFlagTile = targetTiles.get(targetProduct.getBand(aerosolFlagCodingName));
 
-        float[] merisToaReflec = new float[merisBandList.size()];
-        float[][] aatsrToaReflec = new float[2][aatsrBandListNad.size()];
-
-        ReflectanceBinLUT toaLut = null;
-
-        final Aardvarc aardvarc = new Aardvarc(aatsrWvl, merisWvl);
-        aardvarc.setDoAATSR(true);
-        aardvarc.setDoMERIS(true);
-        aardvarc.setSpecSoil(soilSurfSpec);
-        aardvarc.setSpecVeg(vegSurfSpec);
-
-        double[][] minErr = new double[targetRectangle.height][targetRectangle.width];
-
         // initialize target aot tile
         for (int iy = targetRectangle.y; iy < targetRectangle.y + targetRectangle.height; iy++) {
             for (int ix = targetRectangle.x; ix < targetRectangle.x + targetRectangle.width; ix++) {
                 aerosolTile.setSample(ix, iy, SynergyConstants.OUTPUT_AOT_BAND_NODATAVALUE);
                 aerosolErrTile.setSample(ix, iy, SynergyConstants.OUTPUT_AOTERR_BAND_NODATAVALUE);
                 aerosolModelTile.setSample(ix, iy, SynergyConstants.OUTPUT_AOTMODEL_BAND_NODATAVALUE);
-                minErr[iy - targetRectangle.y][ix - targetRectangle.x] = SynergyConstants.OUTPUT_AOTERR_BAND_NODATAVALUE;
             }
         }
 
-        for (Integer aerosolModel : aerosolModels) {
+        // evaluate the flags first, they only need the flag bands
+        final LandPixel[] landPixels = new LandPixel[targetRectangle.width * targetRectangle.height];
+        for (int iY = targetRectangle.y; iY < targetRectangle.y + targetRectangle.height; iY++) {
+            for (int iX = targetRectangle.x; iX < targetRectangle.x + targetRectangle.width; iX++) {
+                checkForCancellation();
+                final int iSrcX = (2 * aveBlock + 1) * iX + aveBlock;
+                final int iSrcY = (2 * aveBlock + 1) * iY + aveBlock;
+
+                final LandPixel landPixel = new LandPixel();
+                landPixel.x = iX;
+                landPixel.y = iY;
+                final boolean isBorder = (iSrcY + aveBlock >= rasterHeight || iSrcX + aveBlock >= rasterWidth);
+                if (isBorder) {
+                    landPixel.flag |= borderMask;
+                }
 
-            if ((toaLut == null) || (toaLut.getAerosolModel() != aerosolModel)) {
-                // provide complete LUT:
-                toaLut = new ReflectanceBinLUT(auxdataPath, aerosolModel, merisWvl, aatsrWvl);
-                lutAlbedo = toaLut.getAlbDim();
-                lutAot = toaLut.getAotDim();
+                final boolean isLand;
+                final boolean isCloudy;
+                if (boxAverages.isDownscaled()) {
+                    // all box pixels land, any box pixel cloudy
+                    isLand = landFractionTile.getSampleFloat(iX, iY) == 1.0f;
+                    isCloudy = cloudFractionTile.getSampleFloat(iX, iY) > 0.0f;
+                } else {
+                    isLand = evaluateFlagPixel(isLandMask, iSrcX, iSrcY, true);
+                    isCloudy = evaluateFlagPixel(isCloudyMask, iSrcX, iSrcY, false);
+                }
+                if (!isLand) {
+                    landPixel.flag |= oceanMask;
+                }
+                if (isCloudy) {
+                    landPixel.flag |= cloudyMask;
+                }
 
-                lutSubsecMeris = new float[merisWvl.length][lutAlbedo.length][lutAot.length];
-                lutSubsecAatsr = new float[2][aatsrWvl.length][lutAlbedo.length][lutAot.length];
+                landPixel.valid = isLand && !isCloudy;
+                if (flagSummary != null) {
+                    flagSummary.add(isLand, isCloudy, false,
+                                    TileFlagSummary.isDaylight(sunZenithAverage.getCenterSampleFloat(iX, iY)));
+                }
+                landPixels[(iY - targetRectangle.y) * targetRectangle.width + (iX - targetRectangle.x)] = landPixel;
             }
+        }
 
-            boolean validPixel = true;
+        if (flagSummary != null && !flagSummary.hasClearLandPixels()) {
+            // nothing to retrieve, the AOT stays no-data
+            System.out.printf("   Skipping tile %s (%s)\n", targetRectangle.toString(), flagSummary.toString());
             for (int iY = targetRectangle.y; iY < targetRectangle.y + targetRectangle.height; iY++) {
                 for (int iX = targetRectangle.x; iX < targetRectangle.x + targetRectangle.width; iX++) {
-                    checkForCancellation();
-                    final int iSrcX = (2 * aveBlock + 1) * iX + aveBlock;
-                    final int iSrcY = (2 * aveBlock + 1) * iY + aveBlock;
-
-                    int flagPixel = 0;
-                    final boolean isBorder = (iSrcY + aveBlock >= rasterHeight || iSrcX + aveBlock >= rasterWidth);
-                    if (isBorder) {
-                        flagPixel |= borderMask;
-                    }
+                    final int i = (iY - targetRectangle.y) * targetRectangle.width + (iX - targetRectangle.x);
+                    aerosolFlagTile.setSample(iX, iY, landPixels[i].flag);
+                }
+            }
+            pm.done();
+            return;
+        }
 
-                    final boolean isLand = evaluateFlagPixel(isLandTile, iSrcX, iSrcY, true);
-                    final boolean isCloudy = evaluateFlagPixel(isCloudyTile, iSrcX, iSrcY, false);
-                    if (!isLand) {
-                        flagPixel |= oceanMask;
-                    }
-                    if (isCloudy) {
-                        flagPixel |= cloudyMask;
+        final BoxAverage[] merisAverages = getBoxAverages(boxAverages, merisBandList);
+
+        BoxAverage[][] aatsrAverages = new BoxAverage[2][0];
+        aatsrAverages[0] = getBoxAverages(boxAverages, aatsrBandListNad);
+        aatsrAverages[1] = getBoxAverages(boxAverages, aatsrBandListFwd);
+
+        final ArrayList<RasterDataNode> geometryBandList = new ArrayList<RasterDataNode>();
+        geometryBandList.addAll(merisGeometryBandList);
+        geometryBandList.addAll(aatsrGeometryBandList);
+        final BoxAverage[] geometryAverages = getBoxAverages(boxAverages, geometryBandList);
+
+        final TiePointGrid pressureGrid = synergyProduct.getTiePointGrid(SynergyConstants.INPUT_PRESSURE_BAND_NAME);
+        final BoxAverage pressureAverage = boxAverages.getBoxAverage(pressureGrid);
+        final TiePointGrid ozoneGrid = synergyProduct.getTiePointGrid(SynergyConstants.INPUT_OZONE_BAND_NAME);
+        final BoxAverage ozoneAverage = boxAverages.getBoxAverage(ozoneGrid);
+
+        final Band ndviBand = synergyProduct.getBand(NDVI_BAND_NAME);
+        final BoxAverage ndviAverage = boxAverages.getBoxAverage(ndviBand);
+
+        // average the source pixels once, they are the same for all aerosol models
+        for (LandPixel landPixel : landPixels) {
+            if (landPixel.valid) {
+                final int iX = landPixel.x;
+                final int iY = landPixel.y;
+                landPixel.geometry = getAvePixel(geometryAverages, geometryBandList, iX, iY);
+
+                landPixel.merisToaReflec = getAvePixel(merisAverages, merisBandList, iX, iY);
+                landPixel.aatsrToaReflec = new float[][]{
+                        getAvePixel(aatsrAverages[0], aatsrBandListNad, iX, iY),
+                        getAvePixel(aatsrAverages[1], aatsrBandListFwd, iX, iY)
+                };
+
+                landPixel.pressure = getAvePixel(pressureAverage, pressureGrid, iX, iY);
+                landPixel.ozone = getAvePixel(ozoneAverage, ozoneGrid, iX, iY);
+                landPixel.ndvi = getAvePixel(ndviAverage, ndviBand, iX, iY);
+            }
+        }
+
+        final int[] pixelFlags = new int[landPixels.length];
+        final boolean[] valid = new boolean[landPixels.length];
+        for (int i = 0; i < landPixels.length; i++) {
+            pixelFlags[i] = landPixels[i].flag;
+            valid[i] = landPixels[i].valid;
+        }
+        final LandModelSearch modelSearch = new LandModelSearch(aerosolModels.size(), successMask, pixelFlags, valid);
+        final LandModelSearch.RetrieverFactory retrievers = createRetrieverFactory(landPixels);
+        final LandRetrievalResult[] bestResults = new LandRetrievalResult[landPixels.length];
+        final int[] flags;
+        if (retrievalPool != null) {
+            flags = modelSearch.searchConcurrently(retrievalPool, retrievers, bestResults);
+            pm.worked(aerosolModels.size() * landPixels.length);
+        } else if (pruneModelSearch) {
+            flags = modelSearch.searchPruned(retrievers, targetRectangle.width, pruneTolerance, bestResults, pm);
+        } else {
+            flags = modelSearch.searchSerially(retrievers, bestResults, pm);
+        }
+
+        for (int iY = targetRectangle.y; iY < targetRectangle.y + targetRectangle.height; iY++) {
+            for (int iX = targetRectangle.x; iX < targetRectangle.x + targetRectangle.width; iX++) {
+                final int i = (iY - targetRectangle.y) * targetRectangle.width + (iX - targetRectangle.x);
+                final LandRetrievalResult result = bestResults[i];
+                if (result != null) {
+                    aerosolTile.setSample(iX, iY, result.aot);
+                    aerosolErrTile.setSample(iX, iY, result.retrievalError);
+                    aerosolModelTile.setSample(iX, iY, result.aerosolModel);
+                }
+                aerosolFlagTile.setSample(iX, iY, flags[i]);
+            }
+        }
+        pm.done();
+    }
+
+    @Override
+    public void dispose() {
+        if (retrievalPool != null) {
+            retrievalPool.shutdown();
+            retrievalPool = null;
+        }
+        if (subsectionCaches != null) {
+            for (LutSubsectionCache cache : subsectionCaches) {
+                if (cache != null) {
+                    SynergyUtils.info(String.format("   LUT subsection cache, aerosol model %d: %d hits, %d misses " +
+                                                    "(hit rate %.3f), %d evictions",
+                                                    cache.getLut().getAerosolModel(), cache.getHitCount(),
+                                                    cache.getMissCount(), cache.getHitRate(),
+                                                    cache.getEvictionCount()));
+                }
+            }
+            subsectionCaches = null;
+        }
+        super.dispose();
+    }
+
+    /**
+     * This method provides the retrievers of the aerosol models for the pixels of a tile. The LUT of a
+     * model is provided once per tile, each retriever has its own {@link LandModelWorkspace}.
+     *
+     * @param landPixels - the averaged input pixels of the tile
+     * @return the retriever factory
+     */
+    private LandModelSearch.RetrieverFactory createRetrieverFactory(final LandPixel[] landPixels) {
+        final ReflectanceBinLUT[] toaLuts = new ReflectanceBinLUT[aerosolModels.size()];
+        return new LandModelSearch.RetrieverFactory() {
+            @Override
+            public LandModelSearch.Retriever createRetriever(int modelIndex) {
+                final ReflectanceBinLUT toaLut;
+                synchronized (toaLuts) {
+                    if (toaLuts[modelIndex] == null) {
+                        toaLuts[modelIndex] = getToaLut(modelIndex);
                     }
-                    // keep previous success
-                    final boolean prevSuccess = aerosolFlagTile.getSampleBit(iX, iY, 2);
-                    if (prevSuccess) {
-                        flagPixel |= successMask;
+                    toaLut = toaLuts[modelIndex];
+                }
+                final LandModelWorkspace workspace = new LandModelWorkspace(modelIndex, toaLut);
+                return new LandModelSearch.Retriever() {
+                    @Override
+                    public LandRetrievalResult retrieve(int pixel, double pruneThreshold) {
+                        checkForCancellation();
+                        return workspace.retrieve(landPixels[pixel], pruneThreshold);
                     }
+                };
+            }
+        };
+    }
 
-                    validPixel = isLand && !isCloudy;
-
-                    float[] geometry = null;
-                    float aveMerisPressure = 0;
-                    float aveMerisOzone = 0;
-                    float aveNdvi = 0;
+    private ReflectanceBinLUT getToaLut(int iModel) {
+        if (subsectionGrids != null) {
+            return subsectionGrids.getLut(iModel);
+        }
+        if (subsectionCaches != null) {
+            return getSubsectionCache(iModel).getLut();
+        }
+        return loadToaLut(iModel);
+    }
 
-                    if (validPixel) {
-                        geometry = getAvePixel(geometryTiles, iSrcX, iSrcY, isValidTile, validPixel);
+    private ReflectanceBinLUT loadToaLut(int iModel) {
+        // provide complete LUT:
+        final ReflectanceBinLUT toaLut = new ReflectanceBinLUT(auxdataPath, aerosolModels.get(iModel),
+                                                               merisWvl, aatsrWvl);
+        final ReflectanceBinLUT sceneLut = (lutSceneRange != null) ? toaLut.getSubLut(lutSceneRange) : toaLut;
+        return sceneLut.getEncodedLut(SynergyLookupTable.Encoding.valueOf(lutEncoding));
+    }
 
-                        merisToaReflec = getAvePixel(merisTiles, iSrcX, iSrcY, isValidTile, validPixel);
-                        aatsrToaReflec = getAvePixel(aatsrTiles, iSrcX, iSrcY, isValidTile, validPixel);
+    private synchronized LutSubsectionCache getSubsectionCache(int iModel) {
+        if (subsectionCaches[iModel] == null) {
+            final ReflectanceBinLUT toaLut = loadToaLut(iModel);
+            subsectionCaches[iModel] = new LutSubsectionCache(toaLut, merisWvl, aatsrWvl,
+                                                              subsectionCacheAngleTolerance,
+                                                              subsectionCachePressureTolerance,
+                                                              subsectionCacheOzoneTolerance,
+                                                              subsectionCacheSize);
+        }
+        return subsectionCaches[iModel];
+    }
 
-                        aveMerisPressure = getAvePixel(pressureTile, iSrcX, iSrcY, isValidTile, validPixel);
-                        aveMerisOzone = getAvePixel(ozoneTile, iSrcX, iSrcY, isValidTile, validPixel);
-                        aveNdvi = getAvePixel(vNdviTile, iSrcX, iSrcY, isValidTile, validPixel);
-                    }
-                    if (validPixel) {
-
-                        final int iSza = 0;
-                        int iSaa = 1;
-                        int iVza = 2;
-                        int iVaa = 3;
-                        int offset = 0; // MERIS geometry
-                        toaLut.subsecLUT("meris", aveMerisPressure, aveMerisOzone, geometry[iVza + offset],
-                                         geometry[iVaa + offset],
-                                         geometry[iSza + offset], geometry[iSaa + offset], merisWvl, lutSubsecMeris);
-                        offset = 4; // AATSR NADIR geometry
-                        toaLut.subsecLUT("aatsr", aveMerisPressure, aveMerisOzone, geometry[iVza + offset],
-                                         geometry[iVaa + offset],
-                                         geometry[iSza + offset], geometry[iSaa + offset], aatsrWvl, lutSubsecAatsr[0]);
-                        offset = 8; // AATSR FWARD geometry
-                        toaLut.subsecLUT("aatsr", aveMerisPressure, aveMerisOzone, geometry[iVza + offset],
-                                         geometry[iVaa + offset],
-                                         geometry[iSza + offset], geometry[iSaa + offset], aatsrWvl, lutSubsecAatsr[1]);
-
-                        aardvarc.setSza(geometry[0], geometry[4], geometry[8]);
-                        aardvarc.setSaa(geometry[1], geometry[5], geometry[9]);
-                        aardvarc.setVza(geometry[2], geometry[6], geometry[10]);
-                        aardvarc.setVaa(geometry[3], geometry[7], geometry[11]);
-                        aardvarc.setNdvi(aveNdvi);
-                        aardvarc.setSurfPres(aveMerisPressure);
-                        aardvarc.setToaReflMeris(merisToaReflec);
-                        aardvarc.setToaReflAatsr(aatsrToaReflec);
-                        aardvarc.setLutReflAatsr(lutSubsecAatsr);
-                        aardvarc.setLutReflMeris(lutSubsecMeris);
-                        aardvarc.setAlbDim(lutAlbedo);
-                        aardvarc.setAotDim(lutAot);
-
-                        // now run the retrieval...
-                        aardvarc.runAarvarc();
-
-                        // and these are the retrieval results:
-                        boolean retrievalFailed = aardvarc.isFailed();
-                        final float aot = aardvarc.getOptAOT();    // AOT (tau_550)
-                        final float errMetric = aardvarc.getOptErr();    // E
-                        final float retrievalError = aardvarc.getRetrievalErr();
-                        retrievalFailed = retrievalFailed || aot < 1.0e-3 || (aot > 0.1 && (retrievalError / aot) > 5);
-                        if (!retrievalFailed) {
-                            flagPixel |= successMask;
-                        }
-                        if (aardvarc.isFailed()) {
-                            flagPixel |= negMetricMask;
-                        }
-                        if (aot < 1.0e-5) {
-                            flagPixel |= aotLowMask;
-                        }
-                        if (aot > 0.1 && (retrievalError / aot) > 5) {
-                            flagPixel |= errHighMask;
-                        }
-
-                        final double errTemp = minErr[iY - targetRectangle.y][iX - targetRectangle.x];
-                        if ((Double.compare(errTemp, SynergyConstants.OUTPUT_AOTERR_BAND_NODATAVALUE) == 0
-                                || errMetric < errTemp)) {
-
-                            minErr[iY - targetRectangle.y][iX - targetRectangle.x] = errMetric;
-                            aerosolTile.setSample(iX, iY, aot);
-                            aerosolErrTile.setSample(iX, iY, retrievalError);
-                            aerosolModelTile.setSample(iX, iY, aerosolModel);
-                        }
+    /**
+     * This method provides the land mask kernel of the retrieval: l1_flags_MERIS.LAND_OCEAN
+     *
+     * @param synergyProduct - the synergy product
+     * @return MaskKernel
+     */
+    static MaskKernel createLandKernel(Product synergyProduct) {
+        return MaskKernel.flag(synergyProduct.getBand("l1_flags" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS),
+                               "LAND_OCEAN");
+    }
 
-                    }
+    /**
+     * This method provides the cloud mask kernel of the retrieval:
+     * ((btemp_fward_1200_AATSR-btemp_nadir_1200_AATSR)/btemp_nadir_1200_AATSR) &lt; -0.05
+     * || cloud_flags_synergy.CLOUD || cloud_flags_synergy.CLOUD_FILLED
+     *
+     * @param synergyProduct - the synergy product
+     * @return MaskKernel
+     */
+    static MaskKernel createCloudyKernel(Product synergyProduct) {
+        final Band cloudFlagBand = synergyProduct.getBand("cloud_flags_synergy");
+        return MaskKernel.or(
+                MaskKernel.relativeDifferenceBelow(
+                        synergyProduct.getBand("btemp_fward_1200" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR),
+                        synergyProduct.getBand("btemp_nadir_1200" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR),
+                        FWD_CLOUD_THRESHOLD),
+                MaskKernel.flag(cloudFlagBand, "CLOUD"),
+                MaskKernel.flag(cloudFlagBand, "CLOUD_FILLED"));
+    }
 
-                    aerosolFlagTile.setSample(iX, iY, flagPixel);
-                    pm.worked(1);
-                }
+    /**
+     * This method adds the virtual NDVI band used by the retrieval to the synergy product, if not yet there.
+     *
+     * @param synergyProduct - the synergy product
+     * @param merisBandList  - the MERIS spectral bands
+     */
+    static void addNdviBand(Product synergyProduct, ArrayList<Band> merisBandList) {
+        //QUESTION: should I really add a band to the input product????
+        synchronized (synergyProduct) {
+            if (!synergyProduct.containsBand(NDVI_BAND_NAME)) {
+                String vNdviExpression = createNdviExpression(merisBandList);
+                VirtualBand virtNDVI = new VirtualBand(NDVI_BAND_NAME, ProductData.TYPE_FLOAT32,
+                                                       synergyProduct.getSceneRasterWidth(),
+                                                       synergyProduct.getSceneRasterHeight(),
+                                                       vNdviExpression);
+                synergyProduct.addBand(virtNDVI);
             }
         }
-        pm.done();
     }
 
-    private String createNdviExpression(ArrayList<Band> bandList) {
+    private static String createNdviExpression(ArrayList<Band> bandList) {
         final float NDVI_RED_WVL = 680.0f;
         final float NDVI_IR_WVL = 880.0f;
         int iRED = 0;
@@ -463,12 +674,12 @@ public class RetrieveAerosolLandOp extends Operator {
         targetProduct.addBand(targetBand);
     }
 
-    private boolean evaluateFlagPixel(Tile flagTile, int iTarX, int iTarY, boolean flag) {
+    private boolean evaluateFlagPixel(TileMask flagMask, int iTarX, int iTarY, boolean flag) {
         if (flag) {
             for (int iy = iTarY - aveBlock; iy <= iTarY + aveBlock; iy++) {
                 for (int ix = iTarX - aveBlock; ix <= iTarX + aveBlock; ix++) {
                     if (iy < rasterHeight && ix < rasterWidth) {
-                        flag = flag && flagTile.getSampleBoolean(ix, iy);
+                        flag = flag && flagMask.get(ix, iy);
                     }
                 }
             }
@@ -476,7 +687,7 @@ public class RetrieveAerosolLandOp extends Operator {
             for (int iy = iTarY - aveBlock; iy <= iTarY + aveBlock; iy++) {
                 for (int ix = iTarX - aveBlock; ix <= iTarX + aveBlock; ix++) {
                     if (iy < rasterHeight && ix < rasterWidth) {
-                        flag = flag || flagTile.getSampleBoolean(ix, iy);
+                        flag = flag || flagMask.get(ix, iy);
                     }
                 }
             }
@@ -484,82 +695,273 @@ public class RetrieveAerosolLandOp extends Operator {
         return flag;
     }
 
-    private float getAvePixel(Tile inputTile, int iTarX, int iTarY, Tile flags, boolean validPixel) {
-
-        double value = 0;
-        final double noDataValue = inputTile.getRasterDataNode().getNoDataValue();
-        int n = 0;
+    private float getAvePixel(BoxAverage boxAverage, RasterDataNode raster, int iX, int iY) {
+        final int iTarX = (2 * aveBlock + 1) * iX + aveBlock;
+        final int iTarY = (2 * aveBlock + 1) * iY + aveBlock;
         int minNAve = (iTarY + aveBlock >= rasterHeight) ? (rasterHeight - iTarY - aveBlock) : (int) scalingFactor;
         minNAve *= (iTarX + aveBlock >= rasterWidth) ? (rasterWidth - iTarX - aveBlock) : (int) scalingFactor;
 
-        for (int iy = iTarY - aveBlock; iy <= iTarY + aveBlock; iy++) {
-            for (int ix = iTarX - aveBlock; ix <= iTarX + aveBlock; ix++) {
-                if (iy < rasterHeight && ix < rasterWidth) {
-                    double val = inputTile.getSampleDouble(ix, iy);
-                    boolean valid = (Double.compare(val, noDataValue) != 0);
-                    if (valid) {
-                        n++;
-                        value += val;
-                    }
-                }
-            }
+        double value = boxAverage.getMean(iX, iY, minNAve);
+        if (Double.compare(value, raster.getNoDataValue()) != 0 && raster.getName().matches(".*elev.*")) {
+            value = 90.0f - value;
         }
-        validPixel = validPixel && (!(n < minNAve));
-        if (validPixel) {
-            value /= n;
-            if (inputTile.getRasterDataNode().getName().matches(".*elev.*")) {
-                value = 90.0f - value;
-            }
-        } else {
-            value = noDataValue;
-        }
-
         return (float) value;
     }
 
-    private float[] getAvePixel(Tile[] tileArr, int iTarX, int iTarY, Tile flags, boolean validPixel) {
+    private float[] getAvePixel(BoxAverage[] boxAverages, List<? extends RasterDataNode> rasters, int iX, int iY) {
 
-        float[] valueArr = new float[tileArr.length];
+        float[] valueArr = new float[boxAverages.length];
 
         for (int i = 0; i < valueArr.length; i++) {
-            valueArr[i] = getAvePixel(tileArr[i], iTarX, iTarY, flags, validPixel);
+            valueArr[i] = getAvePixel(boxAverages[i], rasters.get(i), iX, iY);
         }
 
         return valueArr;
     }
 
-    private float[][] getAvePixel(Tile[][] tileArr2, int iTarX, int iTarY, Tile flags, boolean validPixel) {
-        float[][] valueArr2 = new float[2][0];
-        valueArr2[0] = getAvePixel(tileArr2[0], iTarX, iTarY, flags, validPixel);
-        valueArr2[1] = getAvePixel(tileArr2[1], iTarX, iTarY, flags, validPixel);
-
-        return valueArr2;
+    private static BoxAverage[] getBoxAverages(BoxAverage.TileFactory tileFactory,
+                                               List<? extends RasterDataNode> rasters) {
+        BoxAverage[] boxAverages = new BoxAverage[rasters.size()];
+        for (int i = 0; i < boxAverages.length; i++) {
+            boxAverages[i] = tileFactory.getBoxAverage(rasters.get(i));
+        }
+        return boxAverages;
     }
 
-    private Tile[] getGeometryTiles(ArrayList<RasterDataNode> merisGeometryBandList,
-                                    ArrayList<RasterDataNode> aatsrGeometryBandList, Rectangle rec) {
-        ArrayList<RasterDataNode> bandList = new ArrayList<RasterDataNode>();
-        bandList.addAll(merisGeometryBandList);
-        bandList.addAll(aatsrGeometryBandList);
-        Tile[] geometryTiles = new Tile[bandList.size()];
+    private void readWavelength(ArrayList<Band> bandList, float[] wvl) {
         for (int i = 0; i < bandList.size(); i++) {
-            Tile sourceTile = getSourceTile(bandList.get(i), rec);
-            geometryTiles[i] = sourceTile;
+            wvl[i] = bandList.get(i).getSpectralWavelength();
         }
-        return geometryTiles;
     }
 
-    private Tile[] getSpecTiles(ArrayList<Band> sourceBandList, Rectangle rec) {
-        Tile[] sourceTiles = new Tile[sourceBandList.size()];
-        for (int i = 0; i < sourceTiles.length; i++) {
-            sourceTiles[i] = getSourceTile(sourceBandList.get(i), rec);
+    /**
+     * The source pixels of one target pixel, averaged over the aveBlock box.
+     */
+    private static class LandPixel {
+        int x;
+        int y;
+        int flag;
+        boolean valid;
+        float[] geometry;
+        float[] merisToaReflec;
+        float[][] aatsrToaReflec;
+        float pressure;
+        float ozone;
+        float ndvi;
+    }
+
+    /**
+     * Workspace for the retrieval of a single aerosol model: LUT subsections and {@link Aardvarc}
+     * instance. A workspace must only be used by one thread at a time, the LUT may be shared.
+     */
+    private class LandModelWorkspace {
+        private final int modelIndex;
+        private final ReflectanceBinLUT toaLut;
+        private final float[] lutAlbedo;
+        private final float[] lutAot;
+        private final float[][][] lutSubsecMeris;
+        private final float[][][][] lutSubsecAatsr;
+        private final Aardvarc aardvarc;
+        private final LutSubsectionCache subsectionCache;
+        private final LutSubsectionGrid subsectionGrid;
+        private final float[][][][] lutSubsecViews;
+
+        LandModelWorkspace(int modelIndex, ReflectanceBinLUT toaLut) {
+            this.modelIndex = modelIndex;
+            this.toaLut = toaLut;
+            subsectionCache = (subsectionCaches != null) ? getSubsectionCache(modelIndex) : null;
+            subsectionGrid = (subsectionGrids != null) ? subsectionGrids.getGrid(modelIndex) : null;
+            lutAlbedo = toaLut.getAlbDim();
+            lutAot = toaLut.getAotDim();
+            lutSubsecMeris = new float[merisWvl.length][lutAlbedo.length][lutAot.length];
+            lutSubsecAatsr = new float[2][aatsrWvl.length][lutAlbedo.length][lutAot.length];
+            lutSubsecViews = new float[][][][]{lutSubsecMeris, lutSubsecAatsr[0], lutSubsecAatsr[1]};
+
+            aardvarc = new Aardvarc(aatsrWvl, merisWvl);
+            aardvarc.setDoAATSR(true);
+            aardvarc.setDoMERIS(true);
+            aardvarc.setSpecSoil(soilSurfSpec);
+            aardvarc.setSpecVeg(vegSurfSpec);
+        }
+
+        LandRetrievalResult retrieve(LandPixel pixel, double pruneThreshold) {
+            final float[] geometry = pixel.geometry;
+            final int iSza = 0;
+            int iSaa = 1;
+            int iVza = 2;
+            int iVaa = 3;
+            if (subsectionGrid != null) {
+                subsectionGrid.interpolate(pixel.x, pixel.y, lutSubsecViews);
+                aardvarc.setLutReflAatsr(lutSubsecAatsr);
+                aardvarc.setLutReflMeris(lutSubsecMeris);
+            } else if (subsectionCache != null) {
+                int offset = 0; // MERIS geometry
+                aardvarc.setLutReflMeris(subsectionCache.getSubsection(
+                        "meris", pixel.pressure, pixel.ozone, geometry[iVza + offset], geometry[iVaa + offset],
+                        geometry[iSza + offset], geometry[iSaa + offset]));
+                final float[][][][] cachedSubsecAatsr = new float[2][][][];
+                offset = 4; // AATSR NADIR geometry
+                cachedSubsecAatsr[0] = subsectionCache.getSubsection(
+                        "aatsr", pixel.pressure, pixel.ozone, geometry[iVza + offset], geometry[iVaa + offset],
+                        geometry[iSza + offset], geometry[iSaa + offset]);
+                offset = 8; // AATSR FWARD geometry
+                cachedSubsecAatsr[1] = subsectionCache.getSubsection(
+                        "aatsr", pixel.pressure, pixel.ozone, geometry[iVza + offset], geometry[iVaa + offset],
+                        geometry[iSza + offset], geometry[iSaa + offset]);
+                aardvarc.setLutReflAatsr(cachedSubsecAatsr);
+            } else {
+                int offset = 0; // MERIS geometry
+                toaLut.subsecLUT("meris", pixel.pressure, pixel.ozone, geometry[iVza + offset],
+                                 geometry[iVaa + offset],
+                                 geometry[iSza + offset], geometry[iSaa + offset], merisWvl, lutSubsecMeris);
+                offset = 4; // AATSR NADIR geometry
+                toaLut.subsecLUT("aatsr", pixel.pressure, pixel.ozone, geometry[iVza + offset],
+                                 geometry[iVaa + offset],
+                                 geometry[iSza + offset], geometry[iSaa + offset], aatsrWvl, lutSubsecAatsr[0]);
+                offset = 8; // AATSR FWARD geometry
+                toaLut.subsecLUT("aatsr", pixel.pressure, pixel.ozone, geometry[iVza + offset],
+                                 geometry[iVaa + offset],
+                                 geometry[iSza + offset], geometry[iSaa + offset], aatsrWvl, lutSubsecAatsr[1]);
+                aardvarc.setLutReflAatsr(lutSubsecAatsr);
+                aardvarc.setLutReflMeris(lutSubsecMeris);
+            }
+
+            aardvarc.setSza(geometry[0], geometry[4], geometry[8]);
+            aardvarc.setSaa(geometry[1], geometry[5], geometry[9]);
+            aardvarc.setVza(geometry[2], geometry[6], geometry[10]);
+            aardvarc.setVaa(geometry[3], geometry[7], geometry[11]);
+            aardvarc.setNdvi(pixel.ndvi);
+            aardvarc.setSurfPres(pixel.pressure);
+            aardvarc.setToaReflMeris(pixel.merisToaReflec);
+            aardvarc.setToaReflAatsr(pixel.aatsrToaReflec);
+            aardvarc.setAlbDim(lutAlbedo);
+            aardvarc.setAotDim(lutAot);
+            aardvarc.setPruneThreshold(pruneThreshold);
+
+            // now run the retrieval...
+            aardvarc.runAarvarc();
+
+            // and these are the retrieval results:
+            final LandRetrievalResult result = new LandRetrievalResult();
+            result.modelIndex = modelIndex;
+            result.aerosolModel = toaLut.getAerosolModel();
+            result.aot = aardvarc.getOptAOT();    // AOT (tau_550)
+            result.errMetric = aardvarc.getOptErr();    // E
+            result.retrievalError = aardvarc.getRetrievalErr();
+            if (aardvarc.isPruned()) {
+                // search abandoned, this model is worse than the best one known for the pixel
+                result.pruned = true;
+                return result;
+            }
+
+            final float aot = result.aot;
+            final float retrievalError = result.retrievalError;
+            final boolean retrievalFailed = aardvarc.isFailed() || aot < 1.0e-3 ||
+                                            (aot > 0.1 && (retrievalError / aot) > 5);
+            if (!retrievalFailed) {
+                result.flag |= successMask;
+            }
+            if (aardvarc.isFailed()) {
+                result.flag |= negMetricMask;
+            }
+            if (aot < 1.0e-5) {
+                result.flag |= aotLowMask;
+            }
+            if (aot > 0.1 && (retrievalError / aot) > 5) {
+                result.flag |= errHighMask;
+            }
+            return result;
         }
-        return sourceTiles;
     }
 
-    private void readWavelength(ArrayList<Band> bandList, float[] wvl) {
-        for (int i = 0; i < bandList.size(); i++) {
-            wvl[i] = bandList.get(i).getSpectralWavelength();
+    /**
+     * The LUT subsection grids of the scene, one per aerosol model, built on first use and shared by all
+     * tiles. A grid keeps the LUT of its model, so the LUT is not read again for each tile. The grid nodes
+     * take the geometry, pressure and ozone at the centre of their source pixel box instead of the box
+     * average; these quantities are tie-point interpolated, so both agree apart from the scene border.
+     */
+    private class LandSubsectionGrids {
+        private final Rectangle rectangle;
+        private final int nodeCountX;
+        private final LandPixel[] nodePixels;
+        private final ReflectanceBinLUT[] luts;
+        private final LutSubsectionGrid[] grids;
+
+        LandSubsectionGrids(Rectangle rectangle) {
+            this.rectangle = rectangle;
+            nodeCountX = LutSubsectionGrid.getNodeCount(rectangle.width, gridStep);
+            final int nodeCountY = LutSubsectionGrid.getNodeCount(rectangle.height, gridStep);
+            nodePixels = new LandPixel[nodeCountX * nodeCountY];
+            luts = new ReflectanceBinLUT[aerosolModels.size()];
+            grids = new LutSubsectionGrid[aerosolModels.size()];
+        }
+
+        synchronized ReflectanceBinLUT getLut(int iModel) {
+            if (luts[iModel] == null) {
+                luts[iModel] = (subsectionCaches != null) ? getSubsectionCache(iModel).getLut() : loadToaLut(iModel);
+            }
+            return luts[iModel];
+        }
+
+        synchronized LutSubsectionGrid getGrid(int iModel) {
+            if (grids[iModel] == null) {
+                final ReflectanceBinLUT toaLut = getLut(iModel);
+                grids[iModel] = new LutSubsectionGrid(rectangle, gridStep, new LutSubsectionGrid.NodeComputer() {
+                    @Override
+                    public float[][][][] computeNode(int nodeX, int nodeY) {
+                        final LandPixel nodePixel = getNodePixel(nodeX, nodeY);
+                        return LutSubsectionGrid.computeSubsections(toaLut, nodePixel.pressure, nodePixel.ozone,
+                                                                    nodePixel.geometry, merisWvl, aatsrWvl);
+                    }
+                });
+            }
+            return grids[iModel];
+        }
+
+        // the node pixels are the same for all models
+        private LandPixel getNodePixel(int nodeX, int nodeY) {
+            final int i = nodeY * nodeCountX + nodeX;
+            LandPixel nodePixel;
+            synchronized (nodePixels) {
+                nodePixel = nodePixels[i];
+            }
+            if (nodePixel == null) {
+                nodePixel = computeNodePixel(nodeX, nodeY);
+                synchronized (nodePixels) {
+                    nodePixels[i] = nodePixel;
+                }
+            }
+            return nodePixel;
+        }
+
+        private LandPixel computeNodePixel(int nodeX, int nodeY) {
+            final int iX = LutSubsectionGrid.getNodePosition(rectangle.x, rectangle.width, gridStep, nodeX);
+            final int iY = LutSubsectionGrid.getNodePosition(rectangle.y, rectangle.height, gridStep, nodeY);
+            // the node may lie outside the tile which needs it first
+            final BoxAverage.TileFactory boxAverages = new BoxAverage.TileFactory(RetrieveAerosolLandOp.this,
+                                                                                 synergyProduct, downscaledProduct,
+                                                                                 new Rectangle(iX, iY, 1, 1),
+                                                                                 2 * aveBlock + 1, aveBlock);
+            final ArrayList<RasterDataNode> geometryRasters = new ArrayList<RasterDataNode>();
+            geometryRasters.addAll(merisGeometryBandList);
+            geometryRasters.addAll(aatsrGeometryBandList);
+
+            final LandPixel nodePixel = new LandPixel();
+            nodePixel.x = iX;
+            nodePixel.y = iY;
+            nodePixel.geometry = new float[geometryRasters.size()];
+            for (int ig = 0; ig < geometryRasters.size(); ig++) {
+                final RasterDataNode geometryRaster = geometryRasters.get(ig);
+                nodePixel.geometry[ig] = boxAverages.getBoxAverage(geometryRaster).getCenterSampleFloat(iX, iY);
+                if (geometryRaster.getName().matches(".*elev.*")) {
+                    nodePixel.geometry[ig] = 90.0f - nodePixel.geometry[ig];
+                }
+            }
+            final TiePointGrid pressureGrid = synergyProduct.getTiePointGrid(SynergyConstants.INPUT_PRESSURE_BAND_NAME);
+            nodePixel.pressure = boxAverages.getBoxAverage(pressureGrid).getCenterSampleFloat(iX, iY);
+            final TiePointGrid ozoneGrid = synergyProduct.getTiePointGrid(SynergyConstants.INPUT_OZONE_BAND_NAME);
+            nodePixel.ozone = boxAverages.getBoxAverage(ozoneGrid).getCenterSampleFloat(iX, iY);
+            return nodePixel;
         }
     }
 
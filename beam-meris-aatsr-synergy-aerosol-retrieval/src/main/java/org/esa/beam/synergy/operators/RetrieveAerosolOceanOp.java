@@ -13,10 +13,11 @@ import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
 import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.SourceProduct;
 import org.esa.beam.framework.gpf.annotations.TargetProduct;
-import org.esa.beam.gpf.operators.standard.BandMathsOp;
 import org.esa.beam.synergy.util.AerosolHelpers;
+import org.esa.beam.synergy.util.MaskKernel;
 import org.esa.beam.synergy.util.SynergyConstants;
 import org.esa.beam.synergy.util.SynergyLookupTable;
+import org.esa.beam.synergy.util.TileMask;
 import org.esa.beam.util.ProductUtils;
 import org.esa.beam.util.math.MathUtils;
 
@@ -45,6 +46,10 @@ public class RetrieveAerosolOceanOp extends Operator {
                    description = "Select a collocated MERIS AATSR product.")
     private Product synergyProduct;
 
+    @SourceProduct(alias = "downscaled", optional = true,
+                   description = "The source rasters downscaled to the aerosol grid (see DownscaleOp).")
+    private Product downscaledProduct;
+
     @TargetProduct(description = "The target product.")
     private Product targetProduct;
 
@@ -57,10 +62,41 @@ public class RetrieveAerosolOceanOp extends Operator {
     @Parameter(defaultValue = "true", label = "Retrieve AODs over land")
     private boolean computeLand;
 
+    @Parameter(defaultValue = "false",
+               label = "Restrict the LUTs to the scene",
+               description = "Keep only the LUT nodes needed for the geometry and pressure range of the scene.")
+    private boolean pruneLutToScene;
+
+    @Parameter(defaultValue = "FULL",
+               valueSet = {"FULL", "HALF_FLOAT", "LINEAR_16"},
+               label = "Storage encoding of the LUTs",
+               description = "Store the LUT values as given (FULL) or in 16 bit (HALF_FLOAT, LINEAR_16), " +
+                             "decoded on the fly during the interpolation.")
+    private String lutEncoding;
+
+    @Parameter(defaultValue = "false",
+               label = "Read the LUTs on first use",
+               description = "Read the LUT of an aerosol model and wavelength when it is first needed " +
+                             "instead of reading all LUTs concurrently during initialisation.")
+    private boolean lazyLutLoading;
+
+    @Parameter(defaultValue = "false",
+               label = "Use precomputed glint wind speed LUT",
+               description = "Interpolate the 3.7um glint wind speed LUT from a table precomputed over geometry " +
+                             "instead of computing it for each pixel.")
+    private boolean useGlintWindspeedLut;
+
+    @Parameter(defaultValue = "false",
+               label = "Skip tiles without retrievable pixels",
+               description = "Summarize the flags of a tile first and set tiles without valid daylight pixels " +
+                             "to no-data without reading the spectral source tiles.")
+    private boolean skipUnretrievableTiles;
+
     public static final String RESULT_GLINT_NAME = "glint";
 
-    private static final String INVALID_EXPRESSION = "l1_flags" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS + ".INVALID";
-    private Band invalidBand;
+    // l1_flags_MERIS.INVALID
+    private static final String INVALID_FLAG_NAME = "INVALID";
+    private MaskKernel invalidKernel;
     private float noDataVal;
     private int minNAve;
 
@@ -71,7 +107,7 @@ public class RetrieveAerosolOceanOp extends Operator {
 
     private AerosolAuxData.AerosolClassTable aerosolClassTable;
     private AerosolAuxData.AerosolModelTable aerosolModelTable;
-    private SynergyLookupTable[][] aerosolLookupTables;
+    private AerosolAuxData.OceanLookupTables aerosolLookupTables;
 
     private float[] wvl;
     private float[] wvlWeight;
@@ -117,8 +153,13 @@ public class RetrieveAerosolOceanOp extends Operator {
         // get the glint product...
         Map<String, Product> glintInput = new HashMap<String, Product>(3);
         glintInput.put("l1bSynergy", synergyProduct);
-        Map<String, Object> glintAveParams = new HashMap<String, Object>(2);
+        if (downscaledProduct != null) {
+            glintInput.put("downscaled", downscaledProduct);
+        }
+        Map<String, Object> glintAveParams = new HashMap<String, Object>(3);
         glintAveParams.put("aveBlock", aveBlock);
+        glintAveParams.put("useGlintWindspeedLut", useGlintWindspeedLut);
+        glintAveParams.put("skipUnretrievableTiles", skipUnretrievableTiles);
         glintProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(GlintAveOp.class), glintAveParams, glintInput);
 
         scalingFactor = aveBlock;
@@ -131,13 +172,16 @@ public class RetrieveAerosolOceanOp extends Operator {
 
         // correction of azimuth discontinuity:
         // set up tiles for MERIS and AATSR which cover the whole scene...
+        // (not needed with the downscaled product, which contains the corrected azimuth averages)
         final int sceneWidth = synergyProduct.getSceneRasterWidth();
         final int sceneHeight = synergyProduct.getSceneRasterHeight();
         final Rectangle rect = new Rectangle(0, 0, sceneWidth, sceneHeight);
-        vaMerisTileComplete = getSourceTile(synergyProduct.getTiePointGrid("view_azimuth"), rect);
-        vaAatsrNadirTileComplete = getSourceTile(
-                synergyProduct.getBand("view_azimuth_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                rect);
+        if (downscaledProduct == null) {
+            vaMerisTileComplete = getSourceTile(synergyProduct.getTiePointGrid("view_azimuth"), rect);
+            vaAatsrNadirTileComplete = getSourceTile(
+                    synergyProduct.getBand("view_azimuth_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
+                    rect);
+        }
 
         aot550Result = new float[sceneWidth][sceneHeight];
         angResult = new float[sceneWidth][sceneHeight];
@@ -172,15 +216,29 @@ public class RetrieveAerosolOceanOp extends Operator {
         nMod = modelIndices.size();
         nWvl = wvlIndex.length;
 
-        try {
-            aerosolLookupTables = AerosolAuxData.getInstance().createAerosolOceanLookupTables(auxdataPath, modelIndices,
-                                                                                              wvl, wvlIndex);
-        } catch (IOException e) {
-            throw new OperatorException("Failed to create aerosol lookup tables:\n" + e.getMessage(), e);
+        LutSceneRange[] sceneRanges = null;
+        if (pruneLutToScene) {
+            sceneRanges = new LutSceneRange[nWvl];
+            for (int j = 0; j < nWvl; j++) {
+                // same views as in doSynAOStep1
+                sceneRanges[j] = LutSceneRange.createOceanRange(synergyProduct, wvlIndex[j] / 2);
+            }
+        }
+
+        aerosolLookupTables = AerosolAuxData.getInstance().new OceanLookupTables(auxdataPath, modelIndices, wvl, wvlIndex,
+                                                                                 sceneRanges,
+                                                                                 SynergyLookupTable.Encoding.valueOf(lutEncoding));
+        if (!lazyLutLoading) {
+            try {
+                aerosolLookupTables.loadAll();
+            } catch (IOException e) {
+                throw new OperatorException("Failed to create aerosol lookup tables:\n" + e.getMessage(), e);
 //            String msg = SynergyConstants.AUXDATA_ERROR_MESSAGE;
 //            SynergyUtils.logErrorMessage(msg);
+            }
         }
-        nTauLut = aerosolLookupTables[0][0].getDimensions()[4].getSequence().length;
+        // all LUTs share the AOT dimension
+        nTauLut = aerosolLookupTables.get(0, 0).getDimensions()[4].getSequence().length;
 
         interpol5DResultLow = new double[nMod][nWvl][nTauLut];
         interpol5DResultHigh = new double[nMod][nWvl][nTau];
@@ -203,8 +261,10 @@ public class RetrieveAerosolOceanOp extends Operator {
         // read corresponding small LUTs and make a big LUT...
 
         // correct azimuths in these tiles for later usage...
-        GlintPreparation.correctViewAzimuthLinear(vaMerisTileComplete, rect);
-        GlintPreparation.correctViewAzimuthLinear(vaAatsrNadirTileComplete, rect);
+        if (downscaledProduct == null) {
+            GlintPreparation.correctViewAzimuthLinear(vaMerisTileComplete, rect);
+            GlintPreparation.correctViewAzimuthLinear(vaAatsrNadirTileComplete, rect);
+        }
 
     }
 
@@ -231,9 +291,8 @@ public class RetrieveAerosolOceanOp extends Operator {
 
 //        AerosolHelpers.addAerosolFlagBand(targetProduct, downscaledRasterWidth, downscaledRasterHeight);
 
-        final BandMathsOp bandArithmeticOp =
-                BandMathsOp.createBooleanExpressionBand(INVALID_EXPRESSION, synergyProduct);
-        invalidBand = bandArithmeticOp.getTargetProduct().getBandAt(0);
+        invalidKernel = MaskKernel.flag(
+                synergyProduct.getBand("l1_flags" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS), INVALID_FLAG_NAME);
 
         setTargetBands();
     }
@@ -268,82 +327,87 @@ public class RetrieveAerosolOceanOp extends Operator {
         }
 
         final Rectangle rectangle = targetTile.getRectangle();
-        final int bigWidth = (int) (scalingFactor * rectangle.getWidth());
-        final int bigHeight = (int) (scalingFactor * rectangle.getHeight());
-        final int bigX = (int) (scalingFactor * rectangle.getX());
-        final int bigY = (int) (scalingFactor * rectangle.getY());
-        final Rectangle big = new Rectangle(bigX, bigY, bigWidth, bigHeight);
 
         pm.beginTask("Processing frame...", rectangle.height);
 
         try {
+            final BoxAverage.TileFactory boxAverages = new BoxAverage.TileFactory(this, synergyProduct,
+                                                                                 downscaledProduct, rectangle,
+                                                                                 (int) scalingFactor, aveBlock);
+            final BoxAverage szMeris = boxAverages.getBoxAverage(synergyProduct.getTiePointGrid("sun_zenith"));
+
+            final Tile wsTile = getSourceTile(glintProduct.getBand(GlintAveOp.RESULT_WINDSPEED_NAME), rectangle);
+
+            // Flags tiles
+
+            final TileMask isInvalid = invalidKernel.compute(this, rectangle);
+
+            if (skipUnretrievableTiles && !hasRetrievablePixels(rectangle, isInvalid, wsTile, szMeris)) {
+                // nothing to retrieve, skip the spectral source tiles
+                for (int iY = rectangle.y; iY < rectangle.y + rectangle.height; iY++) {
+                    for (int iX = rectangle.x; iX < rectangle.x + rectangle.width; iX++) {
+                        targetTile.setSample(iX, iY, noDataVal);
+                    }
+                }
+                return;
+            }
+
             // todo: clean up the tiles which are not finally needed  (depends on how many channels are used)
-            final Tile szMerisTile = getSourceTile(synergyProduct.getTiePointGrid("sun_zenith"), big);
-            final Tile vzMerisTile = getSourceTile(synergyProduct.getTiePointGrid("view_zenith"), big);
-            final Tile saMerisTile = getSourceTile(synergyProduct.getTiePointGrid("sun_azimuth"), big);
-            final Tile pressureTile = getSourceTile(synergyProduct.getTiePointGrid("atm_press"), big);
-
-            final Tile seAatsrNadirTile = getSourceTile(
-                    synergyProduct.getBand("sun_elev_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                    big);
-            final Tile veAatsrNadirTile = getSourceTile(
-                    synergyProduct.getBand("view_elev_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                    big);
-            final Tile saAatsrNadirTile = getSourceTile(
-                    synergyProduct.getBand("sun_azimuth_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                    big);
-            final Tile seAatsrFwardTile = getSourceTile(
-                    synergyProduct.getBand("sun_elev_fward" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                    big);
-            final Tile veAatsrFwardTile = getSourceTile(
-                    synergyProduct.getBand("view_elev_fward" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                    big);
-            final Tile saAatsrFwardTile = getSourceTile(
-                    synergyProduct.getBand("sun_azimuth_fward" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                    big);
-            final Tile vaAatsrFwardTile = getSourceTile(
-                    synergyProduct.getBand("view_azimuth_fward" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
-                    big);
-            final Tile merisRad13Tile = getSourceTile(
-                    synergyProduct.getBand("radiance_13" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS + ""), big);
-            final Tile merisRad14Tile = getSourceTile(
-                    synergyProduct.getBand("radiance_14" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS + ""), big);
+            final BoxAverage vzMeris = boxAverages.getBoxAverage(synergyProduct.getTiePointGrid("view_zenith"));
+            final BoxAverage saMeris = boxAverages.getBoxAverage(synergyProduct.getTiePointGrid("sun_azimuth"));
+            final BoxAverage vaMeris = boxAverages.getCorrectedAzimuthBoxAverage(
+                    synergyProduct.getTiePointGrid("view_azimuth"), vaMerisTileComplete);
+            final BoxAverage pressure = boxAverages.getBoxAverage(synergyProduct.getTiePointGrid("atm_press"));
+
+            final BoxAverage seAatsrNadir = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("sun_elev_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""));
+            final BoxAverage veAatsrNadir = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("view_elev_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""));
+            final BoxAverage saAatsrNadir = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("sun_azimuth_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""));
+            final BoxAverage vaAatsrNadir = boxAverages.getCorrectedAzimuthBoxAverage(
+                    synergyProduct.getBand("view_azimuth_nadir" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""),
+                    vaAatsrNadirTileComplete);
+            final BoxAverage seAatsrFward = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("sun_elev_fward" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""));
+            final BoxAverage veAatsrFward = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("view_elev_fward" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""));
+            final BoxAverage saAatsrFward = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("sun_azimuth_fward" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""));
+            final BoxAverage vaAatsrFward = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("view_azimuth_fward" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + ""));
+            final BoxAverage merisRad13Average = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("radiance_13" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS + ""));
+            final BoxAverage merisRad14Average = boxAverages.getBoxAverage(
+                    synergyProduct.getBand("radiance_14" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_MERIS + ""));
 
             final Band reflecNadir16Band = synergyProduct.getBand(
                     "reflec_nadir_1600" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + "");
-            final Tile aatsrReflNadir1600Tile = getSourceTile(reflecNadir16Band, big);
+            final BoxAverage aatsrReflNadir1600 = boxAverages.getBoxAverage(reflecNadir16Band);
             final Band reflecNadir87Band = synergyProduct.getBand(
                     "reflec_nadir_0870" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + "");
-            final Tile aatsrReflNadir0870Tile = getSourceTile(reflecNadir87Band, big);
+            final BoxAverage aatsrReflNadir0870 = boxAverages.getBoxAverage(reflecNadir87Band);
             final Band reflecFward16Band = synergyProduct.getBand(
                     "reflec_fward_1600" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + "");
-            final Tile aatsrReflFward1600Tile = getSourceTile(reflecFward16Band, big);
+            final BoxAverage aatsrReflFward1600 = boxAverages.getBoxAverage(reflecFward16Band);
             final Band reflecFward87Band = synergyProduct.getBand(
                     "reflec_fward_0870" + "_" + SynergyConstants.INPUT_BANDS_SUFFIX_AATSR + "");
-            final Tile aatsrReflFward0870Tile = getSourceTile(reflecFward87Band, big);
-
-            final Tile wsTile = getSourceTile(glintProduct.getBand(GlintAveOp.RESULT_WINDSPEED_NAME), rectangle);
-
-            // Flags tiles
-
-            final Tile isInvalid = getSourceTile(invalidBand, rectangle);
+            final BoxAverage aatsrReflFward0870 = boxAverages.getBoxAverage(reflecFward87Band);
 
             for (int iY = rectangle.y; iY < rectangle.y + rectangle.height; iY++) {
                 for (int iX = rectangle.x; iX < rectangle.x + rectangle.width; iX++) {
 
-                    final int iTarX = (int) (scalingFactor * iX + aveBlock);
-                    final int iTarY = (int) (scalingFactor * iY + aveBlock);
                     checkForCancellation();
 
-                    final float aatsrViewElevationNadir = getAvePixel(veAatsrNadirTile, iTarX, iTarY);
-                    final float aatsrSunElevationNadir = getAvePixel(seAatsrNadirTile, iTarX, iTarY);
-                    final float aatsrViewElevationFward = getAvePixel(veAatsrFwardTile, iTarX, iTarY);
-                    final float aatsrSunElevationFward = getAvePixel(seAatsrFwardTile, iTarX, iTarY);
+                    final float aatsrViewElevationNadir = getAvePixel(veAatsrNadir, iX, iY);
+                    final float aatsrSunElevationNadir = getAvePixel(seAatsrNadir, iX, iY);
+                    final float aatsrViewElevationFward = getAvePixel(veAatsrFward, iX, iY);
+                    final float aatsrSunElevationFward = getAvePixel(seAatsrFward, iX, iY);
 
                     // just use one windspeed (the 'closer to ECMWF' one from Glint retrieval)
                     final float ws = wsTile.getSampleFloat(iX, iY);
 
-                    if (isInvalid.getSampleBoolean(iX, iY)
+                    if (isInvalid.get(iX, iY)
                         || ws == SynergyConstants.OUTPUT_WS_BAND_NODATAVALUE
                             ) {
                         targetTile.setSample(iX, iY, noDataVal);
@@ -372,19 +436,19 @@ public class RetrieveAerosolOceanOp extends Operator {
                                                                       wsResult[iX][iY] == SynergyConstants.OUTPUT_WS_BAND_NODATAVALUE)) {
                         targetTile.setSample(iX, iY, wsResult[iX][iY]);
                     } else {
-                        final float merisViewAzimuth = getAvePixel(vaMerisTileComplete, iTarX, iTarY);
-                        final float merisSunAzimuth = getAvePixel(saMerisTile, iTarX, iTarY);
+                        final float merisViewAzimuth = getAvePixel(vaMeris, iX, iY);
+                        final float merisSunAzimuth = getAvePixel(saMeris, iX, iY);
                         final float merisAzimuthDifference = GlintPreparation.removeAzimuthDifferenceAmbiguity(
                                 merisViewAzimuth,
                                 merisSunAzimuth);
-                        final float merisViewZenith = getAvePixel(vzMerisTile, iTarX, iTarY);
-                        final float merisSunZenith = getAvePixel(szMerisTile, iTarX, iTarY);
-                        final float merisRad13 = getAvePixel(merisRad13Tile, iTarX,
-                                                             iTarY) / SynergyConstants.MERIS_13_SOLAR_FLUX;
-                        final float merisRad14 = getAvePixel(merisRad14Tile, iTarX,
-                                                             iTarY) / SynergyConstants.MERIS_14_SOLAR_FLUX;
-                        final double aatsrSeNadir = getAvePixel(seAatsrNadirTile, iTarX, iTarY);
-                        final double aatsrSeFward = getAvePixel(seAatsrFwardTile, iTarX, iTarY);
+                        final float merisViewZenith = getAvePixel(vzMeris, iX, iY);
+                        final float merisSunZenith = getAvePixel(szMeris, iX, iY);
+                        final float merisRad13 = getAvePixel(merisRad13Average, iX,
+                                                             iY) / SynergyConstants.MERIS_13_SOLAR_FLUX;
+                        final float merisRad14 = getAvePixel(merisRad14Average, iX,
+                                                             iY) / SynergyConstants.MERIS_14_SOLAR_FLUX;
+                        final double aatsrSeNadir = getAvePixel(seAatsrNadir, iX, iY);
+                        final double aatsrSeFward = getAvePixel(seAatsrFward, iX, iY);
 
                         // for RP test data (unit '%'), we need to divide AATSR reflectances by 100.
                         // however, the correct AATSR units should be 'dl', as for the Synergy products created
@@ -394,30 +458,30 @@ public class RetrieveAerosolOceanOp extends Operator {
                             // check for one band should be enough
                             aatsrUnitCorrFactor = 100.0f;
                         }
-                        final float aatsrReflNadir87 = (float) (getAvePixel(aatsrReflNadir0870Tile, iTarX, iTarY) /
+                        final float aatsrReflNadir87 = (float) (getAvePixel(aatsrReflNadir0870, iX, iY) /
                                                                 (Math.PI * Math.cos(
                                                                         MathUtils.DTOR * (90.0 - aatsrSeNadir)) * aatsrUnitCorrFactor));
-                        final float aatsrReflNadir16 = (float) (getAvePixel(aatsrReflNadir1600Tile, iTarX, iTarY) /
+                        final float aatsrReflNadir16 = (float) (getAvePixel(aatsrReflNadir1600, iX, iY) /
                                                                 (Math.PI * Math.cos(
                                                                         MathUtils.DTOR * (90.0 - aatsrSeNadir)) * aatsrUnitCorrFactor));
-                        final float aatsrReflFward87 = (float) (getAvePixel(aatsrReflFward0870Tile, iTarX, iTarY) /
+                        final float aatsrReflFward87 = (float) (getAvePixel(aatsrReflFward0870, iX, iY) /
                                                                 (Math.PI * Math.cos(
                                                                         MathUtils.DTOR * (90.0 - aatsrSeFward)) * aatsrUnitCorrFactor));
-                        final float aatsrReflFward16 = (float) (getAvePixel(aatsrReflFward1600Tile, iTarX, iTarY) /
+                        final float aatsrReflFward16 = (float) (getAvePixel(aatsrReflFward1600, iX, iY) /
                                                                 (Math.PI * Math.cos(
                                                                         MathUtils.DTOR * (90.0 - aatsrSeFward)) * aatsrUnitCorrFactor));
 
-                        final float aatsrViewAzimuthNadir = getAvePixel(vaAatsrNadirTileComplete, iTarX, iTarY);
-                        final float aatsrSunAzimuthNadir = getAvePixel(saAatsrNadirTile, iTarX, iTarY);
-                        final float aatsrViewAzimuthFward = vaAatsrFwardTile.getSampleFloat(iTarX, iTarY);
-                        final float aatsrSunAzimuthFward = saAatsrFwardTile.getSampleFloat(iTarX, iTarY);
+                        final float aatsrViewAzimuthNadir = getAvePixel(vaAatsrNadir, iX, iY);
+                        final float aatsrSunAzimuthNadir = getAvePixel(saAatsrNadir, iX, iY);
+                        final float aatsrViewAzimuthFward = vaAatsrFward.getCenterSampleFloat(iX, iY);
+                        final float aatsrSunAzimuthFward = saAatsrFward.getCenterSampleFloat(iX, iY);
 
                         final float aatsrAzimuthDifferenceNadir = GlintPreparation.removeAzimuthDifferenceAmbiguity(
                                 aatsrViewAzimuthNadir,
                                 aatsrSunAzimuthNadir);
                         final float aatsrAzimuthDifferenceFward = aatsrViewAzimuthFward - aatsrSunAzimuthFward;
                         // negative pressures were stored in LUT to ensure ascending sequence
-                        final float surfacePressure = -1.0f * getAvePixel(pressureTile, iTarX, iTarY);
+                        final float surfacePressure = -1.0f * getAvePixel(pressure, iX, iY);
 
                         // breadboard begin STEP 1
                         final float[] glintArray = doSynAOStep1(
@@ -481,6 +545,8 @@ public class RetrieveAerosolOceanOp extends Operator {
         float[] iSun = new float[nWvl];
         float[] iView = new float[nWvl];
         float[] iAzi = new float[nWvl];
+        // one glint geometry per view, shared by its bands
+        final GlintGeometry[] viewGeometries = new GlintGeometry[3];
         for (int j = 0; j < nWvl; j++) {
             // todo: clean up cases for finally unused channels
             switch (wvlIndex[j]) {
@@ -505,9 +571,12 @@ public class RetrieveAerosolOceanOp extends Operator {
                 default:
                     break;
             }
-            glint[j] = GlintRetrieval.calcGlintAnalytical(iSun[j], iView[j],
-                                                          iAzi[j], SynergyConstants.refractiveIndex[wvlIndex[j]],
-                                                          ws, SynergyConstants.rhoFoam[wvlIndex[j]]);
+            final int view = wvlIndex[j] / 2;
+            if (viewGeometries[view] == null) {
+                viewGeometries[view] = new GlintGeometry(iSun[j], iView[j], iAzi[j]);
+            }
+            glint[j] = viewGeometries[view].calcGlint(SynergyConstants.refractiveIndex[wvlIndex[j]], ws,
+                                                      SynergyConstants.rhoFoam[wvlIndex[j]]);
         }
 
         vectorTauLutHigh = AerosolHelpers.interpolateArray(vectorTauLut, nTau);
@@ -515,6 +584,7 @@ public class RetrieveAerosolOceanOp extends Operator {
         for (int i = 0; i < nMod; i++) {
             for (int j = 0; j < nWvl; j++) {
                 // todo: clean up cases for finally unused channels
+                final SynergyLookupTable aerosolLookupTable = aerosolLookupTables.get(i, j);
 
                 for (int k = 0; k < nTauLut; k++) {
                     double[] interpol5DLowInput =
@@ -523,7 +593,7 @@ public class RetrieveAerosolOceanOp extends Operator {
                     // interpol5DResultLow = 'minilut' in breadboard:
                     //  minilut=fltarr(nmod,nwvl,ntau)
                     interpol5DResultLow[i][j][k] =             // 'minilut' in breadboard
-                            aerosolLookupTables[i][j].getValue(interpol5DLowInput);
+                            aerosolLookupTable.getValue(interpol5DLowInput);
                 }
                 //  interpol5DResultLow --> interpol5DResultHigh
                 interpol5DResultHigh[i][j] = AerosolHelpers.interpolateArray(interpol5DResultLow[i][j], nTau);
@@ -673,35 +743,21 @@ public class RetrieveAerosolOceanOp extends Operator {
         }
     }
 
-    private float getAvePixel(Tile inputTile, int iTarX, int iTarY) {
-
-        double value = 0;
-        double noDataValue = 0;
-        int n = 0;
-
-        final int minX = Math.max(0, iTarX - aveBlock);
-        final int minY = Math.max(0, iTarY - aveBlock);
-        final int maxX = Math.min(synergyProduct.getSceneRasterWidth() - 1, iTarX + aveBlock);
-        final int maxY = Math.min(synergyProduct.getSceneRasterHeight() - 1, iTarY + aveBlock);
-
-        for (int iy = minY; iy <= maxY; iy++) {
-            for (int ix = minX; ix <= maxX; ix++) {
-                final double val = inputTile.getSampleDouble(ix, iy);
-                noDataValue = inputTile.getRasterDataNode().getNoDataValue();
-                final boolean valid = (Double.compare(val, noDataValue) != 0);
-                if (valid) {
-                    n++;
-                    value += val;
-                }
+    private boolean hasRetrievablePixels(Rectangle rectangle, TileMask isInvalid, Tile wsTile, BoxAverage szMeris) {
+        final TileFlagSummary flagSummary = new TileFlagSummary();
+        for (int iY = rectangle.y; iY < rectangle.y + rectangle.height; iY++) {
+            for (int iX = rectangle.x; iX < rectangle.x + rectangle.width; iX++) {
+                // pixels without wind speed are not retrieved either
+                final boolean invalid = isInvalid.get(iX, iY) ||
+                                        wsTile.getSampleFloat(iX, iY) == SynergyConstants.OUTPUT_WS_BAND_NODATAVALUE;
+                flagSummary.add(false, false, invalid, TileFlagSummary.isDaylight(szMeris.getCenterSampleFloat(iX, iY)));
             }
         }
-        if (!(n < minNAve)) {
-            value /= n;
-        } else {
-            value = noDataValue;
-        }
+        return flagSummary.hasClearOceanPixels();
+    }
 
-        return (float) value;
+    private float getAvePixel(BoxAverage boxAverage, int iX, int iY) {
+        return (float) boxAverage.getMean(iX, iY, minNAve);
     }
 
     /**
@@ -28,6 +28,15 @@ import java.util.Map;
         description = "Retrieves aerosol over ocean and land.")
 public class RetrieveAerosolOp extends Operator {
 
+    /**
+     * Name prefixes of the MERIS/AATSR bands the aerosol retrieval reads (besides the flag bands).
+     */
+    public static final String[] REQUIRED_BAND_PREFIXES = {
+            SynergyConstants.INPUT_BANDS_PREFIX_MERIS, "radiance_13", "radiance_14", "radiance_15",
+            SynergyConstants.AATSR_REFLEC_NADIR, SynergyConstants.AATSR_REFLEC_FWARD,
+            SynergyConstants.AATSR_BTEMP_NADIR, SynergyConstants.AATSR_BTEMP_FWARD
+    };
+
     @SourceProduct(alias = "source",
             label = "Name (Preprocessed product with cloud flags)",
             description = "Select a collocated MERIS AATSR product obtained from preprocessing AND cloudscreening.")
@@ -75,6 +84,75 @@ public class RetrieveAerosolOp extends Operator {
             interval = "[1, 99]")
     private int aveBlock;
 
+    @Parameter(defaultValue = "false",
+            description = "Evaluate the candidate land aerosol models of a tile concurrently",
+            label = "Retrieve land aerosol models concurrently")
+    private boolean parallelModelRetrieval;
+
+    @Parameter(defaultValue = "0",
+            description = "Maximum number of threads for concurrent land aerosol model retrieval (0 = number of processors)",
+            label = "Number of threads for land aerosol model retrieval",
+            interval = "[0, 256]")
+    private int modelRetrievalParallelism;
+
+    @Parameter(defaultValue = "false",
+            description = "Abort the AOT search of a land aerosol model once it is worse than the best model of the pixel",
+            label = "Prune land aerosol model search")
+    private boolean pruneModelSearch;
+
+    @Parameter(defaultValue = "0.1",
+            description = "Relative error metric tolerance for land aerosol model pruning",
+            label = "Tolerance for land aerosol model pruning",
+            interval = "[0, 100]")
+    private float pruneTolerance;
+
+    @Parameter(defaultValue = "false",
+            description = "Reuse the land LUT subsections of pixels with similar geometry, pressure and ozone",
+            label = "Cache land LUT subsections")
+    private boolean useSubsectionCache;
+
+    @Parameter(defaultValue = "false",
+            description = "Interpolate the land LUT subsections from a coarse grid of nodes",
+            label = "Interpolate land LUT subsections from a coarse grid")
+    private boolean useSubsectionGrid;
+
+    @Parameter(defaultValue = "0",
+            description = "Node spacing of the land LUT subsection grid in aerosol pixels (0 = tie-point spacing)",
+            label = "Node spacing of the land LUT subsection grid",
+            interval = "[0, 1000]")
+    private int subsectionGridStep;
+
+    @Parameter(defaultValue = "false",
+            description = "Keep only the LUT nodes needed for the geometry and pressure range of the scene",
+            label = "Restrict the LUTs to the scene")
+    private boolean pruneLutToScene;
+
+    @Parameter(defaultValue = "FULL",
+            valueSet = {"FULL", "HALF_FLOAT", "LINEAR_16"},
+            description = "Storage encoding of the LUT values (FULL, or 16 bit HALF_FLOAT / LINEAR_16)",
+            label = "Storage encoding of the LUTs")
+    private String lutEncoding;
+
+    @Parameter(defaultValue = "false",
+            description = "Read the ocean LUT of an aerosol model and wavelength when it is first needed",
+            label = "Read the ocean LUTs on first use")
+    private boolean lazyLutLoading;
+
+    @Parameter(defaultValue = "false",
+            description = "Interpolate the 3.7um glint wind speed LUT from a table precomputed over geometry",
+            label = "Use precomputed glint wind speed LUT")
+    private boolean useGlintWindspeedLut;
+
+    @Parameter(defaultValue = "false",
+            description = "Average the source pixels once for the land and ocean retrievals, in a shared downscaled product",
+            label = "Share downscaled source product")
+    private boolean shareDownscaledProduct;
+
+    @Parameter(defaultValue = "false",
+            description = "Set tiles without retrievable pixels (invalid, night, or no clear land resp. ocean) to no-data without reading the spectral source tiles",
+            label = "Skip tiles without retrievable pixels")
+    private boolean skipUnretrievableTiles;
+
     boolean doAodInterpolation = true;
 
     boolean rescaleToOriginalResolution = true;
@@ -105,28 +183,59 @@ public class RetrieveAerosolOp extends Operator {
             aveBlock += 1;
         }
 
+        // get the downscaled source rasters shared by the retrievals...
+        Product downscaledProduct = null;
+        if (shareDownscaledProduct && (computeOcean || computeLand)) {
+            Map<String, Product> downscaleInput = new HashMap<String, Product>(1);
+            downscaleInput.put("source", synergyProduct);
+            Map<String, Object> downscaleParams = new HashMap<String, Object>(1);
+            downscaleParams.put("aveBlock", aveBlock);
+            downscaledProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(DownscaleOp.class), downscaleParams, downscaleInput);
+        }
+
         // get the ocean product...
         Product oceanProduct = null;
         if (computeOcean) {
-            Map<String, Product> oceanInput = new HashMap<String, Product>(1);
+            Map<String, Product> oceanInput = new HashMap<String, Product>(2);
             oceanInput.put("source", synergyProduct);
-            Map<String, Object> oceanParams = new HashMap<String, Object>(3);
+            if (downscaledProduct != null) {
+                oceanInput.put("downscaled", downscaledProduct);
+            }
+            Map<String, Object> oceanParams = new HashMap<String, Object>(7);
             oceanParams.put("aveBlock", aveBlock);
             oceanParams.put("computeLand", computeLand);
+            oceanParams.put("pruneLutToScene", pruneLutToScene);
+            oceanParams.put("lutEncoding", lutEncoding);
+            oceanParams.put("lazyLutLoading", lazyLutLoading);
+            oceanParams.put("useGlintWindspeedLut", useGlintWindspeedLut);
+            oceanParams.put("skipUnretrievableTiles", skipUnretrievableTiles);
             oceanProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(RetrieveAerosolOceanOp.class), oceanParams, oceanInput);
         }
 
         // get the land product..
         Product landProduct = null;
         if (computeLand) {
-            Map<String, Product> landInput = new HashMap<String, Product>(1);
+            Map<String, Product> landInput = new HashMap<String, Product>(2);
             landInput.put("source", synergyProduct);
-            Map<String, Object> landParams = new HashMap<String, Object>(6);
+            if (downscaledProduct != null) {
+                landInput.put("downscaled", downscaledProduct);
+            }
+            Map<String, Object> landParams = new HashMap<String, Object>(16);
             landParams.put("soilSpecName", soilSpecName);
             landParams.put("vegSpecName", vegSpecName);
             landParams.put("aveBlock", aveBlock);
             landParams.put("useCustomLandAerosol", useCustomLandAerosol);
             landParams.put("customLandAerosol", customLandAerosol);
+            landParams.put("parallelModelRetrieval", parallelModelRetrieval);
+            landParams.put("modelRetrievalParallelism", modelRetrievalParallelism);
+            landParams.put("pruneModelSearch", pruneModelSearch);
+            landParams.put("pruneTolerance", pruneTolerance);
+            landParams.put("useSubsectionCache", useSubsectionCache);
+            landParams.put("useSubsectionGrid", useSubsectionGrid);
+            landParams.put("subsectionGridStep", subsectionGridStep);
+            landParams.put("pruneLutToScene", pruneLutToScene);
+            landParams.put("lutEncoding", lutEncoding);
+            landParams.put("skipUnretrievableTiles", skipUnretrievableTiles);
             landProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(RetrieveAerosolLandOp.class), landParams, landInput);
         }
 
@@ -171,12 +280,17 @@ public class RetrieveAerosolOp extends Operator {
             Map<String, Product> surfaceReflectanceInput = new HashMap<String, Product>(2);
             surfaceReflectanceInput.put("synergy", synergyProduct);
             surfaceReflectanceInput.put("aerosol", landOceanUpscaledProduct);
-            Map<String, Object> surfaceReflectanceParams = new HashMap<String, Object>(5);
+            Map<String, Object> surfaceReflectanceParams = new HashMap<String, Object>(9);
             surfaceReflectanceParams.put("soilSpecName", soilSpecName);
             surfaceReflectanceParams.put("vegSpecName", vegSpecName);
             surfaceReflectanceParams.put("dumpPixel", dumpPixel);
             surfaceReflectanceParams.put("dumpPixelX", dumpPixelX);
             surfaceReflectanceParams.put("dumpPixelY", dumpPixelY);
+            surfaceReflectanceParams.put("useSubsectionGrid", useSubsectionGrid);
+            // the SDR are retrieved at full resolution
+            surfaceReflectanceParams.put("subsectionGridStep", subsectionGridStep * aveBlock);
+            surfaceReflectanceParams.put("pruneLutToScene", pruneLutToScene);
+            surfaceReflectanceParams.put("lutEncoding", lutEncoding);
             surfaceReflectanceProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(RetrieveSdrLandOp.class), surfaceReflectanceParams, surfaceReflectanceInput);
         } else {
             surfaceReflectanceProduct = landOceanUpscaledProduct;
@@ -21,11 +21,13 @@ import org.esa.beam.framework.gpf.annotations.TargetProduct;
 import org.esa.beam.gpf.operators.standard.BandMathsOp;
 import org.esa.beam.synergy.util.AerosolHelpers;
 import org.esa.beam.synergy.util.SynergyConstants;
+import org.esa.beam.synergy.util.SynergyLookupTable;
 import org.esa.beam.util.ProductUtils;
 
 import java.awt.Rectangle;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -76,6 +78,36 @@ public class RetrieveSdrLandOp extends Operator {
     @Parameter(defaultValue = "10", label = "dump pixel Y")
     int dumpPixelY;
 
+    @Parameter(defaultValue = "false",
+               label = "Interpolate LUT subsections from a coarse grid",
+               description = "Compute the LUT subsections only on a coarse grid of nodes per tile and interpolate " +
+                             "them bilinearly to the pixels in between.")
+    private boolean useSubsectionGrid;
+
+    @Parameter(defaultValue = "0",
+               label = "Node spacing of the LUT subsection grid (pixels)",
+               description = "Node spacing of the LUT subsection grid in pixels (0 = tie-point spacing).",
+               interval = "[0, 1000]")
+    private int subsectionGridStep;
+    private int gridStep;
+    // one grid over the scene per aerosol model, shared by all tiles
+    private Map<Integer, LutSubsectionGrid> subsectionGrids;
+    // the LUTs of the grids, loaded once per aerosol model
+    private Map<Integer, ReflectanceBinLUT> gridLuts;
+
+    @Parameter(defaultValue = "false",
+               label = "Restrict the LUTs to the scene",
+               description = "Keep only the LUT nodes needed for the geometry and pressure range of the scene.")
+    private boolean pruneLutToScene;
+    private LutSceneRange lutSceneRange;
+
+    @Parameter(defaultValue = "FULL",
+               valueSet = {"FULL", "HALF_FLOAT", "LINEAR_16"},
+               label = "Storage encoding of the LUTs",
+               description = "Store the LUT values as given (FULL) or in 16 bit (HALF_FLOAT, LINEAR_16), " +
+                             "decoded on the fly during the interpolation.")
+    private String lutEncoding;
+
     private String productName = "SYNERGY SDR";
     private String productType = "SYNERGY SDR";
 
@@ -173,6 +205,16 @@ public class RetrieveSdrLandOp extends Operator {
         final BandMathsOp validBandOp = BandMathsOp.createBooleanExpressionBand(validFlagExpression, aerosolProduct);
         validBand = validBandOp.getTargetProduct().getBandAt(0);
 
+        if (pruneLutToScene) {
+            lutSceneRange = LutSceneRange.createLandRange(synergyProduct);
+        }
+        if (useSubsectionGrid) {
+            gridStep = (subsectionGridStep > 0) ?
+                       subsectionGridStep : LutSubsectionGrid.getTiePointStep(synergyProduct, 1.0f);
+            subsectionGrids = new HashMap<Integer, LutSubsectionGrid>();
+            gridLuts = new HashMap<Integer, ReflectanceBinLUT>();
+        }
+
         createTargetProduct();
     }
 
@@ -202,15 +244,25 @@ public class RetrieveSdrLandOp extends Operator {
                 aerosolProduct.getBand(SynergyConstants.OUTPUT_AOTMODEL_BAND_NAME + "_filled"), targetRectangle);
         final Tile validPixelTile = getSourceTile(validBand, targetRectangle);
 
-        float[] merisToaReflec;
-        float[][] aatsrToaReflec;
+        // the SDR target tiles per view (MERIS, AATSR nadir, AATSR forward) and channel
+        final Tile[][] sdrTiles = new Tile[3][];
+        sdrTiles[0] = getTargetTiles(targetTiles, sdrMerisBandNames);
+        sdrTiles[1] = getTargetTiles(targetTiles, sdrAatsrBandNames[0]);
+        sdrTiles[2] = getTargetTiles(targetTiles, sdrAatsrBandNames[1]);
 
         final Aardvarc aardvarc = new Aardvarc(aatsrWvl, merisWvl);
         aardvarc.setSpecSoil(soilSurfSpec);
         aardvarc.setSpecVeg(vegSurfSpec);
 
         List<ReflectanceBinLUT> toaLutList = new ArrayList<ReflectanceBinLUT>();
+        final SdrWorkspace workspace = new SdrWorkspace();
 
+        // the LUT and grid of the aerosol model of the previous pixel, selected again only if the model changes
+        int lutAeroModel = -1;
+        ReflectanceBinLUT toaLut = null;
+        LutSubsectionGrid subsectionGrid = null;
+        float[] lutAlbedo = null;
+        float[] lutAot = null;
 
         for (int iY = targetRectangle.y; iY < targetRectangle.y + targetRectangle.height; iY++) {
             for (int iX = targetRectangle.x; iX < targetRectangle.x + targetRectangle.width; iX++) {
@@ -218,86 +270,82 @@ public class RetrieveSdrLandOp extends Operator {
                 final int aeroModel = aeroModelTile.getSampleInt(iX, iY);
 
                 if (validPixelTile.getSampleBoolean(iX, iY) && isValidAeroModel(aeroModel)) {
-                    final float[] geometry = getGeometries(geometryTiles, iX, iY);
-
-                    merisToaReflec = getSpectra(merisTiles, iX, iY);
-                    aatsrToaReflec = getSpectra(aatsrTiles, iX, iY);
-
-                    ReflectanceBinLUT toaLut = setToaLut(aeroModel, toaLutList);
-                    final float[] lutAlbedo = toaLut.getAlbDim();
-                    final float[] lutAot = toaLut.getAotDim();
-
-                    float[][][] lutSubsecMeris = new float[merisWvl.length][lutAlbedo.length][lutAot.length];
-                    float[][][][] lutSubsecAatsr = new float[2][aatsrWvl.length][lutAlbedo.length][lutAot.length];
+                    final float[] geometry = getGeometries(geometryTiles, iX, iY, workspace.geometry);
+                    getSpectra(merisTiles, iX, iY, workspace.toaReflec[0]);
+                    getSpectra(aatsrTiles[0], iX, iY, workspace.toaReflec[1]);
+                    getSpectra(aatsrTiles[1], iX, iY, workspace.toaReflec[2]);
+
+                    if (aeroModel != lutAeroModel) {
+                        if (useSubsectionGrid) {
+                            toaLut = getGridLut(aeroModel);
+                            subsectionGrid = getSubsectionGrid(aeroModel, toaLut);
+                        } else {
+                            toaLut = setToaLut(aeroModel, toaLutList);
+                        }
+                        lutAlbedo = toaLut.getAlbDim();
+                        lutAot = toaLut.getAotDim();
+                        workspace.setLutDims(lutAlbedo.length, lutAot.length);
+                        lutAeroModel = aeroModel;
+                    }
 
                     final float aveMerisPressure = pressureTile.getSampleFloat(iX, iY);
                     final float aveMerisOzone = ozoneTile.getSampleFloat(iX, iY);
-
-                    // this setup is the same as for pure AOD retrieval
-                    final int iSza = 0;
-                    int iSaa = 1;
-                    int iVza = 2;
-                    int iVaa = 3;
-                    int offset = 0; // MERIS geometry
-                    toaLut.subsecLUT("meris", aveMerisPressure, aveMerisOzone, geometry[iVza + offset],
-                                     geometry[iVaa + offset],
-                                     geometry[iSza + offset], geometry[iSaa + offset], merisWvl, lutSubsecMeris);
-                    offset = 4; // AATSR NADIR geometry
-                    toaLut.subsecLUT("aatsr", aveMerisPressure, aveMerisOzone, geometry[iVza + offset],
-                                     geometry[iVaa + offset],
-                                     geometry[iSza + offset], geometry[iSaa + offset], aatsrWvl, lutSubsecAatsr[0]);
-                    offset = 8; // AATSR FWARD geometry
-                    toaLut.subsecLUT("aatsr", aveMerisPressure, aveMerisOzone, geometry[iVza + offset],
-                                     geometry[iVaa + offset],
-                                     geometry[iSza + offset], geometry[iSaa + offset], aatsrWvl, lutSubsecAatsr[1]);
-
-                    aardvarc.setSza(geometry[0], geometry[4], geometry[8]);
-                    aardvarc.setToaReflMeris(merisToaReflec);
-                    aardvarc.setToaReflAatsr(aatsrToaReflec);
-                    aardvarc.setLutReflAatsr(lutSubsecAatsr);
-                    aardvarc.setLutReflMeris(lutSubsecMeris);
-                    aardvarc.setAlbDim(lutAlbedo);
-                    aardvarc.setAotDim(lutAot);
-
-                    aardvarc.setNdvi(0.8f);
-                    aardvarc.setSurfPres(aveMerisPressure);
-                    if (dumpPixel && (iX == dumpPixelX) && (iY == dumpPixelY)) {
-                        aardvarc.dumpParameter("p:/aardvarc_sdr.dump", aotTile.getSampleFloat(iX, iY));
+                    final float aot = aotTile.getSampleFloat(iX, iY);
+                    final boolean isDumpPixel = dumpPixel && (iX == dumpPixelX) && (iY == dumpPixelY);
+
+                    if (useSubsectionGrid || isDumpPixel) {
+                        // full LUT subsections, interpolated to the AOT afterwards
+                        final float[][][][] lutSubsec = workspace.getLutSubsections();
+                        if (useSubsectionGrid) {
+                            subsectionGrid.interpolate(iX, iY, lutSubsec);
+                        } else {
+                            for (int iView = 0; iView < 3; iView++) {
+                                final int offset = 4 * iView;
+                                toaLut.subsecLUT(iView == 0 ? "meris" : "aatsr", aveMerisPressure, aveMerisOzone,
+                                                 geometry[2 + offset], geometry[3 + offset],
+                                                 geometry[offset], geometry[1 + offset],
+                                                 iView == 0 ? merisWvl : aatsrWvl, lutSubsec[iView]);
+                            }
+                        }
+                        workspace.interpolateToAot(lutAot, aot);
+
+                        if (isDumpPixel) {
+                            aardvarc.setSza(geometry[0], geometry[4], geometry[8]);
+                            aardvarc.setToaReflMeris(workspace.toaReflec[0]);
+                            aardvarc.setToaReflAatsr(new float[][]{workspace.toaReflec[1], workspace.toaReflec[2]});
+                            aardvarc.setLutReflAatsr(new float[][][][]{lutSubsec[1], lutSubsec[2]});
+                            aardvarc.setLutReflMeris(lutSubsec[0]);
+                            aardvarc.setAlbDim(lutAlbedo);
+                            aardvarc.setAotDim(lutAot);
+
+                            aardvarc.setNdvi(0.8f);
+                            aardvarc.setSurfPres(aveMerisPressure);
+                            aardvarc.dumpParameter("p:/aardvarc_sdr.dump", aot);
+                        }
+                    } else {
+                        // only the two AOT nodes bracketing the retrieved AOT are needed
+                        for (int iView = 0; iView < 3; iView++) {
+                            final int offset = 4 * iView;
+                            toaLut.subsecLUTAtAot(iView == 0 ? "meris" : "aatsr", aveMerisPressure, aveMerisOzone,
+                                                  geometry[2 + offset], geometry[3 + offset],
+                                                  geometry[offset], geometry[1 + offset],
+                                                  iView == 0 ? merisWvl : aatsrWvl, aot, workspace.toaAtAot[iView]);
+                        }
                     }
 
-                    // now get the SDRs...
-
-                    //
-                    // MERIS
-                    //
-                    float[] surfrefl = new float[merisWvl.length];
-                    aardvarc.invLut(aotTile.getSampleFloat(iX, iY), lutSubsecMeris, merisToaReflec, surfrefl);
-                    for (int i = 0; i < merisWvl.length; i++) {
-                        Tile targetTile = targetTiles.get(targetProduct.getBand(sdrMerisBandNames[i]));
-                        targetTile.setSample(iX, iY, surfrefl[i]);
-                    }
-                    //
-                    // AATSR
-                    //
-                    float[][] surfreflAATSR = new float[2][aatsrWvl.length];
-                    aardvarc.invLut(aotTile.getSampleFloat(iX, iY), lutSubsecAatsr, aatsrToaReflec, surfreflAATSR);
-                    for (int i = 0; i < aatsrWvl.length; i++) {
-                        Tile targetTile = targetTiles.get(targetProduct.getBand(sdrAatsrBandNames[0][i]));
-                        targetTile.setSample(iX, iY, surfreflAATSR[0][i]);
-                        targetTile = targetTiles.get(targetProduct.getBand(sdrAatsrBandNames[1][i]));
-                        targetTile.setSample(iX, iY, surfreflAATSR[1][i]);
+                    // now get the SDRs of all channels...
+                    for (int iView = 0; iView < 3; iView++) {
+                        for (int iWl = 0; iWl < sdrTiles[iView].length; iWl++) {
+                            final float surfRefl = Aardvarc.invertToaAtAot(lutAlbedo, workspace.toaAtAot[iView][iWl],
+                                                                           workspace.toaReflec[iView][iWl]);
+                            sdrTiles[iView][iWl].setSample(iX, iY, surfRefl);
+                        }
                     }
                 } else {
-
-                    for (int i = 0; i < merisWvl.length; i++) {
-                        Tile targetTile = targetTiles.get(targetProduct.getBand(sdrMerisBandNames[i]));
-                        targetTile.setSample(iX, iY, SynergyConstants.OUTPUT_SDR_BAND_NODATAVALUE);
-                    }
-                    for (int i = 0; i < aatsrWvl.length; i++) {
-                        Tile targetTile = targetTiles.get(targetProduct.getBand(sdrAatsrBandNames[0][i]));
-                        targetTile.setSample(iX, iY, SynergyConstants.OUTPUT_SDR_BAND_NODATAVALUE);
-                        targetTile = targetTiles.get(targetProduct.getBand(sdrAatsrBandNames[1][i]));
-                        targetTile.setSample(iX, iY, SynergyConstants.OUTPUT_SDR_BAND_NODATAVALUE);
+                    for (Tile[] viewTiles : sdrTiles) {
+                        for (Tile targetTile : viewTiles) {
+                            targetTile.setSample(iX, iY, SynergyConstants.OUTPUT_SDR_BAND_NODATAVALUE);
+                        }
                     }
                 }
                 pm.worked(1);
@@ -385,16 +433,71 @@ public class RetrieveSdrLandOp extends Operator {
         }
         // not yet in list --> provide complete LUT:
         if (!lutExists) {
-            toaLut = new ReflectanceBinLUT(auxdataPath, aeroModel, merisWvl, aatsrWvl);
+            toaLut = loadToaLut(aeroModel);
             toaLutList.add(toaLut);
         }
 
         return toaLut;
     }
 
+    private ReflectanceBinLUT loadToaLut(int aeroModel) {
+        ReflectanceBinLUT toaLut = new ReflectanceBinLUT(auxdataPath, aeroModel, merisWvl, aatsrWvl);
+        if (lutSceneRange != null) {
+            toaLut = toaLut.getSubLut(lutSceneRange);
+        }
+        return toaLut.getEncodedLut(SynergyLookupTable.Encoding.valueOf(lutEncoding));
+    }
+
+    private ReflectanceBinLUT getGridLut(int aeroModel) {
+        synchronized (gridLuts) {
+            ReflectanceBinLUT toaLut = gridLuts.get(aeroModel);
+            if (toaLut == null) {
+                toaLut = loadToaLut(aeroModel);
+                gridLuts.put(aeroModel, toaLut);
+            }
+            return toaLut;
+        }
+    }
+
+    private LutSubsectionGrid getSubsectionGrid(int aeroModel, ReflectanceBinLUT toaLut) {
+        synchronized (subsectionGrids) {
+            LutSubsectionGrid subsectionGrid = subsectionGrids.get(aeroModel);
+            if (subsectionGrid == null) {
+                subsectionGrid = createSubsectionGrid(toaLut);
+                subsectionGrids.put(aeroModel, subsectionGrid);
+            }
+            return subsectionGrid;
+        }
+    }
+
+    private LutSubsectionGrid createSubsectionGrid(final ReflectanceBinLUT toaLut) {
+        final LutSubsectionGrid.NodeComputer nodeComputer = new LutSubsectionGrid.NodeComputer() {
+            @Override
+            public float[][][][] computeNode(int nodeX, int nodeY) {
+                // the nodes may lie outside the tile which needs them first
+                final int iX = LutSubsectionGrid.getNodePosition(0, rasterWidth, gridStep, nodeX);
+                final int iY = LutSubsectionGrid.getNodePosition(0, rasterHeight, gridStep, nodeY);
+                final Rectangle nodeRectangle = new Rectangle(iX, iY, 1, 1);
+                final Tile[] geometryTiles = getGeometryTiles(merisGeometryBandList, aatsrGeometryBandList,
+                                                              nodeRectangle);
+                final Tile pressureTile = getSourceTile(
+                        synergyProduct.getTiePointGrid(SynergyConstants.INPUT_PRESSURE_BAND_NAME), nodeRectangle);
+                final Tile ozoneTile = getSourceTile(
+                        synergyProduct.getTiePointGrid(SynergyConstants.INPUT_OZONE_BAND_NAME), nodeRectangle);
+                return LutSubsectionGrid.computeSubsections(toaLut, pressureTile.getSampleFloat(iX, iY),
+                                                            ozoneTile.getSampleFloat(iX, iY),
+                                                            getGeometries(geometryTiles, iX, iY),
+                                                            merisWvl, aatsrWvl);
+            }
+        };
+        return new LutSubsectionGrid(new Rectangle(rasterWidth, rasterHeight), gridStep, nodeComputer);
+    }
+
     private float[] getGeometries(Tile[] geometryTiles, int iX, int iY) {
+        return getGeometries(geometryTiles, iX, iY, new float[geometryTiles.length]);
+    }
 
-        float[] geometry = new float[geometryTiles.length];
+    private float[] getGeometries(Tile[] geometryTiles, int iX, int iY, float[] geometry) {
         for (int ig = 0; ig < geometry.length; ig++) {
             geometry[ig] = geometryTiles[ig].getSampleFloat(iX, iY);
             if (geometryTiles[ig].getRasterDataNode().getName().matches(".*elev.*")) {
@@ -404,16 +507,8 @@ public class RetrieveSdrLandOp extends Operator {
         return geometry;
     }
 
-    private float[][] getSpectra(Tile[][] specTiles, int iTarX, int iTarY) {
-        float[][] spectrum = new float[2][0];
-        spectrum[0] = getSpectra(specTiles[0], iTarX, iTarY);
-        spectrum[1] = getSpectra(specTiles[1], iTarX, iTarY);
-
-        return spectrum;
-    }
-
-    private float[] getSpectra(Tile[] specTiles, int iTarX, int iTarY) {
-        return getGeometries(specTiles, iTarX, iTarY);
+    private float[] getSpectra(Tile[] specTiles, int iTarX, int iTarY, float[] spectrum) {
+        return getGeometries(specTiles, iTarX, iTarY, spectrum);
     }
 
     private Tile[] getGeometryTiles(ArrayList<RasterDataNode> merisGeometryBandList,
@@ -429,6 +524,14 @@ public class RetrieveSdrLandOp extends Operator {
         return geometryTiles;
     }
 
+    private Tile[] getTargetTiles(Map<Band, Tile> targetTiles, String[] bandNames) {
+        Tile[] tiles = new Tile[bandNames.length];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = targetTiles.get(targetProduct.getBand(bandNames[i]));
+        }
+        return tiles;
+    }
+
     private Tile[] getSpecTiles(ArrayList<Band> sourceBandList, Rectangle rec) {
         Tile[] sourceTiles = new Tile[sourceBandList.size()];
         for (int i = 0; i < sourceTiles.length; i++) {
@@ -444,6 +547,57 @@ public class RetrieveSdrLandOp extends Operator {
         }
     }
 
+    /**
+     * Buffers for the SDR retrieval of one tile, reused for all its pixels. The views are
+     * MERIS, AATSR nadir and AATSR forward.
+     */
+    private class SdrWorkspace {
+        final float[] geometry;
+        final float[][] toaReflec;
+        final float[][][] toaAtAot;
+        private float[][][][] lutSubsec;
+        private int nAot;
+
+        SdrWorkspace() {
+            geometry = new float[merisGeometryBandList.size() + aatsrGeometryBandList.size()];
+            toaReflec = new float[][]{new float[merisWvl.length], new float[aatsrWvl.length], new float[aatsrWvl.length]};
+            toaAtAot = new float[3][][];
+        }
+
+        void setLutDims(int nAlb, int nAot) {
+            if (toaAtAot[0] == null || toaAtAot[0][0].length != nAlb || this.nAot != nAot) {
+                for (int iView = 0; iView < 3; iView++) {
+                    toaAtAot[iView] = new float[toaReflec[iView].length][nAlb];
+                }
+                this.nAot = nAot;
+                lutSubsec = null;
+            }
+        }
+
+        float[][][][] getLutSubsections() {
+            if (lutSubsec == null) {
+                lutSubsec = new float[3][][][];
+                for (int iView = 0; iView < 3; iView++) {
+                    lutSubsec[iView] = new float[toaReflec[iView].length][toaAtAot[iView][0].length][nAot];
+                }
+            }
+            return lutSubsec;
+        }
+
+        void interpolateToAot(float[] aotDim, float tau) {
+            final int iAot = Aardvarc.findAotIndex(aotDim, tau);
+            for (int iView = 0; iView < 3; iView++) {
+                for (int iWl = 0; iWl < toaAtAot[iView].length; iWl++) {
+                    for (int iAlb = 0; iAlb < toaAtAot[iView][iWl].length; iAlb++) {
+                        final float[] values = lutSubsec[iView][iWl][iAlb];
+                        toaAtAot[iView][iWl][iAlb] = Aardvarc.interpolateAot(aotDim, iAot,
+                                                                             values[iAot], values[iAot + 1], tau);
+                    }
+                }
+            }
+        }
+    }
+
     public static class Spi extends OperatorSpi {
 
         public Spi() {
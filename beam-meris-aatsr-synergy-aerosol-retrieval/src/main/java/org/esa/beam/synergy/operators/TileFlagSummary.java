@@ -0,0 +1,122 @@
+package org.esa.beam.synergy.operators;
+
+/**
+ * Counts of the land, cloudy, invalid and daylight pixels of a target tile of the aerosol retrievals.
+ * The summary is built from the flag bands only, before any spectral source tile is read, so that
+ * tiles without retrievable pixels can be set to no-data directly.
+ * <p/>
+ * Each retrieval adds its pixels with its own definition of the flags (e.g. a pixel of the land
+ * retrieval is land if its whole pixel box is land).
+ */
+public class TileFlagSummary {
+
+    // MERIS and AATSR do not acquire at sun zeniths beyond 90 deg
+    private static final float MAX_DAYLIGHT_SUN_ZENITH = 90.0f;
+
+    private int pixelCount;
+    private int landCount;
+    private int cloudyCount;
+    private int invalidCount;
+    private int daylightCount;
+    private int clearLandCount;
+    private int clearOceanCount;
+
+    /**
+     * This method adds a pixel to the summary.
+     *
+     * @param land     - pixel is land
+     * @param cloudy   - pixel is cloudy
+     * @param invalid  - pixel is invalid
+     * @param daylight - pixel is in daylight (see {@link #isDaylight(float)})
+     */
+    public void add(boolean land, boolean cloudy, boolean invalid, boolean daylight) {
+        pixelCount++;
+        if (land) {
+            landCount++;
+        }
+        if (cloudy) {
+            cloudyCount++;
+        }
+        if (invalid) {
+            invalidCount++;
+        }
+        if (daylight) {
+            daylightCount++;
+        }
+        if (!invalid && daylight) {
+            if (land && !cloudy) {
+                clearLandCount++;
+            } else if (!land) {
+                clearOceanCount++;
+            }
+        }
+    }
+
+    public static boolean isDaylight(float sunZenith) {
+        return sunZenith < MAX_DAYLIGHT_SUN_ZENITH;
+    }
+
+    public int getPixelCount() {
+        return pixelCount;
+    }
+
+    public int getLandCount() {
+        return landCount;
+    }
+
+    public int getOceanCount() {
+        return pixelCount - landCount;
+    }
+
+    public int getCloudyCount() {
+        return cloudyCount;
+    }
+
+    public int getInvalidCount() {
+        return invalidCount;
+    }
+
+    public int getDaylightCount() {
+        return daylightCount;
+    }
+
+    public boolean isAllLand() {
+        return landCount == pixelCount;
+    }
+
+    public boolean isAllOcean() {
+        return landCount == 0;
+    }
+
+    public boolean isAllCloudy() {
+        return cloudyCount == pixelCount;
+    }
+
+    public boolean isAllInvalid() {
+        return invalidCount == pixelCount;
+    }
+
+    public boolean isAllNight() {
+        return daylightCount == 0;
+    }
+
+    /**
+     * @return true if there is a valid daylight land pixel which is not cloudy
+     */
+    public boolean hasClearLandPixels() {
+        return clearLandCount > 0;
+    }
+
+    /**
+     * @return true if there is a valid daylight ocean pixel (clouds not considered)
+     */
+    public boolean hasClearOceanPixels() {
+        return clearOceanCount > 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d pixels: %d land, %d cloudy, %d invalid, %d daylight",
+                             pixelCount, landCount, cloudyCount, invalidCount, daylightCount);
+    }
+}
@@ -37,9 +37,47 @@ import java.text.MessageFormat;
 public class SynergyLookupTable {
 
     /**
-     * The lookup values.
+     * The storage encodings of the lookup values.
+     */
+    public enum Encoding {
+        /**
+         * The values are stored as given, i.e. as {@code float} or {@code double}.
+         */
+        FULL,
+        /**
+         * The values are stored as IEEE 754 half-precision (16 bit) floating point numbers.
+         * The relative error is at most 2^-11 for values within [6.1e-5, 65504].
+         */
+        HALF_FLOAT,
+        /**
+         * The values are linearly quantised to 16 bit unsigned integers between the minimum
+         * and maximum value of the table, ignoring {@code NaN}. The absolute error is at most
+         * (max - min) / 131068. The largest code is reserved for {@code NaN}.
+         */
+        LINEAR_16
+    }
+
+    /**
+     * The lookup values, {@code null} if the values are encoded.
      */
     private final Array values;
+    /**
+     * The encoded lookup values, {@code null} if the values are not encoded.
+     */
+    private final short[] encodedValues;
+    /**
+     * The storage encoding of the lookup values.
+     */
+    private final Encoding encoding;
+    /**
+     * The {@link Encoding#LINEAR_16} code of {@code NaN}.
+     */
+    private static final int LINEAR_16_NAN = 0xffff;
+    /**
+     * The offset and scale of the {@link Encoding#LINEAR_16} encoding.
+     */
+    private final double encodingOffset;
+    private final double encodingScale;
     /**
      * The dimensions associated with the lookup table.
      */
@@ -128,10 +166,30 @@ public class SynergyLookupTable {
     }
 
     private SynergyLookupTable(final Array values, final IntervalPartition... dimensions) {
+        this(values, null, Encoding.FULL, 0.0, 1.0, dimensions);
+    }
+
+    private SynergyLookupTable(final short[] encodedValues, final Encoding encoding,
+                               final double encodingOffset, final double encodingScale,
+                               final IntervalPartition... dimensions) {
+        this(null, encodedValues, encoding, encodingOffset, encodingScale, dimensions);
+    }
+
+    private SynergyLookupTable(final Array values, final short[] encodedValues, final Encoding encoding,
+                               final double encodingOffset, final double encodingScale,
+                               final IntervalPartition... dimensions) {
         ensureLegalArray(dimensions);
-        ensureLegalArray(values, getVertexCount(dimensions));
+        if (encodedValues == null) {
+            ensureLegalArray(values, getVertexCount(dimensions));
+        } else {
+            ensureLegalArray(encodedValues, getVertexCount(dimensions));
+        }
 
         this.values = values;
+        this.encodedValues = encodedValues;
+        this.encoding = encoding;
+        this.encodingOffset = encodingOffset;
+        this.encodingScale = encodingScale;
         this.dimensions = dimensions;
 
         final int n = dimensions.length;
@@ -175,6 +233,79 @@ public class SynergyLookupTable {
         return dimensions[i];
     }
 
+    /**
+     * Returns the storage encoding of the lookup values.
+     *
+     * @return the encoding.
+     */
+    public final Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Returns a lookup table with the same dimensions and the lookup values of this table
+     * stored in the given encoding. The values are decoded within the interpolation, so the
+     * returned table needs 16 bit per value instead of 32 or 64 bit, at the price of the
+     * precision stated for the encoding.
+     *
+     * @param encoding the encoding.
+     *
+     * @return the encoded lookup table, or this table if it is already stored in the given encoding.
+     *
+     * @throws IllegalArgumentException if this table is encoded and {@code encoding} is not
+     *                                  {@link Encoding#FULL} or the encoding of this table.
+     */
+    public final SynergyLookupTable getEncodedTable(final Encoding encoding) throws IllegalArgumentException {
+        if (encoding == this.encoding) {
+            return this;
+        }
+        final int count = getVertexCount(dimensions);
+        if (encoding == Encoding.FULL) {
+            final float[] floatValues = new float[count];
+            for (int k = 0; k < count; ++k) {
+                floatValues[k] = (float) getStoredValue(k);
+            }
+            return new SynergyLookupTable(floatValues, dimensions);
+        }
+        if (encodedValues != null) {
+            throw new IllegalArgumentException(MessageFormat.format(
+                    "table encoded as {0} cannot be re-encoded as {1}", this.encoding, encoding));
+        }
+
+        final short[] encoded = new short[count];
+        if (encoding == Encoding.HALF_FLOAT) {
+            for (int k = 0; k < count; ++k) {
+                encoded[k] = encodeHalfFloat((float) values.getValue(k));
+            }
+            return new SynergyLookupTable(encoded, encoding, 0.0, 1.0, dimensions);
+        }
+
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < count; ++k) {
+            final double value = values.getValue(k);
+            if (!Double.isNaN(value)) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+        if (min > max) {
+            // no values but NaN
+            min = 0.0;
+            max = 0.0;
+        }
+        final double scale = (max > min) ? (max - min) / (LINEAR_16_NAN - 1) : 0.0;
+        for (int k = 0; k < count; ++k) {
+            final double value = values.getValue(k);
+            if (Double.isNaN(value)) {
+                encoded[k] = (short) LINEAR_16_NAN;
+            } else {
+                encoded[k] = (scale > 0.0) ? (short) Math.round((value - min) / scale) : 0;
+            }
+        }
+        return new SynergyLookupTable(encoded, encoding, min, scale, dimensions);
+    }
+
     /**
      * Returns an interpolated value for the given coordinates.
      *
@@ -224,8 +355,18 @@ public class SynergyLookupTable {
         for (int i = 0; i < dimensions.length; ++i) {
             origin += fracIndexes[i].i * strides[i];
         }
-        for (int i = 0; i < v.length; ++i) {
-            v[i] = values.getValue(origin + o[i]);
+        if (encodedValues == null) {
+            for (int i = 0; i < v.length; ++i) {
+                v[i] = values.getValue(origin + o[i]);
+            }
+        } else if (encoding == Encoding.HALF_FLOAT) {
+            for (int i = 0; i < v.length; ++i) {
+                v[i] = decodeHalfFloat(encodedValues[origin + o[i]]);
+            }
+        } else {
+            for (int i = 0; i < v.length; ++i) {
+                v[i] = decodeLinear16(encodedValues[origin + o[i]]);
+            }
         }
         for (int i = dimensions.length; i-- > 0;) {
             final int m = 1 << i;
@@ -239,6 +380,185 @@ public class SynergyLookupTable {
         return v[0];
     }
 
+    /**
+     * Returns the vertex index ranges needed to interpolate coordinates within the given
+     * coordinate ranges, extended by a margin of vertices on each side.
+     *
+     * @param min    the minimum coordinate per dimension, {@code NaN} for the whole dimension.
+     * @param max    the maximum coordinate per dimension, {@code NaN} for the whole dimension.
+     * @param margin the number of additional vertices on each side.
+     *
+     * @return the first and last vertex index per dimension, as {@code {first[], last[]}}.
+     */
+    public final int[][] getIndexRanges(final double[] min, final double[] max, final int margin) {
+        ensureLegalArray(min, dimensions.length);
+        ensureLegalArray(max, dimensions.length);
+
+        final int n = dimensions.length;
+        final int[] first = new int[n];
+        final int[] last = new int[n];
+        final FracIndex fracIndex = new FracIndex();
+
+        for (int i = 0; i < n; ++i) {
+            final int cardinal = dimensions[i].getCardinal();
+            first[i] = 0;
+            last[i] = cardinal - 1;
+            if (!Double.isNaN(min[i]) && !Double.isNaN(max[i])) {
+                computeFracIndex(dimensions[i], min[i], fracIndex);
+                first[i] = Math.max(fracIndex.i - margin, 0);
+                computeFracIndex(dimensions[i], max[i], fracIndex);
+                last[i] = Math.min(Math.max(fracIndex.i + 1 + margin, first[i] + 1), cardinal - 1);
+            }
+        }
+
+        return new int[][]{first, last};
+    }
+
+    /**
+     * Returns a lookup table restricted to the given vertex index ranges. For coordinates
+     * within the restricted dimensions the returned table yields the same values as this
+     * table, coordinates outside are truncated to the restricted dimensions.
+     *
+     * @param first the first vertex index per dimension.
+     * @param last  the last vertex index per dimension, at least {@code first + 1}.
+     *
+     * @return the restricted lookup table, or this table if no dimension is restricted.
+     */
+    public final SynergyLookupTable getSubTable(final int[] first, final int[] last) {
+        final int n = dimensions.length;
+        final IntervalPartition[] subDimensions = new IntervalPartition[n];
+        boolean restricted = false;
+        int count = 1;
+
+        for (int i = 0; i < n; ++i) {
+            final double[] sequence = dimensions[i].getSequence();
+            final double[] subSequence = new double[last[i] - first[i] + 1];
+            System.arraycopy(sequence, first[i], subSequence, 0, subSequence.length);
+            subDimensions[i] = new IntervalPartition(subSequence);
+            restricted |= subSequence.length < sequence.length;
+            count *= subSequence.length;
+        }
+        if (!restricted) {
+            return this;
+        }
+
+        // walk through the sub-cube with the last dimension varying fastest
+        final boolean isEncoded = encodedValues != null;
+        final boolean isDouble = values instanceof Array.Double;
+        final double[] doubleValues = isDouble ? new double[count] : null;
+        final float[] floatValues = (isDouble || isEncoded) ? null : new float[count];
+        final short[] subEncodedValues = isEncoded ? new short[count] : null;
+        final int[] index = first.clone();
+        for (int k = 0; k < count; ++k) {
+            int offset = 0;
+            for (int i = 0; i < n; ++i) {
+                offset += index[i] * strides[i];
+            }
+            if (isEncoded) {
+                subEncodedValues[k] = encodedValues[offset];
+            } else if (isDouble) {
+                doubleValues[k] = values.getValue(offset);
+            } else {
+                floatValues[k] = (float) values.getValue(offset);
+            }
+            for (int i = n; i-- > 0;) {
+                if (++index[i] <= last[i]) {
+                    break;
+                }
+                index[i] = first[i];
+            }
+        }
+
+        if (isEncoded) {
+            return new SynergyLookupTable(subEncodedValues, encoding, encodingOffset, encodingScale, subDimensions);
+        }
+        return isDouble ? new SynergyLookupTable(doubleValues, subDimensions)
+                        : new SynergyLookupTable(floatValues, subDimensions);
+    }
+
+    /**
+     * Returns the decoded lookup value at the given array index.
+     *
+     * @param index the array index.
+     *
+     * @return the lookup value.
+     */
+    private double getStoredValue(final int index) {
+        if (encodedValues == null) {
+            return values.getValue(index);
+        } else if (encoding == Encoding.HALF_FLOAT) {
+            return decodeHalfFloat(encodedValues[index]);
+        } else {
+            return decodeLinear16(encodedValues[index]);
+        }
+    }
+
+    /**
+     * Decodes a {@link Encoding#LINEAR_16} value.
+     *
+     * @param code the encoded value.
+     *
+     * @return the value.
+     */
+    private double decodeLinear16(final short code) {
+        final int i = code & 0xffff;
+        return (i == LINEAR_16_NAN) ? Double.NaN : encodingOffset + encodingScale * i;
+    }
+
+    /**
+     * Encodes a value as IEEE 754 half-precision floating point number, rounding to the
+     * nearest representable value (ties to even). Values beyond the half-precision range
+     * are encoded as infinity.
+     *
+     * @param value the value.
+     *
+     * @return the half-precision bits.
+     */
+    static short encodeHalfFloat(final float value) {
+        final int bits = Float.floatToIntBits(value);
+        final int sign = (bits >>> 16) & 0x8000;
+        final float abs = Math.abs(value);
+
+        if (Float.isNaN(value)) {
+            return (short) 0x7e00;
+        }
+        if (abs >= 65520.0f) {
+            // rounds to infinity
+            return (short) (sign | 0x7c00);
+        }
+        if (abs < 6.1035156E-5f) {
+            // subnormal, in units of 2^-24
+            return (short) (sign | Math.round(abs * 16777216.0f));
+        }
+        // rebias the exponent (127 -> 15) and round the mantissa from 23 to 10 bit
+        final int h = (bits & 0x7fffffff) - (112 << 23);
+        return (short) (sign | ((h + 0x0fff + ((h >>> 13) & 1)) >>> 13));
+    }
+
+    /**
+     * Decodes an IEEE 754 half-precision floating point number.
+     *
+     * @param half the half-precision bits.
+     *
+     * @return the value.
+     */
+    static float decodeHalfFloat(final short half) {
+        final int sign = (half & 0x8000) << 16;
+        final int exponent = (half >>> 10) & 0x1f;
+        final int mantissa = half & 0x03ff;
+
+        if (exponent == 0x1f) {
+            // infinity or NaN
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        if (exponent == 0) {
+            // zero or subnormal
+            final float abs = mantissa * 5.9604645E-8f;
+            return (sign == 0) ? abs : -abs;
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+
     /**
      * Computes the {@link FracIndex} of a coordinate value with respect to a given
      * interval partition. The integral component of the returned {@link FracIndex}
@@ -350,6 +670,18 @@ public class SynergyLookupTable {
         }
     }
 
+    static void ensureLegalArray(final short[] array, final int length) throws
+                                                                        IllegalArgumentException,
+                                                                        NullPointerException {
+        if (array == null) {
+            throw new NullPointerException("array == null");
+        }
+        if (array.length != length) {
+            throw new IllegalArgumentException(MessageFormat.format(
+                    "array.length = {0} does not correspond to the expected length {1}", array.length, length));
+        }
+    }
+
     static void ensureLegalArray(Array array, final int length) throws
                                                                 IllegalArgumentException,
                                                                 NullPointerException {
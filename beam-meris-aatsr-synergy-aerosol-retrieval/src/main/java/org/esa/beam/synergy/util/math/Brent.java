@@ -15,6 +15,14 @@ public class Brent {
 
     private double xmin;
     private double fx;
+    /**
+     * Iterations performed before the abort threshold is checked, unless set otherwise.
+     */
+    public static final int DEFAULT_ABORT_MIN_ITERATIONS = 3;
+
+    private double abortThreshold = Double.POSITIVE_INFINITY;
+    private int abortMinIterations = DEFAULT_ABORT_MIN_ITERATIONS;
+    private boolean aborted;
 
     /**
 	 *  put your documentation comment here
@@ -52,6 +60,7 @@ public class Brent {
 	 */
 	public void brent(double ax, double bx, double cx, Function fun, double tol) throws IllegalStateException {
         xmin = Double.NaN;
+        aborted = false;
         double e = 0.0;
         double d = 0.0;
 		double a = (ax < cx ? ax : cx);
@@ -70,6 +79,12 @@ public class Brent {
 				xmin = x;
 				return;
 			}
+            if (iter >= abortMinIterations && fx > abortThreshold) {
+                // the search is not expected to get below the threshold any more
+                xmin = x;
+                aborted = true;
+                return;
+            }
 			if (Math.abs(e) > tol1) {
 				double r = (x - w) * (fx - fv);
 				double q = (x - v) * (fx - fw);
@@ -136,6 +151,33 @@ public class Brent {
 		throw new IllegalStateException("Too many iterations in brent");
 	}
 
+    /**
+     * Sets a threshold for early termination, checked after {@link #DEFAULT_ABORT_MIN_ITERATIONS}
+     * iterations (see {@link #setAbortThreshold(double, int)}).
+     *
+     *@param  threshold      the abort threshold
+     */
+    public void setAbortThreshold(double threshold) {
+        setAbortThreshold(threshold, DEFAULT_ABORT_MIN_ITERATIONS);
+    }
+
+    /**
+     * Sets a threshold for early termination: once the best function value found so far is still
+     * above this threshold after {@code minIterations} iterations, the search is aborted and
+     * {@link #isAborted()} returns {@code true}. The default threshold is infinity (no abort).
+     *
+     *@param  threshold      the abort threshold
+     *@param  minIterations  number of iterations to perform before the threshold is checked
+     */
+    public void setAbortThreshold(double threshold, int minIterations) {
+        this.abortThreshold = threshold;
+        this.abortMinIterations = minIterations;
+    }
+
+    public boolean isAborted() {
+        return aborted;
+    }
+
     public double getXmin() {
         return xmin;
     }
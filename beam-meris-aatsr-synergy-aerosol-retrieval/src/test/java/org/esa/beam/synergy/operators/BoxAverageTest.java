@@ -0,0 +1,137 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.gpf.Tile;
+import org.esa.beam.framework.gpf.internal.TileImpl;
+
+import java.awt.Rectangle;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+public class BoxAverageTest extends TestCase {
+
+    private static final int WIDTH = 23;
+    private static final int HEIGHT = 17;
+    private static final double NO_DATA = -1.0;
+    private static final int[] MIN_COUNTS = {1, 9, 25};
+
+    private Tile sourceTile;
+
+    protected void setUp() {
+        final Product product = new Product("test", "test", WIDTH, HEIGHT);
+        final Band band = product.addBand("reflec", ProductData.TYPE_FLOAT32);
+        band.setNoDataValue(NO_DATA);
+        band.setNoDataValueUsed(true);
+        final WritableRaster raster = createRaster(DataBuffer.TYPE_FLOAT, new Rectangle(WIDTH, HEIGHT));
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                final boolean noData = (x * 3 + y * 5) % 7 == 0 || (x < 5 && y < 5);
+                raster.setSample(x, y, 0, noData ? NO_DATA : 0.01 * x + 0.37 * Math.sin(0.3 * y + x));
+            }
+        }
+        sourceTile = new TileImpl(band, raster);
+    }
+
+    public void testFullResolutionEqualsBaseline() {
+        for (int aveBlock = 1; aveBlock <= 3; aveBlock++) {
+            final int stride = 2 * aveBlock + 1;
+            final BoxAverage boxAverage = new BoxAverage.FullResolution(sourceTile, stride, aveBlock, WIDTH, HEIGHT);
+            for (int iY = 0; iY < getDownscaledSize(HEIGHT, stride); iY++) {
+                for (int iX = 0; iX < getDownscaledSize(WIDTH, stride); iX++) {
+                    for (int minCount : MIN_COUNTS) {
+                        assertEquals(getBaselineMean(sourceTile, iX, iY, aveBlock, minCount),
+                                     (float) boxAverage.getMean(iX, iY, minCount), 0.0f);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testDownscaledEqualsBaseline() {
+        for (int aveBlock = 1; aveBlock <= 3; aveBlock++) {
+            final int stride = 2 * aveBlock + 1;
+            final Rectangle downscaledRectangle =
+                    new Rectangle(getDownscaledSize(WIDTH, stride), getDownscaledSize(HEIGHT, stride));
+            final Band meanBand = new Band("reflec", ProductData.TYPE_FLOAT64,
+                                           downscaledRectangle.width, downscaledRectangle.height);
+            meanBand.setNoDataValue(NO_DATA);
+            meanBand.setNoDataValueUsed(true);
+            final Band countBand = new Band(DownscaleOp.getCountBandName("reflec"), ProductData.TYPE_INT16,
+                                            downscaledRectangle.width, downscaledRectangle.height);
+            final Tile meanTile = new TileImpl(meanBand, createRaster(DataBuffer.TYPE_DOUBLE, downscaledRectangle));
+            final Tile countTile = new TileImpl(countBand, createRaster(DataBuffer.TYPE_SHORT, downscaledRectangle));
+
+            // two target tiles, as the operator computes them
+            final int splitY = downscaledRectangle.height / 2;
+            DownscaleOp.computeMeans(sourceTile, new Rectangle(0, 0, downscaledRectangle.width, splitY),
+                                     stride, aveBlock, meanTile, countTile);
+            DownscaleOp.computeMeans(sourceTile, new Rectangle(0, splitY, downscaledRectangle.width,
+                                                               downscaledRectangle.height - splitY),
+                                     stride, aveBlock, meanTile, countTile);
+
+            final BoxAverage boxAverage = new BoxAverage.Downscaled(meanTile, countTile, null);
+            for (int iY = 0; iY < downscaledRectangle.height; iY++) {
+                for (int iX = 0; iX < downscaledRectangle.width; iX++) {
+                    for (int minCount : MIN_COUNTS) {
+                        assertEquals(getBaselineMean(sourceTile, iX, iY, aveBlock, minCount),
+                                     (float) boxAverage.getMean(iX, iY, minCount), 0.0f);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testBoxWithoutValidPixels() {
+        final BoxAverage boxAverage = new BoxAverage.FullResolution(sourceTile, 5, 2, WIDTH, HEIGHT);
+        assertEquals(NO_DATA, boxAverage.getMean(0, 0, 1), 0.0);
+        assertTrue(Double.isNaN(boxAverage.getMean(0, 0, 0)));
+    }
+
+    // the downscaled raster size of the land retrieval
+    private static int getDownscaledSize(int size, int stride) {
+        return (int) (Math.ceil((float) (size / (float) stride) - 0.5));
+    }
+
+    private static WritableRaster createRaster(int dataType, Rectangle rectangle) {
+        return Raster.createWritableRaster(new BandedSampleModel(dataType, rectangle.width, rectangle.height, 1),
+                                          rectangle.getLocation());
+    }
+
+    /**
+     * The box average of the land retrieval before {@link BoxAverage} (RetrieveAerosolLandOp.getAvePixel),
+     * without the elevation conversion.
+     */
+    private static float getBaselineMean(Tile inputTile, int iX, int iY, int aveBlock, int minNAve) {
+        final int rasterWidth = inputTile.getRasterDataNode().getSceneRasterWidth();
+        final int rasterHeight = inputTile.getRasterDataNode().getSceneRasterHeight();
+        final int iTarX = (2 * aveBlock + 1) * iX + aveBlock;
+        final int iTarY = (2 * aveBlock + 1) * iY + aveBlock;
+
+        double value = 0;
+        final double noDataValue = inputTile.getRasterDataNode().getNoDataValue();
+        int n = 0;
+        for (int iy = iTarY - aveBlock; iy <= iTarY + aveBlock; iy++) {
+            for (int ix = iTarX - aveBlock; ix <= iTarX + aveBlock; ix++) {
+                if (iy < rasterHeight && ix < rasterWidth) {
+                    double val = inputTile.getSampleDouble(ix, iy);
+                    boolean valid = (Double.compare(val, noDataValue) != 0);
+                    if (valid) {
+                        n++;
+                        value += val;
+                    }
+                }
+            }
+        }
+        if (!(n < minNAve)) {
+            value /= n;
+        } else {
+            value = noDataValue;
+        }
+        return (float) value;
+    }
+}
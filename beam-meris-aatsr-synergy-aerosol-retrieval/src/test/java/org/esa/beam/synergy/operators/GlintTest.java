@@ -1,6 +1,8 @@
 package org.esa.beam.synergy.operators;
 
 import junit.framework.TestCase;
+import org.esa.beam.synergy.util.GlintHelpers;
+import org.esa.beam.synergy.util.SynergyConstants;
 
 /**
  * @author Olaf Danne
@@ -71,4 +73,123 @@ public class GlintTest extends TestCase {
         assertEquals(0.03912, glintAnalytical, 1.E-4);
 
     }
+
+    public void testGlintWindspeedLut() {
+        final GlintWindspeedLut lut = new GlintWindspeedLut(40.0f, 40.0f, 2.0f, 5.0f);
+        assertTrue(lut.covers(20.0f, 30.0f));
+        assertFalse(lut.covers(45.0f, 30.0f));
+
+        final double[] radiances = new double[GlintWindspeedLut.NUMBER_OF_WINDSPEEDS];
+        // on a grid node
+        lut.getNormalizedRadiances(20.0f, 30.0f, 170.0f, radiances);
+        for (int i = 0; i < radiances.length; i += 10) {
+            final double expected = GlintRetrieval.calcGlintAnalytical(20.0f, 30.0f, 170.0f,
+                                                                       GlintRetrieval.refractiveIndexReal037,
+                                                                       GlintWindspeedLut.getWindspeed(i),
+                                                                       GlintRetrieval.rhoFoam037);
+            assertEquals(expected, radiances[i], 1.E-6 * expected);
+        }
+        // between grid nodes, azimuth difference folded to [0, 180]
+        lut.getNormalizedRadiances(21.3f, 28.7f, 360.0f - 132.4f, radiances);
+        for (int i = 0; i < radiances.length; i += 10) {
+            final double expected = GlintRetrieval.calcGlintAnalytical(21.3f, 28.7f, 132.4f,
+                                                                       GlintRetrieval.refractiveIndexReal037,
+                                                                       GlintWindspeedLut.getWindspeed(i),
+                                                                       GlintRetrieval.rhoFoam037);
+            assertEquals(expected, radiances[i], 0.02 * expected + 1.E-5);
+        }
+    }
+
+    public void testGlintWindspeedLutSceneRange() {
+        // extended to the zenith nodes 20..34 and 4..18 deg
+        final GlintWindspeedLut lut = new GlintWindspeedLut(21.0f, 33.0f, 5.0f, 17.0f, 2.0f, 5.0f);
+        assertTrue(lut.covers(20.0f, 4.0f));
+        assertTrue(lut.covers(34.0f, 18.0f));
+        assertFalse(lut.covers(19.9f, 10.0f));
+        assertFalse(lut.covers(34.1f, 10.0f));
+        assertFalse(lut.covers(25.0f, 3.9f));
+        assertFalse(lut.covers(25.0f, 18.1f));
+
+        final double[] radiances = new double[GlintWindspeedLut.NUMBER_OF_WINDSPEEDS];
+        lut.getNormalizedRadiances(22.0f, 8.0f, 150.0f, radiances);
+        for (int i = 0; i < radiances.length; i += 10) {
+            final double expected = GlintRetrieval.calcGlintAnalytical(22.0f, 8.0f, 150.0f,
+                                                                       GlintRetrieval.refractiveIndexReal037,
+                                                                       GlintWindspeedLut.getWindspeed(i),
+                                                                       GlintRetrieval.rhoFoam037);
+            assertEquals(expected, radiances[i], 1.E-6 * expected);
+        }
+        lut.getNormalizedRadiances(33.1f, 17.5f, 132.4f, radiances);
+        for (int i = 0; i < radiances.length; i += 10) {
+            final double expected = GlintRetrieval.calcGlintAnalytical(33.1f, 17.5f, 132.4f,
+                                                                       GlintRetrieval.refractiveIndexReal037,
+                                                                       GlintWindspeedLut.getWindspeed(i),
+                                                                       GlintRetrieval.rhoFoam037);
+            assertEquals(expected, radiances[i], 0.02 * expected + 1.E-5);
+        }
+    }
+
+    public void testGlintGeometry() {
+        final GlintGeometry geometry = new GlintGeometry(35.0f, 20.0f, 150.0f);
+        final double[] windspeeds = new double[]{1.0, 5.5, 14.0};
+        final double[] glint = new double[windspeeds.length];
+        geometry.calcGlint(GlintRetrieval.refractiveIndexReal037, GlintRetrieval.rhoFoam037, windspeeds, glint);
+        for (int i = 0; i < windspeeds.length; i++) {
+            final double expected = geometry.calcGlint(GlintRetrieval.refractiveIndexReal037, windspeeds[i],
+                                                       GlintRetrieval.rhoFoam037);
+            assertEquals(expected, glint[i], 0.0);
+        }
+    }
+
+    public void testGlintGeometryReused() {
+        // one geometry of a pixel and view for all bands and wind speeds, as in the glint retrievals
+        final GlintGeometry geometry = new GlintGeometry(41.2f, 12.7f, 163.5f);
+        for (int j = 0; j < SynergyConstants.refractiveIndex.length; j++) {
+            for (double windspeed = 0.5; windspeed < 15.0; windspeed += 1.5) {
+                final float expected = GlintRetrieval.calcGlintAnalytical(41.2f, 12.7f, 163.5f,
+                                                                          SynergyConstants.refractiveIndex[j],
+                                                                          windspeed, SynergyConstants.rhoFoam[j]);
+                assertEquals(expected, geometry.calcGlint(SynergyConstants.refractiveIndex[j], windspeed,
+                                                          SynergyConstants.rhoFoam[j]), 0.0f);
+            }
+        }
+    }
+
+    public void testGlintAuxTableIndex() throws Exception {
+        final GlintAuxTable temp2RadianceTable = GlintAuxData.getInstance().getTemp2RadianceTable();
+        assertSame(temp2RadianceTable, GlintAuxData.getInstance().getTemp2RadianceTable());
+        assertTrue(temp2RadianceTable.isUniform());
+        final double[] temps = temp2RadianceTable.getX();
+        for (double temp = 250.0; temp < 340.0; temp += 0.0173) {
+            assertEquals(GlintHelpers.getNearestValueIndexInAscendingDoubleArray(temp, temps),
+                         temp2RadianceTable.getNearestIndex(temp));
+        }
+        for (int i = 0; i < temps.length - 1; i++) {
+            final double midpoint = 0.5 * (temps[i] + temps[i + 1]);
+            assertEquals(GlintHelpers.getNearestValueIndexInAscendingDoubleArray(temps[i], temps),
+                         temp2RadianceTable.getNearestIndex(temps[i]));
+            assertEquals(GlintHelpers.getNearestValueIndexInAscendingDoubleArray(midpoint, temps),
+                         temp2RadianceTable.getNearestIndex(midpoint));
+        }
+        assertEquals(-1, temp2RadianceTable.getNearestIndex(Double.NaN));
+
+        final GlintAuxTable cahalanTable = GlintAuxData.getInstance().getCahalanTable();
+        assertFalse(cahalanTable.isUniform());
+        final double[] wavelengths = cahalanTable.getX();
+        for (double wavelength = 100.0; wavelength < 200000.0; wavelength *= 1.0007) {
+            assertEquals(GlintHelpers.getNearestValueIndexInDescendingDoubleArray(wavelength, wavelengths),
+                         cahalanTable.getNearestIndex(wavelength));
+        }
+    }
+
+    public void testFindNearestIndex() {
+        final double[] array = new double[]{0.0, 1.0, 2.0, 4.0, 8.0, 6.0, 3.0, 1.0};
+        assertEquals(0, GlintWindspeedLut.findNearestIndex(array, 0, 4, -1.0));
+        assertEquals(2, GlintWindspeedLut.findNearestIndex(array, 0, 4, 2.9));
+        assertEquals(3, GlintWindspeedLut.findNearestIndex(array, 0, 4, 3.1));
+        assertEquals(4, GlintWindspeedLut.findNearestIndex(array, 0, 4, 10.0));
+        assertEquals(5, GlintWindspeedLut.findNearestIndex(array, 4, 7, 5.5));
+        assertEquals(6, GlintWindspeedLut.findNearestIndex(array, 4, 7, 3.5));
+        assertEquals(7, GlintWindspeedLut.findNearestIndex(array, 4, 7, 0.0));
+    }
 }
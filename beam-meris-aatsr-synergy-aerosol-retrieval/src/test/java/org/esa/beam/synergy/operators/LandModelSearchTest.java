@@ -0,0 +1,169 @@
+package org.esa.beam.synergy.operators;
+
+import com.bc.ceres.core.ProgressMonitor;
+import junit.framework.TestCase;
+
+import java.util.concurrent.ForkJoinPool;
+
+public class LandModelSearchTest extends TestCase {
+
+    private static final int SUCCESS = 1;
+    private static final int PIXEL_FLAG = 2;
+    private static final int MODEL_FLAG = 4;
+    private static final int PRUNED_FLAG = 8;
+
+    private static final int MODEL_COUNT = 7;
+    private static final int WIDTH = 23;
+    private static final int HEIGHT = 17;
+
+    private int[] pixelFlags;
+    private boolean[] valid;
+
+    protected void setUp() {
+        pixelFlags = new int[WIDTH * HEIGHT];
+        valid = new boolean[WIDTH * HEIGHT];
+        for (int i = 0; i < valid.length; i++) {
+            valid[i] = i % 5 != 3;
+            pixelFlags[i] = (i % 3 == 0) ? PIXEL_FLAG : 0;
+        }
+    }
+
+    public void testConcurrentSearchEqualsSerialSearch() {
+        final LandModelSearch search = new LandModelSearch(MODEL_COUNT, SUCCESS, pixelFlags, valid);
+        final LandRetrievalResult[] serialResults = new LandRetrievalResult[valid.length];
+        final int[] serialFlags = search.searchSerially(new FakeRetrievers(), serialResults, ProgressMonitor.NULL);
+
+        for (int parallelism = 1; parallelism <= 8; parallelism++) {
+            final ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                for (int run = 0; run < 10; run++) {
+                    final LandRetrievalResult[] results = new LandRetrievalResult[valid.length];
+                    final int[] flags = search.searchConcurrently(pool, new FakeRetrievers(), results);
+                    assertIdentical(serialFlags, serialResults, flags, results);
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    public void testConcurrentSearchIsNotPruned() {
+        final LandModelSearch search = new LandModelSearch(MODEL_COUNT, SUCCESS, pixelFlags, valid);
+        final FakeRetrievers retrievers = new FakeRetrievers();
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            search.searchConcurrently(pool, retrievers, new LandRetrievalResult[valid.length]);
+        } finally {
+            pool.shutdown();
+        }
+        assertFalse(retrievers.pruned);
+    }
+
+    public void testPrunedSearchFindsBestModel() {
+        final LandModelSearch search = new LandModelSearch(MODEL_COUNT, SUCCESS, pixelFlags, valid);
+        final LandRetrievalResult[] serialResults = new LandRetrievalResult[valid.length];
+        final int[] serialFlags = search.searchSerially(new FakeRetrievers(), serialResults, ProgressMonitor.NULL);
+
+        final FakeRetrievers retrievers = new FakeRetrievers();
+        final LandRetrievalResult[] prunedResults = new LandRetrievalResult[valid.length];
+        final int[] flags = search.searchPruned(retrievers, WIDTH, 0.1, prunedResults, ProgressMonitor.NULL);
+        assertTrue(retrievers.pruned);
+        for (int i = 0; i < valid.length; i++) {
+            if (valid[i]) {
+                assertEquals(serialResults[i].modelIndex, prunedResults[i].modelIndex);
+                assertEquals(serialResults[i].aot, prunedResults[i].aot, 0.0);
+            } else {
+                assertNull(prunedResults[i]);
+            }
+            assertEquals("flag " + i, serialFlags[i], flags[i]);
+        }
+    }
+
+    public void testPrunedSearchFlagsOfAbandonedModels() {
+        // only one model succeeds, so its success must be known where it is abandoned
+        for (int successModel = 0; successModel < MODEL_COUNT; successModel++) {
+            final LandModelSearch search = new LandModelSearch(MODEL_COUNT, SUCCESS, pixelFlags, valid);
+            final int[] serialFlags = search.searchSerially(new FakeRetrievers(successModel),
+                                                            new LandRetrievalResult[valid.length],
+                                                            ProgressMonitor.NULL);
+            final FakeRetrievers retrievers = new FakeRetrievers(successModel);
+            final int[] flags = search.searchPruned(retrievers, WIDTH, 0.1, new LandRetrievalResult[valid.length],
+                                                    ProgressMonitor.NULL);
+            assertTrue(retrievers.pruned);
+            for (int i = 0; i < valid.length; i++) {
+                assertEquals("model " + successModel + ", flag " + i, serialFlags[i], flags[i]);
+            }
+        }
+    }
+
+    private static void assertIdentical(int[] expectedFlags, LandRetrievalResult[] expectedResults,
+                                        int[] flags, LandRetrievalResult[] results) {
+        for (int i = 0; i < expectedFlags.length; i++) {
+            assertEquals("flag " + i, expectedFlags[i], flags[i]);
+            if (expectedResults[i] == null) {
+                assertNull(results[i]);
+            } else {
+                final LandRetrievalResult expected = expectedResults[i];
+                final LandRetrievalResult result = results[i];
+                assertEquals(expected.modelIndex, result.modelIndex);
+                assertEquals(expected.aerosolModel, result.aerosolModel);
+                assertEquals(Float.floatToIntBits(expected.aot), Float.floatToIntBits(result.aot));
+                assertEquals(Float.floatToIntBits(expected.errMetric), Float.floatToIntBits(result.errMetric));
+                assertEquals(Float.floatToIntBits(expected.retrievalError),
+                             Float.floatToIntBits(result.retrievalError));
+                assertEquals(expected.flag, result.flag);
+            }
+        }
+    }
+
+    /**
+     * Retrievers with a fixed error metric per model and pixel, including ties. A pruned search returns
+     * a result differing from the complete one, as the Aardvarc search abandoned half-way does.
+     */
+    private static class FakeRetrievers implements LandModelSearch.RetrieverFactory {
+
+        // the only model succeeding, -1 for a pattern of successes of all models
+        private final int successModel;
+        private volatile boolean pruned;
+
+        FakeRetrievers() {
+            this(-1);
+        }
+
+        FakeRetrievers(int successModel) {
+            this.successModel = successModel;
+        }
+
+        @Override
+        public LandModelSearch.Retriever createRetriever(final int modelIndex) {
+            return new LandModelSearch.Retriever() {
+                @Override
+                public LandRetrievalResult retrieve(int pixel, double pruneThreshold) {
+                    final LandRetrievalResult result = new LandRetrievalResult();
+                    result.modelIndex = modelIndex;
+                    result.aerosolModel = 10 + modelIndex;
+                    result.errMetric = ((pixel * 31 + modelIndex * 17) % 11) * 0.25f;
+                    result.aot = 0.1f * modelIndex + 0.001f * pixel;
+                    result.retrievalError = 0.01f * (pixel % 7);
+                    if (result.errMetric > pruneThreshold) {
+                        pruned = true;
+                        result.errMetric = (float) pruneThreshold + 1.0f;
+                        result.aot = -1.0f;
+                        result.flag = PRUNED_FLAG;
+                        result.pruned = true;
+                        return result;
+                    }
+                    if (successModel < 0) {
+                        result.flag = ((pixel + modelIndex) % 4 == 0) ? 0 : SUCCESS;
+                    } else {
+                        result.flag = (modelIndex == successModel && pixel % 4 != 0) ? SUCCESS : 0;
+                    }
+                    if (modelIndex % 2 == 0) {
+                        result.flag |= MODEL_FLAG;
+                    }
+                    return result;
+                }
+            };
+        }
+    }
+}
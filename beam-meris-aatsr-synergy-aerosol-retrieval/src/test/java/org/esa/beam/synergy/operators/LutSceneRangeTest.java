@@ -0,0 +1,214 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+import org.esa.beam.synergy.util.SynergyLookupTable;
+
+public class LutSceneRangeTest extends TestCase {
+
+    private final float[] presDim = new float[]{500.0f, 600.0f, 700.0f, 800.0f, 900.0f, 1000.0f, 1100.0f};
+    private final float[] vzaDim = new float[]{0.0f, 10.0f, 20.0f, 30.0f, 40.0f, 50.0f, 60.0f};
+    private final float[] raziDim = new float[]{0.0f, 30.0f, 60.0f, 90.0f, 120.0f, 150.0f, 180.0f};
+    private final float[] szaDim = new float[]{0.0f, 15.0f, 30.0f, 45.0f, 60.0f, 75.0f};
+    private final float[] aotDim = new float[]{0.0f, 0.5f, 1.0f, 2.0f};
+    private final float[] albDim = new float[]{0.0f, 0.5f, 1.0f};
+    private final float[] merisWvl = new float[]{412.0f, 560.0f};
+    private final float[] aatsrWvl = new float[]{550.0f};
+
+    private ReflectanceBinLUT lut;
+    private LutSceneRange landRange;
+
+    protected void setUp() {
+        final SynergyLookupTable[] toaMeris = new SynergyLookupTable[]{createTable(1.0f), createTable(0.8f)};
+        final SynergyLookupTable[] toaAatsr = new SynergyLookupTable[]{createTable(0.9f)};
+        lut = new ReflectanceBinLUT(8, toaMeris, toaAatsr, presDim, vzaDim, raziDim, szaDim, aotDim, albDim);
+
+        // a scan of pressure 830..960 hPa, vza 22..33, razi 64..118, sza 31..44 deg
+        landRange = new LutSceneRange(6);
+        landRange.include(0, Math.log(830.0));
+        landRange.include(0, Math.log(960.0));
+        landRange.include(1, 22.0);
+        landRange.include(1, 33.0);
+        landRange.include(2, 64.0);
+        landRange.include(2, 118.0);
+        landRange.include(3, 31.0);
+        landRange.include(3, 44.0);
+    }
+
+    public void testInclude() {
+        final LutSceneRange range = new LutSceneRange(3);
+        range.include(0, 5.0);
+        range.include(0, Double.NaN);
+        range.include(0, -2.0);
+        range.include(0, 3.0);
+        range.include(1, Double.NaN);
+        range.include(2, 7.0);
+        assertEquals(-2.0, range.getMin()[0], 0.0);
+        assertEquals(5.0, range.getMax()[0], 0.0);
+        // not scanned, unrestricted
+        assertTrue(Double.isNaN(range.getMin()[1]));
+        assertTrue(Double.isNaN(range.getMax()[1]));
+        assertEquals(7.0, range.getMin()[2], 0.0);
+        assertEquals(7.0, range.getMax()[2], 0.0);
+    }
+
+    public void testLandSubLutDimensions() {
+        final ReflectanceBinLUT subLut = lut.getSubLut(landRange);
+        // the nodes bracketing the scanned ranges and LutSceneRange.MARGIN nodes more on each side
+        assertDimension(new float[]{700.0f, 800.0f, 900.0f, 1000.0f, 1100.0f}, subLut.getPresDim());
+        assertDimension(new float[]{10.0f, 20.0f, 30.0f, 40.0f, 50.0f}, subLut.getVzaDim());
+        assertDimension(new float[]{30.0f, 60.0f, 90.0f, 120.0f, 150.0f}, subLut.getRaziDim());
+        assertDimension(new float[]{15.0f, 30.0f, 45.0f, 60.0f}, subLut.getSzaDim());
+        // not scanned, unrestricted
+        assertDimension(aotDim, subLut.getAotDim());
+        assertDimension(albDim, subLut.getAlbDim());
+    }
+
+    public void testLandLookupsInsideRange() {
+        final ReflectanceBinLUT subLut = lut.getSubLut(landRange);
+        // within the scanned ranges and within the margin nodes
+        for (int i = 0; i <= 10; i++) {
+            final float pres = 830.0f + 13.0f * i;
+            final float vza = 22.0f + 1.1f * i;
+            final float relAzi = 64.0f + 5.4f * i;
+            final float sza = 31.0f + 1.3f * i;
+            assertSameSubsections(lut, pres, vza, relAzi, sza, subLut, pres, vza, relAzi, sza);
+        }
+        assertSameSubsections(lut, 705.0f, 10.5f, 31.0f, 15.5f, subLut, 705.0f, 10.5f, 31.0f, 15.5f);
+        assertSameSubsections(lut, 1095.0f, 49.5f, 149.0f, 59.5f, subLut, 1095.0f, 49.5f, 149.0f, 59.5f);
+    }
+
+    public void testLandLookupsOutsideRangeClamped() {
+        final ReflectanceBinLUT subLut = lut.getSubLut(landRange);
+        // clamped to the first and last nodes of the sub-LUT, i.e. the full LUT at those nodes
+        assertSameSubsections(lut, 700.0f, 10.0f, 30.0f, 40.0f, subLut, 540.0f, 3.0f, 8.0f, 40.0f);
+        assertSameSubsections(lut, 1100.0f, 50.0f, 150.0f, 40.0f, subLut, 1200.0f, 58.0f, 170.0f, 40.0f);
+    }
+
+    public void testOceanSubTable() {
+        // dimensions (azi, vie, sun, wsp, tau, -pres), as the ocean LUTs
+        final float[] aziDim = new float[]{0.0f, 45.0f, 90.0f, 135.0f, 180.0f};
+        final float[] vieDim = new float[]{0.0f, 10.0f, 20.0f, 30.0f, 40.0f, 50.0f};
+        final float[] sunDim = new float[]{0.0f, 15.0f, 30.0f, 45.0f, 60.0f, 75.0f};
+        final float[] wspDim = new float[]{1.0f, 5.0f, 10.0f};
+        final float[] tauDim = new float[]{0.0f, 1.0f, 2.0f};
+        final float[] negPresDim = new float[]{-1100.0f, -1000.0f, -900.0f, -800.0f, -700.0f};
+        final float[] values = new float[aziDim.length * vieDim.length * sunDim.length * wspDim.length *
+                                         tauDim.length * negPresDim.length];
+        int i = 0;
+        for (float azi : aziDim) {
+            for (float vie : vieDim) {
+                for (float sun : sunDim) {
+                    for (float wsp : wspDim) {
+                        for (float tau : tauDim) {
+                            for (float negPres : negPresDim) {
+                                values[i++] = (float) ((0.02 - 0.01 * negPres / 1013.0 + 0.05 * tau * tau) *
+                                                       (1.0 + 0.2 * Math.cos(Math.toRadians(azi))) *
+                                                       (1.0 + 0.01 * wsp) /
+                                                       (Math.cos(Math.toRadians(vie)) +
+                                                        Math.cos(Math.toRadians(sun))));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        final SynergyLookupTable table = new SynergyLookupTable(values, aziDim, vieDim, sunDim, wspDim, tauDim,
+                                                                negPresDim);
+
+        // as LutSceneRange.createOceanRange: view zenith 12..18, sun zenith 33..41, pressure 980..1010 hPa
+        final LutSceneRange range = new LutSceneRange(6);
+        range.include(1, 12.0);
+        range.include(1, 18.0);
+        range.include(2, 33.0);
+        range.include(2, 41.0);
+        range.include(5, -980.0);
+        range.include(5, -1010.0);
+        final int[][] ranges = table.getIndexRanges(range.getMin(), range.getMax(), LutSceneRange.MARGIN);
+        final SynergyLookupTable subTable = table.getSubTable(ranges[0], ranges[1]);
+        assertDimension(new double[]{0.0, 10.0, 20.0, 30.0}, subTable.getDimension(1).getSequence());
+        assertDimension(new double[]{15.0, 30.0, 45.0, 60.0}, subTable.getDimension(2).getSequence());
+        assertDimension(new double[]{-1100.0, -1000.0, -900.0, -800.0}, subTable.getDimension(5).getSequence());
+        assertEquals(aziDim.length, subTable.getDimension(0).getCardinal());
+
+        for (int k = 0; k <= 8; k++) {
+            final double[] x = {20.0 * k, 12.0 + 0.75 * k, 33.0 + k, 1.0 + k, 0.25 * k, -980.0 - 3.75 * k};
+            assertEquals(table.getValue(x), subTable.getValue(x), 1.0e-12);
+        }
+        // outside, clamped to the first and last nodes of the sub-table
+        assertEquals(table.getValue(90.0, 30.0, 60.0, 5.0, 1.0, -800.0),
+                     subTable.getValue(90.0, 44.0, 72.0, 5.0, 1.0, -750.0), 1.0e-12);
+        assertEquals(table.getValue(90.0, 0.0, 15.0, 5.0, 1.0, -1100.0),
+                     subTable.getValue(90.0, 0.0, 3.0, 5.0, 1.0, -1100.0), 1.0e-12);
+    }
+
+    // o3 = 0, so that only the sun zenith enters the corrections, which is not clamped
+    private void assertSameSubsections(ReflectanceBinLUT expectedLut, float expectedPres, float expectedVza,
+                                       float expectedRelAzi, float expectedSza, ReflectanceBinLUT actualLut,
+                                       float pres, float vza, float relAzi, float sza) {
+        assertEquals(expectedSza, sza, 0.0f);
+        final float[][][] expected = new float[merisWvl.length][albDim.length][aotDim.length];
+        final float[][][] actual = new float[merisWvl.length][albDim.length][aotDim.length];
+        for (int iView = 0; iView < 2; iView++) {
+            final String instr = iView == 0 ? "meris" : "aatsr";
+            final float[] wvl = iView == 0 ? merisWvl : aatsrWvl;
+            expectedLut.subsecLUTRelAzi(instr, expectedPres, 0.0f, expectedVza, expectedRelAzi, expectedSza, wvl,
+                                        expected);
+            actualLut.subsecLUTRelAzi(instr, pres, 0.0f, vza, relAzi, sza, wvl, actual);
+            for (int iWl = 0; iWl < wvl.length; iWl++) {
+                for (int iAlb = 0; iAlb < albDim.length; iAlb++) {
+                    for (int iAot = 0; iAot < aotDim.length; iAot++) {
+                        final float e = expected[iWl][iAlb][iAot];
+                        assertEquals(instr + " " + pres + "," + vza + "," + relAzi + "," + sza, e,
+                                     actual[iWl][iAlb][iAot], 1.0e-6f * e);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertDimension(float[] expected, float[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], 1.0e-4f);
+        }
+    }
+
+    private static void assertDimension(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], 1.0e-4);
+        }
+    }
+
+    // nonlinear in all dimensions, as in LutSubsectionCacheTest
+    private SynergyLookupTable createTable(float scale) {
+        final float[] logPresDim = new float[presDim.length];
+        for (int i = 0; i < presDim.length; i++) {
+            logPresDim[i] = (float) Math.log(presDim[i]);
+        }
+        final float[] values = new float[presDim.length * vzaDim.length * raziDim.length *
+                                         szaDim.length * aotDim.length * albDim.length];
+        int i = 0;
+        for (float lp : logPresDim) {
+            final double pres = Math.exp(lp) / 1013.0;
+            for (float vza : vzaDim) {
+                final double muV = Math.cos(Math.toRadians(vza));
+                for (float razi : raziDim) {
+                    for (float sza : szaDim) {
+                        final double muS = Math.cos(Math.toRadians(sza));
+                        for (float aot : aotDim) {
+                            final double path = (0.03 * pres + 0.08 * (1.0 - Math.exp(-aot))) *
+                                                (1.0 + 0.3 * Math.cos(Math.toRadians(razi))) / (muS + muV);
+                            final double trans = Math.exp(-0.5 * (0.1 * pres + 0.5 * aot) * (1.0 / muS + 1.0 / muV));
+                            final double sphAlb = 0.1 + 0.05 * aot;
+                            for (float alb : albDim) {
+                                values[i++] = (float) (scale * (path + trans * alb / (1.0 - sphAlb * alb)));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return new SynergyLookupTable(values, logPresDim, vzaDim, raziDim, szaDim, aotDim, albDim);
+    }
+}
@@ -0,0 +1,128 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+import org.esa.beam.synergy.util.SynergyLookupTable;
+
+public class LutSubsectionCacheTest extends TestCase {
+
+    private final float[] presDim = new float[]{500.0f, 800.0f, 1000.0f, 1100.0f};
+    private final float[] vzaDim = new float[]{0.0f, 20.0f, 40.0f, 60.0f};
+    private final float[] raziDim = new float[]{0.0f, 60.0f, 120.0f, 180.0f};
+    private final float[] szaDim = new float[]{0.0f, 30.0f, 60.0f, 75.0f};
+    private final float[] aotDim = new float[]{0.0f, 0.25f, 0.5f, 1.0f, 2.0f};
+    private final float[] albDim = new float[]{0.0f, 0.2f, 0.5f, 1.0f};
+    private final float[] merisWvl = new float[]{412.0f, 560.0f};
+    private final float[] aatsrWvl = new float[]{550.0f};
+
+    private ReflectanceBinLUT lut;
+
+    protected void setUp() {
+        final SynergyLookupTable[] toaMeris = new SynergyLookupTable[]{createTable(1.0f), createTable(0.8f)};
+        final SynergyLookupTable[] toaAatsr = new SynergyLookupTable[]{createTable(0.9f)};
+        lut = new ReflectanceBinLUT(8, toaMeris, toaAatsr, presDim, vzaDim, raziDim, szaDim, aotDim, albDim);
+    }
+
+    public void testErrorBound() {
+        final float angleTol = 0.5f;
+        final float presTol = 5.0f;
+        final float o3Tol = 5.0f;
+        final LutSubsectionCache cache = new LutSubsectionCache(lut, merisWvl, aatsrWvl, angleTol, presTol, o3Tol, 100);
+
+        final float[][][] exact = new float[merisWvl.length][albDim.length][aotDim.length];
+        float maxRelDiff = 0.0f;
+        for (int i = 0; i < 50; i++) {
+            final float pres = 950.0f + 0.73f * i;
+            final float o3 = 300.0f + 0.41f * i;
+            final float vza = 20.0f + 0.13f * i;
+            final float vaa = 100.0f + 0.21f * i;
+            final float sza = 40.0f + 0.07f * i;
+            final float saa = 150.0f - 0.17f * i;
+            lut.subsecLUT("meris", pres, o3, vza, vaa, sza, saa, merisWvl, exact);
+            final float[][][] cached = cache.getSubsection("meris", pres, o3, vza, vaa, sza, saa);
+            for (int iWl = 0; iWl < merisWvl.length; iWl++) {
+                for (int iAlb = 0; iAlb < albDim.length; iAlb++) {
+                    for (int iAot = 0; iAot < aotDim.length; iAot++) {
+                        final float relDiff = Math.abs(cached[iWl][iAlb][iAot] - exact[iWl][iAlb][iAot]) /
+                                              exact[iWl][iAlb][iAot];
+                        maxRelDiff = Math.max(maxRelDiff, relDiff);
+                    }
+                }
+            }
+        }
+        // the table is nonlinear, so the binning must show
+        assertTrue("max. relative difference " + maxRelDiff, maxRelDiff > 0.0f);
+        assertTrue("max. relative difference " + maxRelDiff, maxRelDiff < 0.01f);
+        assertTrue(cache.getHitCount() > 0);
+        assertEquals(50, cache.getHitCount() + cache.getMissCount());
+    }
+
+    public void testBinCentreIsExact() {
+        final LutSubsectionCache cache = new LutSubsectionCache(lut, merisWvl, aatsrWvl, 0.5f, 5.0f, 5.0f, 100);
+
+        final float[][][] exact = new float[merisWvl.length][albDim.length][aotDim.length];
+        lut.subsecLUT("meris", 1000.0f, 300.0f, 20.0f, 100.0f, 40.0f, 150.0f, merisWvl, exact);
+        final float[][][] cached = cache.getSubsection("meris", 1000.0f, 300.0f, 20.0f, 100.0f, 40.0f, 150.0f);
+        for (int iWl = 0; iWl < merisWvl.length; iWl++) {
+            for (int iAlb = 0; iAlb < albDim.length; iAlb++) {
+                for (int iAot = 0; iAot < aotDim.length; iAot++) {
+                    assertEquals(exact[iWl][iAlb][iAot], cached[iWl][iAlb][iAot], 1.0e-6f);
+                }
+            }
+        }
+    }
+
+    public void testHitsAndEviction() {
+        final LutSubsectionCache cache = new LutSubsectionCache(lut, merisWvl, aatsrWvl, 1.0f, 10.0f, 10.0f, 2);
+
+        final float[][][] a = cache.getSubsection("aatsr", 1000.0f, 300.0f, 20.0f, 100.0f, 40.0f, 150.0f);
+        assertEquals(aatsrWvl.length, a.length);
+        // same bin
+        assertSame(a, cache.getSubsection("aatsr", 1001.0f, 301.0f, 20.2f, 100.1f, 40.2f, 150.1f));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 1.0e-8);
+
+        // same geometry, other instrument
+        final float[][][] b = cache.getSubsection("meris", 1000.0f, 300.0f, 20.0f, 100.0f, 40.0f, 150.0f);
+        assertNotSame(a, b);
+        assertEquals(merisWvl.length, b.length);
+
+        // third bin evicts the least recently used one
+        cache.getSubsection("aatsr", 1000.0f, 300.0f, 30.0f, 100.0f, 40.0f, 150.0f);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNotSame(a, cache.getSubsection("aatsr", 1000.0f, 300.0f, 20.0f, 100.0f, 40.0f, 150.0f));
+    }
+
+    // nonlinear in all dimensions, so that the LUT interpolation and the binning of the cache are not exact
+    private SynergyLookupTable createTable(float scale) {
+        final float[] logPresDim = new float[presDim.length];
+        for (int i = 0; i < presDim.length; i++) {
+            logPresDim[i] = (float) Math.log(presDim[i]);
+        }
+        final float[] values = new float[presDim.length * vzaDim.length * raziDim.length *
+                                         szaDim.length * aotDim.length * albDim.length];
+        int i = 0;
+        for (float lp : logPresDim) {
+            final double pres = Math.exp(lp) / 1013.0;
+            for (float vza : vzaDim) {
+                final double muV = Math.cos(Math.toRadians(vza));
+                for (float razi : raziDim) {
+                    for (float sza : szaDim) {
+                        final double muS = Math.cos(Math.toRadians(sza));
+                        for (float aot : aotDim) {
+                            final double path = (0.03 * pres + 0.08 * (1.0 - Math.exp(-aot))) *
+                                                (1.0 + 0.3 * Math.cos(Math.toRadians(razi))) / (muS + muV);
+                            final double trans = Math.exp(-0.5 * (0.1 * pres + 0.5 * aot) * (1.0 / muS + 1.0 / muV));
+                            final double sphAlb = 0.1 + 0.05 * aot;
+                            for (float alb : albDim) {
+                                values[i++] = (float) (scale * (path + trans * alb / (1.0 - sphAlb * alb)));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return new SynergyLookupTable(values, logPresDim, vzaDim, raziDim, szaDim, aotDim, albDim);
+    }
+}
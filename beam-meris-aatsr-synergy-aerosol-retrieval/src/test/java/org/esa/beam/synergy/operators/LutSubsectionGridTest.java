@@ -0,0 +1,231 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+import org.esa.beam.synergy.util.SynergyLookupTable;
+
+import java.awt.Rectangle;
+
+public class LutSubsectionGridTest extends TestCase {
+
+    private final float[] presDim = new float[]{500.0f, 800.0f, 1000.0f, 1100.0f};
+    private final float[] vzaDim = new float[]{0.0f, 20.0f, 40.0f, 60.0f};
+    private final float[] raziDim = new float[]{0.0f, 60.0f, 120.0f, 180.0f};
+    private final float[] szaDim = new float[]{0.0f, 30.0f, 60.0f, 75.0f};
+    private final float[] aotDim = new float[]{0.0f, 0.25f, 0.5f, 1.0f, 2.0f};
+    private final float[] albDim = new float[]{0.0f, 0.2f, 0.5f, 1.0f};
+    private final float[] merisWvl = new float[]{412.0f, 560.0f};
+    private final float[] aatsrWvl = new float[]{550.0f};
+
+    // a scene rectangle not starting at 0, with a last node closer than the step
+    private final Rectangle rectangle = new Rectangle(5, 3, 38, 27);
+    private final int step = 8;
+
+    private ReflectanceBinLUT lut;
+    private int computedNodeCount;
+
+    protected void setUp() {
+        final SynergyLookupTable[] toaMeris = new SynergyLookupTable[]{createTable(1.0f), createTable(0.8f)};
+        final SynergyLookupTable[] toaAatsr = new SynergyLookupTable[]{createTable(0.9f)};
+        lut = new ReflectanceBinLUT(8, toaMeris, toaAatsr, presDim, vzaDim, raziDim, szaDim, aotDim, albDim);
+        computedNodeCount = 0;
+    }
+
+    public void testNodePositions() {
+        assertEquals(1, LutSubsectionGrid.getNodeCount(1, step));
+        assertEquals(2, LutSubsectionGrid.getNodeCount(9, step));
+        assertEquals(3, LutSubsectionGrid.getNodeCount(10, step));
+
+        final LutSubsectionGrid grid = createGrid();
+        assertEquals(6, grid.getNodeCountX());
+        assertEquals(5, grid.getNodeCountY());
+        assertEquals(5, grid.getNodePositionX(0));
+        assertEquals(37, grid.getNodePositionX(4));
+        assertEquals(42, grid.getNodePositionX(5));
+        assertEquals(3, grid.getNodePositionY(0));
+        assertEquals(29, grid.getNodePositionY(4));
+    }
+
+    public void testNodesMatchDirectLookup() {
+        final LutSubsectionGrid grid = createGrid();
+        final float[][][][] interpolated = createSubsections();
+        for (int ky = 0; ky < grid.getNodeCountY(); ky++) {
+            for (int kx = 0; kx < grid.getNodeCountX(); kx++) {
+                final int x = grid.getNodePositionX(kx);
+                final int y = grid.getNodePositionY(ky);
+                grid.interpolate(x, y, interpolated);
+                assertSubsections(getDirectSubsections(x, y), interpolated, 1.0e-6f);
+            }
+        }
+    }
+
+    public void testBilinearInterpolation() {
+        final LutSubsectionGrid grid = createGrid();
+        final float[][][][] interpolated = createSubsections();
+        float maxRelDiff = 0.0f;
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                grid.interpolate(x, y, interpolated);
+
+                // the bilinear interpolation of the direct lookups at the surrounding nodes
+                final int kx = Math.min((x - rectangle.x) / step, grid.getNodeCountX() - 2);
+                final int ky = Math.min((y - rectangle.y) / step, grid.getNodeCountY() - 2);
+                final int x0 = grid.getNodePositionX(kx);
+                final int x1 = grid.getNodePositionX(kx + 1);
+                final int y0 = grid.getNodePositionY(ky);
+                final int y1 = grid.getNodePositionY(ky + 1);
+                final float wx = (float) (x - x0) / (x1 - x0);
+                final float wy = (float) (y - y0) / (y1 - y0);
+                final float[][][][] n00 = getDirectSubsections(x0, y0);
+                final float[][][][] n10 = getDirectSubsections(x1, y0);
+                final float[][][][] n01 = getDirectSubsections(x0, y1);
+                final float[][][][] n11 = getDirectSubsections(x1, y1);
+                final float[][][][] expected = createSubsections();
+                for (int iView = 0; iView < expected.length; iView++) {
+                    for (int iWl = 0; iWl < expected[iView].length; iWl++) {
+                        for (int iAlb = 0; iAlb < albDim.length; iAlb++) {
+                            for (int iAot = 0; iAot < aotDim.length; iAot++) {
+                                expected[iView][iWl][iAlb][iAot] =
+                                        (1 - wx) * (1 - wy) * n00[iView][iWl][iAlb][iAot] +
+                                        wx * (1 - wy) * n10[iView][iWl][iAlb][iAot] +
+                                        (1 - wx) * wy * n01[iView][iWl][iAlb][iAot] +
+                                        wx * wy * n11[iView][iWl][iAlb][iAot];
+                            }
+                        }
+                    }
+                }
+                assertSubsections(expected, interpolated, 1.0e-5f);
+
+                // close to the direct lookup at the pixel, the geometry varies slowly
+                final float[][][][] direct = getDirectSubsections(x, y);
+                for (int iView = 0; iView < direct.length; iView++) {
+                    for (int iWl = 0; iWl < direct[iView].length; iWl++) {
+                        for (int iAlb = 0; iAlb < albDim.length; iAlb++) {
+                            for (int iAot = 0; iAot < aotDim.length; iAot++) {
+                                final float d = direct[iView][iWl][iAlb][iAot];
+                                final float relDiff = Math.abs(interpolated[iView][iWl][iAlb][iAot] - d) / d;
+                                maxRelDiff = Math.max(maxRelDiff, relDiff);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        assertTrue("max. relative difference " + maxRelDiff, maxRelDiff > 0.0f);
+        assertTrue("max. relative difference " + maxRelDiff, maxRelDiff < 0.01f);
+    }
+
+    public void testNodesComputedOnce() {
+        final LutSubsectionGrid grid = createGrid();
+        final float[][][][] interpolated = createSubsections();
+        // the upper left cell only
+        grid.interpolate(rectangle.x + 1, rectangle.y + 1, interpolated);
+        assertEquals(4, computedNodeCount);
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                grid.interpolate(x, y, interpolated);
+            }
+        }
+        assertEquals(grid.getNodeCountX() * grid.getNodeCountY(), computedNodeCount);
+    }
+
+    private LutSubsectionGrid createGrid() {
+        return new LutSubsectionGrid(rectangle, step, new LutSubsectionGrid.NodeComputer() {
+            @Override
+            public float[][][][] computeNode(int nodeX, int nodeY) {
+                computedNodeCount++;
+                final int x = LutSubsectionGrid.getNodePosition(rectangle.x, rectangle.width, step, nodeX);
+                final int y = LutSubsectionGrid.getNodePosition(rectangle.y, rectangle.height, step, nodeY);
+                return LutSubsectionGrid.computeSubsections(lut, getPressure(x, y), getOzone(x, y),
+                                                            getGeometry(x, y), merisWvl, aatsrWvl);
+            }
+        });
+    }
+
+    // the subsections of ReflectanceBinLUT.subsecLUT at a pixel
+    private float[][][][] getDirectSubsections(int x, int y) {
+        final float pres = getPressure(x, y);
+        final float o3 = getOzone(x, y);
+        final float[] geometry = getGeometry(x, y);
+        final float[][][][] subsections = createSubsections();
+        for (int iView = 0; iView < 3; iView++) {
+            final int offset = 4 * iView;
+            lut.subsecLUT(iView == 0 ? "meris" : "aatsr", pres, o3, geometry[2 + offset], geometry[3 + offset],
+                          geometry[offset], geometry[1 + offset], iView == 0 ? merisWvl : aatsrWvl,
+                          subsections[iView]);
+        }
+        return subsections;
+    }
+
+    private float[][][][] createSubsections() {
+        return new float[][][][]{
+                new float[merisWvl.length][albDim.length][aotDim.length],
+                new float[aatsrWvl.length][albDim.length][aotDim.length],
+                new float[aatsrWvl.length][albDim.length][aotDim.length]
+        };
+    }
+
+    private static float getPressure(int x, int y) {
+        return 980.0f + 0.3f * x - 0.2f * y;
+    }
+
+    private static float getOzone(int x, int y) {
+        return 300.0f + 0.1f * x + 0.15f * y;
+    }
+
+    // sza, saa, vza, vaa of MERIS, AATSR nadir and AATSR forward
+    private static float[] getGeometry(int x, int y) {
+        final float sza = 35.0f + 0.05f * x + 0.1f * y;
+        final float saa = 140.0f + 0.02f * x;
+        return new float[]{
+                sza, saa, 10.0f + 0.3f * x, 100.0f - 0.05f * y,
+                sza + 0.2f, saa, 5.0f + 0.02f * x, 95.0f + 0.01f * y,
+                sza + 0.4f, saa, 52.0f + 0.02f * x, 20.0f + 0.03f * y
+        };
+    }
+
+    private static void assertSubsections(float[][][][] expected, float[][][][] actual, float relTolerance) {
+        for (int iView = 0; iView < expected.length; iView++) {
+            for (int iWl = 0; iWl < expected[iView].length; iWl++) {
+                for (int iAlb = 0; iAlb < expected[iView][iWl].length; iAlb++) {
+                    for (int iAot = 0; iAot < expected[iView][iWl][iAlb].length; iAot++) {
+                        final float e = expected[iView][iWl][iAlb][iAot];
+                        assertEquals(iView + "," + iWl + "," + iAlb + "," + iAot, e,
+                                     actual[iView][iWl][iAlb][iAot], relTolerance * Math.abs(e));
+                    }
+                }
+            }
+        }
+    }
+
+    // nonlinear in all dimensions, as in LutSubsectionCacheTest
+    private SynergyLookupTable createTable(float scale) {
+        final float[] logPresDim = new float[presDim.length];
+        for (int i = 0; i < presDim.length; i++) {
+            logPresDim[i] = (float) Math.log(presDim[i]);
+        }
+        final float[] values = new float[presDim.length * vzaDim.length * raziDim.length *
+                                         szaDim.length * aotDim.length * albDim.length];
+        int i = 0;
+        for (float lp : logPresDim) {
+            final double pres = Math.exp(lp) / 1013.0;
+            for (float vza : vzaDim) {
+                final double muV = Math.cos(Math.toRadians(vza));
+                for (float razi : raziDim) {
+                    for (float sza : szaDim) {
+                        final double muS = Math.cos(Math.toRadians(sza));
+                        for (float aot : aotDim) {
+                            final double path = (0.03 * pres + 0.08 * (1.0 - Math.exp(-aot))) *
+                                                (1.0 + 0.3 * Math.cos(Math.toRadians(razi))) / (muS + muV);
+                            final double trans = Math.exp(-0.5 * (0.1 * pres + 0.5 * aot) * (1.0 / muS + 1.0 / muV));
+                            final double sphAlb = 0.1 + 0.05 * aot;
+                            for (float alb : albDim) {
+                                values[i++] = (float) (scale * (path + trans * alb / (1.0 - sphAlb * alb)));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return new SynergyLookupTable(values, logPresDim, vzaDim, raziDim, szaDim, aotDim, albDim);
+    }
+}
@@ -0,0 +1,154 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+import org.esa.beam.synergy.util.SynergyLookupTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OceanLookupTablesTest extends TestCase {
+
+    private String lutPath;
+    private List<Integer> modelIndices;
+    private final float[] wvl = new float[]{778.0f};
+    // the one test LUT file aer01_wvl00778.nc in every slot, the first wavelength restricted to a scene range
+    private final int[] wvlIndex = new int[]{0, 0};
+    private LutSceneRange[] sceneRanges;
+    private CountingAuxData auxData;
+
+    protected void setUp() throws IOException {
+        final URL url = OceanLookupTablesTest.class.getResource("aer01_wvl00778.nc");
+        lutPath = new File(URLDecoder.decode(url.getPath(), "UTF-8")).getParent();
+        modelIndices = new ArrayList<Integer>();
+        modelIndices.add(1);
+        modelIndices.add(1);
+        final LutSceneRange sceneRange = new LutSceneRange(6);
+        sceneRange.include(1, 12.0);
+        sceneRange.include(1, 18.0);
+        sceneRanges = new LutSceneRange[]{sceneRange, null};
+        auxData = new CountingAuxData();
+    }
+
+    public void testLazySameAsEager() throws IOException {
+        final SynergyLookupTable[][] eager = createTables().loadAll();
+        assertEquals(4, auxData.loadCount.get());
+
+        final AerosolAuxData.OceanLookupTables lazyTables = createTables();
+        assertEquals(4, auxData.loadCount.get());
+        for (int i = 0; i < modelIndices.size(); i++) {
+            for (int j = 0; j < wvlIndex.length; j++) {
+                final SynergyLookupTable lazy = lazyTables.get(i, j);
+                assertSame(lazy, lazyTables.get(i, j));
+                assertSameTable(eager[i][j], lazy);
+            }
+        }
+        assertEquals(8, auxData.loadCount.get());
+        // the scene range only restricts the tables of its wavelength
+        assertTrue(eager[0][0].getDimension(1).getCardinal() < eager[0][1].getDimension(1).getCardinal());
+
+        // nothing left to read
+        final SynergyLookupTable[][] loaded = lazyTables.loadAll();
+        assertEquals(8, auxData.loadCount.get());
+        for (int i = 0; i < modelIndices.size(); i++) {
+            for (int j = 0; j < wvlIndex.length; j++) {
+                assertSame(lazyTables.get(i, j), loaded[i][j]);
+            }
+        }
+    }
+
+    public void testConcurrentFirstAccessLoadsOnce() throws Exception {
+        final AerosolAuxData.OceanLookupTables tables = createTables();
+        final int nThreads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            final List<Future<SynergyLookupTable[][]>> futures = new ArrayList<Future<SynergyLookupTable[][]>>();
+            for (int t = 0; t < nThreads; t++) {
+                final int first = t;
+                futures.add(executor.submit(new Callable<SynergyLookupTable[][]>() {
+                    @Override
+                    public SynergyLookupTable[][] call() throws Exception {
+                        start.await();
+                        // each thread in another order of the slots
+                        final int nWvl = wvlIndex.length;
+                        final int nSlots = modelIndices.size() * nWvl;
+                        final SynergyLookupTable[][] result = new SynergyLookupTable[modelIndices.size()][nWvl];
+                        for (int s = 0; s < nSlots; s++) {
+                            final int k = (first + s) % nSlots;
+                            result[k / nWvl][k % nWvl] = tables.get(k / nWvl, k % nWvl);
+                        }
+                        return result;
+                    }
+                }));
+            }
+            start.countDown();
+            final SynergyLookupTable[][] expected = futures.get(0).get();
+            for (Future<SynergyLookupTable[][]> future : futures) {
+                final SynergyLookupTable[][] result = future.get();
+                for (int i = 0; i < modelIndices.size(); i++) {
+                    for (int j = 0; j < wvlIndex.length; j++) {
+                        assertNotNull(result[i][j]);
+                        assertSame(expected[i][j], result[i][j]);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(4, auxData.loadCount.get());
+    }
+
+    private AerosolAuxData.OceanLookupTables createTables() {
+        return auxData.new OceanLookupTables(lutPath, modelIndices, wvl, wvlIndex, sceneRanges,
+                                             SynergyLookupTable.Encoding.FULL);
+    }
+
+    private static void assertSameTable(SynergyLookupTable expected, SynergyLookupTable actual) {
+        assertEquals(expected.getDimensionCount(), actual.getDimensionCount());
+        final double[] x = new double[expected.getDimensionCount()];
+        final Random random = new Random(5);
+        for (int k = 0; k < 100; k++) {
+            for (int i = 0; i < x.length; i++) {
+                final double[] sequence = expected.getDimension(i).getSequence();
+                final double[] actualSequence = actual.getDimension(i).getSequence();
+                assertEquals(sequence.length, actualSequence.length);
+                for (int n = 0; n < sequence.length; n++) {
+                    assertEquals(sequence[n], actualSequence[n], 0.0);
+                }
+                x[i] = sequence[0] + random.nextDouble() * (sequence[sequence.length - 1] - sequence[0]);
+            }
+            assertEquals(expected.getValue(x), actual.getValue(x), 0.0);
+        }
+    }
+
+    // counts the LUT files read, slowly enough for the first accesses to overlap
+    private static class CountingAuxData extends AerosolAuxData {
+
+        private final AtomicInteger loadCount = new AtomicInteger();
+
+        @Override
+        public SynergyLookupTable createAerosolOceanLookupTable(String inputPath, int modelIndex, float wvl,
+                                                                LutSceneRange sceneRange,
+                                                                SynergyLookupTable.Encoding encoding)
+                throws IOException {
+            loadCount.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.createAerosolOceanLookupTable(inputPath, modelIndex, wvl, sceneRange, encoding);
+        }
+    }
+}
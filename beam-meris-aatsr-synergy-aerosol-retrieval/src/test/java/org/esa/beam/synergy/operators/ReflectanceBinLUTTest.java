@@ -0,0 +1,100 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+import org.esa.beam.synergy.util.SynergyLookupTable;
+
+public class ReflectanceBinLUTTest extends TestCase {
+
+    private final float[] presDim = new float[]{500.0f, 800.0f, 1000.0f, 1100.0f};
+    private final float[] vzaDim = new float[]{0.0f, 20.0f, 40.0f, 60.0f};
+    private final float[] raziDim = new float[]{0.0f, 60.0f, 120.0f, 180.0f};
+    private final float[] szaDim = new float[]{0.0f, 30.0f, 60.0f, 75.0f};
+    private final float[] aotDim = new float[]{0.0f, 0.25f, 0.5f, 1.0f, 2.0f};
+    private final float[] albDim = new float[]{0.0f, 0.2f, 0.5f, 1.0f};
+    private final float[] merisWvl = new float[]{412.0f, 560.0f};
+    private final float[] aatsrWvl = new float[]{550.0f};
+
+    private ReflectanceBinLUT lut;
+
+    protected void setUp() {
+        final SynergyLookupTable[] toaMeris = new SynergyLookupTable[]{createTable(1.0f), createTable(0.8f)};
+        final SynergyLookupTable[] toaAatsr = new SynergyLookupTable[]{createTable(0.9f)};
+        lut = new ReflectanceBinLUT(8, toaMeris, toaAatsr, presDim, vzaDim, raziDim, szaDim, aotDim, albDim);
+    }
+
+    public void testSubsecLUTAtAotNodes() {
+        // on an AOT node, the slice of the full subsection at that node
+        for (int iAot = 0; iAot < aotDim.length; iAot++) {
+            assertSameAsFullSubsection("meris", merisWvl, 0.3f * iAot, aotDim[iAot]);
+            assertSameAsFullSubsection("aatsr", aatsrWvl, 0.3f * iAot, aotDim[iAot]);
+        }
+    }
+
+    public void testSubsecLUTAtAotBetweenNodes() {
+        final float[] taus = new float[]{0.01f, 0.1f, 0.37f, 0.74f, 1.5f, 1.99f};
+        for (int i = 0; i < taus.length; i++) {
+            assertSameAsFullSubsection("meris", merisWvl, 0.7f * i, taus[i]);
+            assertSameAsFullSubsection("aatsr", aatsrWvl, 0.7f * i, taus[i]);
+        }
+    }
+
+    // compares subsecLUTAtAot to the interpolation of the full subsecLUT between the AOT nodes bracketing tau
+    private void assertSameAsFullSubsection(String instr, float[] wvl, float shift, float tau) {
+        final float pres = 960.0f + 10.0f * shift;
+        final float o3 = 310.0f + 5.0f * shift;
+        final float vza = 12.0f + 7.0f * shift;
+        final float vaa = 95.0f + 11.0f * shift;
+        final float sza = 33.0f + 3.0f * shift;
+        final float saa = 140.0f - 13.0f * shift;
+
+        final float[][][] full = new float[wvl.length][albDim.length][aotDim.length];
+        lut.subsecLUT(instr, pres, o3, vza, vaa, sza, saa, wvl, full);
+        final float[][] atAot = new float[wvl.length][albDim.length];
+        lut.subsecLUTAtAot(instr, pres, o3, vza, vaa, sza, saa, wvl, tau, atAot);
+
+        int iAot = 0;
+        while (iAot < aotDim.length - 2 && aotDim[iAot + 1] < tau) {
+            iAot++;
+        }
+        final float w = (tau - aotDim[iAot]) / (aotDim[iAot + 1] - aotDim[iAot]);
+        for (int iWl = 0; iWl < wvl.length; iWl++) {
+            for (int iAlb = 0; iAlb < albDim.length; iAlb++) {
+                final float expected = (1 - w) * full[iWl][iAlb][iAot] + w * full[iWl][iAlb][iAot + 1];
+                assertEquals(instr + " " + tau + ", " + iWl + "," + iAlb, expected, atAot[iWl][iAlb],
+                             1.0e-6f * expected);
+            }
+        }
+    }
+
+    // nonlinear in all dimensions, as in LutSubsectionCacheTest
+    private SynergyLookupTable createTable(float scale) {
+        final float[] logPresDim = new float[presDim.length];
+        for (int i = 0; i < presDim.length; i++) {
+            logPresDim[i] = (float) Math.log(presDim[i]);
+        }
+        final float[] values = new float[presDim.length * vzaDim.length * raziDim.length *
+                                         szaDim.length * aotDim.length * albDim.length];
+        int i = 0;
+        for (float lp : logPresDim) {
+            final double pres = Math.exp(lp) / 1013.0;
+            for (float vza : vzaDim) {
+                final double muV = Math.cos(Math.toRadians(vza));
+                for (float razi : raziDim) {
+                    for (float sza : szaDim) {
+                        final double muS = Math.cos(Math.toRadians(sza));
+                        for (float aot : aotDim) {
+                            final double path = (0.03 * pres + 0.08 * (1.0 - Math.exp(-aot))) *
+                                                (1.0 + 0.3 * Math.cos(Math.toRadians(razi))) / (muS + muV);
+                            final double trans = Math.exp(-0.5 * (0.1 * pres + 0.5 * aot) * (1.0 / muS + 1.0 / muV));
+                            final double sphAlb = 0.1 + 0.05 * aot;
+                            for (float alb : albDim) {
+                                values[i++] = (float) (scale * (path + trans * alb / (1.0 - sphAlb * alb)));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return new SynergyLookupTable(values, logPresDim, vzaDim, raziDim, szaDim, aotDim, albDim);
+    }
+}
@@ -0,0 +1,72 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+
+public class TileFlagSummaryTest extends TestCase {
+
+    public void testEmptySummary() {
+        final TileFlagSummary summary = new TileFlagSummary();
+        assertEquals(0, summary.getPixelCount());
+        assertFalse(summary.hasClearLandPixels());
+        assertFalse(summary.hasClearOceanPixels());
+    }
+
+    public void testCounts() {
+        final TileFlagSummary summary = new TileFlagSummary();
+        summary.add(true, false, false, true);
+        summary.add(true, true, false, true);
+        summary.add(false, false, true, true);
+        summary.add(false, true, false, false);
+
+        assertEquals(4, summary.getPixelCount());
+        assertEquals(2, summary.getLandCount());
+        assertEquals(2, summary.getOceanCount());
+        assertEquals(2, summary.getCloudyCount());
+        assertEquals(1, summary.getInvalidCount());
+        assertEquals(3, summary.getDaylightCount());
+        assertFalse(summary.isAllLand());
+        assertFalse(summary.isAllOcean());
+        assertFalse(summary.isAllCloudy());
+        assertFalse(summary.isAllInvalid());
+        assertFalse(summary.isAllNight());
+        assertTrue(summary.hasClearLandPixels());
+        assertFalse(summary.hasClearOceanPixels());
+    }
+
+    public void testClearLandPixels() {
+        // every land pixel that is cloudy, invalid or at night is not retrieved
+        assertFalse(createSummary(true, true, false, true).hasClearLandPixels());
+        assertFalse(createSummary(true, false, true, true).hasClearLandPixels());
+        assertFalse(createSummary(true, false, false, false).hasClearLandPixels());
+        assertFalse(createSummary(false, false, false, true).hasClearLandPixels());
+        assertTrue(createSummary(true, false, false, true).hasClearLandPixels());
+    }
+
+    public void testClearOceanPixels() {
+        // the ocean retrievals do not skip cloudy pixels
+        assertTrue(createSummary(false, true, false, true).hasClearOceanPixels());
+        assertFalse(createSummary(false, false, true, true).hasClearOceanPixels());
+        assertFalse(createSummary(false, false, false, false).hasClearOceanPixels());
+        assertFalse(createSummary(true, false, false, true).hasClearOceanPixels());
+        assertTrue(createSummary(false, false, false, true).hasClearOceanPixels());
+    }
+
+    public void testAllNight() {
+        final TileFlagSummary summary = new TileFlagSummary();
+        for (float sunZenith = 90.0f; sunZenith < 180.0f; sunZenith += 10.0f) {
+            summary.add(false, false, false, TileFlagSummary.isDaylight(sunZenith));
+        }
+        assertTrue(summary.isAllNight());
+        assertFalse(summary.hasClearOceanPixels());
+
+        summary.add(false, false, false, TileFlagSummary.isDaylight(89.9f));
+        assertFalse(summary.isAllNight());
+        assertTrue(summary.hasClearOceanPixels());
+    }
+
+    private static TileFlagSummary createSummary(boolean land, boolean cloudy, boolean invalid, boolean daylight) {
+        final TileFlagSummary summary = new TileFlagSummary();
+        summary.add(land, cloudy, invalid, daylight);
+        return summary;
+    }
+}
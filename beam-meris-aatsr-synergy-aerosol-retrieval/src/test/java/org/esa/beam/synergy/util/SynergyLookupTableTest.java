@@ -0,0 +1,90 @@
+package org.esa.beam.synergy.util;
+
+import junit.framework.TestCase;
+
+public class SynergyLookupTableTest extends TestCase {
+
+    public void testHalfFloatRoundTrip() {
+        assertEquals(0.0f, SynergyLookupTable.decodeHalfFloat(SynergyLookupTable.encodeHalfFloat(0.0f)));
+        assertEquals(1.0f, SynergyLookupTable.decodeHalfFloat(SynergyLookupTable.encodeHalfFloat(1.0f)));
+        assertEquals(-2.5f, SynergyLookupTable.decodeHalfFloat(SynergyLookupTable.encodeHalfFloat(-2.5f)));
+        assertEquals(65504.0f, SynergyLookupTable.decodeHalfFloat(SynergyLookupTable.encodeHalfFloat(65504.0f)));
+        assertEquals(Float.POSITIVE_INFINITY,
+                     SynergyLookupTable.decodeHalfFloat(SynergyLookupTable.encodeHalfFloat(1.0e6f)));
+        assertTrue(Float.isNaN(SynergyLookupTable.decodeHalfFloat(SynergyLookupTable.encodeHalfFloat(Float.NaN))));
+        // smallest subnormal
+        assertEquals(5.9604645E-8f, SynergyLookupTable.decodeHalfFloat(SynergyLookupTable.encodeHalfFloat(6.0e-8f)));
+
+        for (float value = 1.0e-4f; value < 1000.0f; value *= 1.01f) {
+            final float decoded = SynergyLookupTable.decodeHalfFloat(SynergyLookupTable.encodeHalfFloat(value));
+            assertEquals(value, decoded, value / 2048.0f);
+        }
+    }
+
+    public void testEncodedTables() {
+        final float[] x = {0.0f, 1.0f, 2.0f, 4.0f};
+        final float[] y = {0.0f, 0.5f, 1.0f};
+        final float[] values = new float[x.length * y.length];
+        for (int i = 0; i < x.length; i++) {
+            for (int j = 0; j < y.length; j++) {
+                values[i * y.length + j] = 0.05f + 0.1f * x[i] + 0.3f * y[j] * y[j];
+            }
+        }
+        final SynergyLookupTable table = new SynergyLookupTable(values, x, y);
+        assertSame(table, table.getEncodedTable(SynergyLookupTable.Encoding.FULL));
+
+        final SynergyLookupTable half = table.getEncodedTable(SynergyLookupTable.Encoding.HALF_FLOAT);
+        final SynergyLookupTable linear = table.getEncodedTable(SynergyLookupTable.Encoding.LINEAR_16);
+        assertEquals(SynergyLookupTable.Encoding.HALF_FLOAT, half.getEncoding());
+        assertEquals(SynergyLookupTable.Encoding.LINEAR_16, linear.getEncoding());
+
+        final double linearTolerance = (0.05 + 0.4 + 0.3) / 65534.0;
+        for (double a = 0.0; a <= 4.0; a += 0.25) {
+            for (double b = 0.0; b <= 1.0; b += 0.1) {
+                final double expected = table.getValue(a, b);
+                assertEquals(expected, half.getValue(a, b), expected / 2048.0);
+                assertEquals(expected, linear.getValue(a, b), linearTolerance);
+            }
+        }
+
+        // sub-tables keep the encoding and the values
+        final SynergyLookupTable subTable = linear.getSubTable(new int[]{1, 0}, new int[]{2, 2});
+        assertEquals(SynergyLookupTable.Encoding.LINEAR_16, subTable.getEncoding());
+        assertEquals(linear.getValue(1.5, 0.7), subTable.getValue(1.5, 0.7), 1.0e-12);
+
+        final SynergyLookupTable decoded = half.getEncodedTable(SynergyLookupTable.Encoding.FULL);
+        assertEquals(half.getValue(2.3, 0.4), decoded.getValue(2.3, 0.4), 1.0e-7);
+        try {
+            half.getEncodedTable(SynergyLookupTable.Encoding.LINEAR_16);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testLinear16WithNaN() {
+        final float[] x = {0.0f, 1.0f, 2.0f, 3.0f};
+        final float[] values = {0.1f, Float.NaN, 0.3f, 0.7f};
+        final SynergyLookupTable table = new SynergyLookupTable(values, x);
+        final SynergyLookupTable linear = table.getEncodedTable(SynergyLookupTable.Encoding.LINEAR_16);
+
+        // the range is taken from the other values only, NaN is kept
+        final double tolerance = (0.7 - 0.1) / 131068.0;
+        for (double a = 0.0; a <= 3.0; a += 0.25) {
+            final double expected = table.getValue(a);
+            if (Double.isNaN(expected)) {
+                assertTrue(Double.isNaN(linear.getValue(a)));
+            } else {
+                assertEquals(expected, linear.getValue(a), tolerance);
+            }
+        }
+        assertEquals(0.5, linear.getValue(2.5), tolerance);
+
+        final SynergyLookupTable decoded = linear.getEncodedTable(SynergyLookupTable.Encoding.FULL);
+        assertTrue(Double.isNaN(decoded.getValue(1.0)));
+        assertEquals(0.7, decoded.getValue(3.0), tolerance);
+
+        final float[] nanValues = {Float.NaN, Float.NaN, Float.NaN, Float.NaN};
+        final SynergyLookupTable allNaN = new SynergyLookupTable(nanValues, x);
+        assertTrue(Double.isNaN(allNaN.getEncodedTable(SynergyLookupTable.Encoding.LINEAR_16).getValue(0.5)));
+    }
+}
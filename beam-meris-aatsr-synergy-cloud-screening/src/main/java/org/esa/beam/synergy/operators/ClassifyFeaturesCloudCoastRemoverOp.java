@@ -11,16 +11,12 @@ import org.esa.beam.framework.gpf.Tile;
 import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
 import org.esa.beam.framework.gpf.annotations.SourceProduct;
 import org.esa.beam.framework.gpf.annotations.TargetProduct;
+import org.esa.beam.synergy.util.MaskRaster;
 import org.esa.beam.synergy.util.SynergyConstants;
 import org.esa.beam.synergy.util.SynergyUtils;
 import org.esa.beam.util.ProductUtils;
 
-import javax.media.jai.KernelJAI;
-import javax.media.jai.operator.AndDescriptor;
-import javax.media.jai.operator.ConvolveDescriptor;
-import javax.media.jai.operator.MaxFilterDescriptor;
 import java.awt.Rectangle;
-import java.awt.image.RenderedImage;
 import java.util.Map;
 
 @OperatorMetadata(alias = "synergy.ClassifyFeaturesCloudCoastRemover",
@@ -44,57 +40,43 @@ public class ClassifyFeaturesCloudCoastRemoverOp extends Operator {
     @TargetProduct(description = "A product with the coastline/cloudmask false positives removed.")
     private Product targetProduct;
 
+    // Coastline dilation (max 5x5 filter)
+    private static final int COAST_DILATION_SIZE = 5;
+    // Cloudy coast pixels are kept if a 5x5 box within their 7x7 window has 10 cloudy coast pixels
+    private static final int CLOUD_COUNT_SIZE = 5;
+    private static final int MIN_CLOUD_COUNT = 10;
+    private static final int CLOUD_DILATION_SIZE = 7;
+    // Source pixels needed around a target tile by the three filters
+    private static final int TILE_MARGIN = COAST_DILATION_SIZE / 2 + CLOUD_COUNT_SIZE / 2 + CLOUD_DILATION_SIZE / 2;
+
     // Bands
+    private transient Band sBand_coast;
     private transient Band[] sBand_nnCm = new Band[1];
-    private transient Band[] sBand_dilated = new Band[sBand_nnCm.length];
-    private transient Band[] sBand_max7x7 = new Band[sBand_nnCm.length];
     private transient Band[] tBand_eroded = new Band[sBand_nnCm.length];
+    // Pixels at least TILE_MARGIN inside the scene. The former JAI filter chain had no border extender,
+    // so its filtered images did not cover the scene border and no pixels were removed there.
+    private transient Rectangle removalRectangle;
+
+    /**
+     * This method provides the distance (pixels) up to which source pixels contribute to a target pixel
+     * through the coastline dilation, the cloud count and the cloud dilation.
+     *
+     * @return the tile margin
+     */
+    public static int getTileMargin() {
+        return TILE_MARGIN;
+    }
 
     @Override
     public void initialize() throws OperatorException {
         // Get coastline
-        final RenderedImage coastIm = featProduct.getBand(SynergyConstants.F_COASTLINE).getGeophysicalImage();
-        // Apply max 5x5 filter
-        final RenderedImage max5x5Im = MaxFilterDescriptor.create(coastIm, MaxFilterDescriptor.MAX_MASK_SQUARE, 5,
-                                                                  null);
+        sBand_coast = featProduct.getBand(SynergyConstants.F_COASTLINE);
 
         // Get cloudmasks
         sBand_nnCm[0] = nnProduct.getBand(SynergyConstants.B_CLOUDMASK);
         // It doesn't make sense to remove coast line from snow areas
         //sBand_nnCm[1] = nnProduct.getBand(SynergyCloudScreeningConstants.B_SNOWMASK);
 
-        // Intermediate images
-        final RenderedImage[] nnCmIm = new RenderedImage[sBand_nnCm.length];
-        final RenderedImage[] dilatedIm = new RenderedImage[nnCmIm.length];
-        final RenderedImage[] expandedIm = new RenderedImage[nnCmIm.length];
-        final RenderedImage[] max7x7Im = new RenderedImage[nnCmIm.length];
-
-        // Create kernel for sum filter
-        final float[] data = new float[5 * 5];
-        for (int i = 0; i < data.length; i++) {
-            data[i] = 1.0f;
-        }
-        KernelJAI kernel = new KernelJAI(5, 5, data);
-
-        for (int i = 0; i < sBand_nnCm.length; i++) {
-            // Get NN cloudmask images
-            nnCmIm[i] = sBand_nnCm[i].getGeophysicalImage();
-            // 'and' cloudmask and max5x5Im
-            dilatedIm[i] = AndDescriptor.create(max5x5Im, nnCmIm[i], null);
-            // Expand dilated image
-            expandedIm[i] = ConvolveDescriptor.create(dilatedIm[i], kernel, null);
-            // Max expanded image
-            max7x7Im[i] = MaxFilterDescriptor.create(expandedIm[i], MaxFilterDescriptor.MAX_MASK_SQUARE, 7, null);
-
-            sBand_dilated[i] = new Band("max5x5", ProductData.TYPE_FLOAT32,
-                                        sBand_nnCm[i].getRasterWidth(), sBand_nnCm[i].getRasterHeight());
-            sBand_dilated[i].setSourceImage(dilatedIm[i]);
-
-            sBand_max7x7[i] = new Band("max7x7", ProductData.TYPE_FLOAT32,
-                                       sBand_nnCm[i].getRasterWidth(), sBand_nnCm[i].getRasterHeight());
-            sBand_max7x7[i].setSourceImage(max7x7Im[i]);
-        }
-
         // Construct target product
         final String type = nnProduct.getProductType() + "_ERODED";
         targetProduct = new Product("Synergy coastline eroded", type,
@@ -104,6 +86,10 @@ public class ClassifyFeaturesCloudCoastRemoverOp extends Operator {
         targetProduct.setStartTime(nnProduct.getStartTime());
         targetProduct.setEndTime(nnProduct.getEndTime());
 
+        removalRectangle = new Rectangle(TILE_MARGIN, TILE_MARGIN,
+                                         nnProduct.getSceneRasterWidth() - 2 * TILE_MARGIN,
+                                         nnProduct.getSceneRasterHeight() - 2 * TILE_MARGIN);
+
         tBand_eroded[0] = targetProduct.addBand(SynergyConstants.B_COAST_ERODED, ProductData.TYPE_INT8);
         //tBand_eroded[1] = targetProduct.addBand(SynergyCloudScreeningConstants.B_COAST_ERODED_NADIR, ProductData.TYPE_INT8);
 
@@ -120,20 +106,37 @@ public class ClassifyFeaturesCloudCoastRemoverOp extends Operator {
         try {
             // Source tiles
             final Tile[] sTile_nnCm = SynergyUtils.getSourceTiles(sBand_nnCm, targetRectangle, this);
-            final Tile[] sTile_dilated = SynergyUtils.getSourceTiles(sBand_dilated, targetRectangle, this);
-            final Tile[] sTile_max7x7 = SynergyUtils.getSourceTiles(sBand_max7x7, targetRectangle, this);
+            // Source masks, pixels outside the scene are unset
+            final Rectangle sourceRectangle = new Rectangle(targetRectangle);
+            sourceRectangle.grow(TILE_MARGIN, TILE_MARGIN);
+            final MaskRaster coast = MaskRaster.read(this, sBand_coast, sourceRectangle);
+            final MaskRaster[] removed = new MaskRaster[sBand_nnCm.length];
+            if (coast.isEmpty() || !removalRectangle.intersects(targetRectangle)) {
+                // No coastline near the tile, or tile on the scene border: the cloudmasks are kept
+                for (int i = 0; i < sBand_nnCm.length; i++) {
+                    removed[i] = new MaskRaster(targetRectangle);
+                }
+            } else {
+                final MaskRaster coastDilated = coast.dilate(COAST_DILATION_SIZE);
+                for (int i = 0; i < sBand_nnCm.length; i++) {
+                    // Cloudy pixels near the coast ('and' of cloudmask and max 5x5 coastline)
+                    final MaskRaster dilated =
+                            coastDilated.copy().and(MaskRaster.read(this, sBand_nnCm[i], sourceRectangle));
+                    // Remove them unless the max 7x7 of their 5x5 sum reaches the minimum count
+                    removed[i] = dilated.copy().andNot(
+                            dilated.countAtLeast(CLOUD_COUNT_SIZE, MIN_CLOUD_COUNT).dilate(CLOUD_DILATION_SIZE));
+                }
+            }
             // Target tiles
             final Tile[] tTile_cloudmask_coast_eroded = SynergyUtils.getTargetTiles(tBand_eroded, targetTiles);
 
             for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
+                checkForCancellation();
                 for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
-
-                    checkForCancellation();
-
-                    for (int i = 0; i < sTile_nnCm.length; i++) {
+                    final boolean removable = removalRectangle.contains(x, y);
+                    for (int i = 0; i < sBand_nnCm.length; i++) {
                         final int m = sTile_nnCm[i].getSampleInt(x, y);
-                        final int v = sTile_dilated[i].getSampleInt(x, y) * sTile_max7x7[i].getSampleInt(x, y);
-                        tTile_cloudmask_coast_eroded[i].setSample(x, y, (v > 0 && v < 10 ? 0 : m));
+                        tTile_cloudmask_coast_eroded[i].setSample(x, y, (removable && removed[i].get(x, y) ? 0 : m));
                     }
                 }
 
@@ -13,6 +13,8 @@ import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
 import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.SourceProduct;
 import org.esa.beam.framework.gpf.annotations.TargetProduct;
+import org.esa.beam.synergy.util.BlockGeoCoding;
+import org.esa.beam.synergy.util.MaskRaster;
 import org.esa.beam.synergy.util.SynergyConstants;
 import org.esa.beam.synergy.util.SynergyUtils;
 import org.esa.beam.util.ProductUtils;
@@ -99,15 +101,46 @@ public class ClassifyFeaturesOp extends Operator {
                description = "Return bands with neural network outputs.")
     private boolean outputNN;
 
-    @Parameter(defaultValue = "5",
+    @Parameter(defaultValue = "" + DEFAULT_SHADOW_WIDTH,
                label = "Shadow width in pixels",
                description = "Sets the shadow width in computations.")
     private int shadowWidth;
 
+    @Parameter(defaultValue = "false",
+               label = "Project cloud shadows in pixel space",
+               description = "Project cloud shadows with the geo-coding linearised per tile " +
+                             "instead of tracing them geodetically.")
+    private boolean projectShadowsInPixelSpace;
+
+    @Parameter(defaultValue = "false",
+               label = "Approximate the geo-coding blockwise",
+               description = "Interpolate geo-positions and pixel positions blockwise (sub-pixel error) " +
+                             "when tracing cloud shadows and creating the elevation band.")
+    private boolean approximateGeoCoding;
+
+    @Parameter(defaultValue = "false",
+               label = "Sample the elevation per tile",
+               description = "Interpolate the elevations of a tile from the DEM grid nodes, read once and kept " +
+                             "in a bounded in-memory cache (sub-metre differences), instead of sampling the DEM " +
+                             "per pixel.")
+    private boolean sampleElevationPerTile;
+
+    @Parameter(label = "Elevation cache directory",
+               description = "Directory of the elevation cache (computed once per product, " +
+                             "memory-mapped when the same product is processed again; other acquisitions of " +
+                             "the same orbit are not matched). No caching if not set.")
+    private String elevationCacheDir;
+
     // Constants and variables for the cloud shadow risk computation
-    private static final int MEAN_EARTH_RADIUS = 6372000;
-    private static final int MAX_ITER = 5;
-    private static final double DIST_THRESHOLD = 1 / 740.0;
+    static final int MEAN_EARTH_RADIUS = 6372000;
+    static final int MAX_ITER = 5;
+    static final double DIST_THRESHOLD = 1 / 740.0;
+
+    static final int DEFAULT_SHADOW_WIDTH = 5;
+
+    // Spatial filter: 3x3 median of the 0/1 masks, i.e. at least 5 set pixels in the 3x3 window
+    private static final int MEDIAN_SIZE = 3;
+    private static final int MEDIAN_MIN_COUNT = MEDIAN_SIZE * MEDIAN_SIZE / 2 + 1;
 
     private RectangleExtender rectCalculator;
     private GeoCoding geoCoding;
@@ -116,8 +149,6 @@ public class ClassifyFeaturesOp extends Operator {
 
     // Source bands: cloud comb band and snow comb band
     private transient Band[] sBand = new Band[2];
-    // Spatially filtered bands
-    private transient Band[] sBand_cmcr_med3x3 = new Band[sBand.length];
     // Abundances source band
     private transient Band sBand_abun;
 
@@ -125,6 +156,22 @@ public class ClassifyFeaturesOp extends Operator {
     private transient Band tBand_flags;
     private transient Band tBand_abun = null;
 
+    /**
+     * This method provides the distance (pixels) up to which source pixels contribute to a target pixel:
+     * through the coast removal of {@link ClassifyFeaturesCloudCoastRemoverOp}, the 3 x 3 median and, if
+     * cloud shadows are computed, the default shadow width.
+     *
+     * @param computeSH - true if cloud shadows are computed
+     * @return the halo size
+     */
+    public static int getHaloSize(boolean computeSH) {
+        int halo = ClassifyFeaturesCloudCoastRemoverOp.getTileMargin() + MEDIAN_SIZE / 2;
+        if (computeSH) {
+            halo += DEFAULT_SHADOW_WIDTH;
+        }
+        return halo;
+    }
+
     @Override
     public void initialize() throws OperatorException {
 
@@ -157,11 +204,11 @@ public class ClassifyFeaturesOp extends Operator {
                 GPF.createProduct(OperatorSpi.getOperatorAlias(ClassifyFeaturesNNOp.class), nnClassParams,
                                   nnClassInputs);
 
-        // Check if there is coastline
+        // Check if there is coastline, the remover decides per tile if there is coast to remove
         final Band bCoastline = featProduct.getBand(SynergyConstants.F_COASTLINE);
 
-        if (bCoastline.getStx().getMaximum() > 0) {
-            // Coastline present, remove false artifacts
+        if (bCoastline != null) {
+            // Coastline available, remove false artifacts
             final Operator operator = new ClassifyFeaturesCloudCoastRemoverOp();
             operator.setSourceProduct("features", featProduct);
             operator.setSourceProduct("nnProduct", nnClassProduct);
@@ -180,15 +227,6 @@ public class ClassifyFeaturesOp extends Operator {
         //RenderedImage convIm = ConvolveDescriptor.create(srcIm, kernel, null);
         //targetProduct.addBand("radiance_8", ProductData.TYPE_FLOAT32).setSourceImage(convIm);
 
-        // Generate 3x3 median bands
-        for (int i = 0; i < sBand.length; i++) {
-//            sBand_cmcr_med3x3[i] = new GeneralFilterBand("median", sBand[i], 3, GeneralFilterBand.MEDIAN);
-            // adjusted for BEAM 5:
-            sBand_cmcr_med3x3[i] = new GeneralFilterBand("median", sBand[i], GeneralFilterBand.OpType.MEDIAN,
-                    new Kernel(3, 3, new double[]{1, 1, 1, 1, 1, 1, 1, 1, 1}), 1);
-
-        }
-
         // Abundances source band
         sBand_abun = nnClassProduct.getBand(SynergyConstants.B_CLOUDINDEX);
 
@@ -212,7 +250,11 @@ public class ClassifyFeaturesOp extends Operator {
                     } else {
                         sourceProduct.setProductType(EnvisatConstants.MERIS_RR_L1B_PRODUCT_TYPE_NAME);
                     }
-                    final Product demProduct = GPF.createProduct("synergy.CreateElevationBand", GPF.NO_PARAMS,
+                    Map<String, Object> demParams = new HashMap<String, Object>(3);
+                    demParams.put("approximateGeoCoding", approximateGeoCoding);
+                    demParams.put("sampleElevationPerTile", sampleElevationPerTile);
+                    demParams.put("elevationCacheDir", elevationCacheDir);
+                    final Product demProduct = GPF.createProduct("synergy.CreateElevationBand", demParams,
                                                                  sourceProduct);
                     sourceProduct.setProductType(productType);
                     altitudeRDN = demProduct.getBand(SynergyConstants.DEM_ELEVATION);
@@ -386,7 +428,16 @@ public class ClassifyFeaturesOp extends Operator {
         try {
             // Source tiles
             final Tile[] sTiles = SynergyUtils.getSourceTiles(sBand, targetRectangle, this);
-            final Tile[] sTile_filled = SynergyUtils.getSourceTiles(sBand_cmcr_med3x3, targetRectangle, this);
+            // 3x3 median filled masks, the scene border is replicated
+            final Rectangle filterRectangle = new Rectangle(targetRectangle);
+            filterRectangle.grow(MEDIAN_SIZE / 2, MEDIAN_SIZE / 2);
+            final MaskRaster[] filled = new MaskRaster[sBand.length];
+            for (int i = 0; i < sBand.length; i++) {
+                if (i == 0 || computeSF) {
+                    filled[i] = MaskRaster.readReplicated(this, sBand[i], filterRectangle).countAtLeast(MEDIAN_SIZE,
+                                                                                                      MEDIAN_MIN_COUNT);
+                }
+            }
             Tile sTile_abun = null;
             // Target tiles
             final Tile tTile_flags = targetTiles.get(tBand_flags);
@@ -403,6 +454,9 @@ public class ClassifyFeaturesOp extends Operator {
             Tile vaaTile = null;
             Tile altTile = null;
             Tile ctpTile = null;
+            CloudShadowProjection shadowProjection = null;
+            // created with the first shadow traced in the tile
+            BlockGeoCoding tileGeoCoding = null;
             if (computeSH) {
                 final Rectangle sourceRectangle = rectCalculator.extend(targetRectangle);
                 szaTile = getSourceTile(sourceProduct.getTiePointGrid(EnvisatConstants.MERIS_SUN_ZENITH_DS_NAME),
@@ -415,6 +469,11 @@ public class ClassifyFeaturesOp extends Operator {
                                         sourceRectangle);
                 altTile = getSourceTile(altitudeRDN, sourceRectangle);
                 ctpTile = getSourceTile(ctpBand, sourceRectangle);
+                if (projectShadowsInPixelSpace) {
+                    // linearised over the extended rectangle the shadows are traced in; null if the
+                    // geo-coding is not valid there, then the geodetic trace is used
+                    shadowProjection = CloudShadowProjection.create(geoCoding, sourceRectangle);
+                }
             }
 
             for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
@@ -429,7 +488,7 @@ public class ClassifyFeaturesOp extends Operator {
                         flags |= SynergyConstants.FLAGMASK_CLOUD;
                     }
                     if (sTiles[0].getSampleBoolean(x, y) ||
-                        sTile_filled[0].getSampleBoolean(x, y)) {
+                        filled[0].get(x, y)) {
                         flags |= SynergyConstants.FLAGMASK_CLOUD_FILLED;
                     }
                     if (computeSF) {
@@ -437,7 +496,7 @@ public class ClassifyFeaturesOp extends Operator {
                             flags |= SynergyConstants.FLAGMASK_SNOW;
                         }
                         if (sTiles[1].getSampleBoolean(x, y) ||
-                            sTile_filled[1].getSampleBoolean(x, y)) {
+                            filled[1].get(x, y)) {
                             flags |= SynergyConstants.FLAGMASK_SNOW_FILLED;
                         }
                     }
@@ -451,14 +510,27 @@ public class ClassifyFeaturesOp extends Operator {
                             final float saa = saaTile.getSampleFloat(x, y) * MathUtils.DTOR_F;
                             final float vaa = vaaTile.getSampleFloat(x, y) * MathUtils.DTOR_F;
 
-                            PixelPos pixelPos = new PixelPos(x, y);
-                            final GeoPos geoPos = geoCoding.getGeoPos(pixelPos, null);
                             float ctp = ctpTile.getSampleFloat(x, y);
                             if (ctp > 0) {
                                 float cloudAlt = computeHeightFromPressure(ctp);
-                                GeoPos shadowPos = getCloudShadow(altTile, sza, saa, vza, vaa, cloudAlt, geoPos);
-                                if (shadowPos != null) {
-                                    pixelPos = geoCoding.getPixelPos(shadowPos, pixelPos);
+                                PixelPos pixelPos = null;
+                                if (shadowProjection != null) {
+                                    pixelPos = shadowProjection.getCloudShadow(altTile, x, y, sza, saa, vza, vaa,
+                                                                               cloudAlt);
+                                } else {
+                                    if (approximateGeoCoding && tileGeoCoding == null) {
+                                        tileGeoCoding = new BlockGeoCoding(geoCoding, altTile.getRectangle());
+                                    }
+                                    final PixelPos cloudPos = new PixelPos(x, y);
+                                    final GeoPos geoPos = getGeoPos(geoCoding, tileGeoCoding, cloudPos);
+                                    final GeoPos shadowPos = getCloudShadow(geoCoding, tileGeoCoding, altTile,
+                                                                            sza, saa, vza, vaa, cloudAlt,
+                                                                            geoPos, cloudPos);
+                                    if (shadowPos != null) {
+                                        pixelPos = getPixelPos(geoCoding, tileGeoCoding, shadowPos);
+                                    }
+                                }
+                                if (pixelPos != null) {
                                     if (targetRectangle.contains(pixelPos)) {
                                         final int pixelX = MathUtils.floorInt(pixelPos.x);
                                         final int pixelY = MathUtils.floorInt(pixelPos.y);
@@ -478,7 +550,7 @@ public class ClassifyFeaturesOp extends Operator {
                         if (sBand_abun.isPixelValid(x, y)) {
                             tTile_abun.setSample(x, y,
                                                  sTile_abun.getSampleFloat(x, y) *
-                                                 sTile_filled[0].getSampleFloat(x, y));
+                                                 (filled[0].get(x, y) ? 1.0f : 0.0f));
                         } else {
                             tTile_abun.setSample(x, y, sBand_abun.getNoDataValue());
                         }
@@ -498,10 +570,26 @@ public class ClassifyFeaturesOp extends Operator {
         return (float) (-8000 * Math.log(pressure / 1013.0f));
     }
 
-    private GeoPos getCloudShadow(Tile altTile, float sza, float saa, float vza, float vaa,
-                                  float cloudAlt, GeoPos appCloud) {
-
-        double surfaceAlt = getAltitude(altTile, appCloud);
+    /**
+     * This method traces the shadow of a cloudy pixel geodetically.
+     *
+     * @param geoCoding     - the geo-coding
+     * @param tileGeoCoding - the approximated geo-coding of the altitude tile, or null
+     * @param altTile       - the surface altitude tile, the shadow must lie within it
+     * @param sza           - sun zenith (rad)
+     * @param saa           - sun azimuth (rad)
+     * @param vza           - view zenith (rad)
+     * @param vaa           - view azimuth (rad)
+     * @param cloudAlt      - cloud altitude (m)
+     * @param appCloud      - the geo-position of the cloudy pixel
+     * @param appCloudPixel - the cloudy pixel
+     * @return the shadow geo-position, or null if the iteration does not converge
+     */
+    static GeoPos getCloudShadow(GeoCoding geoCoding, BlockGeoCoding tileGeoCoding, Tile altTile,
+                                 float sza, float saa, float vza, float vaa, float cloudAlt,
+                                 GeoPos appCloud, PixelPos appCloudPixel) {
+
+        double surfaceAlt = getAltitude(altTile, appCloudPixel);
 
         // deltaX and deltaY are the corrections to apply to get the
         // real cloud position from the apparent one
@@ -530,11 +618,11 @@ public class ClassifyFeaturesOp extends Operator {
             lat0 = lat;
             lon0 = lon;
             pos.setLocation((float) lat, (float) lon);
-            PixelPos pixelPos = geoCoding.getPixelPos(pos, null);
+            PixelPos pixelPos = getPixelPos(geoCoding, tileGeoCoding, pos);
             if (!(pixelPos.isValid() && altTile.getRectangle().contains(pixelPos))) {
                 return null;
             }
-            surfaceAlt = getAltitude(altTile, pos);
+            surfaceAlt = getAltitude(altTile, pixelPos);
 
             double deltaProjX = (cloudAlt - surfaceAlt) * Math.tan(sza) * Math.sin(saa);
             double deltaProjY = (cloudAlt - surfaceAlt) * Math.tan(sza) * Math.cos(saa);
@@ -556,14 +644,27 @@ public class ClassifyFeaturesOp extends Operator {
         return null;
     }
 
-    private float getAltitude(Tile altTile, GeoPos geoPos) {
-        final PixelPos pixelPos = geoCoding.getPixelPos(geoPos, null);
+    private static float getAltitude(Tile altTile, PixelPos pixelPos) {
         Rectangle rectangle = altTile.getRectangle();
         final int x = MathUtils.roundAndCrop(pixelPos.x, rectangle.x, rectangle.x + rectangle.width - 1);
         final int y = MathUtils.roundAndCrop(pixelPos.y, rectangle.y, rectangle.y + rectangle.height - 1);
         return altTile.getSampleFloat(x, y);
     }
 
+    private static GeoPos getGeoPos(GeoCoding geoCoding, BlockGeoCoding tileGeoCoding, PixelPos pixelPos) {
+        if (tileGeoCoding != null) {
+            return tileGeoCoding.getGeoPos(pixelPos, null);
+        }
+        return geoCoding.getGeoPos(pixelPos, null);
+    }
+
+    private static PixelPos getPixelPos(GeoCoding geoCoding, BlockGeoCoding tileGeoCoding, GeoPos geoPos) {
+        if (tileGeoCoding != null) {
+            return tileGeoCoding.getPixelPos(geoPos, null);
+        }
+        return geoCoding.getPixelPos(geoPos, null);
+    }
+
     public static class Spi extends OperatorSpi {
 
         public Spi() {
@@ -0,0 +1,170 @@
+package org.esa.beam.synergy.operators;
+
+import org.esa.beam.framework.datamodel.GeoCoding;
+import org.esa.beam.framework.datamodel.GeoPos;
+import org.esa.beam.framework.datamodel.PixelPos;
+import org.esa.beam.framework.gpf.Tile;
+import org.esa.beam.util.math.MathUtils;
+
+import java.awt.Rectangle;
+
+/**
+ * Cloud shadow projection in pixel space. The geo-coding is linearised once per tile, over the rectangle
+ * the shadows are traced in, into the ground sampling vectors of a pixel step in x and y (metres east
+ * and north). The cloud parallax and the shadow displacement per metre of height become pixel
+ * displacements, and the shadow is iterated through the altitude tile without geo-coding calls.
+ * <p/>
+ * The iteration is the one of the geodetic trace in {@link ClassifyFeaturesOp}: the apparent cloud is
+ * moved to its real position, then the shadow position is iterated until its change is below the
+ * distance threshold.
+ */
+public class CloudShadowProjection {
+
+    private static final double METRES_PER_DEGREE = ClassifyFeaturesOp.MEAN_EARTH_RADIUS * MathUtils.DTOR;
+
+    // ground sampling vectors: metres east and north per pixel in x and y
+    private final double eastPerX;
+    private final double eastPerY;
+    private final double northPerX;
+    private final double northPerY;
+    // inverse: pixels in x and y per metre east and north
+    private final double xPerEast;
+    private final double xPerNorth;
+    private final double yPerEast;
+    private final double yPerNorth;
+    private final double cosLat;
+
+    private CloudShadowProjection(double eastPerX, double eastPerY, double northPerX, double northPerY,
+                                  double cosLat) {
+        this.eastPerX = eastPerX;
+        this.eastPerY = eastPerY;
+        this.northPerX = northPerX;
+        this.northPerY = northPerY;
+        this.cosLat = cosLat;
+        final double det = eastPerX * northPerY - eastPerY * northPerX;
+        xPerEast = northPerY / det;
+        xPerNorth = -eastPerY / det;
+        yPerEast = -northPerX / det;
+        yPerNorth = eastPerX / det;
+    }
+
+    /**
+     * This method linearises the geo-coding over the rectangle the shadows of a tile are traced in.
+     *
+     * @param geoCoding - the geo-coding
+     * @param rectangle - the rectangle of the altitude tile, i.e. the target tile and its shadow margin
+     * @return the projection, or null if the geo-coding is not valid over the rectangle
+     */
+    public static CloudShadowProjection create(GeoCoding geoCoding, Rectangle rectangle) {
+        final float stepX = Math.max(1, rectangle.width / 2);
+        final float stepY = Math.max(1, rectangle.height / 2);
+        final float centerX = rectangle.x + rectangle.width / 2.0f;
+        final float centerY = rectangle.y + rectangle.height / 2.0f;
+
+        final GeoPos center = geoCoding.getGeoPos(new PixelPos(centerX, centerY), null);
+        final GeoPos left = geoCoding.getGeoPos(new PixelPos(centerX - stepX, centerY), null);
+        final GeoPos right = geoCoding.getGeoPos(new PixelPos(centerX + stepX, centerY), null);
+        final GeoPos top = geoCoding.getGeoPos(new PixelPos(centerX, centerY - stepY), null);
+        final GeoPos bottom = geoCoding.getGeoPos(new PixelPos(centerX, centerY + stepY), null);
+        if (!(center.isValid() && left.isValid() && right.isValid() && top.isValid() && bottom.isValid())) {
+            return null;
+        }
+
+        final double cosLat = Math.cos(center.getLat() * MathUtils.DTOR);
+        final double eastPerX = getLonDifference(left, right) * METRES_PER_DEGREE * cosLat / (2 * stepX);
+        final double northPerX = (right.getLat() - left.getLat()) * METRES_PER_DEGREE / (2 * stepX);
+        final double eastPerY = getLonDifference(top, bottom) * METRES_PER_DEGREE * cosLat / (2 * stepY);
+        final double northPerY = (bottom.getLat() - top.getLat()) * METRES_PER_DEGREE / (2 * stepY);
+        if (eastPerX * northPerY - eastPerY * northPerX == 0) {
+            return null;
+        }
+        return new CloudShadowProjection(eastPerX, eastPerY, northPerX, northPerY, cosLat);
+    }
+
+    /**
+     * This method provides the shadow position of a cloudy pixel.
+     *
+     * @param altTile  - the surface altitude tile, the shadow must lie within it
+     * @param x        - cloudy pixel x
+     * @param y        - cloudy pixel y
+     * @param sza      - sun zenith (rad)
+     * @param saa      - sun azimuth (rad)
+     * @param vza      - view zenith (rad)
+     * @param vaa      - view azimuth (rad)
+     * @param cloudAlt - cloud altitude (m)
+     * @return the shadow pixel position, or null if the iteration does not converge
+     */
+    public PixelPos getCloudShadow(Tile altTile, int x, int y, float sza, float saa, float vza, float vaa,
+                                   float cloudAlt) {
+        final Rectangle rectangle = altTile.getRectangle();
+
+        // real cloud position from the apparent one (parallax)
+        double surfaceAlt = getAltitude(altTile, rectangle, x, y);
+        final double viewShift = (cloudAlt - surfaceAlt) * Math.tan(vza);
+        final double cloudX = x + getShiftX(viewShift * Math.sin(vaa), viewShift * Math.cos(vaa));
+        final double cloudY = y + getShiftY(viewShift * Math.sin(vaa), viewShift * Math.cos(vaa));
+
+        // shadow displacement per metre of height above the surface
+        final double sunEast = -Math.tan(sza) * Math.sin(saa);
+        final double sunNorth = -Math.tan(sza) * Math.cos(saa);
+        final double sunShiftX = getShiftX(sunEast, sunNorth);
+        final double sunShiftY = getShiftY(sunEast, sunNorth);
+
+        int iter = 0;
+        double dist = 2 * ClassifyFeaturesOp.DIST_THRESHOLD;
+        surfaceAlt = 0;
+        double shadowX = cloudX;
+        double shadowY = cloudY;
+        while ((iter < ClassifyFeaturesOp.MAX_ITER) && (dist > ClassifyFeaturesOp.DIST_THRESHOLD) &&
+               (surfaceAlt < cloudAlt)) {
+            if (!(shadowX >= rectangle.x && shadowX < rectangle.x + rectangle.width &&
+                  shadowY >= rectangle.y && shadowY < rectangle.y + rectangle.height)) {
+                return null;
+            }
+            surfaceAlt = getAltitude(altTile, rectangle, shadowX, shadowY);
+            final double x0 = shadowX;
+            final double y0 = shadowY;
+            shadowX = cloudX + (cloudAlt - surfaceAlt) * sunShiftX;
+            shadowY = cloudY + (cloudAlt - surfaceAlt) * sunShiftY;
+            dist = getDegreeDistance(shadowX - x0, shadowY - y0);
+            iter++;
+        }
+
+        if (surfaceAlt < cloudAlt && iter < ClassifyFeaturesOp.MAX_ITER &&
+            dist < ClassifyFeaturesOp.DIST_THRESHOLD) {
+            return new PixelPos((float) shadowX, (float) shadowY);
+        }
+        return null;
+    }
+
+    private double getShiftX(double east, double north) {
+        return xPerEast * east + xPerNorth * north;
+    }
+
+    private double getShiftY(double east, double north) {
+        return yPerEast * east + yPerNorth * north;
+    }
+
+    // largest lat/lon change (deg) of a pixel displacement
+    private double getDegreeDistance(double dx, double dy) {
+        final double dLat = (northPerX * dx + northPerY * dy) / METRES_PER_DEGREE;
+        final double dLon = (eastPerX * dx + eastPerY * dy) / (METRES_PER_DEGREE * cosLat);
+        return Math.max(Math.abs(dLat), Math.abs(dLon));
+    }
+
+    private static float getAltitude(Tile altTile, Rectangle rectangle, double x, double y) {
+        final int pixelX = MathUtils.roundAndCrop((float) x, rectangle.x, rectangle.x + rectangle.width - 1);
+        final int pixelY = MathUtils.roundAndCrop((float) y, rectangle.y, rectangle.y + rectangle.height - 1);
+        return altTile.getSampleFloat(pixelX, pixelY);
+    }
+
+    private static double getLonDifference(GeoPos from, GeoPos to) {
+        double dLon = to.getLon() - from.getLon();
+        if (dLon > 180) {
+            dLon -= 360;
+        } else if (dLon < -180) {
+            dLon += 360;
+        }
+        return dLon;
+    }
+}
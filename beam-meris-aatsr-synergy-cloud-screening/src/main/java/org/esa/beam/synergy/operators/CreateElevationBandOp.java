@@ -31,12 +31,16 @@ import org.esa.beam.framework.gpf.OperatorException;
 import org.esa.beam.framework.gpf.OperatorSpi;
 import org.esa.beam.framework.gpf.Tile;
 import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
+import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.SourceProduct;
 import org.esa.beam.framework.gpf.annotations.TargetProduct;
+import org.esa.beam.synergy.util.BlockGeoCoding;
 import org.esa.beam.synergy.util.SynergyConstants;
 import org.esa.beam.synergy.util.SynergyUtils;
 
 import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 
 /**
@@ -59,6 +63,21 @@ public class CreateElevationBandOp extends Operator {
     @TargetProduct(description = "The target product.")
     Product targetProduct;
 
+    @Parameter(defaultValue = "false",
+               description = "Interpolate the geo-positions blockwise (sub-pixel error) instead of computing each one.")
+    boolean approximateGeoCoding;
+
+    @Parameter(defaultValue = "false",
+               description = "Interpolate the elevations of a tile from the DEM grid nodes, read once and kept " +
+                             "in a bounded in-memory cache (sub-metre differences), instead of sampling the DEM " +
+                             "per pixel.")
+    boolean sampleElevationPerTile;
+
+    @Parameter(description = "Directory of the elevation cache (computed once per product, " +
+                             "memory-mapped when the same product is processed again; other acquisitions of " +
+                             "the same orbit are not matched). No caching if not set.")
+    String elevationCacheDir;
+
     final static String ORTHORECT_LATITUDE_BANDNAME = "ortho_corr_lat";
     final static String ORTHORECT_LONGITUDE_BANDNAME = "ortho_corr_lon";
     // Target product bands
@@ -67,7 +86,10 @@ public class CreateElevationBandOp extends Operator {
     Band lonBand = null;
     // DEM and orthorectifier
     ElevationModel DEM;
+    ElevationSampler elevationSampler = null;
     Orthorectifier orthorectifier = null;
+    // cached elevation and lat/lon, null if not cached
+    ElevationRaster elevationRaster = null;
     
     @Override
     public void initialize() throws OperatorException {
@@ -81,6 +103,9 @@ public class CreateElevationBandOp extends Operator {
         if (DEM == null) {
             throw new OperatorException("Couldn't create DEM instance");
         }
+        if (sampleElevationPerTile) {
+            elevationSampler = new ElevationSampler(DEM);
+        }
         
         // Create output product
         String productType = sourceProduct.getProductType();
@@ -119,6 +144,22 @@ public class CreateElevationBandOp extends Operator {
             lonBand.setDescription("Orthorectification corrected longitude");            
         }
         else SynergyUtils.info("  Product cannot be orthorectified");
+
+        if (elevationCacheDir != null && elevationCacheDir.length() > 0) {
+            final String key = ElevationRaster.createKey(demDescriptor.getName(), sourceProduct.getGeoCoding(),
+                                                         sceneWidth, sceneHeight,
+                                                         orthorectifier != null, approximateGeoCoding,
+                                                         sampleElevationPerTile);
+            try {
+                elevationRaster = ElevationRaster.get(new File(elevationCacheDir), key, sceneWidth, sceneHeight,
+                                                      orthorectifier != null);
+                if (elevationRaster.isComplete()) {
+                    SynergyUtils.info("  Elevation read from cache " + key);
+                }
+            } catch (IOException e) {
+                SynergyUtils.info("  Elevation cache not available: " + e.getMessage());
+            }
+        }
     }
 
     @Override
@@ -131,41 +172,95 @@ public class CreateElevationBandOp extends Operator {
         if (latBand != null) latTile = targetTiles.get(latBand);
         if (lonBand != null) lonTile = targetTiles.get(lonBand);
         
+        if (elevationRaster != null && elevationRaster.isComplete()) {
+            elevationRaster.readTile(rect, demTile, latTile, lonTile);
+            return;
+        }
+
         final GeoPos geoPos = new GeoPos();
         final PixelPos pixelPos = new PixelPos();
         float elevation;
         final float noDataValue = DEM.getDescriptor().getNoDataValue();
+        float[] lats = null;
+        float[] lons = null;
+        if (elevationSampler != null) {
+            lats = new float[rect.width * rect.height];
+            lons = new float[lats.length];
+        }
+        BlockGeoCoding blockGeoCoding = null;
+        if (approximateGeoCoding) {
+            if (orthorectifier != null) {
+                blockGeoCoding = new BlockGeoCoding(orthorectifier, rect);
+            } else {
+                blockGeoCoding = new BlockGeoCoding(sourceProduct.getGeoCoding(), rect);
+            }
+        }
         
         pm.beginTask("Processing frame ...", rect.height);
         
+        int i = 0;
         for (int y=rect.y; y<rect.y+rect.height; y++) {
             for (int x=rect.x; x<rect.x+rect.width; x++) {               
                 pixelPos.setLocation(x + 0.5f, y + 0.5f);
                 // Get geo position
-                if (orthorectifier != null) { // Always true for correction
+                if (blockGeoCoding != null) {
+                    blockGeoCoding.getGeoPos(pixelPos, geoPos);
+                }
+                else if (orthorectifier != null) { // Always true for correction
                     orthorectifier.getGeoPos(pixelPos, geoPos);
                 }
                 else { // Only for DEM
                     sourceProduct.getGeoCoding().getGeoPos(pixelPos, geoPos);
                 }
-                // Add elevation for DEM
-                try {
-                    elevation = DEM.getElevation(geoPos);
-                } catch (Exception e) {
-                    elevation = noDataValue;
+                if (elevationSampler != null) {
+                    lats[i] = geoPos.lat;
+                    lons[i] = geoPos.lon;
+                    i++;
+                } else {
+                    // Add elevation for DEM
+                    try {
+                        elevation = DEM.getElevation(geoPos);
+                    } catch (Exception e) {
+                        elevation = noDataValue;
+                    }
+                    demTile.setSample(x, y, elevation);
                 }
-                demTile.setSample(x, y, elevation);
                 // Latitude and longitude
                 if (latTile != null) latTile.setSample(x, y, geoPos.lat);
                 if (lonTile != null) lonTile.setSample(x, y, geoPos.lon);
-                
-                pm.worked(1);
+            }
+            pm.worked(1);
+        }
+
+        if (elevationSampler != null) {
+            // Add elevation for DEM, sampled for the whole tile
+            final float[] elevations = new float[lats.length];
+            elevationSampler.getElevations(lats, lons, elevations);
+            i = 0;
+            for (int y = rect.y; y < rect.y + rect.height; y++) {
+                for (int x = rect.x; x < rect.x + rect.width; x++) {
+                    demTile.setSample(x, y, elevations[i++]);
+                }
             }
         }
+
+        if (elevationRaster != null) {
+            elevationRaster.writeTile(rect, demTile, latTile, lonTile);
+        }
         
         pm.done();
     }
     
+    @Override
+    public void dispose() {
+        if (elevationRaster != null) {
+            // deletes the temporary file of an incomplete raster
+            elevationRaster.dispose();
+            elevationRaster = null;
+        }
+        super.dispose();
+    }
+
     /**
      * Gets an elevation model descriptor.
      * 
@@ -0,0 +1,127 @@
+package org.esa.beam.synergy.operators;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory cache of the grid nodes of a global lat/lon DEM for the {@link ElevationSampler}s
+ * of the DEM, in blocks of {@link #BLOCK_SIZE} x {@link #BLOCK_SIZE} nodes.
+ * <p/>
+ * The blocks do not depend on the footprint of a product, so they are reused by the tiles of a scene, by
+ * further elevation operators of the same product and by the next products of the same region processed
+ * in this JVM. Beyond {@link #MAX_BLOCKS} blocks (16 MB) the least recently used ones are dropped.
+ */
+class DemNodeCache {
+
+    static final int BLOCK_SIZE = 64;
+    static final int MAX_BLOCKS = 1024;
+
+    private static final Map<String, DemNodeCache> caches = new HashMap<String, DemNodeCache>();
+
+    /**
+     * Reads the nodes of a block missing from the cache.
+     */
+    interface NodeReader {
+
+        /**
+         * This method reads a node of the DEM grid.
+         *
+         * @param i - the column of the node
+         * @param j - the row of the node
+         * @return the elevation, NaN if not available
+         */
+        float readNode(int i, int j);
+    }
+
+    private final int rasterWidth;
+    private final int rasterHeight;
+    private final Map<Long, float[]> blocks = new LinkedHashMap<Long, float[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, float[]> eldest) {
+            return size() > MAX_BLOCKS;
+        }
+    };
+
+    private DemNodeCache(int rasterWidth, int rasterHeight) {
+        this.rasterWidth = rasterWidth;
+        this.rasterHeight = rasterHeight;
+    }
+
+    /**
+     * This method provides the cache of a DEM.
+     *
+     * @param demName      - the DEM name
+     * @param rasterWidth  - the number of nodes per row of the DEM grid
+     * @param rasterHeight - the number of rows of the DEM grid
+     * @return the cache
+     */
+    static DemNodeCache getInstance(String demName, int rasterWidth, int rasterHeight) {
+        synchronized (caches) {
+            DemNodeCache cache = caches.get(demName);
+            if (cache == null || cache.rasterWidth != rasterWidth || cache.rasterHeight != rasterHeight) {
+                cache = new DemNodeCache(rasterWidth, rasterHeight);
+                caches.put(demName, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * This method copies the nodes of a rectangle of the DEM grid, reading the blocks missing from the
+     * cache.
+     *
+     * @param minI   - the first column
+     * @param minJ   - the first row
+     * @param width  - the number of columns
+     * @param height - the number of rows
+     * @param reader - the reader of the missing nodes
+     * @param nodes  - the array receiving the nodes, row by row
+     */
+    void getNodes(int minI, int minJ, int width, int height, NodeReader reader, float[] nodes) {
+        for (int blockJ = minJ / BLOCK_SIZE; blockJ <= (minJ + height - 1) / BLOCK_SIZE; blockJ++) {
+            for (int blockI = minI / BLOCK_SIZE; blockI <= (minI + width - 1) / BLOCK_SIZE; blockI++) {
+                final float[] block = getBlock(blockI, blockJ, reader);
+                final int i0 = Math.max(minI, blockI * BLOCK_SIZE);
+                final int i1 = Math.min(minI + width, (blockI + 1) * BLOCK_SIZE);
+                final int j0 = Math.max(minJ, blockJ * BLOCK_SIZE);
+                final int j1 = Math.min(minJ + height, (blockJ + 1) * BLOCK_SIZE);
+                for (int j = j0; j < j1; j++) {
+                    System.arraycopy(block, (j - blockJ * BLOCK_SIZE) * BLOCK_SIZE + i0 - blockI * BLOCK_SIZE,
+                                     nodes, (j - minJ) * width + i0 - minI, i1 - i0);
+                }
+            }
+        }
+    }
+
+    int getBlockCount() {
+        synchronized (blocks) {
+            return blocks.size();
+        }
+    }
+
+    private float[] getBlock(int blockI, int blockJ, NodeReader reader) {
+        final Long key = (long) blockJ * ((rasterWidth + BLOCK_SIZE - 1) / BLOCK_SIZE) + blockI;
+        synchronized (blocks) {
+            final float[] block = blocks.get(key);
+            if (block != null) {
+                return block;
+            }
+        }
+        // read outside the lock, a block read concurrently twice has the same nodes
+        final float[] block = new float[BLOCK_SIZE * BLOCK_SIZE];
+        Arrays.fill(block, Float.NaN);
+        final int width = Math.min(BLOCK_SIZE, rasterWidth - blockI * BLOCK_SIZE);
+        final int height = Math.min(BLOCK_SIZE, rasterHeight - blockJ * BLOCK_SIZE);
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                block[j * BLOCK_SIZE + i] = reader.readNode(blockI * BLOCK_SIZE + i, blockJ * BLOCK_SIZE + j);
+            }
+        }
+        synchronized (blocks) {
+            blocks.put(key, block);
+        }
+        return block;
+    }
+}
@@ -0,0 +1,283 @@
+package org.esa.beam.synergy.operators;
+
+import org.esa.beam.framework.datamodel.GeoCoding;
+import org.esa.beam.framework.datamodel.GeoPos;
+import org.esa.beam.framework.datamodel.PixelPos;
+import org.esa.beam.framework.gpf.Tile;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * On-disk cache of the rasters of {@link CreateElevationBandOp} (elevation, and orthorectified lat/lon),
+ * so that the elevation band of a product is computed once and memory-mapped when the product is
+ * processed again.
+ * <p/>
+ * This is a per-product cache: a raster is keyed by a hash of the DEM, the scene size and the exact
+ * geo-positions on a coarse pixel grid (see {@link #createKey}), which differ between two acquisitions
+ * of the same orbit. It is written tile by tile into a memory-mapped temporary file, which is renamed
+ * to the cache file when all tiles are written, and deleted if the raster is disposed before; only
+ * complete files are read. The most recently used complete rasters stay mapped for further operators
+ * of the same JVM. Other acquisitions of the same orbit only share the DEM nodes kept in memory by
+ * {@link DemNodeCache}.
+ */
+public class ElevationRaster {
+
+    private static final int MAGIC = 0x53594e44;
+    private static final int HEADER_SIZE = 16;
+    private static final int KEY_GRID_STEP = 64;
+    private static final int MAX_MAPPED_RASTERS = 4;
+    private static final String FILE_EXTENSION = ".dem";
+
+    private static final Map<File, ElevationRaster> mappedRasters =
+            new LinkedHashMap<File, ElevationRaster>(MAX_MAPPED_RASTERS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<File, ElevationRaster> eldest) {
+                    return size() > MAX_MAPPED_RASTERS;
+                }
+            };
+
+    private final File file;
+    private final int width;
+    private final int height;
+    private final boolean withLatLon;
+    private final MappedByteBuffer buffer;
+    // only while writing
+    private final File tempFile;
+    private final Set<Rectangle> writtenTiles;
+    private long writtenPixels;
+    private boolean disposed;
+    private volatile boolean complete;
+
+    private ElevationRaster(File file, File tempFile, int width, int height, boolean withLatLon,
+                            MappedByteBuffer buffer, boolean complete) {
+        this.file = file;
+        this.tempFile = tempFile;
+        this.width = width;
+        this.height = height;
+        this.withLatLon = withLatLon;
+        this.buffer = buffer;
+        this.complete = complete;
+        writtenTiles = complete ? null : new HashSet<Rectangle>();
+    }
+
+    /**
+     * This method creates the cache key of a scene. The geo-positions are hashed as they are, so only
+     * the same product (or one with an identical geo-coding) gets the same key.
+     *
+     * @param demName        - the DEM name
+     * @param geoCoding      - the geo-coding of the scene
+     * @param width          - scene width
+     * @param height         - scene height
+     * @param orthorectified - true if the geo-positions are orthorectified
+     * @param approximated   - true if the geo-positions are approximated blockwise
+     * @param sampledPerTile - true if the elevations are interpolated per tile
+     * @return the key (hexadecimal SHA-1)
+     */
+    public static String createKey(String demName, GeoCoding geoCoding, int width, int height,
+                                   boolean orthorectified, boolean approximated, boolean sampledPerTile) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final ByteBuffer header = ByteBuffer.allocate(12);
+        header.putInt(width).putInt(height).put((byte) (orthorectified ? 1 : 0)).put((byte) (approximated ? 1 : 0))
+                .put((byte) (sampledPerTile ? 1 : 0));
+        digest.update(demName.getBytes());
+        digest.update(header.array());
+
+        final ByteBuffer geoPositions = ByteBuffer.allocate(8);
+        final PixelPos pixelPos = new PixelPos();
+        final GeoPos geoPos = new GeoPos();
+        for (int y = 0; y <= height; y += Math.min(KEY_GRID_STEP, Math.max(1, height - y))) {
+            for (int x = 0; x <= width; x += Math.min(KEY_GRID_STEP, Math.max(1, width - x))) {
+                pixelPos.setLocation(x, y);
+                geoCoding.getGeoPos(pixelPos, geoPos);
+                geoPositions.clear();
+                geoPositions.putFloat(geoPos.getLat()).putFloat(geoPos.getLon());
+                digest.update(geoPositions.array());
+            }
+        }
+
+        final StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * This method provides the raster of a key: the complete cache file if there is one, else a new
+     * raster to be written.
+     *
+     * @param cacheDir   - the cache directory
+     * @param key        - the key (see {@link #createKey})
+     * @param width      - scene width
+     * @param height     - scene height
+     * @param withLatLon - true if the raster has lat/lon
+     * @return ElevationRaster
+     * @throws IOException if the cache file cannot be mapped or created
+     */
+    public static ElevationRaster get(File cacheDir, String key, int width, int height,
+                                      boolean withLatLon) throws IOException {
+        final File file = new File(cacheDir, key + FILE_EXTENSION);
+        synchronized (mappedRasters) {
+            final ElevationRaster raster = mappedRasters.get(file);
+            if (raster != null && raster.width == width && raster.height == height &&
+                raster.withLatLon == withLatLon) {
+                return raster;
+            }
+        }
+        final long size = HEADER_SIZE + (long) width * height * getBytesPerPixel(withLatLon);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Scene too large to be cached: " + width + " x " + height);
+        }
+        if (file.isFile() && file.length() == size) {
+            final MappedByteBuffer buffer = map(file, FileChannel.MapMode.READ_ONLY, size);
+            if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == width && buffer.getInt(8) == height &&
+                buffer.getInt(12) == (withLatLon ? 1 : 0)) {
+                final ElevationRaster raster = new ElevationRaster(file, null, width, height, withLatLon, buffer, true);
+                synchronized (mappedRasters) {
+                    mappedRasters.put(file, raster);
+                }
+                return raster;
+            }
+        }
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + cacheDir);
+        }
+        final File tempFile = File.createTempFile(key, ".tmp", cacheDir);
+        tempFile.deleteOnExit();
+        final MappedByteBuffer buffer;
+        try {
+            buffer = map(tempFile, FileChannel.MapMode.READ_WRITE, size);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        buffer.putInt(0, MAGIC).putInt(4, width).putInt(8, height).putInt(12, withLatLon ? 1 : 0);
+        return new ElevationRaster(file, tempFile, width, height, withLatLon, buffer, false);
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * This method copies a tile from the complete raster.
+     *
+     * @param rectangle - the tile rectangle
+     * @param demTile   - the elevation tile
+     * @param latTile   - the latitude tile, or null
+     * @param lonTile   - the longitude tile, or null
+     */
+    public void readTile(Rectangle rectangle, Tile demTile, Tile latTile, Tile lonTile) {
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                final int index = y * width + x;
+                demTile.setSample(x, y, buffer.getShort(getElevationOffset(index)));
+                if (withLatLon && latTile != null && lonTile != null) {
+                    latTile.setSample(x, y, buffer.getFloat(getLatOffset(index)));
+                    lonTile.setSample(x, y, buffer.getFloat(getLonOffset(index)));
+                }
+            }
+        }
+    }
+
+    /**
+     * This method writes a computed tile to the raster. When all tiles are written, the raster is
+     * stored as cache file.
+     *
+     * @param rectangle - the tile rectangle
+     * @param demTile   - the elevation tile
+     * @param latTile   - the latitude tile, or null
+     * @param lonTile   - the longitude tile, or null
+     */
+    public void writeTile(Rectangle rectangle, Tile demTile, Tile latTile, Tile lonTile) {
+        if (complete) {
+            return;
+        }
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                final int index = y * width + x;
+                buffer.putShort(getElevationOffset(index), (short) demTile.getSampleInt(x, y));
+                if (withLatLon) {
+                    buffer.putFloat(getLatOffset(index), latTile.getSampleFloat(x, y));
+                    buffer.putFloat(getLonOffset(index), lonTile.getSampleFloat(x, y));
+                }
+            }
+        }
+        synchronized (this) {
+            if (complete || disposed || !writtenTiles.add(new Rectangle(rectangle))) {
+                return;
+            }
+            writtenPixels += (long) rectangle.width * rectangle.height;
+            if (writtenPixels < (long) width * height) {
+                return;
+            }
+            buffer.force();
+            if (!tempFile.renameTo(file)) {
+                // e.g. stored meanwhile by a concurrent run
+                tempFile.delete();
+            }
+            writtenTiles.clear();
+            complete = true;
+        }
+        synchronized (mappedRasters) {
+            mappedRasters.put(file, this);
+        }
+    }
+
+    /**
+     * This method releases a raster which is not complete and deletes its temporary file. A complete
+     * raster stays mapped for further operators.
+     */
+    public synchronized void dispose() {
+        if (complete || disposed) {
+            return;
+        }
+        disposed = true;
+        writtenTiles.clear();
+        tempFile.delete();
+    }
+
+    private int getElevationOffset(int index) {
+        return HEADER_SIZE + 2 * index;
+    }
+
+    private int getLatOffset(int index) {
+        return HEADER_SIZE + 2 * width * height + 4 * index;
+    }
+
+    private int getLonOffset(int index) {
+        return HEADER_SIZE + 6 * width * height + 4 * index;
+    }
+
+    private static int getBytesPerPixel(boolean withLatLon) {
+        return withLatLon ? 10 : 2;
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode, long size) throws IOException {
+        final String accessMode = mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw";
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, accessMode);
+        try {
+            return randomAccessFile.getChannel().map(mode, 0, size);
+        } finally {
+            // the mapping stays valid after closing
+            randomAccessFile.close();
+        }
+    }
+}
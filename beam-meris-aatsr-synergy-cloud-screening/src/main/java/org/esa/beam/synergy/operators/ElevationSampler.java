@@ -0,0 +1,146 @@
+package org.esa.beam.synergy.operators;
+
+import org.esa.beam.framework.datamodel.GeoPos;
+import org.esa.beam.framework.dataop.dem.ElevationModel;
+import org.esa.beam.framework.dataop.dem.ElevationModelDescriptor;
+
+import java.util.Arrays;
+
+/**
+ * Bulk bilinear sampling of a global lat/lon DEM (grid starting at 90N, 180W) for the geo-positions of a tile.
+ * <p/>
+ * The DEM grid nodes around the geo-positions are read once (a node sampled at its centre gives its
+ * own value) and kept in the {@link DemNodeCache} of the DEM, and the elevations are interpolated from
+ * them in a loop over primitive arrays, with the indexing of the DEM's
+ * {@link org.esa.beam.framework.dataop.resamp.Resampling#BILINEAR_INTERPOLATION}.
+ * If the nodes around the tile outnumber its geo-positions (DEM finer than the pixels), each
+ * geo-position is passed to the DEM instead, as are those next to DEM nodes without data.
+ */
+public class ElevationSampler {
+
+    private final ElevationModel dem;
+    private final double pixelsPerDegree;
+    private final int rasterWidth;
+    private final int rasterHeight;
+    private final float noDataValue;
+    private final DemNodeCache nodeCache;
+    private final DemNodeCache.NodeReader nodeReader;
+
+    /**
+     * Creates the sampler. The grid resolution is taken from the DEM descriptor.
+     *
+     * @param dem - the DEM, created with bilinear interpolation
+     */
+    public ElevationSampler(ElevationModel dem) {
+        final ElevationModelDescriptor descriptor = dem.getDescriptor();
+        this.dem = dem;
+        rasterWidth = descriptor.getRasterWidth();
+        rasterHeight = descriptor.getRasterHeight();
+        pixelsPerDegree = rasterWidth / 360.0;
+        noDataValue = descriptor.getNoDataValue();
+        nodeCache = DemNodeCache.getInstance(descriptor.getName(), rasterWidth, rasterHeight);
+        nodeReader = new DemNodeCache.NodeReader() {
+            @Override
+            public float readNode(int i, int j) {
+                final GeoPos nodePos = new GeoPos((float) (90.0 - (j + 0.5) / pixelsPerDegree),
+                                                  (float) ((i + 0.5) / pixelsPerDegree - 180.0));
+                final float elevation = getElevation(nodePos);
+                return elevation == noDataValue ? Float.NaN : elevation;
+            }
+        };
+    }
+
+    /**
+     * This method provides the elevations of geo-positions.
+     *
+     * @param lats       - the latitudes (NaN if not valid)
+     * @param lons       - the longitudes (NaN if not valid)
+     * @param elevations - the elevations to set, the no-data value where not available
+     */
+    public void getElevations(float[] lats, float[] lons, float[] elevations) {
+        final int count = lats.length;
+        final double[] x = new double[count];
+        final double[] y = new double[count];
+        int minI = Integer.MAX_VALUE;
+        int maxI = Integer.MIN_VALUE;
+        int minJ = Integer.MAX_VALUE;
+        int maxJ = Integer.MIN_VALUE;
+        for (int k = 0; k < count; k++) {
+            x[k] = (lons[k] + 180.0) * pixelsPerDegree;
+            y[k] = (90.0 - lats[k]) * pixelsPerDegree;
+            if (isValid(x[k], y[k])) {
+                final int i0 = getIndex(x[k], rasterWidth);
+                final int j0 = getIndex(y[k], rasterHeight);
+                minI = Math.min(minI, i0);
+                maxI = Math.max(maxI, Math.min(i0 + 1, rasterWidth - 1));
+                minJ = Math.min(minJ, j0);
+                maxJ = Math.max(maxJ, Math.min(j0 + 1, rasterHeight - 1));
+            }
+        }
+        if (minI > maxI) {
+            Arrays.fill(elevations, noDataValue);
+            return;
+        }
+
+        final int nodesX = maxI - minI + 1;
+        final int nodesY = maxJ - minJ + 1;
+        if ((long) nodesX * nodesY > count) {
+            final GeoPos geoPos = new GeoPos();
+            for (int k = 0; k < count; k++) {
+                geoPos.setLocation(lats[k], lons[k]);
+                elevations[k] = isValid(x[k], y[k]) ? getElevation(geoPos) : noDataValue;
+            }
+            return;
+        }
+
+        final float[] nodes = new float[nodesX * nodesY];
+        nodeCache.getNodes(minI, minJ, nodesX, nodesY, nodeReader, nodes);
+
+        final GeoPos geoPos = new GeoPos();
+        for (int k = 0; k < count; k++) {
+            if (!isValid(x[k], y[k])) {
+                elevations[k] = noDataValue;
+                continue;
+            }
+            final int i0 = getIndex(x[k], rasterWidth);
+            final int j0 = getIndex(y[k], rasterHeight);
+            final int i1 = Math.min(i0 + 1, rasterWidth - 1) - minI;
+            final int j1 = Math.min(j0 + 1, rasterHeight - 1) - minJ;
+            final double wi = getWeight(x[k], i0);
+            final double wj = getWeight(y[k], j0);
+            final int row0 = (j0 - minJ) * nodesX;
+            final int row1 = j1 * nodesX;
+            final double elevation = (1 - wj) * ((1 - wi) * nodes[row0 + i0 - minI] + wi * nodes[row0 + i1]) +
+                                     wj * ((1 - wi) * nodes[row1 + i0 - minI] + wi * nodes[row1 + i1]);
+            if (Double.isNaN(elevation)) {
+                // a node read next to a node without data has none either, so the DEM decides here
+                geoPos.setLocation(lats[k], lons[k]);
+                elevations[k] = getElevation(geoPos);
+            } else {
+                elevations[k] = (float) elevation;
+            }
+        }
+    }
+
+    private float getElevation(GeoPos geoPos) {
+        try {
+            return dem.getElevation(geoPos);
+        } catch (Exception e) {
+            return noDataValue;
+        }
+    }
+
+    private boolean isValid(double x, double y) {
+        return !Double.isNaN(x) && !Double.isNaN(y);
+    }
+
+    // lower node of the interpolation, nodes at pixel centres, clamped to the raster
+    private static int getIndex(double pixel, int size) {
+        return Math.min(Math.max((int) Math.floor(pixel - 0.5), 0), size - 1);
+    }
+
+    // weight of the upper node, 0 at the raster edges
+    private static double getWeight(double pixel, int index) {
+        return Math.min(Math.max(pixel - 0.5 - index, 0.0), 1.0);
+    }
+}
@@ -1,5 +1,6 @@
 package org.esa.beam.synergy.operators;
 
+import org.esa.beam.dataio.envisat.EnvisatConstants;
 import org.esa.beam.framework.datamodel.Band;
 import org.esa.beam.framework.datamodel.Product;
 import org.esa.beam.framework.gpf.GPF;
@@ -27,6 +28,16 @@ import java.util.Map;
                   description = "Performs cloud screening on a MERIS/AATSR Synergy product.")
 
 public class SynergyCloudScreeningOp extends Operator {
+
+    /**
+     * Name prefixes of the MERIS/AATSR bands the cloud screening reads (besides the flag bands).
+     */
+    public static final String[] REQUIRED_BAND_PREFIXES = {
+            SynergyConstants.MERIS_REFLECTANCE, SynergyConstants.MERIS_RADIANCE,
+            EnvisatConstants.MERIS_DETECTOR_INDEX_DS_NAME, SynergyConstants.DEM_ELEVATION,
+            SynergyConstants.AATSR_REFLEC_NADIR, SynergyConstants.AATSR_REFLEC_FWARD,
+            SynergyConstants.AATSR_BTEMP_NADIR, SynergyConstants.AATSR_BTEMP_FWARD
+    };
     
     @SourceProduct(alias = "source",
                    label ="Name (Synergy product)",
@@ -55,15 +66,44 @@ public class SynergyCloudScreeningOp extends Operator {
                label = "Compute cloud shadow risk flag",
                description = "Compute cloud shadow risk flag.")
     private boolean computeSH;
+
+    @Parameter(defaultValue = "false",
+               label = "Project cloud shadows in pixel space",
+               description = "Project cloud shadows with the geo-coding linearised per tile " +
+                             "instead of tracing them geodetically.")
+    private boolean projectShadowsInPixelSpace;
+
+    @Parameter(defaultValue = "false",
+               label = "Approximate the geo-coding blockwise",
+               description = "Interpolate geo-positions and pixel positions blockwise (sub-pixel error) " +
+                             "when tracing cloud shadows and creating the elevation band.")
+    private boolean approximateGeoCoding;
+
+    @Parameter(defaultValue = "false",
+               label = "Sample the elevation per tile",
+               description = "Interpolate the elevations of a tile from the DEM grid nodes, read once and kept " +
+                             "in a bounded in-memory cache (sub-metre differences), instead of sampling the DEM " +
+                             "per pixel.")
+    private boolean sampleElevationPerTile;
+
+    @Parameter(label = "Elevation cache directory",
+               description = "Directory of the elevation cache (computed once per product, " +
+                             "memory-mapped when the same product is processed again; other acquisitions of " +
+                             "the same orbit are not matched). No caching if not set.")
+    private String elevationCacheDir;
 	    
     @Override
     public void initialize() throws OperatorException {
     	
     	// Classify features params
-        Map<String, Object> cloudParams = new HashMap<String, Object>(4);
+        Map<String, Object> cloudParams = new HashMap<String, Object>(8);
         cloudParams.put("useForwardView", useForwardView);
         cloudParams.put("computeSF", computeSF);
         cloudParams.put("computeSH", computeSH);
+        cloudParams.put("projectShadowsInPixelSpace", projectShadowsInPixelSpace);
+        cloudParams.put("approximateGeoCoding", approximateGeoCoding);
+        cloudParams.put("sampleElevationPerTile", sampleElevationPerTile);
+        cloudParams.put("elevationCacheDir", elevationCacheDir);
         cloudParams.put("computeCOT", computeCOT);
         // Classified product
         final Product cloudProduct =
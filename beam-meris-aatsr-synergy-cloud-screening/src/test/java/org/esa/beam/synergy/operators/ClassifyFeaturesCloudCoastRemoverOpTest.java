@@ -0,0 +1,97 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.synergy.util.SynergyConstants;
+
+import javax.media.jai.KernelJAI;
+import javax.media.jai.operator.AndDescriptor;
+import javax.media.jai.operator.ConvolveDescriptor;
+import javax.media.jai.operator.MaxFilterDescriptor;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+
+public class ClassifyFeaturesCloudCoastRemoverOpTest extends TestCase {
+
+    // several 32 x 32 target tiles, the last ones cut by the scene border
+    private static final int WIDTH = 83;
+    private static final int HEIGHT = 61;
+
+    private Product featProduct;
+    private Product nnProduct;
+
+    protected void setUp() {
+        final byte[] coast = new byte[WIDTH * HEIGHT];
+        final byte[] cloudmask = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                // a diagonal coastline and coastlines along the left and bottom border
+                final boolean isCoast = x == y + 10 || x == 2 || y == HEIGHT - 3;
+                // cloud fields and isolated cloudy pixels
+                final boolean isCloudy = (x / 6 + y / 5) % 3 == 0 || (x * 7 + y * 13) % 11 == 0;
+                coast[y * WIDTH + x] = (byte) (isCoast ? 1 : 0);
+                cloudmask[y * WIDTH + x] = (byte) (isCloudy ? 1 : 0);
+            }
+        }
+        featProduct = new Product("features", "features", WIDTH, HEIGHT);
+        featProduct.addBand(SynergyConstants.F_COASTLINE, ProductData.TYPE_INT8).setDataElems(coast);
+        nnProduct = new Product("nn", "nn", WIDTH, HEIGHT);
+        nnProduct.addBand(SynergyConstants.B_CLOUDMASK, ProductData.TYPE_INT8).setDataElems(cloudmask);
+    }
+
+    protected void tearDown() {
+        featProduct.dispose();
+        nnProduct.dispose();
+    }
+
+    public void testSameAsJaiFilterChain() {
+        final ClassifyFeaturesCloudCoastRemoverOp op = new ClassifyFeaturesCloudCoastRemoverOp();
+        op.setSourceProduct("features", featProduct);
+        op.setSourceProduct("nnProduct", nnProduct);
+        final Raster eroded = op.getTargetProduct().getBand(SynergyConstants.B_COAST_ERODED).getSourceImage().getData();
+
+        // the filter chain the operator replaces, without border extender
+        final Band cloudmaskBand = nnProduct.getBand(SynergyConstants.B_CLOUDMASK);
+        final RenderedImage coastIm = featProduct.getBand(SynergyConstants.F_COASTLINE).getGeophysicalImage();
+        final RenderedImage max5x5Im = MaxFilterDescriptor.create(coastIm, MaxFilterDescriptor.MAX_MASK_SQUARE, 5,
+                                                                  null);
+        final float[] data = new float[5 * 5];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 1.0f;
+        }
+        final RenderedImage dilatedIm = AndDescriptor.create(max5x5Im, cloudmaskBand.getGeophysicalImage(), null);
+        final RenderedImage expandedIm = ConvolveDescriptor.create(dilatedIm, new KernelJAI(5, 5, data), null);
+        final RenderedImage max7x7Im = MaxFilterDescriptor.create(expandedIm, MaxFilterDescriptor.MAX_MASK_SQUARE, 7,
+                                                                  null);
+        final Raster cloudmask = cloudmaskBand.getSourceImage().getData();
+        final Raster dilated = dilatedIm.getData();
+        final Raster max7x7 = max7x7Im.getData();
+
+        int removedCount = 0;
+        int borderCount = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                final int m = cloudmask.getSample(x, y, 0);
+                final int v = getSample(dilated, x, y) * getSample(max7x7, x, y);
+                final int expected = (v > 0 && v < 10 ? 0 : m);
+                assertEquals("pixel " + x + "," + y, expected, eroded.getSample(x, y, 0));
+                if (m != expected) {
+                    removedCount++;
+                }
+                if (m != 0 && getSample(dilated, x, y) != 0 && !max7x7.getBounds().contains(x, y)) {
+                    borderCount++;
+                }
+            }
+        }
+        // the test data cover removed pixels and cloudy coast pixels on the border
+        assertTrue(removedCount > 0);
+        assertTrue(borderCount > 0);
+    }
+
+    // samples of filtered images without border extender, zero where the image does not reach
+    private static int getSample(Raster raster, int x, int y) {
+        return raster.getBounds().contains(x, y) ? raster.getSample(x, y, 0) : 0;
+    }
+}
@@ -0,0 +1,120 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.GeoCoding;
+import org.esa.beam.framework.datamodel.GeoPos;
+import org.esa.beam.framework.datamodel.PixelPos;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.datamodel.TiePointGeoCoding;
+import org.esa.beam.framework.datamodel.TiePointGrid;
+import org.esa.beam.framework.gpf.Tile;
+import org.esa.beam.framework.gpf.internal.TileImpl;
+import org.esa.beam.util.math.MathUtils;
+
+import java.awt.Rectangle;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+public class CloudShadowProjectionTest extends TestCase {
+
+    private static final int SCENE_SIZE = 161;
+    private static final int SUB_SAMPLING = 16;
+    private static final int TILE_SIZE = 32;
+    private static final int SHADOW_MARGIN = 32;
+    private static final double MAX_PIXEL_ERROR = 0.5;
+
+    private GeoCoding geoCoding;
+    private Band altitudeBand;
+
+    protected void setUp() {
+        // a skewed grid of about 1 km pixels, curved in both directions
+        final int gridSize = (SCENE_SIZE - 1) / SUB_SAMPLING + 1;
+        final float[] lats = new float[gridSize * gridSize];
+        final float[] lons = new float[gridSize * gridSize];
+        for (int j = 0; j < gridSize; j++) {
+            for (int i = 0; i < gridSize; i++) {
+                final double x = 0.5 + i * SUB_SAMPLING;
+                final double y = 0.5 + j * SUB_SAMPLING;
+                lats[j * gridSize + i] = (float) (52.0 - 0.0085 * y - 0.0012 * x + 1.5e-6 * x * x);
+                lons[j * gridSize + i] = (float) (8.0 + 0.014 * x + 0.002 * y - 2.0e-6 * y * y + 1.0e-6 * x * y);
+            }
+        }
+        geoCoding = new TiePointGeoCoding(
+                new TiePointGrid("latitude", gridSize, gridSize, 0.5f, 0.5f, SUB_SAMPLING, SUB_SAMPLING, lats),
+                new TiePointGrid("longitude", gridSize, gridSize, 0.5f, 0.5f, SUB_SAMPLING, SUB_SAMPLING, lons));
+        altitudeBand = new Band("altitude", ProductData.TYPE_FLOAT32, SCENE_SIZE, SCENE_SIZE);
+    }
+
+    public void testSameAsGeodeticTrace() {
+        // a tile inside the scene and tiles whose shadow margin is cut by the scene border
+        final Rectangle[] targetRectangles = {
+                new Rectangle(64, 64, TILE_SIZE, TILE_SIZE),
+                new Rectangle(0, 0, TILE_SIZE, TILE_SIZE),
+                new Rectangle(SCENE_SIZE - TILE_SIZE, SCENE_SIZE - TILE_SIZE, TILE_SIZE, TILE_SIZE)
+        };
+        final float[][] geometries = {
+                // sza, saa, vza, vaa (deg), cloud altitude (m)
+                {55.0f, 150.0f, 25.0f, 285.0f, 6000.0f},
+                {40.0f, 200.0f, 35.0f, 100.0f, 9000.0f},
+                {68.0f, 120.0f, 5.0f, 280.0f, 3000.0f}
+        };
+        for (Rectangle targetRectangle : targetRectangles) {
+            final Rectangle sourceRectangle = new Rectangle(targetRectangle);
+            sourceRectangle.grow(SHADOW_MARGIN, SHADOW_MARGIN);
+            final Tile altTile = createAltitudeTile(sourceRectangle.intersection(
+                    new Rectangle(SCENE_SIZE, SCENE_SIZE)));
+            final CloudShadowProjection projection = CloudShadowProjection.create(geoCoding, altTile.getRectangle());
+            assertNotNull(projection);
+
+            int shadowCount = 0;
+            for (float[] geometry : geometries) {
+                final float sza = geometry[0] * MathUtils.DTOR_F;
+                final float saa = geometry[1] * MathUtils.DTOR_F;
+                final float vza = geometry[2] * MathUtils.DTOR_F;
+                final float vaa = geometry[3] * MathUtils.DTOR_F;
+                final float cloudAlt = geometry[4];
+                for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y += 3) {
+                    for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x += 3) {
+                        final PixelPos cloudPos = new PixelPos(x, y);
+                        final GeoPos expectedGeoPos = ClassifyFeaturesOp.getCloudShadow(
+                                geoCoding, null, altTile, sza, saa, vza, vaa, cloudAlt,
+                                geoCoding.getGeoPos(cloudPos, null), cloudPos);
+                        final PixelPos pixelPos = projection.getCloudShadow(altTile, x, y, sza, saa, vza, vaa,
+                                                                            cloudAlt);
+                        final String message = targetRectangle + " " + x + "," + y;
+                        final PixelPos expected =
+                                (expectedGeoPos != null) ? geoCoding.getPixelPos(expectedGeoPos, null) : null;
+                        if (expected != null && pixelPos != null) {
+                            assertEquals(message, expected.x, pixelPos.x, MAX_PIXEL_ERROR);
+                            assertEquals(message, expected.y, pixelPos.y, MAX_PIXEL_ERROR);
+                            shadowCount++;
+                        } else if (expected != null || pixelPos != null) {
+                            // only a shadow on the border of the altitude tile may be lost by one trace
+                            final PixelPos shadow = (expected != null) ? expected : pixelPos;
+                            final Rectangle inner = altTile.getRectangle();
+                            inner.grow(-1, -1);
+                            assertFalse(message, inner.contains(shadow));
+                        }
+                    }
+                }
+            }
+            assertTrue(shadowCount > 0);
+        }
+    }
+
+    // smooth relief of some 100 m
+    private Tile createAltitudeTile(Rectangle rectangle) {
+        final WritableRaster raster = Raster.createWritableRaster(
+                new BandedSampleModel(DataBuffer.TYPE_FLOAT, rectangle.width, rectangle.height, 1),
+                rectangle.getLocation());
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                raster.setSample(x, y, 0, 400.0 + 300.0 * Math.sin(x / 15.0) * Math.cos(y / 20.0));
+            }
+        }
+        return new TileImpl(altitudeBand, raster);
+    }
+}
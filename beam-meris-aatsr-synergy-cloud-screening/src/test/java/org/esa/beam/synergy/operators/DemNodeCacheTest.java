@@ -0,0 +1,77 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+
+public class DemNodeCacheTest extends TestCase {
+
+    // a grid whose last blocks are cut
+    private static final int RASTER_WIDTH = 5 * DemNodeCache.BLOCK_SIZE + 7;
+    private static final int RASTER_HEIGHT = 3 * DemNodeCache.BLOCK_SIZE + 11;
+
+    private int readCount;
+    private final DemNodeCache.NodeReader reader = new DemNodeCache.NodeReader() {
+        @Override
+        public float readNode(int i, int j) {
+            readCount++;
+            return (j % 9 == 4 && i % 7 == 2) ? Float.NaN : 1000 * j + i;
+        }
+    };
+
+    public void testNodesAcrossBlocks() {
+        final DemNodeCache cache = DemNodeCache.getInstance("across" + System.nanoTime(),
+                                                            RASTER_WIDTH, RASTER_HEIGHT);
+        final int[][] rectangles = {
+                {0, 0, 5, 3}, {60, 61, 10, 9}, {DemNodeCache.BLOCK_SIZE, 0, DemNodeCache.BLOCK_SIZE, 1},
+                {RASTER_WIDTH - 80, RASTER_HEIGHT - 70, 80, 70}, {100, 30, 150, 120}
+        };
+        for (int[] r : rectangles) {
+            final float[] nodes = new float[r[2] * r[3]];
+            cache.getNodes(r[0], r[1], r[2], r[3], reader, nodes);
+            for (int j = 0; j < r[3]; j++) {
+                for (int i = 0; i < r[2]; i++) {
+                    final float expected = reader.readNode(r[0] + i, r[1] + j);
+                    // NaN included
+                    assertEquals(r[0] + i + "," + (r[1] + j), Float.floatToIntBits(expected),
+                                 Float.floatToIntBits(nodes[j * r[2] + i]));
+                }
+            }
+        }
+    }
+
+    public void testBlocksReadOnce() {
+        final String demName = "once" + System.nanoTime();
+        final DemNodeCache cache = DemNodeCache.getInstance(demName, RASTER_WIDTH, RASTER_HEIGHT);
+        final float[] nodes = new float[100 * 50];
+        cache.getNodes(40, 20, 100, 50, reader, nodes);
+        // three blocks in a row, two rows of blocks
+        assertEquals(6, cache.getBlockCount());
+        assertEquals(6 * DemNodeCache.BLOCK_SIZE * DemNodeCache.BLOCK_SIZE, readCount);
+
+        readCount = 0;
+        cache.getNodes(50, 30, 100, 50, reader, nodes);
+        cache.getNodes(40, 20, 100, 50, reader, nodes);
+        assertEquals(0, readCount);
+        // the same DEM shares the cache
+        assertSame(cache, DemNodeCache.getInstance(demName, RASTER_WIDTH, RASTER_HEIGHT));
+    }
+
+    public void testBoundedSize() {
+        final int width = 40 * DemNodeCache.BLOCK_SIZE;
+        final int height = 30 * DemNodeCache.BLOCK_SIZE;
+        final DemNodeCache cache = DemNodeCache.getInstance("bounded" + System.nanoTime(), width, height);
+        final float[] nodes = new float[1];
+        for (int j = 0; j < height; j += DemNodeCache.BLOCK_SIZE) {
+            for (int i = 0; i < width; i += DemNodeCache.BLOCK_SIZE) {
+                cache.getNodes(i, j, 1, 1, reader, nodes);
+            }
+        }
+        assertEquals(DemNodeCache.MAX_BLOCKS, cache.getBlockCount());
+
+        // the most recent blocks are kept, the first ones dropped
+        readCount = 0;
+        cache.getNodes(width - 1, height - 1, 1, 1, reader, nodes);
+        assertEquals(0, readCount);
+        cache.getNodes(0, 0, 1, 1, reader, nodes);
+        assertTrue(readCount > 0);
+    }
+}
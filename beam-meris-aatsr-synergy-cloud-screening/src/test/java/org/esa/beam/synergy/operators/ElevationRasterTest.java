@@ -0,0 +1,134 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.gpf.Tile;
+import org.esa.beam.framework.gpf.internal.TileImpl;
+
+import java.awt.Rectangle;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+
+public class ElevationRasterTest extends TestCase {
+
+    private static final int WIDTH = 20;
+    private static final int HEIGHT = 10;
+    private static final Rectangle UPPER = new Rectangle(0, 0, WIDTH, 6);
+    private static final Rectangle LOWER = new Rectangle(0, 6, WIDTH, HEIGHT - 6);
+
+    private File cacheDir;
+    private Band demBand;
+    private Band latBand;
+    private Band lonBand;
+
+    protected void setUp() throws IOException {
+        cacheDir = File.createTempFile("elevation", "");
+        assertTrue(cacheDir.delete());
+        demBand = new Band("elevation", ProductData.TYPE_INT16, WIDTH, HEIGHT);
+        latBand = new Band("ortho_corr_lat", ProductData.TYPE_FLOAT32, WIDTH, HEIGHT);
+        lonBand = new Band("ortho_corr_lon", ProductData.TYPE_FLOAT32, WIDTH, HEIGHT);
+    }
+
+    protected void tearDown() {
+        final File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    public void testWriteCompleteAndRead() throws IOException {
+        final String key = "complete" + System.nanoTime();
+        final ElevationRaster raster = ElevationRaster.get(cacheDir, key, WIDTH, HEIGHT, true);
+        assertFalse(raster.isComplete());
+        assertEquals(1, getTempFileCount());
+
+        raster.writeTile(UPPER, createTile(demBand, UPPER, 0.0), createTile(latBand, UPPER, 0.5),
+                         createTile(lonBand, UPPER, 0.25));
+        // a tile written again is counted once
+        raster.writeTile(UPPER, createTile(demBand, UPPER, 0.0), createTile(latBand, UPPER, 0.5),
+                         createTile(lonBand, UPPER, 0.25));
+        assertFalse(raster.isComplete());
+        assertFalse(getCacheFile(key).exists());
+
+        raster.writeTile(LOWER, createTile(demBand, LOWER, 0.0), createTile(latBand, LOWER, 0.5),
+                         createTile(lonBand, LOWER, 0.25));
+        assertTrue(raster.isComplete());
+        assertTrue(getCacheFile(key).isFile());
+        assertEquals(0, getTempFileCount());
+
+        final ElevationRaster cached = ElevationRaster.get(cacheDir, key, WIDTH, HEIGHT, true);
+        assertTrue(cached.isComplete());
+        final Rectangle rectangle = new Rectangle(3, 4, 11, 5);
+        final Tile demTile = createTile(demBand, rectangle, Double.NaN);
+        final Tile latTile = createTile(latBand, rectangle, Double.NaN);
+        final Tile lonTile = createTile(lonBand, rectangle, Double.NaN);
+        cached.readTile(rectangle, demTile, latTile, lonTile);
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                assertEquals((int) getValue(x, y, 0.0), demTile.getSampleInt(x, y));
+                assertEquals((float) getValue(x, y, 0.5), latTile.getSampleFloat(x, y), 0.0f);
+                assertEquals((float) getValue(x, y, 0.25), lonTile.getSampleFloat(x, y), 0.0f);
+            }
+        }
+    }
+
+    public void testIncompleteRasterDeleted() throws IOException {
+        final String key = "incomplete" + System.nanoTime();
+        final ElevationRaster raster = ElevationRaster.get(cacheDir, key, WIDTH, HEIGHT, false);
+        raster.writeTile(UPPER, createTile(demBand, UPPER, 0.0), null, null);
+        assertEquals(1, getTempFileCount());
+
+        raster.dispose();
+        assertEquals(0, getTempFileCount());
+        // the remaining tile does not complete a disposed raster
+        raster.writeTile(LOWER, createTile(demBand, LOWER, 0.0), null, null);
+        assertFalse(raster.isComplete());
+        assertFalse(getCacheFile(key).exists());
+        assertFalse(ElevationRaster.get(cacheDir, key, WIDTH, HEIGHT, false).isComplete());
+    }
+
+    private File getCacheFile(String key) {
+        return new File(cacheDir, key + ".dem");
+    }
+
+    private int getTempFileCount() {
+        final File[] files = cacheDir.listFiles();
+        int count = 0;
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".tmp")) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    // a tile of the test values, empty if the fraction is NaN
+    private static Tile createTile(Band band, Rectangle rectangle, double fraction) {
+        final int dataType = band.getDataType() == ProductData.TYPE_INT16 ? DataBuffer.TYPE_SHORT
+                                                                           : DataBuffer.TYPE_FLOAT;
+        final WritableRaster raster = Raster.createWritableRaster(
+                new BandedSampleModel(dataType, rectangle.width, rectangle.height, 1), rectangle.getLocation());
+        if (!Double.isNaN(fraction)) {
+            for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                    raster.setSample(x, y, 0, getValue(x, y, fraction));
+                }
+            }
+        }
+        return new TileImpl(band, raster);
+    }
+
+    private static double getValue(int x, int y, double fraction) {
+        return 100 * y + x + fraction - 500;
+    }
+}
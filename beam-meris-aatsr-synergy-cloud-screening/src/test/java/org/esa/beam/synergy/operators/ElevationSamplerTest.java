@@ -0,0 +1,185 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+import org.esa.beam.framework.datamodel.GeoPos;
+import org.esa.beam.framework.dataop.dem.ElevationModel;
+import org.esa.beam.framework.dataop.dem.ElevationModelDescriptor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+public class ElevationSamplerTest extends TestCase {
+
+    // a global grid of 30 arc seconds, as GETASSE30
+    private static final int RASTER_WIDTH = 43200;
+    private static final int RASTER_HEIGHT = 21600;
+    private static final float NO_DATA_VALUE = -500.0f;
+    // the nodes are read at float geo-positions, up to 2e-3 nodes off their centres near 180 degrees
+    private static final float MAX_ELEVATION_ERROR = 0.5f;
+
+    private ElevationModel dem;
+
+    protected void setUp() {
+        dem = createDem("fake" + System.nanoTime());
+    }
+
+    public void testSameAsPerPixelSampling() {
+        // a skewed tile of pixels smaller than the DEM nodes over several blocks of them, some without data
+        final int width = 150;
+        final int height = 90;
+        final float[] lats = new float[width * height];
+        final float[] lons = new float[width * height];
+        int noDataCount = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int k = y * width + x;
+                lats[k] = 41.3f - 0.005f * y - 0.0005f * x;
+                lons[k] = 12.1f + 0.006f * x + 0.001f * y;
+                if (getElevation(dem, lats[k], lons[k]) == NO_DATA_VALUE) {
+                    noDataCount++;
+                }
+            }
+        }
+        // invalid geo-positions
+        lats[17] = Float.NaN;
+        lons[3 * width + 5] = Float.NaN;
+        assertTrue(noDataCount > 0);
+        assertSameAsPerPixelSampling(lats, lons);
+        assertTrue(getCachedBlockCount() > 1);
+    }
+
+    public void testRasterEdges() {
+        // the corners of the DEM at 90N, 180E and 90S, 180W
+        final int size = 40;
+        final float[] lats = new float[size * size];
+        final float[] lons = new float[size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                lats[y * size + x] = 90.0f - 0.0031f * y;
+                lons[y * size + x] = 180.0f - 0.0031f * x;
+            }
+        }
+        assertSameAsPerPixelSampling(lats, lons);
+        for (int k = 0; k < lats.length; k++) {
+            lats[k] = -lats[k];
+            lons[k] = -lons[k];
+        }
+        assertSameAsPerPixelSampling(lats, lons);
+        assertEquals(2, getCachedBlockCount());
+    }
+
+    public void testSparseGeoPositions() {
+        // more nodes between the geo-positions than geo-positions, sampled one by one
+        final float[] lats = {10.0f, 10.5f, 11.0f, Float.NaN};
+        final float[] lons = {-20.0f, -19.2f, -20.7f, -20.0f};
+        assertSameAsPerPixelSampling(lats, lons);
+        assertEquals(0, getCachedBlockCount());
+    }
+
+    public void testNoValidGeoPositions() {
+        final float[] lats = {Float.NaN, 5.0f};
+        final float[] lons = {3.0f, Float.NaN};
+        final float[] elevations = new float[2];
+        new ElevationSampler(dem).getElevations(lats, lons, elevations);
+        assertEquals(NO_DATA_VALUE, elevations[0], 0.0f);
+        assertEquals(NO_DATA_VALUE, elevations[1], 0.0f);
+    }
+
+    private void assertSameAsPerPixelSampling(float[] lats, float[] lons) {
+        final float[] elevations = new float[lats.length];
+        // twice, the second time from the cached nodes
+        for (int run = 0; run < 2; run++) {
+            new ElevationSampler(dem).getElevations(lats, lons, elevations);
+            for (int k = 0; k < lats.length; k++) {
+                final float expected = (Float.isNaN(lats[k]) || Float.isNaN(lons[k])) ?
+                                       NO_DATA_VALUE : getElevation(dem, lats[k], lons[k]);
+                if (expected == NO_DATA_VALUE) {
+                    assertEquals("run " + run + ", " + k, NO_DATA_VALUE, elevations[k], 0.0f);
+                } else {
+                    assertEquals("run " + run + ", " + k, expected, elevations[k], MAX_ELEVATION_ERROR);
+                }
+            }
+        }
+    }
+
+    private int getCachedBlockCount() {
+        return DemNodeCache.getInstance(dem.getDescriptor().getName(), RASTER_WIDTH, RASTER_HEIGHT).getBlockCount();
+    }
+
+    private static float getElevation(ElevationModel dem, float lat, float lon) {
+        try {
+            return dem.getElevation(new GeoPos(lat, lon));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // a smooth relief with patches without data
+    private static float getNode(int i, int j) {
+        if (i % 37 < 3 && j % 29 < 2) {
+            return Float.NaN;
+        }
+        return (float) (800.0 + 600.0 * Math.sin(i / 7.0) * Math.cos(j / 5.0) + 0.01 * i);
+    }
+
+    /**
+     * A DEM of {@link #getNode} with the bilinear interpolation of the BEAM resampling: the nodes at the
+     * pixel centres, the indexes cropped to the raster, no data if a node has none.
+     */
+    private static ElevationModel createDem(final String name) {
+        final ElevationModelDescriptor descriptor = (ElevationModelDescriptor) Proxy.newProxyInstance(
+                ElevationSamplerTest.class.getClassLoader(), new Class[]{ElevationModelDescriptor.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getName")) {
+                            return name;
+                        } else if (method.getName().equals("getRasterWidth")) {
+                            return RASTER_WIDTH;
+                        } else if (method.getName().equals("getRasterHeight")) {
+                            return RASTER_HEIGHT;
+                        } else if (method.getName().equals("getNoDataValue")) {
+                            return method.getReturnType() == int.class ? (Object) (int) NO_DATA_VALUE :
+                                   (Object) NO_DATA_VALUE;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        return (ElevationModel) Proxy.newProxyInstance(
+                ElevationSamplerTest.class.getClassLoader(), new Class[]{ElevationModel.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getDescriptor")) {
+                            return descriptor;
+                        } else if (method.getName().equals("getElevation")) {
+                            final GeoPos geoPos = (GeoPos) args[0];
+                            final double pixelsPerDegree = RASTER_WIDTH / 360.0;
+                            final float elevation = interpolate((geoPos.getLon() + 180.0) * pixelsPerDegree,
+                                                                (90.0 - geoPos.getLat()) * pixelsPerDegree);
+                            return Float.isNaN(elevation) ? NO_DATA_VALUE : elevation;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static float interpolate(double x, double y) {
+        final int i0 = (int) Math.floor(x - 0.5);
+        final int j0 = (int) Math.floor(y - 0.5);
+        final double wi = x - 0.5 - i0;
+        final double wj = y - 0.5 - j0;
+        final int i1 = crop(i0 + 1, RASTER_WIDTH);
+        final int j1 = crop(j0 + 1, RASTER_HEIGHT);
+        final float n00 = getNode(crop(i0, RASTER_WIDTH), crop(j0, RASTER_HEIGHT));
+        final float n10 = getNode(i1, crop(j0, RASTER_HEIGHT));
+        final float n01 = getNode(crop(i0, RASTER_WIDTH), j1);
+        final float n11 = getNode(i1, j1);
+        return (float) ((1 - wj) * ((1 - wi) * n00 + wi * n10) + wj * ((1 - wi) * n01 + wi * n11));
+    }
+
+    private static int crop(int index, int size) {
+        return Math.min(Math.max(index, 0), size - 1);
+    }
+}
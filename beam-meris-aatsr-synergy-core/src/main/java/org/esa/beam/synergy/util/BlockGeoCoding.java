@@ -0,0 +1,306 @@
+package org.esa.beam.synergy.util;
+
+import org.esa.beam.framework.datamodel.GeoCoding;
+import org.esa.beam.framework.datamodel.GeoPos;
+import org.esa.beam.framework.datamodel.PixelPos;
+import org.esa.beam.util.math.MathUtils;
+
+import java.awt.Rectangle;
+
+/**
+ * Approximation of a geo-coding over a tile rectangle for per-pixel geolocation. The rectangle is
+ * divided into blocks (e.g. 16x16 pixels), lat/lon are interpolated bilinearly between the block
+ * corners, and pixel positions are found by Newton iteration on the interpolation.
+ * <p/>
+ * Each block is checked against the geo-coding on a grid of at most 4 pixels spacing. If the
+ * interpolation error at one of these points exceeds the maximum pixel error (as distance on ground
+ * in units of the smaller pixel size of the block), or the geo-coding is not valid at a corner, the
+ * block is not approximated and the geo-coding itself is used. The bound thus holds at the grid
+ * points; a geo-coding which is bilinear between them, such as a tie-point geo-coding with a tie-point
+ * spacing dividing the grid, keeps it everywhere, otherwise it can be exceeded by the curvature of the
+ * geo-coding over 4 pixels only. Positions outside the rectangle are always passed to the geo-coding.
+ */
+public class BlockGeoCoding {
+
+    public static final int DEFAULT_BLOCK_SIZE = 16;
+    public static final double DEFAULT_MAX_PIXEL_ERROR = 0.1;
+
+    private static final double METRES_PER_DEGREE = 6372000 * MathUtils.DTOR;
+    private static final int CHECK_SPACING = 4;
+    private static final int MAX_INVERSE_ITER = 10;
+    private static final double INVERSE_TOLERANCE = 1.0e-3;
+
+    private final GeoCoding geoCoding;
+    private final Rectangle rectangle;
+    private final int blockSize;
+    private final int blocksX;
+    private final int blocksY;
+    // block corner lat/lon, longitudes unwrapped to be continuous over the rectangle
+    private final double[] nodeLat;
+    private final double[] nodeLon;
+    private final boolean[] approximated;
+
+    /**
+     * Creates the approximation with default block size and maximum pixel error.
+     *
+     * @param geoCoding - the geo-coding
+     * @param rectangle - the tile rectangle
+     */
+    public BlockGeoCoding(GeoCoding geoCoding, Rectangle rectangle) {
+        this(geoCoding, rectangle, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_PIXEL_ERROR);
+    }
+
+    /**
+     * Creates the approximation.
+     *
+     * @param geoCoding     - the geo-coding
+     * @param rectangle     - the tile rectangle
+     * @param blockSize     - the block size (pixels)
+     * @param maxPixelError - the maximum interpolation error of a block (pixels)
+     */
+    public BlockGeoCoding(GeoCoding geoCoding, Rectangle rectangle, int blockSize, double maxPixelError) {
+        this.geoCoding = geoCoding;
+        this.rectangle = new Rectangle(rectangle);
+        this.blockSize = blockSize;
+        blocksX = Math.max(1, (rectangle.width + blockSize - 1) / blockSize);
+        blocksY = Math.max(1, (rectangle.height + blockSize - 1) / blockSize);
+        nodeLat = new double[(blocksX + 1) * (blocksY + 1)];
+        nodeLon = new double[nodeLat.length];
+        approximated = new boolean[blocksX * blocksY];
+
+        final boolean[] validNode = new boolean[nodeLat.length];
+        final PixelPos pixelPos = new PixelPos();
+        final GeoPos geoPos = new GeoPos();
+        double refLon = Double.NaN;
+        for (int j = 0; j <= blocksY; j++) {
+            for (int i = 0; i <= blocksX; i++) {
+                final int node = j * (blocksX + 1) + i;
+                pixelPos.setLocation(getNodeX(i), getNodeY(j));
+                geoCoding.getGeoPos(pixelPos, geoPos);
+                validNode[node] = geoPos.isValid();
+                if (validNode[node]) {
+                    if (Double.isNaN(refLon)) {
+                        refLon = geoPos.getLon();
+                    }
+                    nodeLat[node] = geoPos.getLat();
+                    nodeLon[node] = refLon + getLonDifference(refLon, geoPos.getLon());
+                }
+            }
+        }
+        for (int j = 0; j < blocksY; j++) {
+            for (int i = 0; i < blocksX; i++) {
+                final int node = j * (blocksX + 1) + i;
+                if (validNode[node] && validNode[node + 1] &&
+                    validNode[node + blocksX + 1] && validNode[node + blocksX + 2]) {
+                    approximated[j * blocksX + i] = isWithinError(i, j, maxPixelError);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method provides the geo-position of a pixel position.
+     *
+     * @param pixelPos - the pixel position
+     * @param geoPos   - the geo-position to set, may be null
+     * @return the geo-position
+     */
+    public GeoPos getGeoPos(PixelPos pixelPos, GeoPos geoPos) {
+        if (geoPos == null) {
+            geoPos = new GeoPos();
+        }
+        final float x = pixelPos.x;
+        final float y = pixelPos.y;
+        if (!(x >= rectangle.x && x <= rectangle.x + rectangle.width &&
+              y >= rectangle.y && y <= rectangle.y + rectangle.height)) {
+            return geoCoding.getGeoPos(pixelPos, geoPos);
+        }
+        final int i = getBlockX(x);
+        final int j = getBlockY(y);
+        if (!approximated[j * blocksX + i]) {
+            return geoCoding.getGeoPos(pixelPos, geoPos);
+        }
+        final double u = (x - getNodeX(i)) / (getNodeX(i + 1) - getNodeX(i));
+        final double v = (y - getNodeY(j)) / (getNodeY(j + 1) - getNodeY(j));
+        final double lat = interpolate(nodeLat, i, j, u, v);
+        final double lon = interpolate(nodeLon, i, j, u, v);
+        geoPos.setLocation((float) lat, (float) getLonDifference(0.0, lon));
+        return geoPos;
+    }
+
+    /**
+     * This method provides the pixel position of a geo-position.
+     *
+     * @param geoPos   - the geo-position
+     * @param pixelPos - the pixel position to set, may be null
+     * @return the pixel position
+     */
+    public PixelPos getPixelPos(GeoPos geoPos, PixelPos pixelPos) {
+        if (pixelPos == null) {
+            pixelPos = new PixelPos();
+        }
+        final PixelPos estimate = getStartEstimate(geoPos);
+        if (estimate == null) {
+            return geoCoding.getPixelPos(geoPos, pixelPos);
+        }
+        final GeoPos estimateGeoPos = new GeoPos();
+        for (int iter = 0; iter < MAX_INVERSE_ITER; iter++) {
+            getGeoPos(estimate, estimateGeoPos);
+            if (!estimateGeoPos.isValid()) {
+                break;
+            }
+            // Jacobian of the block interpolation at the estimate
+            final int i = getBlockX(estimate.x);
+            final int j = getBlockY(estimate.y);
+            final double width = getNodeX(i + 1) - getNodeX(i);
+            final double height = getNodeY(j + 1) - getNodeY(j);
+            final double u = Math.min(Math.max((estimate.x - getNodeX(i)) / width, 0), 1);
+            final double v = Math.min(Math.max((estimate.y - getNodeY(j)) / height, 0), 1);
+            final double latPerX = getDerivativeU(nodeLat, i, j, v) / width;
+            final double lonPerX = getDerivativeU(nodeLon, i, j, v) / width;
+            final double latPerY = getDerivativeV(nodeLat, i, j, u) / height;
+            final double lonPerY = getDerivativeV(nodeLon, i, j, u) / height;
+            final double det = latPerX * lonPerY - latPerY * lonPerX;
+            if (det == 0 || Double.isNaN(det)) {
+                break;
+            }
+            final double dLat = geoPos.getLat() - estimateGeoPos.getLat();
+            final double dLon = getLonDifference(estimateGeoPos.getLon(), geoPos.getLon());
+            final double dx = (lonPerY * dLat - latPerY * dLon) / det;
+            final double dy = (latPerX * dLon - lonPerX * dLat) / det;
+            estimate.setLocation(estimate.x + dx, estimate.y + dy);
+            if (Math.abs(dx) < INVERSE_TOLERANCE && Math.abs(dy) < INVERSE_TOLERANCE) {
+                if (rectangle.contains(estimate)) {
+                    pixelPos.setLocation(estimate);
+                    return pixelPos;
+                }
+                break;
+            }
+        }
+        return geoCoding.getPixelPos(geoPos, pixelPos);
+    }
+
+    // centre of the first approximated block whose corners enclose the geo-position in lat and lon
+    private PixelPos getStartEstimate(GeoPos geoPos) {
+        for (int j = 0; j < blocksY; j++) {
+            for (int i = 0; i < blocksX; i++) {
+                if (approximated[j * blocksX + i] && isInBlockBounds(i, j, geoPos)) {
+                    return new PixelPos(0.5f * (getNodeX(i) + getNodeX(i + 1)), 0.5f * (getNodeY(j) + getNodeY(j + 1)));
+                }
+            }
+        }
+        return null;
+    }
+
+    // the bilinear interpolation stays within the lat/lon bounds of the block corners
+    private boolean isInBlockBounds(int i, int j, GeoPos geoPos) {
+        final int[] nodes = {getNode(i, j), getNode(i + 1, j), getNode(i, j + 1), getNode(i + 1, j + 1)};
+        final double lon = nodeLon[nodes[0]] + getLonDifference(nodeLon[nodes[0]], geoPos.getLon());
+        double minLat = Double.MAX_VALUE;
+        double maxLat = -Double.MAX_VALUE;
+        double minLon = Double.MAX_VALUE;
+        double maxLon = -Double.MAX_VALUE;
+        for (int node : nodes) {
+            minLat = Math.min(minLat, nodeLat[node]);
+            maxLat = Math.max(maxLat, nodeLat[node]);
+            minLon = Math.min(minLon, nodeLon[node]);
+            maxLon = Math.max(maxLon, nodeLon[node]);
+        }
+        return geoPos.getLat() >= minLat && geoPos.getLat() <= maxLat && lon >= minLon && lon <= maxLon;
+    }
+
+    // checks the interpolation of a block on a grid of at most CHECK_SPACING pixels spacing
+    private boolean isWithinError(int i, int j, double maxPixelError) {
+        final double width = getNodeX(i + 1) - getNodeX(i);
+        final double height = getNodeY(j + 1) - getNodeY(j);
+        final int node = getNode(i, j);
+        final double pixelSizeX = getDistance(nodeLat[node], nodeLon[node],
+                                              nodeLat[getNode(i + 1, j)], nodeLon[getNode(i + 1, j)]) / width;
+        final double pixelSizeY = getDistance(nodeLat[node], nodeLon[node],
+                                              nodeLat[getNode(i, j + 1)], nodeLon[getNode(i, j + 1)]) / height;
+        final double pixelSize = Math.min(pixelSizeX, pixelSizeY);
+        if (pixelSize == 0 || Double.isNaN(pixelSize)) {
+            return false;
+        }
+        // the corners are exact
+        final int stepsU = (int) Math.ceil(width / CHECK_SPACING);
+        final int stepsV = (int) Math.ceil(height / CHECK_SPACING);
+        final PixelPos pixelPos = new PixelPos();
+        final GeoPos geoPos = new GeoPos();
+        for (int n = 0; n <= stepsV; n++) {
+            for (int m = 0; m <= stepsU; m++) {
+                if ((m == 0 || m == stepsU) && (n == 0 || n == stepsV)) {
+                    continue;
+                }
+                final double u = (double) m / stepsU;
+                final double v = (double) n / stepsV;
+                pixelPos.setLocation(getNodeX(i) + u * width, getNodeY(j) + v * height);
+                geoCoding.getGeoPos(pixelPos, geoPos);
+                if (!geoPos.isValid()) {
+                    return false;
+                }
+                final double lat = interpolate(nodeLat, i, j, u, v);
+                final double lon = interpolate(nodeLon, i, j, u, v);
+                final double exactLon = lon + getLonDifference(lon, geoPos.getLon());
+                final double error = getDistance(lat, lon, geoPos.getLat(), exactLon);
+                if (error > maxPixelError * pixelSize) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private double interpolate(double[] values, int i, int j, double u, double v) {
+        return (1 - v) * ((1 - u) * values[getNode(i, j)] + u * values[getNode(i + 1, j)]) +
+               v * ((1 - u) * values[getNode(i, j + 1)] + u * values[getNode(i + 1, j + 1)]);
+    }
+
+    private double getDerivativeU(double[] values, int i, int j, double v) {
+        return (1 - v) * (values[getNode(i + 1, j)] - values[getNode(i, j)]) +
+               v * (values[getNode(i + 1, j + 1)] - values[getNode(i, j + 1)]);
+    }
+
+    private double getDerivativeV(double[] values, int i, int j, double u) {
+        return (1 - u) * (values[getNode(i, j + 1)] - values[getNode(i, j)]) +
+               u * (values[getNode(i + 1, j + 1)] - values[getNode(i + 1, j)]);
+    }
+
+    private int getNode(int i, int j) {
+        return j * (blocksX + 1) + i;
+    }
+
+    private float getNodeX(int i) {
+        return rectangle.x + Math.min(i * blockSize, rectangle.width);
+    }
+
+    private float getNodeY(int j) {
+        return rectangle.y + Math.min(j * blockSize, rectangle.height);
+    }
+
+    private int getBlockX(double x) {
+        return Math.min(Math.max((int) Math.floor((x - rectangle.x) / blockSize), 0), blocksX - 1);
+    }
+
+    private int getBlockY(double y) {
+        return Math.min(Math.max((int) Math.floor((y - rectangle.y) / blockSize), 0), blocksY - 1);
+    }
+
+    // distance (m) on the sphere, locally flat
+    private static double getDistance(double lat1, double lon1, double lat2, double lon2) {
+        final double north = (lat2 - lat1) * METRES_PER_DEGREE;
+        final double east = (lon2 - lon1) * METRES_PER_DEGREE * Math.cos(0.5 * (lat1 + lat2) * MathUtils.DTOR);
+        return Math.sqrt(north * north + east * east);
+    }
+
+    // difference lon - refLon in [-180, 180]
+    private static double getLonDifference(double refLon, double lon) {
+        double dLon = lon - refLon;
+        if (dLon > 180) {
+            dLon -= 360 * Math.ceil((dLon - 180) / 360);
+        } else if (dLon < -180) {
+            dLon += 360 * Math.ceil((-180 - dLon) / 360);
+        }
+        return dLon;
+    }
+}
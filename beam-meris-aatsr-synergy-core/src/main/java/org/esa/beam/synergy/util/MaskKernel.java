@@ -0,0 +1,220 @@
+package org.esa.beam.synergy.util;
+
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.FlagCoding;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.datamodel.RasterDataNode;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.framework.gpf.Tile;
+
+import java.awt.Rectangle;
+
+/**
+ * Compiled form of the fixed flag expressions of the Synergy operators (e.g.
+ * <code>l1_flags_MERIS.LAND_OCEAN</code>). A kernel evaluates its expression directly on the
+ * sample buffers of the source tiles into a {@link TileMask}, instead of an expression band
+ * (<code>BandMathsOp.createBooleanExpressionBand</code>) which is interpreted pixel by pixel.
+ * The results are the same as those of the expression.
+ */
+public abstract class MaskKernel {
+
+    /**
+     * This method computes the mask of a tile rectangle.
+     *
+     * @param op        - the operator requesting the source tiles
+     * @param rectangle - the tile rectangle
+     * @return TileMask
+     */
+    public abstract TileMask compute(Operator op, Rectangle rectangle);
+
+    /**
+     * Kernel of a flag expression <code>band.FLAG</code>.
+     *
+     * @param flagBand - the flag band
+     * @param flagName - the flag name
+     * @return MaskKernel
+     * @throws OperatorException if the band has no such flag
+     */
+    public static MaskKernel flag(Band flagBand, String flagName) {
+        final FlagCoding flagCoding = (flagBand != null) ? flagBand.getFlagCoding() : null;
+        if (flagCoding == null || flagCoding.getFlag(flagName) == null) {
+            throw new OperatorException("Flag '" + flagName + "' not found.");
+        }
+        return flag(flagBand, flagCoding.getFlagMask(flagName));
+    }
+
+    /**
+     * Kernel of a flag expression, true if all bits of the mask are set.
+     *
+     * @param flagRaster - the flag raster
+     * @param flagMask   - the flag mask
+     * @return MaskKernel
+     */
+    public static MaskKernel flag(final RasterDataNode flagRaster, final int flagMask) {
+        return new MaskKernel() {
+            @Override
+            public TileMask compute(Operator op, Rectangle rectangle) {
+                final int[] samples = getRawIntSamples(op.getSourceTile(flagRaster, rectangle), rectangle);
+                final TileMask mask = new TileMask(rectangle);
+                for (int i = 0; i < samples.length; i++) {
+                    if ((samples[i] & flagMask) == flagMask) {
+                        mask.set(i, true);
+                    }
+                }
+                return mask;
+            }
+        };
+    }
+
+    /**
+     * Kernel of the expression <code>((a - b) / b) &lt; threshold</code>.
+     *
+     * @param rasterA   - raster a
+     * @param rasterB   - raster b
+     * @param threshold - the threshold
+     * @return MaskKernel
+     */
+    public static MaskKernel relativeDifferenceBelow(final RasterDataNode rasterA, final RasterDataNode rasterB,
+                                                     final double threshold) {
+        return new MaskKernel() {
+            @Override
+            public TileMask compute(Operator op, Rectangle rectangle) {
+                final double[] a = getGeophysicalSamples(op.getSourceTile(rasterA, rectangle), rectangle);
+                final double[] b = getGeophysicalSamples(op.getSourceTile(rasterB, rectangle), rectangle);
+                final TileMask mask = new TileMask(rectangle);
+                for (int i = 0; i < a.length; i++) {
+                    if ((a[i] - b[i]) / b[i] < threshold) {
+                        mask.set(i, true);
+                    }
+                }
+                return mask;
+            }
+        };
+    }
+
+    /**
+     * Kernel of the disjunction of kernels.
+     *
+     * @param kernels - the kernels
+     * @return MaskKernel
+     */
+    public static MaskKernel or(final MaskKernel... kernels) {
+        return new MaskKernel() {
+            @Override
+            public TileMask compute(Operator op, Rectangle rectangle) {
+                final TileMask mask = kernels[0].compute(op, rectangle);
+                for (int i = 1; i < kernels.length; i++) {
+                    mask.or(kernels[i].compute(op, rectangle));
+                }
+                return mask;
+            }
+        };
+    }
+
+    /**
+     * Kernel of the conjunction of kernels.
+     *
+     * @param kernels - the kernels
+     * @return MaskKernel
+     */
+    public static MaskKernel and(final MaskKernel... kernels) {
+        return new MaskKernel() {
+            @Override
+            public TileMask compute(Operator op, Rectangle rectangle) {
+                final TileMask mask = kernels[0].compute(op, rectangle);
+                for (int i = 1; i < kernels.length; i++) {
+                    mask.and(kernels[i].compute(op, rectangle));
+                }
+                return mask;
+            }
+        };
+    }
+
+    /**
+     * Kernel of the negation of a kernel.
+     *
+     * @param kernel - the kernel
+     * @return MaskKernel
+     */
+    public static MaskKernel not(final MaskKernel kernel) {
+        return new MaskKernel() {
+            @Override
+            public TileMask compute(Operator op, Rectangle rectangle) {
+                return kernel.compute(op, rectangle).not();
+            }
+        };
+    }
+
+    // raw samples of the rectangle, row by row (bytes and shorts sign-extended)
+    static int[] getRawIntSamples(Tile tile, Rectangle rectangle) {
+        final int[] samples = new int[rectangle.width * rectangle.height];
+        switch (tile.getRasterDataNode().getDataType()) {
+            case ProductData.TYPE_INT8:
+            case ProductData.TYPE_UINT8: {
+                final byte[] bytes = tile.getDataBufferByte();
+                int i = 0;
+                for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+                    int index = tile.getDataBufferIndex(rectangle.x, y);
+                    for (int x = 0; x < rectangle.width; x++) {
+                        samples[i++] = bytes[index++];
+                    }
+                }
+                break;
+            }
+            case ProductData.TYPE_INT16:
+            case ProductData.TYPE_UINT16: {
+                final short[] shorts = tile.getDataBufferShort();
+                int i = 0;
+                for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+                    int index = tile.getDataBufferIndex(rectangle.x, y);
+                    for (int x = 0; x < rectangle.width; x++) {
+                        samples[i++] = shorts[index++];
+                    }
+                }
+                break;
+            }
+            case ProductData.TYPE_INT32:
+            case ProductData.TYPE_UINT32: {
+                final int[] ints = tile.getDataBufferInt();
+                for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+                    System.arraycopy(ints, tile.getDataBufferIndex(rectangle.x, y),
+                                     samples, (y - rectangle.y) * rectangle.width, rectangle.width);
+                }
+                break;
+            }
+            default: {
+                int i = 0;
+                for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+                    for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                        samples[i++] = tile.getSampleInt(x, y);
+                    }
+                }
+            }
+        }
+        return samples;
+    }
+
+    // geophysical samples of the rectangle, row by row
+    static double[] getGeophysicalSamples(Tile tile, Rectangle rectangle) {
+        final double[] samples = new double[rectangle.width * rectangle.height];
+        final RasterDataNode raster = tile.getRasterDataNode();
+        int i = 0;
+        if (raster.getDataType() == ProductData.TYPE_FLOAT32 && !raster.isScalingApplied()) {
+            final float[] floats = tile.getDataBufferFloat();
+            for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+                int index = tile.getDataBufferIndex(rectangle.x, y);
+                for (int x = 0; x < rectangle.width; x++) {
+                    samples[i++] = floats[index++];
+                }
+            }
+        } else {
+            for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                    samples[i++] = tile.getSampleDouble(x, y);
+                }
+            }
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,361 @@
+package org.esa.beam.synergy.util;
+
+import org.esa.beam.framework.datamodel.RasterDataNode;
+import org.esa.beam.framework.gpf.Operator;
+
+import java.awt.Rectangle;
+
+/**
+ * Binary raster (e.g. a cloud or coastline mask) packed into bits, each row starting at a new word.
+ * Dilations and erosions with square windows work on whole words; box counts are separable
+ * running sums. Pixels outside the raster rectangle are unset.
+ * <p/>
+ * On 0/1 masks the operations give the same results as the JAI images they replace:
+ * a max filter is a dilation, and a median filter is a box count of at least half the window.
+ * At the scene border they behave as JAI with a zero border extender (see {@link #read}) or a copy
+ * border extender (see {@link #readReplicated}). JAI filters without border extender do not compute
+ * the border pixels at all, which the operators have to handle themselves.
+ */
+public class MaskRaster {
+
+    private final Rectangle rectangle;
+    private final int rowWords;
+    private final long[] bits;
+
+    /**
+     * Creates a raster with all pixels unset.
+     *
+     * @param rectangle - the raster rectangle (scene coordinates)
+     */
+    public MaskRaster(Rectangle rectangle) {
+        this.rectangle = new Rectangle(rectangle);
+        rowWords = (rectangle.width + 63) >>> 6;
+        bits = new long[rowWords * rectangle.height];
+    }
+
+    /**
+     * This method reads the non-zero pixels of a raster. Pixels of the rectangle outside the
+     * scene are unset.
+     *
+     * @param op        - the operator requesting the source tile
+     * @param raster    - the source raster
+     * @param rectangle - the rectangle, may exceed the scene
+     * @return MaskRaster
+     */
+    public static MaskRaster read(Operator op, RasterDataNode raster, Rectangle rectangle) {
+        final MaskRaster mask = new MaskRaster(rectangle);
+        final Rectangle sourceRectangle = getSceneIntersection(raster, rectangle);
+        if (!sourceRectangle.isEmpty()) {
+            final int[] samples = MaskKernel.getRawIntSamples(op.getSourceTile(raster, sourceRectangle),
+                                                              sourceRectangle);
+            int i = 0;
+            for (int y = sourceRectangle.y; y < sourceRectangle.y + sourceRectangle.height; y++) {
+                for (int x = sourceRectangle.x; x < sourceRectangle.x + sourceRectangle.width; x++) {
+                    if (samples[i++] != 0) {
+                        mask.set(x, y, true);
+                    }
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * This method reads the non-zero pixels of a raster. Pixels of the rectangle outside the
+     * scene copy the nearest scene pixel (as the JAI <code>BORDER_COPY</code> extender).
+     *
+     * @param op        - the operator requesting the source tile
+     * @param raster    - the source raster
+     * @param rectangle - the rectangle, may exceed the scene
+     * @return MaskRaster
+     */
+    public static MaskRaster readReplicated(Operator op, RasterDataNode raster, Rectangle rectangle) {
+        final Rectangle sourceRectangle = getSceneIntersection(raster, rectangle);
+        final MaskRaster source = read(op, raster, sourceRectangle);
+        if (sourceRectangle.equals(rectangle)) {
+            return source;
+        }
+        final MaskRaster mask = new MaskRaster(rectangle);
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            final int sourceY = Math.min(Math.max(y, sourceRectangle.y),
+                                         sourceRectangle.y + sourceRectangle.height - 1);
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                final int sourceX = Math.min(Math.max(x, sourceRectangle.x),
+                                             sourceRectangle.x + sourceRectangle.width - 1);
+                if (source.get(sourceX, sourceY)) {
+                    mask.set(x, y, true);
+                }
+            }
+        }
+        return mask;
+    }
+
+    public Rectangle getRectangle() {
+        return new Rectangle(rectangle);
+    }
+
+    /**
+     * This method provides the value of a pixel.
+     *
+     * @param x - x in scene coordinates
+     * @param y - y in scene coordinates
+     * @return boolean, false outside the raster
+     */
+    public boolean get(int x, int y) {
+        if (!rectangle.contains(x, y)) {
+            return false;
+        }
+        final int column = x - rectangle.x;
+        return (bits[(y - rectangle.y) * rowWords + (column >>> 6)] & (1L << column)) != 0;
+    }
+
+    /**
+     * This method sets the value of a pixel.
+     *
+     * @param x     - x in scene coordinates
+     * @param y     - y in scene coordinates
+     * @param value - the value
+     */
+    public void set(int x, int y, boolean value) {
+        final int column = x - rectangle.x;
+        final int index = (y - rectangle.y) * rowWords + (column >>> 6);
+        if (value) {
+            bits[index] |= 1L << column;
+        } else {
+            bits[index] &= ~(1L << column);
+        }
+    }
+
+    /**
+     * @return the number of set pixels
+     */
+    public int cardinality() {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        for (long word : bits) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public MaskRaster copy() {
+        final MaskRaster copy = new MaskRaster(rectangle);
+        System.arraycopy(bits, 0, copy.bits, 0, bits.length);
+        return copy;
+    }
+
+    /**
+     * Sets each pixel which is set in both rasters (in place).
+     *
+     * @param other - raster of the same rectangle
+     * @return this raster
+     */
+    public MaskRaster and(MaskRaster other) {
+        checkRectangle(other);
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] &= other.bits[i];
+        }
+        return this;
+    }
+
+    /**
+     * Sets each pixel which is set in one of the rasters (in place).
+     *
+     * @param other - raster of the same rectangle
+     * @return this raster
+     */
+    public MaskRaster or(MaskRaster other) {
+        checkRectangle(other);
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] |= other.bits[i];
+        }
+        return this;
+    }
+
+    /**
+     * Unsets each pixel which is set in the other raster (in place).
+     *
+     * @param other - raster of the same rectangle
+     * @return this raster
+     */
+    public MaskRaster andNot(MaskRaster other) {
+        checkRectangle(other);
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] &= ~other.bits[i];
+        }
+        return this;
+    }
+
+    /**
+     * Inverts the raster (in place).
+     *
+     * @return this raster
+     */
+    public MaskRaster not() {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = ~bits[i];
+        }
+        clearRowTails();
+        return this;
+    }
+
+    /**
+     * Dilation with a square window (max filter): a pixel is set if any pixel of the
+     * size x size window centred on it is set.
+     *
+     * @param size - the window size (odd)
+     * @return the dilated raster
+     */
+    public MaskRaster dilate(int size) {
+        final int radius = getRadius(size);
+        // horizontal pass: 'or' of the rows shifted by -radius..radius
+        final long[] rows = new long[bits.length];
+        for (int y = 0; y < rectangle.height; y++) {
+            final int offset = y * rowWords;
+            for (int shift = -radius; shift <= radius; shift++) {
+                orShiftedRow(offset, shift, rows);
+            }
+        }
+        // vertical pass: 'or' of the rows y-radius..y+radius
+        final MaskRaster result = new MaskRaster(rectangle);
+        for (int y = 0; y < rectangle.height; y++) {
+            final int offset = y * rowWords;
+            final int maxRow = Math.min(rectangle.height - 1, y + radius);
+            for (int row = Math.max(0, y - radius); row <= maxRow; row++) {
+                final int rowOffset = row * rowWords;
+                for (int w = 0; w < rowWords; w++) {
+                    result.bits[offset + w] |= rows[rowOffset + w];
+                }
+            }
+        }
+        result.clearRowTails();
+        return result;
+    }
+
+    /**
+     * Erosion with a square window (min filter): a pixel is set if all pixels of the
+     * size x size window centred on it are set. Pixels outside the raster do not erode.
+     *
+     * @param size - the window size (odd)
+     * @return the eroded raster
+     */
+    public MaskRaster erode(int size) {
+        return copy().not().dilate(size).not();
+    }
+
+    /**
+     * Box count with a square window: a pixel is set if at least <code>minCount</code> pixels of the
+     * size x size window centred on it are set.
+     *
+     * @param size     - the window size (odd)
+     * @param minCount - the minimum number of set pixels
+     * @return the thresholded box counts
+     */
+    public MaskRaster countAtLeast(int size, int minCount) {
+        final int radius = getRadius(size);
+        final int width = rectangle.width;
+        final int height = rectangle.height;
+        // horizontal running sums
+        final int[] rowCounts = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            final int offset = y * width;
+            int count = 0;
+            for (int x = 0; x < radius && x < width; x++) {
+                count += getBit(x, y);
+            }
+            for (int x = 0; x < width; x++) {
+                if (x + radius < width) {
+                    count += getBit(x + radius, y);
+                }
+                if (x - radius > 0) {
+                    count -= getBit(x - radius - 1, y);
+                }
+                rowCounts[offset + x] = count;
+            }
+        }
+        // vertical running sums
+        final MaskRaster result = new MaskRaster(rectangle);
+        final int[] counts = new int[width];
+        for (int y = 0; y < radius && y < height; y++) {
+            addRow(rowCounts, y, counts, 1);
+        }
+        for (int y = 0; y < height; y++) {
+            if (y + radius < height) {
+                addRow(rowCounts, y + radius, counts, 1);
+            }
+            if (y - radius > 0) {
+                addRow(rowCounts, y - radius - 1, counts, -1);
+            }
+            for (int x = 0; x < width; x++) {
+                if (counts[x] >= minCount) {
+                    result.bits[y * rowWords + (x >>> 6)] |= 1L << x;
+                }
+            }
+        }
+        return result;
+    }
+
+    // rows[x] |= bits[x + shift] for one row, bits beyond the row are unset
+    private void orShiftedRow(int offset, int shift, long[] rows) {
+        final int wordShift = shift >> 6;
+        final int bitShift = shift & 63;
+        for (int w = 0; w < rowWords; w++) {
+            final int sourceWord = w + wordShift;
+            long word = 0;
+            if (sourceWord >= 0 && sourceWord < rowWords) {
+                word = bits[offset + sourceWord] >>> bitShift;
+            }
+            if (bitShift != 0 && sourceWord + 1 >= 0 && sourceWord + 1 < rowWords) {
+                word |= bits[offset + sourceWord + 1] << (64 - bitShift);
+            }
+            rows[offset + w] |= word;
+        }
+    }
+
+    // keeps the bits beyond the last pixel of each row unset
+    private void clearRowTails() {
+        final int tailBits = rectangle.width & 63;
+        if (tailBits != 0) {
+            final long tailMask = (1L << tailBits) - 1;
+            for (int i = rowWords - 1; i < bits.length; i += rowWords) {
+                bits[i] &= tailMask;
+            }
+        }
+    }
+
+    private int getBit(int column, int row) {
+        return (int) (bits[row * rowWords + (column >>> 6)] >>> column) & 1;
+    }
+
+    private void addRow(int[] rowCounts, int row, int[] counts, int sign) {
+        final int offset = row * rectangle.width;
+        for (int x = 0; x < counts.length; x++) {
+            counts[x] += sign * rowCounts[offset + x];
+        }
+    }
+
+    private void checkRectangle(MaskRaster other) {
+        if (!rectangle.equals(other.rectangle)) {
+            throw new IllegalArgumentException("Rasters of different rectangles cannot be combined.");
+        }
+    }
+
+    private static int getRadius(int size) {
+        if (size < 1 || size % 2 == 0) {
+            throw new IllegalArgumentException("Window size must be odd: " + size);
+        }
+        return size / 2;
+    }
+
+    private static Rectangle getSceneIntersection(RasterDataNode raster, Rectangle rectangle) {
+        return rectangle.intersection(new Rectangle(raster.getSceneRasterWidth(), raster.getSceneRasterHeight()));
+    }
+}
@@ -254,6 +254,26 @@ public class SynergyUtils {
         return null;
     }
 
+    /**
+     * Checks if a band name starts with one of the prefixes.
+     *
+     * @param bandName - the band name
+     * @param prefixes - the name prefixes, null for any name
+     *
+     * @return boolean
+     */
+    public static boolean hasNamePrefix(String bandName, String[] prefixes) {
+        if (prefixes == null) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (bandName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static boolean isRR(final Product product) {
         return (product.getProductType().indexOf(SynergyConstants.RR_STR) > 0);
     }
@@ -0,0 +1,136 @@
+package org.esa.beam.synergy.util;
+
+import java.awt.Rectangle;
+
+/**
+ * Boolean pixel mask of a tile rectangle, packed into a bitset (one bit per pixel, row by row).
+ * Masks are computed by a {@link MaskKernel} and can be combined and shared between operators.
+ */
+public class TileMask {
+
+    private final Rectangle rectangle;
+    private final long[] bits;
+
+    /**
+     * Creates a mask with all pixels unset.
+     *
+     * @param rectangle - the tile rectangle
+     */
+    public TileMask(Rectangle rectangle) {
+        this.rectangle = new Rectangle(rectangle);
+        bits = new long[(rectangle.width * rectangle.height + 63) >>> 6];
+    }
+
+    public Rectangle getRectangle() {
+        return new Rectangle(rectangle);
+    }
+
+    /**
+     * This method provides the mask value of a pixel.
+     *
+     * @param x - x in scene coordinates
+     * @param y - y in scene coordinates
+     * @return boolean
+     */
+    public boolean get(int x, int y) {
+        return get(getIndex(x, y));
+    }
+
+    /**
+     * This method sets the mask value of a pixel.
+     *
+     * @param x     - x in scene coordinates
+     * @param y     - y in scene coordinates
+     * @param value - the mask value
+     */
+    public void set(int x, int y, boolean value) {
+        set(getIndex(x, y), value);
+    }
+
+    boolean get(int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    void set(int index, boolean value) {
+        if (value) {
+            bits[index >>> 6] |= 1L << index;
+        } else {
+            bits[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * @return the number of set pixels
+     */
+    public int cardinality() {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        for (long word : bits) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets each pixel which is set in both masks (in place).
+     *
+     * @param other - mask of the same rectangle
+     * @return this mask
+     */
+    public TileMask and(TileMask other) {
+        checkRectangle(other);
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] &= other.bits[i];
+        }
+        return this;
+    }
+
+    /**
+     * Sets each pixel which is set in one of the masks (in place).
+     *
+     * @param other - mask of the same rectangle
+     * @return this mask
+     */
+    public TileMask or(TileMask other) {
+        checkRectangle(other);
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] |= other.bits[i];
+        }
+        return this;
+    }
+
+    /**
+     * Inverts the mask (in place).
+     *
+     * @return this mask
+     */
+    public TileMask not() {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = ~bits[i];
+        }
+        // keep the bits beyond the last pixel unset, for cardinality()
+        final int pixelCount = rectangle.width * rectangle.height;
+        if ((pixelCount & 63) != 0) {
+            bits[bits.length - 1] &= (1L << pixelCount) - 1;
+        }
+        return this;
+    }
+
+    private int getIndex(int x, int y) {
+        return (y - rectangle.y) * rectangle.width + (x - rectangle.x);
+    }
+
+    private void checkRectangle(TileMask other) {
+        if (!rectangle.equals(other.rectangle)) {
+            throw new IllegalArgumentException("Masks of different rectangles cannot be combined.");
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.esa.beam.synergy.util;
+
+import junit.framework.TestCase;
+import org.esa.beam.framework.datamodel.GeoCoding;
+import org.esa.beam.framework.datamodel.GeoPos;
+import org.esa.beam.framework.datamodel.PixelPos;
+import org.esa.beam.framework.datamodel.TiePointGeoCoding;
+import org.esa.beam.framework.datamodel.TiePointGrid;
+import org.esa.beam.util.math.MathUtils;
+
+import java.awt.Rectangle;
+
+public class BlockGeoCodingTest extends TestCase {
+
+    private static final int SCENE_SIZE = 161;
+    private static final double METRES_PER_DEGREE = 6372000 * MathUtils.DTOR;
+    // a tile rectangle whose blocks are not aligned with the tie points, the last blocks cut
+    private static final Rectangle RECTANGLE = new Rectangle(21, 37, 75, 58);
+
+    public void testGeoPosWithinMaxPixelError() {
+        final GeoCoding geoCoding = createGeoCoding(16, 0.0);
+        final BlockGeoCoding blockGeoCoding = new BlockGeoCoding(geoCoding, RECTANGLE);
+        int approximatedCount = 0;
+        for (int y = RECTANGLE.y; y < RECTANGLE.y + RECTANGLE.height; y++) {
+            for (int x = RECTANGLE.x; x < RECTANGLE.x + RECTANGLE.width; x++) {
+                final PixelPos pixelPos = new PixelPos(x + 0.5f, y + 0.5f);
+                final GeoPos expected = geoCoding.getGeoPos(pixelPos, null);
+                final GeoPos geoPos = blockGeoCoding.getGeoPos(pixelPos, null);
+                final double error = getDistance(expected, geoPos) / getPixelSize(geoCoding, pixelPos);
+                // the bound holds on the check grid, the curvature in between adds little
+                assertTrue("error " + error + " at " + x + "," + y,
+                           error <= 1.5 * BlockGeoCoding.DEFAULT_MAX_PIXEL_ERROR);
+                if (geoPos.getLat() != expected.getLat() || geoPos.getLon() != expected.getLon()) {
+                    approximatedCount++;
+                }
+            }
+        }
+        assertTrue(approximatedCount > RECTANGLE.width * RECTANGLE.height / 2);
+    }
+
+    public void testErrorBetweenBlockMidpoints() {
+        // a ripple of 0.5 pixels vanishing at the block corners, centres and edge midpoints
+        final GeoCoding geoCoding = createGeoCoding(4, 0.5);
+        final Rectangle rectangle = new Rectangle(0, 0, 64, 64);
+        final BlockGeoCoding blockGeoCoding = new BlockGeoCoding(geoCoding, rectangle);
+        for (int y = 0; y < rectangle.height; y++) {
+            for (int x = 0; x < rectangle.width; x++) {
+                final PixelPos pixelPos = new PixelPos(x + 0.5f, y + 0.5f);
+                final GeoPos expected = geoCoding.getGeoPos(pixelPos, null);
+                final GeoPos geoPos = blockGeoCoding.getGeoPos(pixelPos, null);
+                assertEquals(expected.getLat(), geoPos.getLat(), 0.0f);
+                assertEquals(expected.getLon(), geoPos.getLon(), 0.0f);
+            }
+        }
+    }
+
+    public void testPixelPosInverseOfGeoPos() {
+        final GeoCoding geoCoding = createGeoCoding(16, 0.0);
+        final BlockGeoCoding blockGeoCoding = new BlockGeoCoding(geoCoding, RECTANGLE);
+        for (int y = RECTANGLE.y; y < RECTANGLE.y + RECTANGLE.height; y += 3) {
+            for (int x = RECTANGLE.x; x < RECTANGLE.x + RECTANGLE.width; x += 3) {
+                final GeoPos geoPos = blockGeoCoding.getGeoPos(new PixelPos(x + 0.5f, y + 0.5f), null);
+                final PixelPos pixelPos = blockGeoCoding.getPixelPos(geoPos, null);
+                assertEquals("x at " + x + "," + y, x + 0.5f, pixelPos.x, 1.0e-2);
+                assertEquals("y at " + x + "," + y, y + 0.5f, pixelPos.y, 1.0e-2);
+            }
+        }
+    }
+
+    public void testPixelPosOutsideRectangle() {
+        final GeoCoding geoCoding = createGeoCoding(16, 0.0);
+        final BlockGeoCoding blockGeoCoding = new BlockGeoCoding(geoCoding, RECTANGLE);
+        final PixelPos[] outside = {
+                new PixelPos(5.5f, 5.5f), new PixelPos(RECTANGLE.x - 0.5f, RECTANGLE.y + 10.5f),
+                new PixelPos(RECTANGLE.x + RECTANGLE.width + 2.5f, RECTANGLE.y + RECTANGLE.height + 0.5f)
+        };
+        for (PixelPos pixelPos : outside) {
+            final GeoPos geoPos = geoCoding.getGeoPos(pixelPos, null);
+            final PixelPos expected = geoCoding.getPixelPos(geoPos, null);
+            final PixelPos actual = blockGeoCoding.getPixelPos(geoPos, null);
+            assertEquals(expected.x, actual.x, 0.0f);
+            assertEquals(expected.y, actual.y, 0.0f);
+        }
+    }
+
+    // a skewed grid of about 1 km pixels, curved in both directions, with an optional ripple (pixels)
+    private static GeoCoding createGeoCoding(int subSampling, double ripple) {
+        final int gridSize = (SCENE_SIZE - 1) / subSampling + 1;
+        final float[] lats = new float[gridSize * gridSize];
+        final float[] lons = new float[gridSize * gridSize];
+        for (int j = 0; j < gridSize; j++) {
+            for (int i = 0; i < gridSize; i++) {
+                final double x = i * subSampling;
+                final double y = j * subSampling;
+                final double s = Math.sin(Math.PI * x / 8) * Math.sin(Math.PI * y / 8);
+                lats[j * gridSize + i] = (float) (52.0 - 0.0085 * y - 0.0012 * x + 1.5e-6 * x * x +
+                                                  ripple * 0.0085 * s * s);
+                lons[j * gridSize + i] = (float) (8.0 + 0.014 * x + 0.002 * y - 2.0e-6 * y * y + 1.0e-6 * x * y);
+            }
+        }
+        return new TiePointGeoCoding(
+                new TiePointGrid("latitude", gridSize, gridSize, 0.0f, 0.0f, subSampling, subSampling, lats),
+                new TiePointGrid("longitude", gridSize, gridSize, 0.0f, 0.0f, subSampling, subSampling, lons));
+    }
+
+    private static double getPixelSize(GeoCoding geoCoding, PixelPos pixelPos) {
+        final GeoPos geoPos = geoCoding.getGeoPos(pixelPos, null);
+        final GeoPos right = geoCoding.getGeoPos(new PixelPos(pixelPos.x + 1, pixelPos.y), null);
+        final GeoPos below = geoCoding.getGeoPos(new PixelPos(pixelPos.x, pixelPos.y + 1), null);
+        return Math.min(getDistance(geoPos, right), getDistance(geoPos, below));
+    }
+
+    private static double getDistance(GeoPos geoPos1, GeoPos geoPos2) {
+        final double north = (geoPos2.getLat() - geoPos1.getLat()) * METRES_PER_DEGREE;
+        final double east = (geoPos2.getLon() - geoPos1.getLon()) * METRES_PER_DEGREE *
+                            Math.cos(0.5 * (geoPos1.getLat() + geoPos2.getLat()) * MathUtils.DTOR);
+        return Math.sqrt(north * north + east * east);
+    }
+}
@@ -0,0 +1,124 @@
+package org.esa.beam.synergy.util;
+
+import junit.framework.TestCase;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.FlagCoding;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.gpf.operators.standard.BandMathsOp;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+
+public class MaskKernelTest extends TestCase {
+
+    private static final int WIDTH = 13;
+    private static final int HEIGHT = 11;
+    private static final Rectangle[] RECTANGLES = {
+            new Rectangle(WIDTH, HEIGHT), new Rectangle(2, 3, 7, 5), new Rectangle(WIDTH - 1, 0, 1, HEIGHT)
+    };
+
+    private Product product;
+    private Operator operator;
+
+    protected void setUp() {
+        product = new Product("test", "test", WIDTH, HEIGHT);
+        addFlagBand("l1_flags_MERIS", ProductData.TYPE_UINT8, new String[]{"LAND_OCEAN", "BRIGHT"},
+                    new int[]{0x10, 0x80});
+        addFlagBand("cloud_flags_synergy", ProductData.TYPE_INT16, new String[]{"CLOUD", "CLOUD_FILLED"},
+                    new int[]{0x01, 0x8000});
+        addFlagBand("flags_int32", ProductData.TYPE_INT32, new String[]{"HIGH"}, new int[]{0x40000000});
+
+        final float[] nadir = new float[WIDTH * HEIGHT];
+        final float[] forward = new float[WIDTH * HEIGHT];
+        for (int i = 0; i < nadir.length; i++) {
+            nadir[i] = (i % 17 == 0) ? 0.0f : 260.0f + i % 23;
+            forward[i] = nadir[i] * (0.9f + 0.01f * (i % 19));
+        }
+        product.addBand("btemp_nadir_1200_AATSR", ProductData.TYPE_FLOAT32).setDataElems(nadir);
+        product.addBand("btemp_fward_1200_AATSR", ProductData.TYPE_FLOAT32).setDataElems(forward);
+
+        operator = new Operator() {
+            @Override
+            public void initialize() {
+            }
+        };
+    }
+
+    protected void tearDown() {
+        product.dispose();
+    }
+
+    public void testFlag() {
+        final Band l1FlagBand = product.getBand("l1_flags_MERIS");
+        assertSameMask("l1_flags_MERIS.LAND_OCEAN", MaskKernel.flag(l1FlagBand, "LAND_OCEAN"));
+        // the highest bits of a byte and a short
+        assertSameMask("l1_flags_MERIS.BRIGHT", MaskKernel.flag(l1FlagBand, "BRIGHT"));
+        assertSameMask("cloud_flags_synergy.CLOUD_FILLED",
+                       MaskKernel.flag(product.getBand("cloud_flags_synergy"), "CLOUD_FILLED"));
+        assertSameMask("flags_int32.HIGH", MaskKernel.flag(product.getBand("flags_int32"), "HIGH"));
+    }
+
+    public void testUnknownFlag() {
+        try {
+            MaskKernel.flag(product.getBand("l1_flags_MERIS"), "CLOUD");
+            fail();
+        } catch (OperatorException expected) {
+            // ok
+        }
+    }
+
+    public void testCloudyExpression() {
+        final Band cloudFlagBand = product.getBand("cloud_flags_synergy");
+        final MaskKernel kernel = MaskKernel.or(
+                MaskKernel.relativeDifferenceBelow(product.getBand("btemp_fward_1200_AATSR"),
+                                                   product.getBand("btemp_nadir_1200_AATSR"), -0.05),
+                MaskKernel.flag(cloudFlagBand, "CLOUD"),
+                MaskKernel.flag(cloudFlagBand, "CLOUD_FILLED"));
+        assertSameMask("((btemp_fward_1200_AATSR-btemp_nadir_1200_AATSR)/btemp_nadir_1200_AATSR) < -0.05" +
+                       " || cloud_flags_synergy.CLOUD || cloud_flags_synergy.CLOUD_FILLED", kernel);
+    }
+
+    public void testAndNot() {
+        final MaskKernel kernel = MaskKernel.and(
+                MaskKernel.flag(product.getBand("l1_flags_MERIS"), "LAND_OCEAN"),
+                MaskKernel.not(MaskKernel.flag(product.getBand("cloud_flags_synergy"), "CLOUD")));
+        assertSameMask("l1_flags_MERIS.LAND_OCEAN && !cloud_flags_synergy.CLOUD", kernel);
+    }
+
+    private void assertSameMask(String expression, MaskKernel kernel) {
+        final Band expressionBand =
+                BandMathsOp.createBooleanExpressionBand(expression, product).getTargetProduct().getBandAt(0);
+        for (Rectangle rectangle : RECTANGLES) {
+            final Raster expected = expressionBand.getSourceImage().getData(rectangle);
+            final TileMask mask = kernel.compute(operator, rectangle);
+            assertEquals(rectangle, mask.getRectangle());
+            for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                    assertEquals(expression + " at " + x + "," + y, expected.getSample(x, y, 0) != 0, mask.get(x, y));
+                }
+            }
+        }
+    }
+
+    private void addFlagBand(String name, int dataType, String[] flagNames, int[] flagMasks) {
+        final FlagCoding flagCoding = new FlagCoding(name);
+        int allFlags = 0;
+        for (int i = 0; i < flagNames.length; i++) {
+            flagCoding.addFlag(flagNames[i], flagMasks[i], null);
+            allFlags |= flagMasks[i];
+        }
+        product.getFlagCodingGroup().add(flagCoding);
+        final Band band = product.addBand(name, dataType);
+        band.setSampleCoding(flagCoding);
+
+        final ProductData data = ProductData.createInstance(dataType, WIDTH * HEIGHT);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            // all flag combinations, the highest flag bits included
+            data.setElemIntAt(i, ((i * 7919) ^ (i >> 2) * 104729) & allFlags);
+        }
+        band.setRasterData(data);
+    }
+}
@@ -0,0 +1,161 @@
+package org.esa.beam.synergy.util;
+
+import junit.framework.TestCase;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.gpf.Operator;
+
+import java.awt.Rectangle;
+
+public class MaskRasterTest extends TestCase {
+
+    // rows of more than two words, so that the shifts cross word borders
+    private static final Rectangle RECTANGLE = new Rectangle(5, 3, 139, 17);
+    private static final int[] SIZES = {1, 3, 5, 7};
+
+    private MaskRaster raster;
+
+    protected void setUp() {
+        raster = new MaskRaster(RECTANGLE);
+        for (int y = RECTANGLE.y; y < RECTANGLE.y + RECTANGLE.height; y++) {
+            for (int x = RECTANGLE.x; x < RECTANGLE.x + RECTANGLE.width; x++) {
+                raster.set(x, y, isSet(x, y));
+            }
+        }
+    }
+
+    public void testDilate() {
+        for (int size : SIZES) {
+            final MaskRaster dilated = raster.dilate(size);
+            for (int y = RECTANGLE.y; y < RECTANGLE.y + RECTANGLE.height; y++) {
+                for (int x = RECTANGLE.x; x < RECTANGLE.x + RECTANGLE.width; x++) {
+                    assertEquals("dilate " + size + " at " + x + "," + y, countSet(x, y, size) > 0, dilated.get(x, y));
+                }
+            }
+            assertTailsUnset(dilated);
+        }
+    }
+
+    public void testErode() {
+        for (int size : SIZES) {
+            final MaskRaster eroded = raster.erode(size);
+            for (int y = RECTANGLE.y; y < RECTANGLE.y + RECTANGLE.height; y++) {
+                for (int x = RECTANGLE.x; x < RECTANGLE.x + RECTANGLE.width; x++) {
+                    // pixels outside the raster do not erode
+                    assertEquals("erode " + size + " at " + x + "," + y,
+                                 countSet(x, y, size) == countInside(x, y, size), eroded.get(x, y));
+                }
+            }
+            assertTailsUnset(eroded);
+        }
+    }
+
+    public void testCountAtLeast() {
+        for (int size : SIZES) {
+            for (int minCount = 1; minCount <= size * size; minCount += 2) {
+                final MaskRaster counts = raster.countAtLeast(size, minCount);
+                for (int y = RECTANGLE.y; y < RECTANGLE.y + RECTANGLE.height; y++) {
+                    for (int x = RECTANGLE.x; x < RECTANGLE.x + RECTANGLE.width; x++) {
+                        assertEquals("count " + size + " >= " + minCount + " at " + x + "," + y,
+                                     countSet(x, y, size) >= minCount, counts.get(x, y));
+                    }
+                }
+                assertTailsUnset(counts);
+            }
+        }
+    }
+
+    public void testBooleanOperations() {
+        final MaskRaster inverted = raster.copy().not();
+        assertEquals(RECTANGLE.width * RECTANGLE.height, raster.cardinality() + inverted.cardinality());
+        assertTrue(raster.copy().and(inverted).isEmpty());
+        assertEquals(RECTANGLE.width * RECTANGLE.height, raster.copy().or(inverted).cardinality());
+        assertEquals(raster.cardinality(), raster.copy().andNot(inverted).cardinality());
+        assertTrue(raster.copy().andNot(raster).isEmpty());
+        assertFalse(raster.get(RECTANGLE.x - 1, RECTANGLE.y));
+        assertFalse(inverted.get(RECTANGLE.x + RECTANGLE.width, RECTANGLE.y));
+    }
+
+    public void testInvalidWindowSize() {
+        try {
+            raster.dilate(4);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+
+    public void testRead() {
+        final int width = 23;
+        final int height = 13;
+        final Product product = new Product("test", "test", width, height);
+        final byte[] data = new byte[width * height];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ((i % 3 == 0) ? 1 + i % 5 : 0);
+        }
+        final Band band = product.addBand("mask", ProductData.TYPE_INT8);
+        band.setDataElems(data);
+        final Operator operator = new Operator() {
+            @Override
+            public void initialize() {
+            }
+        };
+
+        // rectangles on the scene border and across it
+        final Rectangle[] rectangles = {
+                new Rectangle(width, height), new Rectangle(-3, -2, 10, 8), new Rectangle(width - 4, height - 5, 9, 9)
+        };
+        for (Rectangle rectangle : rectangles) {
+            final MaskRaster mask = MaskRaster.read(operator, band, rectangle);
+            final MaskRaster replicated = MaskRaster.readReplicated(operator, band, rectangle);
+            for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                    final boolean inside = x >= 0 && x < width && y >= 0 && y < height;
+                    assertEquals(inside && data[y * width + x] != 0, mask.get(x, y));
+                    // as the JAI BORDER_COPY extender
+                    final int sourceX = Math.min(Math.max(x, 0), width - 1);
+                    final int sourceY = Math.min(Math.max(y, 0), height - 1);
+                    assertEquals(data[sourceY * width + sourceX] != 0, replicated.get(x, y));
+                }
+            }
+        }
+        product.dispose();
+    }
+
+    private static boolean isSet(int x, int y) {
+        return (x * x + 3 * y) % 5 < 2 || (x > 60 && x < 70);
+    }
+
+    // number of set pixels of the window, pixels outside the raster are unset
+    private static int countSet(int x, int y, int size) {
+        int count = 0;
+        for (int j = y - size / 2; j <= y + size / 2; j++) {
+            for (int i = x - size / 2; i <= x + size / 2; i++) {
+                if (RECTANGLE.contains(i, j) && isSet(i, j)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int countInside(int x, int y, int size) {
+        final Rectangle window = new Rectangle(x - size / 2, y - size / 2, size, size);
+        final Rectangle inside = window.intersection(RECTANGLE);
+        return inside.width * inside.height;
+    }
+
+    // the bits beyond the last pixel of a row must not count
+    private static void assertTailsUnset(MaskRaster mask) {
+        int count = 0;
+        for (int y = RECTANGLE.y; y < RECTANGLE.y + RECTANGLE.height; y++) {
+            for (int x = RECTANGLE.x; x < RECTANGLE.x + RECTANGLE.width; x++) {
+                if (mask.get(x, y)) {
+                    count++;
+                }
+            }
+        }
+        assertEquals(count, mask.cardinality());
+    }
+}
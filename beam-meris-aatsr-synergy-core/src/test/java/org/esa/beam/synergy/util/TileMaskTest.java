@@ -0,0 +1,73 @@
+package org.esa.beam.synergy.util;
+
+import junit.framework.TestCase;
+
+import java.awt.Rectangle;
+
+public class TileMaskTest extends TestCase {
+
+    // 7 x 11 = 77 pixels, so that the last word is partly used
+    private static final Rectangle RECTANGLE = new Rectangle(3, 5, 7, 11);
+
+    public void testSetAndGet() {
+        final TileMask mask = new TileMask(RECTANGLE);
+        assertTrue(mask.isEmpty());
+        mask.set(3, 5, true);
+        mask.set(9, 15, true);
+        mask.set(5, 9, true);
+        mask.set(5, 9, false);
+        assertTrue(mask.get(3, 5));
+        assertTrue(mask.get(9, 15));
+        assertFalse(mask.get(5, 9));
+        assertFalse(mask.get(4, 5));
+        assertEquals(2, mask.cardinality());
+        assertFalse(mask.isEmpty());
+    }
+
+    public void testNot() {
+        final TileMask mask = createMask(3);
+        final int cardinality = mask.cardinality();
+        mask.not();
+        assertEquals(RECTANGLE.width * RECTANGLE.height - cardinality, mask.cardinality());
+        for (int y = RECTANGLE.y; y < RECTANGLE.y + RECTANGLE.height; y++) {
+            for (int x = RECTANGLE.x; x < RECTANGLE.x + RECTANGLE.width; x++) {
+                assertEquals(!isSet(x, y, 3), mask.get(x, y));
+            }
+        }
+        assertTrue(new TileMask(RECTANGLE).not().not().isEmpty());
+    }
+
+    public void testAndOr() {
+        final TileMask and = createMask(2).and(createMask(3));
+        final TileMask or = createMask(2).or(createMask(3));
+        for (int y = RECTANGLE.y; y < RECTANGLE.y + RECTANGLE.height; y++) {
+            for (int x = RECTANGLE.x; x < RECTANGLE.x + RECTANGLE.width; x++) {
+                assertEquals(isSet(x, y, 2) && isSet(x, y, 3), and.get(x, y));
+                assertEquals(isSet(x, y, 2) || isSet(x, y, 3), or.get(x, y));
+            }
+        }
+    }
+
+    public void testDifferentRectangles() {
+        try {
+            createMask(2).and(new TileMask(new Rectangle(0, 0, 7, 11)));
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+
+    private static TileMask createMask(int divisor) {
+        final TileMask mask = new TileMask(RECTANGLE);
+        for (int y = RECTANGLE.y; y < RECTANGLE.y + RECTANGLE.height; y++) {
+            for (int x = RECTANGLE.x; x < RECTANGLE.x + RECTANGLE.width; x++) {
+                mask.set(x, y, isSet(x, y, divisor));
+            }
+        }
+        return mask;
+    }
+
+    private static boolean isSet(int x, int y, int divisor) {
+        return (x * 5 + y) % divisor == 0;
+    }
+}
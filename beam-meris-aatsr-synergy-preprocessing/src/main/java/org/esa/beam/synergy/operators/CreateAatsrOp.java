@@ -27,8 +27,10 @@ import org.esa.beam.framework.gpf.OperatorException;
 import org.esa.beam.framework.gpf.OperatorSpi;
 import org.esa.beam.framework.gpf.Tile;
 import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
+import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.SourceProduct;
 import org.esa.beam.framework.gpf.annotations.TargetProduct;
+import org.esa.beam.synergy.util.SynergyUtils;
 import org.esa.beam.util.ProductUtils;
 import org.esa.beam.util.math.RsMathUtils;
 
@@ -56,6 +58,11 @@ public class CreateAatsrOp extends Operator {
     @TargetProduct(description = "The target product.")
     Product targetProduct;
 
+    @Parameter(description = "Name prefixes of the bands to create, all bands if not set. " +
+                             "Flag bands are always created.",
+               label = "Bands to create")
+    String[] bandNamePrefixes;
+
     Product recalProduct;
     TiePointGrid sunZenithBandNadir;
     TiePointGrid sunZenithBandFward;
@@ -65,11 +72,15 @@ public class CreateAatsrOp extends Operator {
 
         //Dimension dim = sourceProduct.getPreferredTileSize();
 
-        // Recalibrate AATSR reflectances
-        Map<String, Object> emptyParams = new HashMap<String, Object>();
-        recalProduct =
-                GPF.createProduct(OperatorSpi.getOperatorAlias(RecalibrateAATSRReflectancesOp.class), emptyParams,
-                                  sourceProduct);
+        // Recalibrate AATSR reflectances, the brightness temperatures are taken as they are
+        if (isReflectanceRequired(sourceProduct, bandNamePrefixes)) {
+            Map<String, Object> emptyParams = new HashMap<String, Object>();
+            recalProduct =
+                    GPF.createProduct(OperatorSpi.getOperatorAlias(RecalibrateAATSRReflectancesOp.class), emptyParams,
+                                      sourceProduct);
+        } else {
+            recalProduct = sourceProduct;
+        }
 
         // Recover initial tile size
         //sourceProduct.setPreferredTileSize(dim);
@@ -100,6 +111,9 @@ public class CreateAatsrOp extends Operator {
         // Copy bands
         for (Band sourceBand : recalProduct.getBands()) {
             final String bandName = sourceBand.getName();
+            if (!SynergyUtils.hasNamePrefix(bandName, bandNamePrefixes)) {
+                continue;
+            }
             if (bandName.startsWith("reflec")) {
                 //SynergyPreprocessingUtils.info("  Copying band " + bandName);
                 final Band targetBand = ProductUtils.copyBand(bandName, recalProduct, targetProduct);
@@ -116,7 +130,10 @@ public class CreateAatsrOp extends Operator {
                 targetBand.setUnit("dl");
             } else if (bandName.startsWith("btemp")) {
                 //SynergyPreprocessingUtils.info("  Adding  band " + bandName);
-                targetProduct.addBand(sourceBand);
+                // copied, not moved, as the recalibrated product may be the source product
+                final Band targetBand = ProductUtils.copyBand(bandName, recalProduct, targetProduct);
+                ProductUtils.copySpectralBandProperties(sourceBand, targetBand);
+                targetBand.setSourceImage(sourceBand.getSourceImage());
             }
         }
 
@@ -174,6 +191,23 @@ public class CreateAatsrOp extends Operator {
         pm.done();
     }
 
+    /**
+     * Checks if a reflectance band is created, i.e. if the recalibration of the reflectances is needed.
+     *
+     * @param sourceProduct    - the AATSR L1b product
+     * @param bandNamePrefixes - the name prefixes of the bands to create, null for all bands
+     * @return boolean
+     */
+    static boolean isReflectanceRequired(Product sourceProduct, String[] bandNamePrefixes) {
+        for (Band sourceBand : sourceProduct.getBands()) {
+            final String bandName = sourceBand.getName();
+            if (bandName.startsWith("reflec") && SynergyUtils.hasNamePrefix(bandName, bandNamePrefixes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * The Service Provider Interface (SPI) for the operator.
      * It provides operator meta-data and is a factory for new operator instances.
@@ -35,6 +35,7 @@ import org.esa.beam.meris.brr.CloudClassificationOp;
 import org.esa.beam.meris.brr.GaseousCorrectionOp;
 import org.esa.beam.meris.brr.LandClassificationOp;
 import org.esa.beam.meris.brr.Rad2ReflOp;
+import org.esa.beam.synergy.util.SynergyUtils;
 import org.esa.beam.util.ProductUtils;
 
 import java.awt.Rectangle;
@@ -82,6 +83,11 @@ public class CreateMerisOp extends Operator {
                label = "Copy Land Water Reclassification")
     boolean copyLandWaterReclass;
 
+    @Parameter(description = "Name prefixes of the bands to create, all bands if not set. " +
+                             "Flag bands are always created, the cloud and land bands only if not set.",
+               label = "Bands to create")
+    String[] bandNamePrefixes;
+
     // Map to rename reflectance bands
     Map<String, String> renameMap = new HashMap<String, String>(EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS);
     // New scaling factor
@@ -99,6 +105,14 @@ public class CreateMerisOp extends Operator {
         // Q: is it faster calling operators directly instead of through GPF?
         // A: (after asking Norman): No. Besides, operators don't allow to pass parameters
 
+        // The cloud and land products are not read by any processing stage, so they are not
+        // created if only the bands of the stages are asked for
+        if (bandNamePrefixes != null) {
+            copyCloudProbability = false;
+            copyCloudTopPreassureAndMask = false;
+            copyLandWaterReclass = false;
+        }
+
         // BEAM-FUB cloud probability
         if (copyCloudProbability) {
             Map<String, Product> pInput = new HashMap<String, Product>(1);
@@ -107,9 +121,12 @@ public class CreateMerisOp extends Operator {
 //            cloudProbabilityProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(CloudProbabilityOp.class), GPF.NO_PARAMS, pInput);
         }
 
-        // Radiance to Reflectance
-        rad2reflProduct =
-                GPF.createProduct(OperatorSpi.getOperatorAlias(Rad2ReflOp.class), GPF.NO_PARAMS, sourceProduct);
+        // Radiance to Reflectance, also needed by the cloud classification
+        if (copyCloudTopPreassureAndMask || copyLandWaterReclass ||
+            isReflectanceRequired(sourceProduct, bandNamePrefixes)) {
+            rad2reflProduct =
+                    GPF.createProduct(OperatorSpi.getOperatorAlias(Rad2ReflOp.class), GPF.NO_PARAMS, sourceProduct);
+        }
 
         if (copyCloudTopPreassureAndMask || copyLandWaterReclass) {
             // Cloud Top Pressure
@@ -170,9 +187,13 @@ public class CreateMerisOp extends Operator {
         ProductUtils.copyMetadata(sourceProduct, targetProduct);
 
         // Reflectance bands (they will be converted to int16)
-        for (Band sourceBand : rad2reflProduct.getBands()) {
+        final Band[] reflectanceBands = (rad2reflProduct != null) ? rad2reflProduct.getBands() : new Band[0];
+        for (Band sourceBand : reflectanceBands) {
             String oldName = sourceBand.getName();
             String newName = oldName.replace("rho_toa", "reflectance");
+            if (!SynergyUtils.hasNamePrefix(newName, bandNamePrefixes)) {
+                continue;
+            }
             Band targetBand = targetProduct.addBand(newName, ProductData.TYPE_INT16);
             targetBand.setDescription(oldName.replace("rho_toa_", "TOA reflectance band "));
             targetBand.setUnit("dl");
@@ -217,6 +238,7 @@ public class CreateMerisOp extends Operator {
             if (sourceBand.getFlagCoding() == null) { // Copy only no flag coding bands
                 // Copy band unless it is a radiance band, in which case it depends on copyToaRadiances flag
                 boolean copyBand = (sourceBand.getName().startsWith("radiance")) ? copyToaRadiances : true;
+                copyBand = copyBand && SynergyUtils.hasNamePrefix(sourceBand.getName(), bandNamePrefixes);
                 if (copyBand) {
                     targetBand = ProductUtils.copyBand(sourceBand.getName(), sourceProduct, targetProduct);
                     ProductUtils.copySpectralBandProperties(sourceBand, targetBand);
@@ -260,6 +282,24 @@ public class CreateMerisOp extends Operator {
         pm.done();
     }
 
+    /**
+     * Checks if a reflectance band is created, i.e. if the radiance to reflectance conversion is needed.
+     *
+     * @param sourceProduct    - the MERIS L1b product
+     * @param bandNamePrefixes - the name prefixes of the bands to create, null for all bands
+     * @return boolean
+     */
+    static boolean isReflectanceRequired(Product sourceProduct, String[] bandNamePrefixes) {
+        for (Band sourceBand : sourceProduct.getBands()) {
+            final String bandName = sourceBand.getName();
+            if (bandName.startsWith("radiance") &&
+                SynergyUtils.hasNamePrefix(bandName.replace("radiance", "reflectance"), bandNamePrefixes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * The Service Provider Interface (SPI) for the operator.
      * It provides operator meta-data and is a factory for new operator instances.
@@ -15,6 +15,7 @@
  */
 package org.esa.beam.synergy.operators;
 
+import com.vividsolutions.jts.geom.Geometry;
 import org.esa.beam.collocation.CollocateOp;
 import org.esa.beam.dataio.envisat.EnvisatConstants;
 import org.esa.beam.framework.datamodel.Band;
@@ -29,6 +30,7 @@ import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
 import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.SourceProduct;
 import org.esa.beam.framework.gpf.annotations.TargetProduct;
+import org.esa.beam.framework.gpf.converters.JtsGeometryConverter;
 import org.esa.beam.gpf.operators.standard.SubsetOp;
 import org.esa.beam.synergy.util.SynergyConstants;
 import org.esa.beam.synergy.util.SynergyUtils;
@@ -104,24 +106,61 @@ public class CreateSynergyOp extends Operator {
                label = "Copy AATSR metadata")
     boolean copySlaveMetadata;
 
+    @Parameter(description = "Name prefixes of the MERIS and AATSR bands to create, all bands if not set. " +
+                             "Flag bands are always created.",
+               label = "Bands to create")
+    String[] bandNamePrefixes;
+
+    @Parameter(defaultValue = "false",
+               description = "Collocates with an AATSR pixel mapping interpolated from a sparse grid " +
+                             "instead of the standard collocation",
+               label = "Fast collocation")
+    boolean fastCollocation;
+
+    @Parameter(description = "The region of interest in MERIS pixel coordinates, the whole scene if not set",
+               label = "Region of interest")
+    java.awt.Rectangle region;
+
+    @Parameter(converter = JtsGeometryConverter.class,
+               description = "The region of interest as geographical polygon (WKT), used instead of the " +
+                             "pixel region if set",
+               label = "Geographical region of interest")
+    Geometry geoRegion;
+
+    @Parameter(defaultValue = "0", interval = "[0, 10000]",
+               description = "Pixels added around the region of interest for the subsequent processing",
+               label = "Region of interest border")
+    int regionBorder;
+
     @Override
     public void initialize() throws OperatorException {
 
         // MERIS product
-        Map<String, Object> merisParams = new HashMap<String, Object>(3);
+        Map<String, Object> merisParams = new HashMap<String, Object>(5);
         merisParams.put("copyToaRadiances", copyToaRadiances);
         merisParams.put("copyCloudProbability", copyCloudProbability);
         merisParams.put("copyCloudTopPreassureAndMask", copyCloudTopPreassureAndMask);
         merisParams.put("copyLandWaterReclass", copyLandWaterReclass);
+        merisParams.put("bandNamePrefixes", bandNamePrefixes);
         SynergyUtils.validateMerisProduct(merisSourceProduct);
         Product merisProduct =
                 GPF.createProduct(OperatorSpi.getOperatorAlias(CreateMerisOp.class), merisParams, merisSourceProduct);
+        if (region != null || geoRegion != null) {
+            // Everything downstream (elevation, collocation, common area) is restricted to the region
+            final SubsetOp op = new SubsetOp();
+            op.setSourceProduct(merisProduct);
+            op.setRegion(findRegion(merisProduct, region, geoRegion, regionBorder));
+            op.setCopyMetadata(true);
+            merisProduct = op.getTargetProduct();
+        }
 
 
         // AATSR product
         SynergyUtils.validateAatsrProduct(aatsrSourceProduct);
+        Map<String, Object> aatsrParams = new HashMap<String, Object>(1);
+        aatsrParams.put("bandNamePrefixes", bandNamePrefixes);
         Product aatsrProduct =
-                GPF.createProduct(OperatorSpi.getOperatorAlias(CreateAatsrOp.class), GPF.NO_PARAMS, aatsrSourceProduct);
+                GPF.createProduct(OperatorSpi.getOperatorAlias(CreateAatsrOp.class), aatsrParams, aatsrSourceProduct);
 
 
         // TODO: MERIS_FRG and MERIS_FSG products are already orthorectified. Detect this kind
@@ -149,8 +188,9 @@ public class CreateSynergyOp extends Operator {
         Map<String, Object> collocateParams = new HashMap<String, Object>(2);
         collocateParams.put("masterComponentPattern", "${ORIGINAL_NAME}_MERIS");
         collocateParams.put("slaveComponentPattern", "${ORIGINAL_NAME}_AATSR");
-        Product collocateProduct =
-                GPF.createProduct(OperatorSpi.getOperatorAlias(CollocateOp.class), collocateParams, collocateInput);
+        final String collocateOpAlias = fastCollocation ? OperatorSpi.getOperatorAlias(SynergyCollocateOp.class) :
+                                        OperatorSpi.getOperatorAlias(CollocateOp.class);
+        Product collocateProduct = GPF.createProduct(collocateOpAlias, collocateParams, collocateInput);
 
         // Fix collocation output (tie point grids lost their units and descriptions)
         for (TiePointGrid tpg : collocateProduct.getTiePointGrids()) {
@@ -202,6 +242,35 @@ public class CreateSynergyOp extends Operator {
         //targetProduct.setPointingFactory(merisSourceProduct.getPointingFactory());
     }
 
+    /**
+     * Finds the region of interest including its border, clipped to the scene.
+     *
+     * @param product      the MERIS Product
+     * @param region       the region in pixel coordinates, used if there is no geographical region
+     * @param geoRegion    the geographical region
+     * @param regionBorder the border in pixels
+     *
+     * @return the region
+     */
+    static java.awt.Rectangle findRegion(Product product, java.awt.Rectangle region, Geometry geoRegion,
+                                         int regionBorder) {
+        final java.awt.Rectangle sceneRect =
+                new java.awt.Rectangle(product.getSceneRasterWidth(), product.getSceneRasterHeight());
+        java.awt.Rectangle rect;
+        if (geoRegion != null) {
+            rect = SubsetOp.computePixelRegion(product, geoRegion, regionBorder);
+        } else {
+            rect = new java.awt.Rectangle(region);
+            rect.grow(regionBorder, regionBorder);
+        }
+        rect = rect.intersection(sceneRect);
+        if (rect.isEmpty()) {
+            throw new OperatorException("The region of interest does not intersect the MERIS product");
+        }
+        SynergyUtils.info("    Region " + rect.x + " " + rect.y + " " + rect.width + " " + rect.height);
+        return rect;
+    }
+
     /**
      * Finds the actual size of a band (discarding invalid pixels).
      *
@@ -218,26 +287,17 @@ public class CreateSynergyOp extends Operator {
             SynergyUtils.info("No data mask available");
             return limits;
         }
-        // Invert limits
-        limits.setRect(width, height, 0, 0);
-        // Search valid pixel limits
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                if (band.isPixelValid(x, y)) {
-                    if (limits.x > x) {
-                        limits.x = x;
-                    }
-                    if (limits.y > y) {
-                        limits.y = y;
-                    }
-                    if (limits.width < x) {
-                        limits.width = x;
-                    }
-                    if (limits.height < y) {
-                        limits.height = y;
-                    }
-                }
-            }
+        // Search valid pixel limits inward from the edges
+        final long startTime = System.currentTimeMillis();
+        final java.awt.Rectangle extent =
+                new ValidExtentScanner(band.getValidMaskImage()).scan();
+        SynergyUtils.info("    " + band.getName() + " valid pixels scanned in " +
+                          (System.currentTimeMillis() - startTime) + " ms");
+        if (extent == null) {
+            // Inverted limits
+            limits.setRect(width, height, 0, 0);
+        } else {
+            limits.setRect(extent.x, extent.y, extent.x + extent.width - 1, extent.y + extent.height - 1);
         }
         return limits;
     }
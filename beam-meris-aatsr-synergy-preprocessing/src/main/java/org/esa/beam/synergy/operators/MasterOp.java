@@ -1,5 +1,6 @@
 package org.esa.beam.synergy.operators;
 
+import com.vividsolutions.jts.geom.Geometry;
 import org.esa.beam.framework.datamodel.Product;
 import org.esa.beam.framework.gpf.GPF;
 import org.esa.beam.framework.gpf.Operator;
@@ -9,11 +10,19 @@ import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
 import org.esa.beam.framework.gpf.annotations.Parameter;
 import org.esa.beam.framework.gpf.annotations.SourceProduct;
 import org.esa.beam.framework.gpf.annotations.TargetProduct;
+import org.esa.beam.framework.gpf.converters.JtsGeometryConverter;
 import org.esa.beam.synergy.util.SynergyConstants;
 import org.esa.beam.synergy.util.SynergyUtils;
 
+import java.awt.Rectangle;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Master operator for MERIS/AATSR Synergy toolbox.
@@ -54,6 +63,35 @@ public class MasterOp extends Operator {
                label = "Create aerosol and atmospheric correction product")
     boolean createAerosolProduct;
 
+    @Parameter(defaultValue = "false",
+               description = "Create only the MERIS and AATSR bands used by the cloud screening and aerosol retrieval",
+               label = "Create only the bands used by the processing")
+    boolean pruneUnusedBands;
+
+    @Parameter(defaultValue = "false",
+               description = "Collocate AATSR with MERIS using a pixel mapping interpolated from a sparse grid",
+               label = "Fast collocation")
+    boolean fastCollocation;
+
+    @Parameter(description = "The region of interest in MERIS pixel coordinates, the whole scene if not set. " +
+                             "A border is added for the neighbourhoods used by the processing; with land AODs it is " +
+                             "(AotExtrapOp halo + 2) x aveBlock pixels, about 440 at the default aveBlock, which " +
+                             "covers most of a reduced resolution scene",
+               label = "Region of interest")
+    Rectangle region;
+
+    @Parameter(converter = JtsGeometryConverter.class,
+               description = "The region of interest as geographical polygon (WKT), used instead of the " +
+                             "pixel region if set, with the same border",
+               label = "Geographical region of interest")
+    Geometry geoRegion;
+
+    @Parameter(description = "Directory for checkpoints of the preprocessing and cloud screening products, " +
+                             "which are reused by later runs with the same inputs and parameters; " +
+                             "no checkpoints if not set",
+               label = "Checkpoint directory")
+    File checkpointDir;
+
     // cloud screening parameters...
     @Parameter(defaultValue = "true",
                label = "Use the AATSR forward view when classifying",
@@ -73,7 +111,7 @@ public class MasterOp extends Operator {
     @Parameter(defaultValue = "false",
                label = "Compute cloud shadow risk flag",
                description = "Compute cloud shadow risk flag.")
-    private boolean computeSH;
+    boolean computeSH;
 
 
     // aerosol retrieval parameters
@@ -106,7 +144,7 @@ public class MasterOp extends Operator {
                description = "Pixels to average (n x n, with n odd number) for AOD retrieval",
                label = "N x N average for AOD retrieval",
                interval = "[1, 99]")
-    private int aveBlock;
+    int aveBlock;
 
     @Parameter(defaultValue = "false")
     private boolean useCustomLandAerosol = false;
@@ -115,6 +153,9 @@ public class MasterOp extends Operator {
                defaultValue = SynergyConstants.AEROSOL_MODEL_PARAM_DEFAULT)
     private String customLandAerosol;
 
+    // products read from the checkpoints, disposed with the operator
+    private transient List<Product> checkpointProducts = new ArrayList<Product>();
+
 
     @Override
     public void initialize() throws OperatorException {
@@ -134,8 +175,39 @@ public class MasterOp extends Operator {
         preprocessingInput.put("MERIS", merisSourceProduct);
         preprocessingInput.put("AATSR", aatsrSourceProduct);
         Map<String, Object> preprocessingParams = new HashMap<String, Object>();
-        preprocessingProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(CreateSynergyOp.class),
-                                                 preprocessingParams, preprocessingInput);
+        if (pruneUnusedBands && (createCloudScreeningProduct || createAerosolProduct)) {
+            preprocessingParams.put("bandNamePrefixes", getRequiredBandPrefixes(createAerosolProduct));
+        }
+        preprocessingParams.put("fastCollocation", fastCollocation);
+        if (geoRegion != null) {
+            preprocessingParams.put("geoRegion", geoRegion);
+            preprocessingParams.put("regionBorder", getRegionBorder());
+        } else if (region != null) {
+            preprocessingParams.put("region", region);
+            preprocessingParams.put("regionBorder", getRegionBorder());
+        }
+        // checkpoints written by other code cannot be told apart if the code version is not known
+        File checkpoints = checkpointDir;
+        if (checkpoints != null && !ProductCheckpoint.isAvailable()) {
+            SynergyUtils.info("    Checkpoints disabled: code version not known");
+            checkpoints = null;
+        }
+        String preprocessingKey = null;
+        if (checkpoints != null) {
+            preprocessingKey = ProductCheckpoint.createKey("preprocessing", preprocessingParams,
+                                                           merisSourceProduct, aatsrSourceProduct);
+            preprocessingProduct = ProductCheckpoint.read(checkpoints, preprocessingKey);
+        }
+        if (preprocessingProduct == null) {
+            preprocessingProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(CreateSynergyOp.class),
+                                                     preprocessingParams, preprocessingInput);
+            if (checkpoints != null) {
+                preprocessingProduct = ProductCheckpoint.write(preprocessingProduct, checkpoints, preprocessingKey);
+            }
+        }
+        if (checkpoints != null) {
+            checkpointProducts.add(preprocessingProduct);
+        }
 
         targetProduct = preprocessingProduct;
 
@@ -149,8 +221,24 @@ public class MasterOp extends Operator {
             cloudScreeningParams.put("computeCOT", computeCOT);
             cloudScreeningParams.put("computeSF", computeSF);
             cloudScreeningParams.put("computeSH", computeSH);
-            cloudScreeningProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(SynergyCloudScreeningOp.class),
-                                                      cloudScreeningParams, cloudScreeningInput);
+            String cloudScreeningKey = null;
+            if (checkpoints != null) {
+                cloudScreeningKey = ProductCheckpoint.createKey("cloudScreening", cloudScreeningParams,
+                                                                preprocessingKey);
+                cloudScreeningProduct = ProductCheckpoint.read(checkpoints, cloudScreeningKey);
+            }
+            if (cloudScreeningProduct == null) {
+                cloudScreeningProduct =
+                        GPF.createProduct(OperatorSpi.getOperatorAlias(SynergyCloudScreeningOp.class),
+                                          cloudScreeningParams, cloudScreeningInput);
+                if (checkpoints != null) {
+                    cloudScreeningProduct =
+                            ProductCheckpoint.write(cloudScreeningProduct, checkpoints, cloudScreeningKey);
+                }
+            }
+            if (checkpoints != null) {
+                checkpointProducts.add(cloudScreeningProduct);
+            }
             targetProduct = cloudScreeningProduct;
         }
 
@@ -175,6 +263,52 @@ public class MasterOp extends Operator {
         }
     }
 
+    @Override
+    public void dispose() {
+        for (Product product : checkpointProducts) {
+            product.dispose();
+        }
+        checkpointProducts.clear();
+        super.dispose();
+    }
+
+    /**
+     * Computes the border the preprocessing product needs around the region of interest, so that the
+     * enabled processing steps find all the neighbouring pixels they use for the region.
+     *
+     * @return the border in pixels
+     */
+    int getRegionBorder() {
+        int border = 0;
+        if (createAerosolProduct) {
+            // the AODs are retrieved on a grid of aveBlock x aveBlock boxes (odd aveBlock) not aligned to
+            // the region, upscaled with the neighbouring boxes, and over land gap-filled with filters on that grid
+            final int boxSize = (aveBlock % 2 == 0) ? aveBlock + 1 : aveBlock;
+            final int boxes = computeLand ? AotExtrapOp.getHaloSize() + 2 : 2;
+            border += boxes * boxSize;
+        }
+        if (createCloudScreeningProduct || createAerosolProduct) {
+            // coast removal, median filter and cloud shadows of the cloud screening
+            border += ClassifyFeaturesOp.getHaloSize(computeSH);
+        }
+        return border;
+    }
+
+    /**
+     * Collects the name prefixes of the preprocessing bands read by the enabled processing steps.
+     *
+     * @param createAerosolProduct - true if the aerosol retrieval follows the cloud screening
+     * @return String[]
+     */
+    static String[] getRequiredBandPrefixes(boolean createAerosolProduct) {
+        final Set<String> prefixes = new LinkedHashSet<String>();
+        // the aerosol retrieval works on the cloud screening product
+        prefixes.addAll(Arrays.asList(SynergyCloudScreeningOp.REQUIRED_BAND_PREFIXES));
+        if (createAerosolProduct) {
+            prefixes.addAll(Arrays.asList(RetrieveAerosolOp.REQUIRED_BAND_PREFIXES));
+        }
+        return prefixes.toArray(new String[prefixes.size()]);
+    }
 
     /**
      * The Service Provider Interface (SPI) for the operator.
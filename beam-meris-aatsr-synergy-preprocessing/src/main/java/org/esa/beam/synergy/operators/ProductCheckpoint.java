@@ -0,0 +1,284 @@
+package org.esa.beam.synergy.operators;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.framework.dataio.ProductIO;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.gpf.GPF;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.synergy.util.SynergyUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.nio.channels.FileLock;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * On-disk checkpoints of the intermediate products of {@link MasterOp}, so that a processing step is not
+ * repeated by later runs with the same inputs and parameters (e.g. aerosol parameter sweeps reuse the
+ * preprocessing and cloud screening).
+ * <p/>
+ * A checkpoint is a BEAM-DIMAP product named by a hash of the processing step, the code version, the
+ * step parameters and its inputs (see {@link #createKey}). The code version is a content hash of the jars
+ * (or class directories) of the Synergy modules the steps run; if it cannot be computed, checkpoints are
+ * not used (see {@link #isAvailable}). A checkpoint is only used if it was written completely, which is
+ * recorded by a marker file written last. Writers of the same key, in this JVM or others, are serialised
+ * by a lock file.
+ */
+public class ProductCheckpoint {
+
+    private static final String FORMAT_NAME = "BEAM-DIMAP";
+    private static final String FILE_EXTENSION = ".dim";
+    private static final String COMPLETE_EXTENSION = ".complete";
+    private static final String LOCK_EXTENSION = ".lock";
+    // classes of the modules (preprocessing, cloud screening, core) whose code the checkpointed steps run
+    private static final Class<?>[] CODE_CLASSES = {
+            ProductCheckpoint.class, SynergyCloudScreeningOp.class, SynergyUtils.class
+    };
+
+    // locks of the writers in this JVM, striped by key
+    private static final Object[] KEY_LOCKS = new Object[32];
+    private static boolean codeVersionComputed;
+    private static String codeVersion;
+
+    static {
+        for (int i = 0; i < KEY_LOCKS.length; i++) {
+            KEY_LOCKS[i] = new Object();
+        }
+    }
+
+    private ProductCheckpoint() {
+    }
+
+    /**
+     * This method tells whether checkpoints can be used. They cannot if the code version is not known,
+     * because a checkpoint written by other code would not be told apart.
+     *
+     * @return true if the code version is known
+     */
+    public static boolean isAvailable() {
+        return getCodeVersion() != null;
+    }
+
+    /**
+     * This method creates the key of a checkpoint.
+     *
+     * @param step       - the name of the processing step
+     * @param parameters - the parameters of the step
+     * @param inputs     - the source products of the step, or keys of the checkpoints it reads
+     * @return the key (hexadecimal SHA-1)
+     */
+    public static String createKey(String step, Map<String, Object> parameters, Object... inputs) {
+        final StringBuilder content = new StringBuilder();
+        content.append(step).append('\n').append(getCodeVersion()).append('\n');
+        // sorted, so that the key does not depend on the order of the parameters
+        for (Map.Entry<String, Object> entry : new TreeMap<String, Object>(parameters).entrySet()) {
+            content.append(entry.getKey()).append('=').append(toString(entry.getValue())).append('\n');
+        }
+        for (Object input : inputs) {
+            if (input instanceof Product) {
+                appendProduct(content, (Product) input);
+            } else {
+                content.append(input).append('\n');
+            }
+        }
+
+        return step + '_' + toHex(createDigest().digest(content.toString().getBytes()));
+    }
+
+    /**
+     * This method reads the checkpoint of a key.
+     *
+     * @param checkpointDir - the checkpoint directory
+     * @param key           - the key (see {@link #createKey})
+     * @return the product, or null if there is no complete checkpoint or the code version is not known
+     */
+    public static Product read(File checkpointDir, String key) {
+        final File file = new File(checkpointDir, key + FILE_EXTENSION);
+        if (!new File(checkpointDir, key + COMPLETE_EXTENSION).isFile() || !file.isFile()) {
+            return null;
+        }
+        if (getCodeVersion() == null) {
+            SynergyUtils.info("    Not reusing checkpoint " + file + ": code version not known");
+            return null;
+        }
+        try {
+            final Product product = ProductIO.readProduct(file);
+            if (product != null) {
+                SynergyUtils.info("    Reusing checkpoint " + file);
+            }
+            return product;
+        } catch (IOException e) {
+            SynergyUtils.info("    Cannot read checkpoint " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * This method computes a product into a checkpoint, unless a concurrent writer has completed it
+     * meanwhile. If the code version is not known, an existing checkpoint is overwritten instead.
+     * The product is disposed; the caller disposes the product returned.
+     *
+     * @param product       - the product
+     * @param checkpointDir - the checkpoint directory
+     * @param key           - the key (see {@link #createKey})
+     * @return the product read from the checkpoint
+     */
+    public static Product write(Product product, File checkpointDir, String key) {
+        if (!checkpointDir.isDirectory() && !checkpointDir.mkdirs()) {
+            throw new OperatorException("Cannot create checkpoint directory " + checkpointDir);
+        }
+        final File file = new File(checkpointDir, key + FILE_EXTENSION);
+        final File completeFile = new File(checkpointDir, key + COMPLETE_EXTENSION);
+        // file locks are held per JVM, so the threads of this JVM are serialised first
+        synchronized (KEY_LOCKS[(key.hashCode() & Integer.MAX_VALUE) % KEY_LOCKS.length]) {
+            try {
+                final RandomAccessFile lockFile =
+                        new RandomAccessFile(new File(checkpointDir, key + LOCK_EXTENSION), "rw");
+                try {
+                    final FileLock lock = lockFile.getChannel().lock();
+                    try {
+                        if (getCodeVersion() == null && completeFile.isFile() && !completeFile.delete()) {
+                            throw new IOException("Cannot delete " + completeFile);
+                        }
+                        if (!completeFile.isFile()) {
+                            final long startTime = System.currentTimeMillis();
+                            GPF.writeProduct(product, file, FORMAT_NAME, false, ProgressMonitor.NULL);
+                            if (!completeFile.createNewFile() && !completeFile.isFile()) {
+                                throw new IOException("Cannot create " + completeFile);
+                            }
+                            SynergyUtils.info("    Checkpoint " + file + " written in " +
+                                              (System.currentTimeMillis() - startTime) + " ms");
+                        } else {
+                            SynergyUtils.info("    Reusing checkpoint " + file + " written concurrently");
+                        }
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    lockFile.close();
+                }
+                final Product checkpoint = ProductIO.readProduct(file);
+                if (checkpoint == null) {
+                    throw new IOException("No reader found for " + file);
+                }
+                return checkpoint;
+            } catch (IOException e) {
+                throw new OperatorException("Cannot write checkpoint " + file + ": " + e.getMessage(), e);
+            } finally {
+                product.dispose();
+            }
+        }
+    }
+
+    private static void appendProduct(StringBuilder content, Product product) {
+        final File fileLocation = product.getFileLocation();
+        if (fileLocation != null) {
+            content.append(fileLocation.getAbsolutePath()).append(' ');
+            content.append(fileLocation.length()).append(' ').append(fileLocation.lastModified()).append(' ');
+        }
+        content.append(product.getName()).append(' ').append(product.getProductType()).append(' ');
+        content.append(product.getSceneRasterWidth()).append('x').append(product.getSceneRasterHeight()).append(' ');
+        content.append(product.getStartTime()).append(' ').append(product.getEndTime()).append('\n');
+    }
+
+    private static String toString(Object value) {
+        if (value instanceof Object[]) {
+            return Arrays.deepToString((Object[]) value);
+        }
+        return String.valueOf(value);
+    }
+
+    // content hash of the code of the Synergy modules, null if it cannot be read
+    private static synchronized String getCodeVersion() {
+        if (!codeVersionComputed) {
+            codeVersionComputed = true;
+            try {
+                final Set<File> locations = new LinkedHashSet<File>();
+                for (Class<?> codeClass : CODE_CLASSES) {
+                    final CodeSource codeSource = codeClass.getProtectionDomain().getCodeSource();
+                    if (codeSource == null || codeSource.getLocation() == null) {
+                        throw new IOException("No code source of " + codeClass.getName());
+                    }
+                    locations.add(new File(codeSource.getLocation().toURI()));
+                }
+                final MessageDigest digest = createDigest();
+                for (File location : locations) {
+                    updateDigest(digest, location);
+                }
+                codeVersion = toHex(digest.digest());
+            } catch (IOException e) {
+                SynergyUtils.info("    Cannot compute the code version: " + e.getMessage());
+            } catch (URISyntaxException e) {
+                SynergyUtils.info("    Cannot compute the code version: " + e.getMessage());
+            } catch (IllegalArgumentException e) {
+                // not a file URI
+                SynergyUtils.info("    Cannot compute the code version: " + e.getMessage());
+            }
+        }
+        return codeVersion;
+    }
+
+    // for tests: replaces the code version, null for not known
+    static synchronized void setCodeVersion(String version) {
+        codeVersionComputed = true;
+        codeVersion = version;
+    }
+
+    // for tests: computes the code version again on its next use
+    static synchronized void resetCodeVersion() {
+        codeVersionComputed = false;
+        codeVersion = null;
+    }
+
+    // names and contents of a jar, or of the files of a class directory
+    private static void updateDigest(MessageDigest digest, File file) throws IOException {
+        digest.update(file.getName().getBytes());
+        if (file.isDirectory()) {
+            final File[] files = file.listFiles();
+            if (files == null) {
+                throw new IOException("Cannot list " + file);
+            }
+            Arrays.sort(files);
+            for (File child : files) {
+                updateDigest(digest, child);
+            }
+        } else {
+            final InputStream inputStream = new FileInputStream(file);
+            try {
+                final byte[] buffer = new byte[65536];
+                for (int n = inputStream.read(buffer); n >= 0; n = inputStream.read(buffer)) {
+                    digest.update(buffer, 0, n);
+                }
+            } finally {
+                inputStream.close();
+            }
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,376 @@
+package org.esa.beam.synergy.operators;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.FlagCoding;
+import org.esa.beam.framework.datamodel.GeoCoding;
+import org.esa.beam.framework.datamodel.GeoPos;
+import org.esa.beam.framework.datamodel.PixelPos;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.datamodel.RasterDataNode;
+import org.esa.beam.framework.datamodel.TiePointGrid;
+import org.esa.beam.framework.gpf.Operator;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.esa.beam.framework.gpf.OperatorSpi;
+import org.esa.beam.framework.gpf.Tile;
+import org.esa.beam.framework.gpf.annotations.OperatorMetadata;
+import org.esa.beam.framework.gpf.annotations.Parameter;
+import org.esa.beam.framework.gpf.annotations.SourceProduct;
+import org.esa.beam.framework.gpf.annotations.TargetProduct;
+import org.esa.beam.util.ProductUtils;
+
+import java.awt.Rectangle;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Operator for collocating an AATSR product with a MERIS product.
+ * <p/>
+ * Both instruments fly on the same platform, so the AATSR pixel position of a MERIS pixel changes
+ * smoothly over the scene. It is computed with the geo-codings on a sparse grid of MERIS pixels only,
+ * and interpolated bilinearly in between; grid cells where the interpolation is off by more than
+ * {@link #MAX_PIXEL_ERROR} at the cell centre use the geo-codings for each pixel. The AATSR bands and
+ * tie-point grids are resampled (nearest neighbour) for all bands of a tile in one pass. The mapping
+ * is cached for the geo-codings of the product pair, identified by the geo-positions of the scene
+ * corners and centres.
+ * <p/>
+ * The target product has the layout of the <code>CollocateOp</code> target: the MERIS bands and tie-point
+ * grids, and the AATSR bands and tie-point grids as bands, the bands renamed by the component patterns.
+ */
+@OperatorMetadata(alias = "synergy.SynergyCollocate",
+                  version = "1.0",
+                  copyright = "(c) 2010 by Brockmann Consult",
+                  description = "Collocates an AATSR product with a MERIS product using a pixel mapping " +
+                                "interpolated from a sparse grid.",
+                  internal = true)
+public class SynergyCollocateOp extends Operator {
+
+    private static final String ORIGINAL_NAME = "${ORIGINAL_NAME}";
+    // maximum interpolation error (AATSR pixels) of the mapping at a grid cell centre
+    static final double MAX_PIXEL_ERROR = 0.1;
+    private static final int MAX_CACHED_MAPPINGS = 4;
+
+    private static final Map<String, PixelMapping> mappingCache =
+            new LinkedHashMap<String, PixelMapping>(MAX_CACHED_MAPPINGS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PixelMapping> eldest) {
+                    return size() > MAX_CACHED_MAPPINGS;
+                }
+            };
+
+    @SourceProduct(alias = "masterProduct", description = "The MERIS product.")
+    Product masterProduct;
+
+    @SourceProduct(alias = "slaveProduct", description = "The AATSR product.")
+    Product slaveProduct;
+
+    @TargetProduct(description = "The collocated product.")
+    Product targetProduct;
+
+    @Parameter(defaultValue = "16", interval = "[1, 256]",
+               description = "Spacing (MERIS pixels) of the grid the AATSR pixel positions are computed on",
+               label = "Mapping grid step")
+    int gridStep;
+
+    @Parameter(defaultValue = ORIGINAL_NAME + "_M",
+               description = "The name pattern of the MERIS bands",
+               label = "MERIS component pattern")
+    String masterComponentPattern;
+
+    @Parameter(defaultValue = ORIGINAL_NAME + "_S",
+               description = "The name pattern of the AATSR bands",
+               label = "AATSR component pattern")
+    String slaveComponentPattern;
+
+    // AATSR band or tie-point grid of each resampled target band
+    private transient Map<Band, RasterDataNode> slaveRasters;
+    private transient PixelMapping mapping;
+
+    @Override
+    public void initialize() throws OperatorException {
+        final GeoCoding masterGeoCoding = masterProduct.getGeoCoding();
+        final GeoCoding slaveGeoCoding = slaveProduct.getGeoCoding();
+        if (masterGeoCoding == null || !masterGeoCoding.canGetGeoPos() ||
+            slaveGeoCoding == null || !slaveGeoCoding.canGetPixelPos()) {
+            throw new OperatorException("MERIS and AATSR products must be geo-coded");
+        }
+
+        final int width = masterProduct.getSceneRasterWidth();
+        final int height = masterProduct.getSceneRasterHeight();
+        targetProduct = new Product(masterProduct.getName(), masterProduct.getProductType(), width, height);
+        targetProduct.setDescription(masterProduct.getDescription());
+        targetProduct.setStartTime(masterProduct.getStartTime());
+        targetProduct.setEndTime(masterProduct.getEndTime());
+        ProductUtils.copyMetadata(masterProduct, targetProduct);
+        ProductUtils.copyTiePointGrids(masterProduct, targetProduct);
+        ProductUtils.copyGeoCoding(masterProduct, targetProduct);
+
+        // MERIS bands as they are; renaming them updates the expressions referring to them
+        ProductUtils.copyFlagBands(masterProduct, targetProduct);
+        for (Band sourceBand : masterProduct.getBands()) {
+            Band targetBand = targetProduct.getBand(sourceBand.getName());
+            if (targetBand == null) {
+                targetBand = ProductUtils.copyBand(sourceBand.getName(), masterProduct, targetProduct);
+                ProductUtils.copySpectralBandProperties(sourceBand, targetBand);
+            }
+            targetBand.setSourceImage(sourceBand.getSourceImage());
+        }
+        for (Band sourceBand : masterProduct.getBands()) {
+            targetProduct.getBand(sourceBand.getName()).setName(getName(masterComponentPattern, sourceBand));
+        }
+
+        // AATSR bands and tie-point grids, resampled
+        slaveRasters = new HashMap<Band, RasterDataNode>();
+        ProductUtils.copyFlagCodings(slaveProduct, targetProduct);
+        final Map<Band, String> slaveNames = new HashMap<Band, String>();
+        for (Band sourceBand : slaveProduct.getBands()) {
+            final String name = getName(slaveComponentPattern, sourceBand);
+            final Band targetBand = new Band(targetProduct.containsRasterDataNode(sourceBand.getName()) ?
+                                             name : sourceBand.getName(),
+                                             sourceBand.getDataType(), width, height);
+            ProductUtils.copyRasterDataNodeProperties(sourceBand, targetBand);
+            ProductUtils.copySpectralBandProperties(sourceBand, targetBand);
+            targetBand.setNoDataValueUsed(true);
+            final FlagCoding flagCoding = sourceBand.getFlagCoding();
+            if (flagCoding != null) {
+                targetBand.setSampleCoding(targetProduct.getFlagCodingGroup().get(flagCoding.getName()));
+            }
+            targetProduct.addBand(targetBand);
+            slaveRasters.put(targetBand, sourceBand);
+            slaveNames.put(targetBand, name);
+        }
+        for (Map.Entry<Band, String> entry : slaveNames.entrySet()) {
+            entry.getKey().setName(entry.getValue());
+        }
+        for (TiePointGrid sourceGrid : slaveProduct.getTiePointGrids()) {
+            final Band targetBand = targetProduct.addBand(getName(slaveComponentPattern, sourceGrid),
+                                                          ProductData.TYPE_FLOAT32);
+            targetBand.setUnit(sourceGrid.getUnit());
+            targetBand.setDescription(sourceGrid.getDescription());
+            targetBand.setNoDataValue(Double.NaN);
+            targetBand.setNoDataValueUsed(true);
+            slaveRasters.put(targetBand, sourceGrid);
+        }
+
+        final String key = getMappingKey();
+        synchronized (mappingCache) {
+            mapping = mappingCache.get(key);
+            if (mapping == null) {
+                mapping = new PixelMapping(masterGeoCoding, slaveGeoCoding, width, height, gridStep);
+                mappingCache.put(key, mapping);
+            }
+        }
+    }
+
+    @Override
+    public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle rect, ProgressMonitor pm)
+            throws OperatorException {
+
+        pm.beginTask("Collocating frame ...", rect.height + 1);
+        try {
+            // AATSR pixel of each MERIS pixel, -1 if outside the AATSR raster
+            final int slaveWidth = slaveProduct.getSceneRasterWidth();
+            final int slaveHeight = slaveProduct.getSceneRasterHeight();
+            final int[] slaveIndex = new int[rect.width * rect.height];
+            final GeoCoding masterGeoCoding = masterProduct.getGeoCoding();
+            final GeoCoding slaveGeoCoding = slaveProduct.getGeoCoding();
+            final PixelPos slavePos = new PixelPos();
+            int minX = slaveWidth;
+            int minY = slaveHeight;
+            int maxX = -1;
+            int maxY = -1;
+            int i = 0;
+            for (int y = rect.y; y < rect.y + rect.height; y++) {
+                for (int x = rect.x; x < rect.x + rect.width; x++) {
+                    mapping.getSlavePixelPos(x, y, masterGeoCoding, slaveGeoCoding, slavePos);
+                    final int sx = (int) Math.floor(slavePos.x);
+                    final int sy = (int) Math.floor(slavePos.y);
+                    if (slavePos.isValid() && sx >= 0 && sx < slaveWidth && sy >= 0 && sy < slaveHeight) {
+                        slaveIndex[i] = sy * slaveWidth + sx;
+                        minX = Math.min(minX, sx);
+                        maxX = Math.max(maxX, sx);
+                        minY = Math.min(minY, sy);
+                        maxY = Math.max(maxY, sy);
+                    } else {
+                        slaveIndex[i] = -1;
+                    }
+                    i++;
+                }
+                pm.worked(1);
+            }
+
+            final Rectangle slaveRect = new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+            for (Map.Entry<Band, Tile> entry : targetTiles.entrySet()) {
+                final Band targetBand = entry.getKey();
+                final RasterDataNode slaveRaster = slaveRasters.get(targetBand);
+                if (slaveRaster == null) {
+                    continue;
+                }
+                final Tile targetTile = entry.getValue();
+                final ProductData targetData = targetTile.getRawSamples();
+                final double noDataValue = targetBand.getNoDataValue();
+                ProductData sourceData = null;
+                if (!slaveRect.isEmpty()) {
+                    sourceData = getSourceTile(slaveRaster, slaveRect).getRawSamples();
+                }
+                for (int k = 0; k < slaveIndex.length; k++) {
+                    if (slaveIndex[k] < 0) {
+                        targetData.setElemDoubleAt(k, noDataValue);
+                    } else {
+                        final int sx = slaveIndex[k] % slaveWidth - slaveRect.x;
+                        final int sy = slaveIndex[k] / slaveWidth - slaveRect.y;
+                        targetData.setElemDoubleAt(k, sourceData.getElemDoubleAt(sy * slaveRect.width + sx));
+                    }
+                }
+                targetTile.setRawSamples(targetData);
+                checkForCancellation();
+            }
+            pm.worked(1);
+        } finally {
+            pm.done();
+        }
+    }
+
+    private String getMappingKey() {
+        final StringBuilder key = new StringBuilder();
+        appendGeoCodingKey(key, masterProduct);
+        key.append('|');
+        appendGeoCodingKey(key, slaveProduct);
+        return key.append('|').append(gridStep).toString();
+    }
+
+    // scene size and geo-positions of the corner and centre pixels
+    private static void appendGeoCodingKey(StringBuilder key, Product product) {
+        final int width = product.getSceneRasterWidth();
+        final int height = product.getSceneRasterHeight();
+        final float[][] pixels = {
+                {0.5f, 0.5f}, {width - 0.5f, 0.5f}, {0.5f, height - 0.5f}, {width - 0.5f, height - 0.5f},
+                {0.5f * width, 0.5f * height}
+        };
+        key.append(width).append('x').append(height);
+        final GeoPos geoPos = new GeoPos();
+        for (float[] pixel : pixels) {
+            product.getGeoCoding().getGeoPos(new PixelPos(pixel[0], pixel[1]), geoPos);
+            key.append('/').append(geoPos.lat).append(',').append(geoPos.lon);
+        }
+    }
+
+    private static String getName(String pattern, RasterDataNode raster) {
+        return pattern.replace(ORIGINAL_NAME, raster.getName());
+    }
+
+    /**
+     * AATSR pixel positions of MERIS pixels, interpolated from a sparse grid.
+     */
+    private static class PixelMapping {
+
+        private final int width;
+        private final int height;
+        private final int step;
+        private final int nodesX;
+        private final int cellsX;
+        private final int cellsY;
+        // AATSR pixel position at the grid nodes (MERIS pixel centres), NaN if not available
+        private final float[] nodeX;
+        private final float[] nodeY;
+        private final boolean[] interpolated;
+
+        PixelMapping(GeoCoding masterGeoCoding, GeoCoding slaveGeoCoding, int width, int height, int step) {
+            this.width = width;
+            this.height = height;
+            this.step = step;
+            cellsX = Math.max(1, (width - 1 + step - 1) / step);
+            cellsY = Math.max(1, (height - 1 + step - 1) / step);
+            nodesX = cellsX + 1;
+            final int nodesY = cellsY + 1;
+            nodeX = new float[nodesX * nodesY];
+            nodeY = new float[nodeX.length];
+            interpolated = new boolean[cellsX * cellsY];
+
+            final PixelPos slavePos = new PixelPos();
+            for (int j = 0; j < nodesY; j++) {
+                for (int i = 0; i < nodesX; i++) {
+                    computeSlavePixelPos(getNodeX(i), getNodeY(j), masterGeoCoding, slaveGeoCoding, slavePos);
+                    nodeX[j * nodesX + i] = slavePos.isValid() ? slavePos.x : Float.NaN;
+                    nodeY[j * nodesX + i] = slavePos.isValid() ? slavePos.y : Float.NaN;
+                }
+            }
+            // check the interpolation at the cell centres
+            for (int j = 0; j < cellsY; j++) {
+                for (int i = 0; i < cellsX; i++) {
+                    final float x = 0.5f * (getNodeX(i) + getNodeX(i + 1));
+                    final float y = 0.5f * (getNodeY(j) + getNodeY(j + 1));
+                    computeSlavePixelPos(x, y, masterGeoCoding, slaveGeoCoding, slavePos);
+                    final int node = j * nodesX + i;
+                    final double dx = 0.25 * (nodeX[node] + nodeX[node + 1] +
+                                              nodeX[node + nodesX] + nodeX[node + nodesX + 1]) - slavePos.x;
+                    final double dy = 0.25 * (nodeY[node] + nodeY[node + 1] +
+                                              nodeY[node + nodesX] + nodeY[node + nodesX + 1]) - slavePos.y;
+                    interpolated[j * cellsX + i] = slavePos.isValid() &&
+                                                   Math.abs(dx) <= MAX_PIXEL_ERROR && Math.abs(dy) <= MAX_PIXEL_ERROR;
+                }
+            }
+        }
+
+        /**
+         * Provides the AATSR pixel position of the centre of a MERIS pixel.
+         */
+        void getSlavePixelPos(int x, int y, GeoCoding masterGeoCoding, GeoCoding slaveGeoCoding,
+                              PixelPos slavePos) {
+            final float px = x + 0.5f;
+            final float py = y + 0.5f;
+            final int i = Math.min(x / step, cellsX - 1);
+            final int j = Math.min(y / step, cellsY - 1);
+            if (!interpolated[j * cellsX + i]) {
+                computeSlavePixelPos(px, py, masterGeoCoding, slaveGeoCoding, slavePos);
+                return;
+            }
+            final float u = getWeight(px, getNodeX(i), getNodeX(i + 1));
+            final float v = getWeight(py, getNodeY(j), getNodeY(j + 1));
+            final int node = j * nodesX + i;
+            slavePos.setLocation(interpolate(nodeX, node, u, v), interpolate(nodeY, node, u, v));
+        }
+
+        private float interpolate(float[] values, int node, float u, float v) {
+            return (1 - v) * ((1 - u) * values[node] + u * values[node + 1]) +
+                   v * ((1 - u) * values[node + nodesX] + u * values[node + nodesX + 1]);
+        }
+
+        // weight of the upper node, 0 for a degenerate cell (one pixel wide scene)
+        private static float getWeight(float p, float lower, float upper) {
+            return upper > lower ? (p - lower) / (upper - lower) : 0.0f;
+        }
+
+        // grid nodes at MERIS pixel centres, the last one at the last pixel
+        private float getNodeX(int i) {
+            return Math.min(i * step, width - 1) + 0.5f;
+        }
+
+        private float getNodeY(int j) {
+            return Math.min(j * step, height - 1) + 0.5f;
+        }
+
+        private static void computeSlavePixelPos(float x, float y, GeoCoding masterGeoCoding,
+                                                 GeoCoding slaveGeoCoding, PixelPos slavePos) {
+            final GeoPos geoPos = masterGeoCoding.getGeoPos(new PixelPos(x, y), null);
+            if (geoPos.isValid()) {
+                slaveGeoCoding.getPixelPos(geoPos, slavePos);
+            } else {
+                slavePos.setInvalid();
+            }
+        }
+    }
+
+    /**
+     * The Service Provider Interface (SPI) for the operator.
+     * It provides operator meta-data and is a factory for new operator instances.
+     */
+    public static class Spi extends OperatorSpi {
+
+        public Spi() {
+            super(SynergyCollocateOp.class);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.esa.beam.synergy.operators;
+
+import org.esa.beam.framework.gpf.OperatorException;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Finds the bounding box of the valid pixels of a band from its valid mask image.
+ * <p/>
+ * Each bound is found by scanning strips of the mask (one image tile high or wide) inward from its
+ * edge, several strips concurrently, and stops at the first strip holding a valid pixel. The left and
+ * right edges are only scanned between the top and bottom bounds, so the interior of the scene is not
+ * read when it is valid.
+ */
+public class ValidExtentScanner {
+
+    // shared by the scans of all operators, its worker threads are daemon threads
+    private static ForkJoinPool sharedPool;
+
+    private final RenderedImage mask;
+    private final ExecutorService executor;
+    private final int batchSize;
+
+    /**
+     * Creates the scanner on the shared pool, one strip per processor scanned concurrently.
+     *
+     * @param mask - the valid mask image (non-zero where valid)
+     */
+    public ValidExtentScanner(RenderedImage mask) {
+        this(mask, getSharedPool(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates the scanner.
+     *
+     * @param mask      - the valid mask image (non-zero where valid)
+     * @param executor  - the executor scanning the strips
+     * @param batchSize - the number of strips scanned concurrently
+     */
+    public ValidExtentScanner(RenderedImage mask, ExecutorService executor, int batchSize) {
+        this.mask = mask;
+        this.executor = executor;
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    /**
+     * This method finds the bounding box of the valid pixels.
+     *
+     * @return the bounding box, or null if no pixel is valid
+     */
+    public Rectangle scan() {
+        final int minX = mask.getMinX();
+        final int minY = mask.getMinY();
+        final int maxX = minX + mask.getWidth() - 1;
+        final int maxY = minY + mask.getHeight() - 1;
+
+        final int top = scanEdge(minY, maxY, mask.getTileHeight(), 1, minX, maxX, false);
+        if (top < 0) {
+            return null;
+        }
+        final int bottom = scanEdge(maxY, top, mask.getTileHeight(), -1, minX, maxX, false);
+        final int left = scanEdge(minX, maxX, mask.getTileWidth(), 1, top, bottom, true);
+        final int right = scanEdge(maxX, left, mask.getTileWidth(), -1, top, bottom, true);
+        return new Rectangle(left, top, right - left + 1, bottom - top + 1);
+    }
+
+    // first row (or column) from 'from' towards 'to' holding a valid pixel, -1 if none
+    private int scanEdge(int from, int to, int stripSize, final int direction, final int acrossMin,
+                         final int acrossMax, final boolean columns) {
+        final int count = Math.abs(to - from) + 1;
+        final int strips = (count + stripSize - 1) / stripSize;
+        for (int batch = 0; batch < strips; batch += batchSize) {
+            final List<Future<Integer>> futures = new ArrayList<Future<Integer>>(batchSize);
+            for (int strip = batch; strip < Math.min(batch + batchSize, strips); strip++) {
+                final int stripFrom = from + direction * strip * stripSize;
+                final int stripTo = from + direction * (Math.min((strip + 1) * stripSize, count) - 1);
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return scanStrip(stripFrom, stripTo, direction, acrossMin, acrossMax, columns);
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                final int found = getResult(future);
+                if (found >= 0) {
+                    cancel(futures);
+                    return found;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private int scanStrip(int from, int to, int direction, int acrossMin, int acrossMax, boolean columns) {
+        final int along = Math.abs(to - from) + 1;
+        final int across = acrossMax - acrossMin + 1;
+        final Rectangle rectangle;
+        if (columns) {
+            rectangle = new Rectangle(Math.min(from, to), acrossMin, along, across);
+        } else {
+            rectangle = new Rectangle(acrossMin, Math.min(from, to), across, along);
+        }
+        final Raster raster = mask.getData(rectangle);
+        final int[] samples = new int[across];
+        for (int line = from; line != to + direction; line += direction) {
+            if (columns) {
+                raster.getSamples(line, acrossMin, 1, across, 0, samples);
+            } else {
+                raster.getSamples(acrossMin, line, across, 1, 0, samples);
+            }
+            for (int sample : samples) {
+                if (sample != 0) {
+                    return line;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static synchronized ForkJoinPool getSharedPool() {
+        if (sharedPool == null) {
+            sharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return sharedPool;
+    }
+
+    private static int getResult(Future<Integer> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperatorException("Interrupted while scanning the valid pixels.", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new OperatorException(cause.getMessage(), cause);
+        }
+    }
+
+    private static void cancel(List<Future<Integer>> futures) {
+        for (Future<Integer> future : futures) {
+            future.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.esa.beam.synergy.operators;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+import junit.framework.TestCase;
+import org.esa.beam.framework.datamodel.CrsGeoCoding;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.gpf.OperatorException;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+
+import java.awt.Rectangle;
+
+public class CreateSynergyOpTest extends TestCase {
+
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 80;
+
+    private Product product;
+
+    protected void setUp() throws Exception {
+        product = new Product("MERIS", "MER_RR__1P", WIDTH, HEIGHT);
+        // pixels of 0.01 degrees from 10E, 50N
+        product.setGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, WIDTH, HEIGHT, 10.0, 50.0, 0.01, 0.01));
+    }
+
+    public void testPixelRegion() {
+        final Rectangle region = new Rectangle(20, 10, 30, 15);
+        assertEquals(region, CreateSynergyOp.findRegion(product, region, null, 0));
+        assertEquals(new Rectangle(15, 5, 40, 25), CreateSynergyOp.findRegion(product, region, null, 5));
+        // not modified
+        assertEquals(new Rectangle(20, 10, 30, 15), region);
+    }
+
+    public void testPixelRegionClipped() {
+        assertEquals(new Rectangle(85, 65, 15, 15),
+                     CreateSynergyOp.findRegion(product, new Rectangle(90, 70, 20, 20), null, 5));
+        assertEquals(new Rectangle(0, 0, 12, 9),
+                     CreateSynergyOp.findRegion(product, new Rectangle(-3, -2, 10, 6), null, 5));
+        // the border alone reaches the scene
+        assertEquals(new Rectangle(97, 0, 3, 4),
+                     CreateSynergyOp.findRegion(product, new Rectangle(102, -4, 3, 3), null, 5));
+    }
+
+    public void testGeoRegion() throws Exception {
+        final Geometry geoRegion = new WKTReader().read("POLYGON((10.2 49.8, 10.5 49.8, 10.5 49.6, 10.2 49.6, " +
+                                                        "10.2 49.8))");
+        final Rectangle rect = CreateSynergyOp.findRegion(product, null, geoRegion, 0);
+        assertRegion(20, 20, 50, 40, rect);
+        assertEquals(new Rectangle(rect.x - 4, rect.y - 4, rect.width + 8, rect.height + 8),
+                     CreateSynergyOp.findRegion(product, null, geoRegion, 4));
+        // used instead of the pixel region
+        assertEquals(rect, CreateSynergyOp.findRegion(product, new Rectangle(0, 0, 5, 5), geoRegion, 0));
+    }
+
+    public void testGeoRegionClipped() throws Exception {
+        final Geometry geoRegion = new WKTReader().read("POLYGON((9.5 50.5, 10.3 50.5, 10.3 49.9, 9.5 49.9, " +
+                                                        "9.5 50.5))");
+        final Rectangle rect = CreateSynergyOp.findRegion(product, null, geoRegion, 3);
+        assertEquals(0, rect.x);
+        assertEquals(0, rect.y);
+        assertRegion(0, 0, 33, 13, rect);
+    }
+
+    public void testEmptyIntersection() throws Exception {
+        try {
+            CreateSynergyOp.findRegion(product, new Rectangle(110, 20, 10, 10), null, 5);
+            fail();
+        } catch (OperatorException expected) {
+        }
+        final Geometry geoRegion = new WKTReader().read("POLYGON((20 40, 21 40, 21 39, 20 39, 20 40))");
+        try {
+            CreateSynergyOp.findRegion(product, null, geoRegion, 5);
+            fail();
+        } catch (OperatorException expected) {
+        }
+    }
+
+    // the pixel bounds of a geographical region are known up to a pixel
+    private static void assertRegion(int minX, int minY, int maxX, int maxY, Rectangle rect) {
+        assertEquals(minX, rect.x, 1);
+        assertEquals(minY, rect.y, 1);
+        assertEquals(maxX, rect.x + rect.width, 1);
+        assertEquals(maxY, rect.y + rect.height, 1);
+    }
+}
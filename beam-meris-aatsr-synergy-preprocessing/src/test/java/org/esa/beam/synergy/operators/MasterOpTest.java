@@ -39,4 +39,29 @@ public class MasterOpTest
     public void testIsAuxdataAvailable() {
         assertTrue(SynergyUtils.validateAuxdata(false, null));
     }
+
+    public void testRegionBorder() {
+        final MasterOp op = new MasterOp();
+        op.aveBlock = 7;
+        final int cloudBorder = ClassifyFeaturesOp.getHaloSize(false);
+        assertEquals(0, op.getRegionBorder());
+
+        op.createCloudScreeningProduct = true;
+        assertEquals(cloudBorder, op.getRegionBorder());
+        op.computeSH = true;
+        assertEquals(ClassifyFeaturesOp.getHaloSize(true), op.getRegionBorder());
+        assertTrue(op.getRegionBorder() > cloudBorder);
+        op.computeSH = false;
+
+        // the aerosol retrieval works on the cloud screening product
+        op.createCloudScreeningProduct = false;
+        op.createAerosolProduct = true;
+        assertEquals(2 * 7 + cloudBorder, op.getRegionBorder());
+        // (AotExtrapOp halo + 2) x aveBlock
+        op.computeLand = true;
+        assertEquals((61 + 2) * 7 + cloudBorder, op.getRegionBorder());
+        // an even box size is the next odd one
+        op.aveBlock = 6;
+        assertEquals((61 + 2) * 7 + cloudBorder, op.getRegionBorder());
+    }
 }
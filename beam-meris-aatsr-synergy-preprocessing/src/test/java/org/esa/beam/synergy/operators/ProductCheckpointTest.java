@@ -0,0 +1,125 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ProductCheckpointTest extends TestCase {
+
+    private File checkpointDir;
+    private Product product;
+
+    protected void setUp() throws IOException {
+        checkpointDir = File.createTempFile("checkpoints", "");
+        assertTrue(checkpointDir.delete());
+        product = createProduct("MER_RR__1P");
+    }
+
+    protected void tearDown() {
+        ProductCheckpoint.resetCodeVersion();
+        product.dispose();
+        deleteTree(checkpointDir);
+    }
+
+    public void testKeyIndependentOfParameterOrder() {
+        final Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+        parameters.put("computeSF", true);
+        parameters.put("computeSH", false);
+        parameters.put("bandNamePrefixes", new String[]{"reflectance", "btemp"});
+        final Map<String, Object> reversed = new LinkedHashMap<String, Object>();
+        reversed.put("bandNamePrefixes", new String[]{"reflectance", "btemp"});
+        reversed.put("computeSH", false);
+        reversed.put("computeSF", true);
+        assertEquals(ProductCheckpoint.createKey("cloudScreening", parameters, product),
+                     ProductCheckpoint.createKey("cloudScreening", reversed, product));
+    }
+
+    public void testKeyChangesWithInputs() {
+        final Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("computeSH", false);
+        final String key = ProductCheckpoint.createKey("cloudScreening", parameters, product);
+        assertTrue(key.startsWith("cloudScreening_"));
+
+        final Map<String, Object> changed = new HashMap<String, Object>(parameters);
+        changed.put("computeSH", true);
+        assertFalse(key.equals(ProductCheckpoint.createKey("cloudScreening", changed, product)));
+        changed.remove("computeSH");
+        assertFalse(key.equals(ProductCheckpoint.createKey("cloudScreening", changed, product)));
+
+        final Map<String, Object> arrays = new HashMap<String, Object>();
+        arrays.put("bandNamePrefixes", new String[]{"reflectance"});
+        final Map<String, Object> otherArrays = new HashMap<String, Object>();
+        otherArrays.put("bandNamePrefixes", new String[]{"btemp"});
+        assertFalse(ProductCheckpoint.createKey("preprocessing", arrays, product).equals(
+                ProductCheckpoint.createKey("preprocessing", otherArrays, product)));
+
+        assertFalse(key.equals(ProductCheckpoint.createKey("preprocessing", parameters, product)));
+        final Product otherProduct = createProduct("MER_FR__1P");
+        assertFalse(key.equals(ProductCheckpoint.createKey("cloudScreening", parameters, otherProduct)));
+        otherProduct.dispose();
+        assertFalse(key.equals(ProductCheckpoint.createKey("cloudScreening", parameters, "preprocessing_00")));
+        assertFalse(key.equals(ProductCheckpoint.createKey("cloudScreening", parameters, product, product)));
+    }
+
+    public void testReuseNeedsCompleteMarker() {
+        final String key = ProductCheckpoint.createKey("preprocessing", new HashMap<String, Object>(), product);
+        assertNull(ProductCheckpoint.read(checkpointDir, key));
+
+        final Product written = ProductCheckpoint.write(createProduct("MER_RR__1P"), checkpointDir, key);
+        assertNotNull(written);
+        assertNotNull(written.getBand("reflec_1"));
+        written.dispose();
+        final Product reused = ProductCheckpoint.read(checkpointDir, key);
+        assertNotNull(reused);
+        assertEquals(product.getSceneRasterWidth(), reused.getSceneRasterWidth());
+        reused.dispose();
+
+        // a checkpoint without marker, e.g. from an interrupted run
+        assertTrue(new File(checkpointDir, key + ".complete").delete());
+        assertTrue(new File(checkpointDir, key + ".dim").isFile());
+        assertNull(ProductCheckpoint.read(checkpointDir, key));
+    }
+
+    public void testUnknownCodeVersionNotReused() {
+        ProductCheckpoint.setCodeVersion(null);
+        assertFalse(ProductCheckpoint.isAvailable());
+        final String key = ProductCheckpoint.createKey("preprocessing", new HashMap<String, Object>(), product);
+        ProductCheckpoint.write(createProduct("MER_RR__1P"), checkpointDir, key).dispose();
+        assertTrue(new File(checkpointDir, key + ".complete").isFile());
+        assertNull(ProductCheckpoint.read(checkpointDir, key));
+
+        // a complete checkpoint of the same key, e.g. written by other code, is overwritten
+        final Product written = ProductCheckpoint.write(createProduct("MER_FR__1P"), checkpointDir, key);
+        assertEquals("MER_FR__1P", written.getName());
+        written.dispose();
+
+        ProductCheckpoint.setCodeVersion("0123");
+        assertTrue(ProductCheckpoint.isAvailable());
+    }
+
+    private static Product createProduct(String name) {
+        final Product product = new Product(name, "MER_RR__1P", 11, 7);
+        final float[] data = new float[11 * 7];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 0.01f * i;
+        }
+        product.addBand("reflec_1", ProductData.TYPE_FLOAT32).setDataElems(data);
+        return product;
+    }
+
+    private static void deleteTree(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,112 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+import org.esa.beam.dataio.envisat.EnvisatConstants;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.synergy.util.SynergyUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RequiredBandsTest extends TestCase {
+
+    private static final String[] AATSR_VIEWS = {"nadir", "fward"};
+    private static final String[] AATSR_REFLEC_WAVELENGTHS = {"0550", "0670", "0870", "1600"};
+    private static final String[] AATSR_BTEMP_WAVELENGTHS = {"0370", "1100", "1200"};
+
+    private Product merisProduct;
+    private Product aatsrProduct;
+
+    protected void setUp() {
+        merisProduct = new Product("MERIS", "MER_RR__1P", 10, 10);
+        for (String bandName : EnvisatConstants.MERIS_L1B_SPECTRAL_BAND_NAMES) {
+            merisProduct.addBand(bandName, ProductData.TYPE_UINT16);
+        }
+        merisProduct.addBand(EnvisatConstants.MERIS_DETECTOR_INDEX_DS_NAME, ProductData.TYPE_INT16);
+        aatsrProduct = new Product("AATSR", "ATS_TOA_1P", 10, 10);
+        for (String view : AATSR_VIEWS) {
+            for (String wavelength : AATSR_REFLEC_WAVELENGTHS) {
+                aatsrProduct.addBand("reflec_" + view + "_" + wavelength, ProductData.TYPE_INT16);
+            }
+            for (String wavelength : AATSR_BTEMP_WAVELENGTHS) {
+                aatsrProduct.addBand("btemp_" + view + "_" + wavelength, ProductData.TYPE_INT16);
+            }
+        }
+    }
+
+    public void testCloudScreeningBandsCreated() {
+        final String[] prefixes = MasterOp.getRequiredBandPrefixes(false);
+        assertMerisBandsCreated(getCloudScreeningMerisBands(), prefixes);
+        assertAatsrBandsCreated(getAatsrBands(), prefixes);
+    }
+
+    public void testAerosolRetrievalBandsCreated() {
+        final String[] prefixes = MasterOp.getRequiredBandPrefixes(true);
+        final List<String> merisBands = getCloudScreeningMerisBands();
+        for (int i = 1; i <= EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS; i++) {
+            merisBands.add("reflectance_" + i);
+        }
+        merisBands.add("radiance_13");
+        merisBands.add("radiance_14");
+        merisBands.add("radiance_15");
+        assertMerisBandsCreated(merisBands, prefixes);
+        assertAatsrBandsCreated(getAatsrBands(), prefixes);
+    }
+
+    public void testConversionsSkippedWithoutReflectances() {
+        final String[] prefixes = {"radiance", "btemp"};
+        assertFalse(CreateMerisOp.isReflectanceRequired(merisProduct, prefixes));
+        assertFalse(CreateAatsrOp.isReflectanceRequired(aatsrProduct, prefixes));
+        assertTrue(CreateMerisOp.isReflectanceRequired(merisProduct, new String[]{"reflectance_7"}));
+        assertTrue(CreateAatsrOp.isReflectanceRequired(aatsrProduct, new String[]{"reflec_fward"}));
+        // not pruned
+        assertTrue(CreateMerisOp.isReflectanceRequired(merisProduct, null));
+        assertTrue(CreateAatsrOp.isReflectanceRequired(aatsrProduct, null));
+    }
+
+    private void assertMerisBandsCreated(List<String> bandNames, String[] prefixes) {
+        for (String bandName : bandNames) {
+            assertTrue(bandName, SynergyUtils.hasNamePrefix(bandName, prefixes));
+            if (bandName.startsWith("reflectance")) {
+                assertTrue(bandName, CreateMerisOp.isReflectanceRequired(merisProduct, prefixes));
+            } else {
+                assertNotNull(bandName, merisProduct.getBand(bandName));
+            }
+        }
+    }
+
+    private void assertAatsrBandsCreated(List<String> bandNames, String[] prefixes) {
+        for (String bandName : bandNames) {
+            assertTrue(bandName, SynergyUtils.hasNamePrefix(bandName, prefixes));
+            if (bandName.startsWith("reflec")) {
+                assertTrue(bandName, CreateAatsrOp.isReflectanceRequired(aatsrProduct, prefixes));
+            }
+        }
+    }
+
+    // the MERIS bands read by ExtractFeaturesOp and ClassifyFeaturesNNOp
+    private static List<String> getCloudScreeningMerisBands() {
+        final List<String> bandNames = new ArrayList<String>();
+        for (int i = 1; i <= EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS; i++) {
+            bandNames.add("reflectance_" + i);
+            bandNames.add("radiance_" + i);
+        }
+        bandNames.add(EnvisatConstants.MERIS_DETECTOR_INDEX_DS_NAME);
+        return bandNames;
+    }
+
+    // the AATSR bands read by the cloud screening and the aerosol retrieval, all reflectances and temperatures
+    private static List<String> getAatsrBands() {
+        final List<String> bandNames = new ArrayList<String>();
+        for (String view : AATSR_VIEWS) {
+            for (String wavelength : AATSR_REFLEC_WAVELENGTHS) {
+                bandNames.add("reflec_" + view + "_" + wavelength);
+            }
+            for (String wavelength : AATSR_BTEMP_WAVELENGTHS) {
+                bandNames.add("btemp_" + view + "_" + wavelength);
+            }
+        }
+        return bandNames;
+    }
+}
@@ -0,0 +1,131 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+import org.esa.beam.collocation.CollocateOp;
+import org.esa.beam.framework.datamodel.GeoCoding;
+import org.esa.beam.framework.datamodel.PixelPos;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.datamodel.TiePointGeoCoding;
+import org.esa.beam.framework.datamodel.TiePointGrid;
+
+import java.awt.image.Raster;
+
+public class SynergyCollocateOpTest extends TestCase {
+
+    private static final int MERIS_WIDTH = 97;
+    private static final int MERIS_HEIGHT = 83;
+    private static final int AATSR_WIDTH = 121;
+    private static final int AATSR_HEIGHT = 105;
+
+    private Product merisProduct;
+
+    protected void setUp() {
+        merisProduct = new Product("MER_RR__1P", "MER_RR__1P", MERIS_WIDTH, MERIS_HEIGHT);
+        merisProduct.addBand("reflec_1", ProductData.TYPE_FLOAT32);
+        addGeoCoding(merisProduct, 16, 1.2, 0.0, 0.0);
+    }
+
+    protected void tearDown() {
+        merisProduct.dispose();
+    }
+
+    public void testSameAsCollocateOp() {
+        // two AATSR products of the same name and size, the second one shifted, so that a mapping
+        // cached for the first one must not be reused for the second one
+        final double[] shifts = {0.0, 0.05};
+        for (double shift : shifts) {
+            final Product aatsrProduct = createAatsrProduct(shift);
+            final GeoCoding merisGeoCoding = merisProduct.getGeoCoding();
+            final GeoCoding aatsrGeoCoding = aatsrProduct.getGeoCoding();
+
+            final SynergyCollocateOp synergyCollocateOp = new SynergyCollocateOp();
+            synergyCollocateOp.setSourceProduct("masterProduct", merisProduct);
+            synergyCollocateOp.setSourceProduct("slaveProduct", aatsrProduct);
+            final Raster actual = getPixelIndexBand(synergyCollocateOp.getTargetProduct());
+
+            final CollocateOp collocateOp = new CollocateOp();
+            collocateOp.setMasterProduct(merisProduct);
+            collocateOp.setSlaveProduct(aatsrProduct);
+            final Raster expected = getPixelIndexBand(collocateOp.getTargetProduct());
+
+            int collocatedCount = 0;
+            for (int y = 0; y < MERIS_HEIGHT; y++) {
+                for (int x = 0; x < MERIS_WIDTH; x++) {
+                    final int expectedIndex = getPixelIndex(expected, x, y);
+                    final int actualIndex = getPixelIndex(actual, x, y);
+                    if (expectedIndex == actualIndex) {
+                        if (expectedIndex >= 0) {
+                            collocatedCount++;
+                        }
+                        continue;
+                    }
+                    // nearest neighbours may differ only within the interpolation error of a pixel border
+                    final PixelPos exact = aatsrGeoCoding.getPixelPos(
+                            merisGeoCoding.getGeoPos(new PixelPos(x + 0.5f, y + 0.5f), null), null);
+                    final String message = "shift " + shift + " at " + x + "," + y;
+                    assertTrue(message, isNearPixelBorder(exact.x) || isNearPixelBorder(exact.y));
+                    if (expectedIndex >= 0 && actualIndex >= 0) {
+                        assertTrue(message, Math.abs(expectedIndex % AATSR_WIDTH - actualIndex % AATSR_WIDTH) <= 1);
+                        assertTrue(message, Math.abs(expectedIndex / AATSR_WIDTH - actualIndex / AATSR_WIDTH) <= 1);
+                    }
+                }
+            }
+            // the AATSR swath covers most of the MERIS scene
+            assertTrue(collocatedCount > MERIS_WIDTH * MERIS_HEIGHT / 2);
+            aatsrProduct.dispose();
+        }
+    }
+
+    // a band holding the AATSR pixel index + 1, 0 outside the AATSR raster
+    private static Product createAatsrProduct(double shift) {
+        final Product product = new Product("ATS_TOA_1P", "ATS_TOA_1P", AATSR_WIDTH, AATSR_HEIGHT);
+        final float[] data = new float[AATSR_WIDTH * AATSR_HEIGHT];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i + 1;
+        }
+        product.addBand("pixel_index", ProductData.TYPE_FLOAT32).setDataElems(data);
+        addGeoCoding(product, 8, 1.0, 0.2 + shift, 0.15);
+        return product;
+    }
+
+    // a skewed, curved grid of pixels of the given size (km), rotated by 5 degrees, offset (degrees)
+    private static void addGeoCoding(Product product, int subSampling, double pixelSize, double latOffset,
+                                     double lonOffset) {
+        final int gridWidth = (product.getSceneRasterWidth() + subSampling - 1) / subSampling + 1;
+        final int gridHeight = (product.getSceneRasterHeight() + subSampling - 1) / subSampling + 1;
+        final float[] lats = new float[gridWidth * gridHeight];
+        final float[] lons = new float[gridWidth * gridHeight];
+        final double cos = Math.cos(Math.toRadians(5.0));
+        final double sin = Math.sin(Math.toRadians(5.0));
+        for (int j = 0; j < gridHeight; j++) {
+            for (int i = 0; i < gridWidth; i++) {
+                final double x = pixelSize * (i * subSampling + 0.5);
+                final double y = pixelSize * (j * subSampling + 0.5);
+                lats[j * gridWidth + i] = (float) (52.0 + latOffset - 0.009 * (cos * y + sin * x) + 1.0e-6 * x * x);
+                lons[j * gridWidth + i] = (float) (8.0 + lonOffset + 0.0146 * (cos * x - sin * y) - 1.5e-6 * y * y);
+            }
+        }
+        final TiePointGrid latGrid = new TiePointGrid("latitude", gridWidth, gridHeight, 0.5f, 0.5f,
+                                                      subSampling, subSampling, lats);
+        final TiePointGrid lonGrid = new TiePointGrid("longitude", gridWidth, gridHeight, 0.5f, 0.5f,
+                                                      subSampling, subSampling, lons);
+        product.addTiePointGrid(latGrid);
+        product.addTiePointGrid(lonGrid);
+        product.setGeoCoding(new TiePointGeoCoding(latGrid, lonGrid));
+    }
+
+    private static Raster getPixelIndexBand(Product collocatedProduct) {
+        return collocatedProduct.getBand("pixel_index_S").getSourceImage().getData();
+    }
+
+    // AATSR pixel index, -1 if not collocated
+    private static int getPixelIndex(Raster raster, int x, int y) {
+        final double value = raster.getSampleDouble(x, y, 0);
+        return value >= 1 ? (int) value - 1 : -1;
+    }
+
+    private static boolean isNearPixelBorder(float p) {
+        return Math.abs(p - Math.round(p)) <= SynergyCollocateOp.MAX_PIXEL_ERROR;
+    }
+}
@@ -0,0 +1,114 @@
+package org.esa.beam.synergy.operators;
+
+import junit.framework.TestCase;
+
+import javax.media.jai.TiledImage;
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ValidExtentScannerTest extends TestCase {
+
+    // several tiles in both directions, the last ones cut
+    private static final int WIDTH = 75;
+    private static final int HEIGHT = 58;
+    private static final int TILE_SIZE = 16;
+
+    private ExecutorService executor;
+
+    protected void setUp() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    protected void tearDown() {
+        executor.shutdownNow();
+    }
+
+    public void testEmptyMask() {
+        final TiledImage mask = createMask();
+        assertNull(new ValidExtentScanner(mask).scan());
+        assertNull(new ValidExtentScanner(mask, executor, 2).scan());
+    }
+
+    public void testSinglePixels() {
+        final int[][] positions = {
+                {0, 0}, {WIDTH - 1, 0}, {0, HEIGHT - 1}, {WIDTH - 1, HEIGHT - 1},
+                {TILE_SIZE - 1, TILE_SIZE}, {TILE_SIZE, TILE_SIZE - 1}, {37, 29}
+        };
+        for (int[] position : positions) {
+            final TiledImage mask = createMask();
+            mask.setSample(position[0], position[1], 0, 1);
+            assertSameAsSerialScan(mask);
+        }
+    }
+
+    public void testRandomRegions() {
+        final Random random = new Random(5);
+        for (int n = 0; n < 50; n++) {
+            final TiledImage mask = createMask();
+            // a region of valid pixels and some scattered ones
+            final int x0 = random.nextInt(WIDTH);
+            final int y0 = random.nextInt(HEIGHT);
+            final int x1 = x0 + random.nextInt(WIDTH - x0);
+            final int y1 = y0 + random.nextInt(HEIGHT - y0);
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    mask.setSample(x, y, 0, random.nextInt(3) == 0 ? 0 : 1);
+                }
+            }
+            for (int i = random.nextInt(4); i > 0; i--) {
+                mask.setSample(random.nextInt(WIDTH), random.nextInt(HEIGHT), 0, 1);
+            }
+            assertSameAsSerialScan(mask);
+        }
+    }
+
+    private void assertSameAsSerialScan(RenderedImage mask) {
+        final Rectangle expected = getSerialExtent(mask);
+        // one strip at a time, several strips and the shared pool
+        assertEquals(expected, new ValidExtentScanner(mask, executor, 1).scan());
+        assertEquals(expected, new ValidExtentScanner(mask, executor, 4).scan());
+        assertEquals(expected, new ValidExtentScanner(mask).scan());
+    }
+
+    private static TiledImage createMask() {
+        return new TiledImage(0, 0, WIDTH, HEIGHT, 0, 0,
+                              new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, TILE_SIZE, TILE_SIZE, 1,
+                                                              TILE_SIZE, new int[]{0}), null);
+    }
+
+    /**
+     * The scan of CreateSynergyOp.findLimits before {@link ValidExtentScanner}, over all pixels.
+     */
+    private static Rectangle getSerialExtent(RenderedImage mask) {
+        final Raster raster = mask.getData();
+        final Rectangle limits = new Rectangle(WIDTH, HEIGHT, 0, 0);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (raster.getSample(x, y, 0) != 0) {
+                    if (limits.x > x) {
+                        limits.x = x;
+                    }
+                    if (limits.y > y) {
+                        limits.y = y;
+                    }
+                    if (limits.width < x) {
+                        limits.width = x;
+                    }
+                    if (limits.height < y) {
+                        limits.height = y;
+                    }
+                }
+            }
+        }
+        if (limits.x > limits.width) {
+            return null;
+        }
+        return new Rectangle(limits.x, limits.y, limits.width - limits.x + 1, limits.height - limits.y + 1);
+    }
+}